@@ -3,36 +3,34 @@ package com.example.fileuploadtester.test;
 import com.dsi.storage.core.StorageService;
 import com.dsi.storage.dto.FileData;
 import com.dsi.storage.exception.StorageException;
-import jakarta.servlet.ServletContext;
 import jakarta.servlet.http.HttpServletResponse;
-import org.apache.commons.io.IOUtils;
 import org.apache.tika.mime.MimeTypes;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.InputStreamResource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
-
-
-import org.springframework.core.io.Resource;
-import org.springframework.http.HttpStatus;
-
-import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 
 @Controller
 public class TestController {
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d{1,18})-(\\d{0,18})");
+
     private final StorageService storageService = new StorageService();
 
     @GetMapping("/")
@@ -44,15 +42,9 @@ public class TestController {
     }
 
     @GetMapping("/download")
-    public ResponseEntity<Resource> downloadFile(@RequestParam String filePath) throws Exception {
-        FileData fileData = storageService.download(filePath);
-        InputStream inputStream = fileData.inputStream();
-        if (inputStream == null) {
-            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(null);
-        }
-
-        byte[] bytes = inputStream.readAllBytes();
-        InputStreamResource resource = new InputStreamResource(new ByteArrayInputStream(bytes));
+    public ResponseEntity<StreamingResponseBody> downloadFile(@RequestParam String filePath,
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range) throws Exception {
+        FileData fileData = download(filePath, range);
         MimeTypes mimeTypes = MimeTypes.getDefaultMimeTypes();
         MediaType mediaType = MediaType.parseMediaType(fileData.contentType());
         String fileExtension = mimeTypes.forName(mediaType.toString()).getExtension();
@@ -65,25 +57,63 @@ public class TestController {
         HttpHeaders headers = new HttpHeaders();
         headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + fileName + "\"");
         headers.add(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM_VALUE);
+        if (fileData.size() >= 0) {
+            headers.setContentLength(fileData.size());
+        }
+        if (fileData.etag() != null) {
+            headers.setETag("\"" + fileData.etag() + "\"");
+        }
+        if (fileData.lastModified() != null) {
+            headers.setLastModified(fileData.lastModified());
+        }
+        headers.add(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (fileData.isPartial()) {
+            headers.add(HttpHeaders.CONTENT_RANGE, fileData.contentRange());
+        }
 
-        return ResponseEntity.ok()
+        // The file is streamed to the response with constant memory, whatever its size
+        return ResponseEntity.status(fileData.isPartial() ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
                 .headers(headers)
-                .contentLength(bytes.length)
-                .body(resource);
+                .body(fileData::transferTo);
+    }
+
+    /**
+     * Redirects to a presigned URL, so the file is sent by the storage backend instead of passing through this application.
+     */
+    @GetMapping("/download-direct")
+    public ResponseEntity<Void> downloadFileDirect(@RequestParam String filePath) throws StorageException {
+        String url = storageService.presignDownload(filePath, Duration.ofMinutes(15));
+        return ResponseEntity.status(HttpStatus.FOUND).location(URI.create(url)).build();
+    }
+
+    /**
+     * Answers "bytes=start-end" and "bytes=start-" ranges with only the requested bytes, e.g. when a video player seeks.
+     * Other ranges are answered with the whole file, which HTTP allows.
+     */
+    private FileData download(String filePath, String range) throws StorageException {
+        Matcher matcher = (range != null) ? RANGE.matcher(range) : null;
+        if (matcher == null || !matcher.matches()) {
+            return storageService.download(filePath);
+        }
+        long start = Long.parseLong(matcher.group(1));
+        long length = matcher.group(2).isEmpty() ? -1 : Long.parseLong(matcher.group(2)) - start + 1;
+        return (length == -1 || length > 0) ? storageService.download(filePath, start, length) : storageService.download(filePath);
     }
 
     @GetMapping("/image-manual-response")
     public void getImageAsByteArray(HttpServletResponse response) throws IOException, StorageException {
         FileData fileData = storageService.download("bucketname/nested/folder/image.png");
-        InputStream in = fileData.inputStream();
         response.setContentType(fileData.contentType());
-        IOUtils.copy(in, response.getOutputStream());
+        if (fileData.size() >= 0) {
+            response.setContentLengthLong(fileData.size());
+        }
+        fileData.transferTo(response.getOutputStream());
     }
 
 
     @PostMapping("/")
     public String handleFileUpload(@RequestParam("file") MultipartFile file, RedirectAttributes redirectAttributes) throws IOException, StorageException {
         String bucket = "testsssc";
-        return "redirect:/?filePath=" + storageService.upload(bucket, file.getInputStream(), file.getContentType());
+        return "redirect:/?filePath=" + storageService.upload(bucket, file.getInputStream(), file.getSize(), file.getContentType());
     }
 }
\ No newline at end of file
@@ -38,7 +38,7 @@ public class FileUploadBean implements Serializable {
     public void upload() {
         if (file != null) {
             try (InputStream inputStream = file.getInputStream()) {
-                filepath = storageService.upload("random/for/test", inputStream, file.getContentType());
+                filepath = storageService.upload("random/for/test", inputStream, file.getSize(), file.getContentType());
             } catch (IOException e) {
                 System.err.println("Error uploading file: " + file.getFileName());
                 e.printStackTrace();
@@ -58,9 +58,6 @@ public class FileUploadBean implements Serializable {
 
             try {
                 FileData fileData = storageService.download(filepath);
-                InputStream inputStream = fileData.inputStream();
-
-
 
                 MimeTypes mimeTypes = MimeTypes.getDefaultMimeTypes();
                 MediaType mediaType = MediaType.parse(fileData.contentType());
@@ -72,14 +69,13 @@ public class FileUploadBean implements Serializable {
 
                 externalContext.setResponseContentType(fileData.contentType());
                 externalContext.setResponseHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
+                if (fileData.size() >= 0) {
+                    externalContext.setResponseHeader("Content-Length", Long.toString(fileData.size()));
+                }
 
-                // Write the file content to the response output stream
+                // Stream the file content to the response with constant memory, whatever its size
                 OutputStream outputStream = externalContext.getResponseOutputStream();
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                }
+                fileData.transferTo(outputStream);
                 outputStream.flush();
 
                 // Complete the response to prevent JSF from continuing to render the view
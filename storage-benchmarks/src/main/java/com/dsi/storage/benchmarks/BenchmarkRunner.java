@@ -0,0 +1,41 @@
+package com.dsi.storage.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Runs all benchmarks with the GC profiler at several concurrency levels and writes one JSON result file per level,
+ * e.g. results/threads-4.json, so the results of two releases can be compared file by file.
+ * Usage: java -cp target/benchmarks.jar com.dsi.storage.benchmarks.BenchmarkRunner [results directory]
+ */
+public class BenchmarkRunner {
+    private static final int[] THREADS = {1, 4, 16};
+    // 1 GB round trips hold a full copy of the file per thread, so they only run single-threaded
+    private static final String[] CONCURRENT_SIZES = {"1024", "65536", "1048576", "67108864"};
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        Path resultsDir = Path.of(args.length > 0 ? args[0] : "results");
+        Files.createDirectories(resultsDir);
+
+        for (int threads : THREADS) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                    .include(BenchmarkRunner.class.getPackageName() + ".*Benchmark")
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(resultsDir.resolve("threads-" + threads + ".json").toString());
+            if (threads > 1) {
+                options.param("size", CONCURRENT_SIZES);
+            }
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.dsi.storage.benchmarks;
+
+import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.util.PathUtil;
+import com.dsi.storage.util.StoragePath;
+import com.dsi.storage.util.ValidationUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the path parsing and validation done on every upload and download.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PathBenchmark {
+
+    @Param({"random/for/test", "//my-bucket//folder1/folder2/folder3/", "tenant-42/images/2024/06/thumbnails"})
+    public String uploadPath;
+
+    private String downloadPath;
+    private String[] segments;
+
+    @Setup
+    public void setUp() throws StorageException {
+        downloadPath = uploadPath + "/6cbd360f-df93-48eb-901b-87e97a5ddb8e";
+        segments = PathUtil.splitPathForUpload(uploadPath);
+    }
+
+    @Benchmark
+    public String[] splitPathForUpload() throws StorageException {
+        return PathUtil.splitPathForUpload(uploadPath);
+    }
+
+    @Benchmark
+    public String[] splitPathForDownload() {
+        return PathUtil.splitPathForDownload(downloadPath);
+    }
+
+    @Benchmark
+    public StoragePath parseUploadPath() {
+        return StoragePath.ofUpload(uploadPath);
+    }
+
+    @Benchmark
+    public StoragePath parseDownloadPath() {
+        return StoragePath.ofDownload(downloadPath);
+    }
+
+    @Benchmark
+    public boolean isValidPath() {
+        return ValidationUtils.isValidPath(segments);
+    }
+
+    @Benchmark
+    public void isValidMinioBucketName(Blackhole blackhole) {
+        for (String segment : segments) {
+            blackhole.consume(ValidationUtils.isValidMinioBucketName(segment));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.dsi.storage.benchmarks;
+
+import java.io.InputStream;
+
+/**
+ * An InputStream of a given length repeating a fixed pattern, so benchmarks can upload large objects
+ * without allocating them up front.
+ */
+class PatternInputStream extends InputStream {
+    private static final byte[] PATTERN = new byte[64 * 1024];
+
+    static {
+        for (int i = 0; i < PATTERN.length; i++) {
+            PATTERN[i] = (byte) (i * 31);
+        }
+    }
+
+    private long remaining;
+
+    PatternInputStream(long length) {
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() {
+        if (remaining == 0) {
+            return -1;
+        }
+        remaining--;
+        return PATTERN[(int) (remaining % PATTERN.length)] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (remaining == 0) {
+            return -1;
+        }
+        int count = (int) Math.min(Math.min(length, remaining), PATTERN.length);
+        System.arraycopy(PATTERN, 0, bytes, offset, count);
+        remaining -= count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,62 @@
+package com.dsi.storage.benchmarks;
+
+import com.dsi.storage.client.memory.InMemoryStorageService;
+import com.dsi.storage.concurrent.StorageExecutor;
+import com.dsi.storage.core.StorageService;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.exception.StorageException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks a full StorageService upload followed by a download of the same file,
+ * against the in-memory backend so the library's own overhead is measured without any network.
+ * The MinIO client path (HTTP, bucket checks, multipart uploads) is not covered; see the Benchmarks section of the readme.
+ * Each benchmark thread has its own store, which is emptied after every round trip.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class RoundTripBenchmark {
+
+    @Param({"1024", "65536", "1048576", "67108864", "1073741824"})
+    public long size;
+
+    private InMemoryStorageService store;
+    private StorageService storageService;
+
+    @Setup
+    public void setUp() {
+        store = new InMemoryStorageService(size + 1024 * 1024);
+        storageService = new StorageService(store, StorageExecutor.shared(), 16);
+    }
+
+    @Benchmark
+    public long uploadAndDownload() throws StorageException, IOException {
+        String path = storageService.upload("random/for/test", new PatternInputStream(size), size, "application/octet-stream");
+        FileData data = storageService.download(path);
+        long transferred;
+        try (InputStream in = data.inputStream()) {
+            transferred = in.transferTo(OutputStream.nullOutputStream());
+        }
+        store.clear();
+        return transferred;
+    }
+}
@@ -0,0 +1,206 @@
+package com.dsi.storage.buffer;
+
+import com.dsi.storage.exception.StorageException;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * BufferPool hands out reusable buffers for multipart upload parts, so uploads do not allocate
+ * a fresh part-sized array for every part.
+ * Buffers are grouped in size classes of whole MiB. The total size of all buffers never exceeds the capacity:
+ * when the pool is exhausted, callers wait up to the configured time for a buffer to be released and then fail.
+ * Idle buffers of other size classes are dropped to make room for a new size class.
+ */
+public class BufferPool {
+    private static final int SIZE_CLASS_GRANULARITY = 1024 * 1024;
+    private static final long DEFAULT_CAPACITY = 256L * 1024 * 1024; // 256 MB
+    private static final long DEFAULT_MAX_WAIT_MILLIS = 30000L;
+
+    private static volatile BufferPool shared;
+
+    private final long capacity;
+    private final long maxWaitNanos;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition bufferReleased = lock.newCondition();
+    private final Map<Integer, ArrayDeque<byte[]>> idleBuffers = new HashMap<>();
+    private long allocatedBytes;
+    private long inUseBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    /**
+     * @param capacity The maximum total size in bytes of all buffers of the pool.
+     * @param maxWait How long {@link #acquire} waits for a buffer when the pool is exhausted; zero fails immediately.
+     */
+    public BufferPool(long capacity, Duration maxWait) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Buffer pool capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.maxWaitNanos = Math.max(0, maxWait.toNanos());
+    }
+
+    /**
+     * Returns the process-wide BufferPool, configured through the environment:
+     * - STORAGE_BUFFER_POOL_SIZE: total size of the pool in bytes (default 256 MB).
+     * - STORAGE_BUFFER_POOL_WAIT: milliseconds to wait for a buffer when the pool is exhausted (default 30000, 0 fails fast).
+     */
+    public static BufferPool shared() {
+        BufferPool instance = shared;
+        if (instance == null) {
+            synchronized (BufferPool.class) {
+                instance = shared;
+                if (instance == null) {
+                    long capacity = (System.getenv("STORAGE_BUFFER_POOL_SIZE") != null)
+                            ? Long.parseLong(System.getenv("STORAGE_BUFFER_POOL_SIZE"))
+                            : DEFAULT_CAPACITY;
+                    long maxWaitMillis = (System.getenv("STORAGE_BUFFER_POOL_WAIT") != null)
+                            ? Long.parseLong(System.getenv("STORAGE_BUFFER_POOL_WAIT"))
+                            : DEFAULT_MAX_WAIT_MILLIS;
+                    instance = new BufferPool(capacity, Duration.ofMillis(maxWaitMillis));
+                    shared = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Takes a buffer of at least {@code minSize} bytes from the pool.
+     * The buffer must be given back by closing it.
+     * @throws StorageException If no buffer became available in time, or the size exceeds the pool capacity.
+     */
+    public PooledBuffer acquire(int minSize) throws StorageException {
+        int size = sizeClass(minSize);
+        if (size > capacity) {
+            throw new StorageException("A buffer of " + size + " bytes exceeds the buffer pool capacity of " + capacity + " bytes");
+        }
+
+        long deadline = System.nanoTime() + maxWaitNanos;
+        try {
+            lock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for an upload buffer", e);
+        }
+        try {
+            boolean waited = false;
+            while (true) {
+                ArrayDeque<byte[]> idle = idleBuffers.get(size);
+                byte[] buffer = (idle != null) ? idle.pollFirst() : null;
+                if (buffer != null) {
+                    hits.increment();
+                    inUseBytes += size;
+                    return new PooledBuffer(this, buffer);
+                }
+
+                if (allocatedBytes + size > capacity) {
+                    dropIdleBuffers(allocatedBytes + size - capacity);
+                }
+                if (allocatedBytes + size <= capacity) {
+                    misses.increment();
+                    allocatedBytes += size;
+                    inUseBytes += size;
+                    break;
+                }
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    timeouts.increment();
+                    throw new StorageException(String.format(
+                            "Buffer pool exhausted: no buffer of %d bytes became available within %d ms (%d of %d bytes in use)",
+                            size, TimeUnit.NANOSECONDS.toMillis(maxWaitNanos), inUseBytes, capacity));
+                }
+                if (!waited) {
+                    waits.increment();
+                    waited = true;
+                }
+                bufferReleased.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for an upload buffer", e);
+        } finally {
+            lock.unlock();
+        }
+
+        // The bytes are reserved, so the allocation itself can happen outside the lock
+        return new PooledBuffer(this, new byte[size]);
+    }
+
+    /**
+     * Returns true if buffers of the given size can be taken from the pool, i.e. their size class fits in the capacity.
+     * Components check their buffer sizes with it when they are created, rather than failing every acquire later.
+     */
+    public boolean fits(long size) {
+        if (size <= 0 || size > Integer.MAX_VALUE - 8) {
+            return false;
+        }
+        return sizeClass((int) size) <= capacity;
+    }
+
+    /**
+     * Returns a snapshot of the pool's usage counters.
+     */
+    public BufferPoolStats stats() {
+        lock.lock();
+        try {
+            int idleCount = 0;
+            for (ArrayDeque<byte[]> idle : idleBuffers.values()) {
+                idleCount += idle.size();
+            }
+            return new BufferPoolStats(capacity, allocatedBytes, inUseBytes, idleCount,
+                    hits.sum(), misses.sum(), waits.sum(), timeouts.sum());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(byte[] buffer) {
+        lock.lock();
+        try {
+            inUseBytes -= buffer.length;
+            idleBuffers.computeIfAbsent(buffer.length, ignored -> new ArrayDeque<>()).addFirst(buffer);
+            bufferReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops idle buffers until at least {@code bytes} bytes are freed or no idle buffers are left.
+     */
+    private void dropIdleBuffers(long bytes) {
+        long freed = 0;
+        Iterator<ArrayDeque<byte[]>> iterator = idleBuffers.values().iterator();
+        while (iterator.hasNext() && freed < bytes) {
+            ArrayDeque<byte[]> idle = iterator.next();
+            while (!idle.isEmpty() && freed < bytes) {
+                freed += idle.pollLast().length;
+            }
+            if (idle.isEmpty()) {
+                iterator.remove();
+            }
+        }
+        allocatedBytes -= freed;
+    }
+
+    private static int sizeClass(int minSize) {
+        if (minSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + minSize);
+        }
+        long size = ((long) minSize + SIZE_CLASS_GRANULARITY - 1) / SIZE_CLASS_GRANULARITY * SIZE_CLASS_GRANULARITY;
+        return (int) Math.min(size, Integer.MAX_VALUE - 8);
+    }
+}
@@ -0,0 +1,25 @@
+package com.dsi.storage.buffer;
+
+/**
+ * A snapshot of the usage counters of a {@link BufferPool}.
+ *
+ * @param capacityBytes The maximum total size of all buffers.
+ * @param allocatedBytes The total size of the buffers currently owned by the pool, in use or idle.
+ * @param inUseBytes The total size of the buffers currently borrowed.
+ * @param idleBuffers The number of buffers waiting to be reused.
+ * @param hits The number of requests served with a reused buffer.
+ * @param misses The number of requests that allocated a new buffer.
+ * @param waits The number of requests that had to wait because the pool was exhausted.
+ * @param timeouts The number of requests that failed because no buffer became available in time.
+ */
+public record BufferPoolStats(long capacityBytes, long allocatedBytes, long inUseBytes, int idleBuffers,
+                              long hits, long misses, long waits, long timeouts) {
+
+    /**
+     * Returns the share of requests served with a reused buffer, between 0 and 1.
+     */
+    public double hitRatio() {
+        long requests = hits + misses;
+        return requests == 0 ? 0.0 : (double) hits / requests;
+    }
+}
@@ -0,0 +1,43 @@
+package com.dsi.storage.buffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A buffer borrowed from a {@link BufferPool}. Closing it gives it back to the pool;
+ * the array must not be used afterwards.
+ */
+public class PooledBuffer implements AutoCloseable {
+    private final BufferPool pool;
+    private final byte[] array;
+    private boolean released;
+
+    PooledBuffer(BufferPool pool, byte[] array) {
+        this.pool = pool;
+        this.array = array;
+    }
+
+    public byte[] array() {
+        return array;
+    }
+
+    public int capacity() {
+        return array.length;
+    }
+
+    /**
+     * Reads from the stream into the start of the buffer until {@code length} bytes are read or the stream ends.
+     * @return The number of bytes read, less than {@code length} only at the end of the stream.
+     */
+    public int fill(InputStream in, int length) throws IOException {
+        return in.readNBytes(array, 0, Math.min(length, array.length));
+    }
+
+    @Override
+    public void close() {
+        if (!released) {
+            released = true;
+            pool.release(array);
+        }
+    }
+}
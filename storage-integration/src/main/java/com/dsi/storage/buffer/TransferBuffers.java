@@ -0,0 +1,68 @@
+package com.dsi.storage.buffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Copies streams through large reusable buffers. A few idle buffers are kept for the next copy,
+ * so streaming many downloads neither allocates a buffer per download nor pays a call per small block.
+ */
+public final class TransferBuffers {
+    static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_IDLE_BUFFERS = 64;
+    private static final ArrayBlockingQueue<byte[]> idleBuffers = new ArrayBlockingQueue<>(MAX_IDLE_BUFFERS);
+
+    private TransferBuffers() {
+    }
+
+    /**
+     * Copies the remaining bytes of the input stream to the output stream, without closing either.
+     * @return The number of bytes copied.
+     */
+    public static long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = idleBuffers.poll();
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        try {
+            long transferred = 0;
+            int read;
+            while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+                out.write(buffer, 0, read);
+                transferred += read;
+            }
+            return transferred;
+        } finally {
+            idleBuffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Copies the remaining bytes of the input stream into the channel starting at the given position,
+     * without changing the position of the channel, so several streams can be written into one file at the same time.
+     * @return The number of bytes copied.
+     */
+    public static long copy(InputStream in, FileChannel target, long position) throws IOException {
+        byte[] buffer = idleBuffers.poll();
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        try {
+            long transferred = 0;
+            int read;
+            while ((read = in.read(buffer, 0, buffer.length)) >= 0) {
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    transferred += target.write(chunk, position + transferred);
+                }
+            }
+            return transferred;
+        } finally {
+            idleBuffers.offer(buffer);
+        }
+    }
+}
@@ -1,11 +1,211 @@
 package com.dsi.storage.client;
 
+import com.dsi.storage.concurrent.BatchExecutor;
+import com.dsi.storage.concurrent.StorageCallable;
+import com.dsi.storage.concurrent.StorageExecutor;
+import com.dsi.storage.dto.BatchResult;
 import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.dto.PresignedUpload;
+import com.dsi.storage.dto.UploadRequest;
 import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.util.PathUtil;
+import com.dsi.storage.util.ValidationUtils;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
 
 public interface StorageClient {
     String upload(String fullPath, InputStream data, String contentType) throws StorageException;
     FileData download(String fullPathWithFileId) throws StorageException;
+
+    /**
+     * Uploads a file whose length is known up front, so the backend can size its buffers and requests to it.
+     * The backends override it; by default the length is ignored and the file is uploaded like one of unknown length.
+     * @param size The length of the data, or -1 if unknown.
+     */
+    default String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+        return upload(fullPath, data, contentType);
+    }
+
+    /**
+     * Validates an upload path the way {@link #upload} does and returns the path a new file below it would get,
+     * <fullPath>/<fileId>, without storing anything. The backends override it to apply their own naming rules.
+     * @throws StorageException If the path is invalid.
+     */
+    default String newFilePath(String fullPath) throws StorageException {
+        return PathUtil.parsePathForUpload(fullPath).path() + "/" + UUID.randomUUID();
+    }
+
+    /**
+     * Stores a file at the given <bucketName>/<nestedFolders>/<fileId> path, typically one returned by {@link #newFilePath},
+     * replacing the file stored there, if any. Unlike {@link #upload}, storing the same data again has the same result,
+     * so an interrupted upload can be repeated.
+     * @throws StorageException If the path is invalid, or the backend does not support storing files at a given path.
+     */
+    default void uploadTo(String fullPathWithFileId, InputStream data, long size, String contentType) throws StorageException {
+        throw new StorageException("Uploading to a given path is not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Downloads {@code length} bytes of a file starting at {@code offset}, e.g. to answer an HTTP Range request.
+     * The returned FileData reports the range actually returned, which ends early at the end of the file.
+     * This default implementation reads the file from the start and skips to the offset;
+     * the backends override it to fetch only the requested bytes.
+     * @param offset The position of the first byte to return.
+     * @param length The maximum number of bytes to return, or -1 to read to the end of the file.
+     * @throws StorageException If the range is invalid or starts beyond the end of the file.
+     */
+    default FileData download(String fullPathWithFileId, long offset, long length) throws StorageException {
+        if (!ValidationUtils.isValidRange(offset, length)) {
+            throw new StorageException(String.format("Invalid range: offset %d, length %d", offset, length));
+        }
+        FileData fileData = download(fullPathWithFileId);
+        InputStream in = fileData.inputStream();
+        try {
+            if (offset > 0 && fileData.size() >= 0 && offset >= fileData.size()) {
+                in.close();
+                throw new StorageException(String.format("Range not satisfiable: offset %d of a %d byte file", offset, fileData.size()));
+            }
+            in.skipNBytes(offset);
+        } catch (IOException e) {
+            try {
+                in.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw new StorageException("Failed to skip to offset " + offset + " of " + fullPathWithFileId, e);
+        }
+
+        long count = length;
+        if (fileData.size() >= 0) {
+            count = (length < 0) ? fileData.size() - offset : Math.min(length, fileData.size() - offset);
+        }
+        InputStream range = (length < 0) ? in : new BoundedInputStream(in, length);
+        return new FileData(range, fileData.contentType(), count, fileData.etag(), fileData.lastModified(), offset, fileData.size());
+    }
+
+    /**
+     * Streams a file to the output stream using constant memory, closing the download stream but not the output stream.
+     * @return The number of bytes written.
+     */
+    default long downloadTo(String fullPathWithFileId, OutputStream out) throws StorageException {
+        FileData fileData = download(fullPathWithFileId);
+        try {
+            return fileData.transferTo(out);
+        } catch (IOException e) {
+            throw new StorageException("Failed to transfer file: " + fullPathWithFileId, e);
+        }
+    }
+
+    /**
+     * Streams a file to the channel using constant memory, closing the download stream but not the channel.
+     * Files stored on the local file system are transferred by the operating system where possible.
+     * @return The number of bytes written.
+     */
+    default long downloadTo(String fullPathWithFileId, WritableByteChannel target) throws StorageException {
+        FileData fileData = download(fullPathWithFileId);
+        try {
+            return fileData.transferTo(target);
+        } catch (IOException e) {
+            throw new StorageException("Failed to transfer file: " + fullPathWithFileId, e);
+        }
+    }
+
+    /**
+     * Uploads a file asynchronously on the given executor.
+     * The input stream must stay open until the returned future completes.
+     */
+    default CompletableFuture<String> uploadAsync(String fullPath, InputStream data, String contentType, Executor executor) {
+        return StorageExecutor.supplyAsync(() -> upload(fullPath, data, contentType), executor);
+    }
+
+    /**
+     * Downloads a file asynchronously on the given executor.
+     */
+    default CompletableFuture<FileData> downloadAsync(String fullPathWithFileId, Executor executor) {
+        return StorageExecutor.supplyAsync(() -> download(fullPathWithFileId), executor);
+    }
+
+    /**
+     * Uploads all files on the given executor, running at most {@code parallelism} uploads at a time.
+     * @return The uploaded paths in request order, with the error of each failed upload keyed by its index.
+     */
+    default BatchResult<String> uploadAll(Collection<UploadRequest> requests, Executor executor, int parallelism) {
+        List<StorageCallable<String>> operations = new ArrayList<>(requests.size());
+        for (UploadRequest request : requests) {
+            operations.add(() -> upload(request.fullPath(), request.inputStream(), request.size(), request.contentType()));
+        }
+        return BatchExecutor.runAll(operations, executor, parallelism);
+    }
+
+    /**
+     * Downloads all files on the given executor, running at most {@code parallelism} downloads at a time.
+     * @return The FileData in request order, with the error of each failed download keyed by its index.
+     */
+    default BatchResult<FileData> downloadAll(Collection<String> fullPathsWithFileId, Executor executor, int parallelism) {
+        List<StorageCallable<FileData>> operations = new ArrayList<>(fullPathsWithFileId.size());
+        for (String fullPathWithFileId : fullPathsWithFileId) {
+            operations.add(() -> download(fullPathWithFileId));
+        }
+        return BatchExecutor.runAll(operations, executor, parallelism);
+    }
+
+    /**
+     * Lists the files below a <bucketName>/<nestedFolders> prefix, including the files of nested folders.
+     * The prefix follows the same rules as an upload path. The listing is lazy: the backend is asked for the next page
+     * only when the stream reaches it, so listings of any size are consumed in constant memory.
+     * The stream must be closed once consumed, e.g. with try-with-resources. An error while fetching a later page
+     * is thrown as an {@link com.dsi.storage.exception.UncheckedStorageException}.
+     * @throws StorageException If the prefix is invalid or the backend does not support listing.
+     */
+    default Stream<FileInfo> list(String prefix) throws StorageException {
+        throw new StorageException("Listing is not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Deletes the files, grouping them into as few backend requests as the backend allows.
+     * Deleting a file that does not exist succeeds.
+     * @return The deleted paths in request order, with the error of each failed deletion keyed by its index.
+     */
+    default BatchResult<String> deleteAll(Collection<String> fullPathsWithFileId) {
+        List<String> results = new ArrayList<>(fullPathsWithFileId.size());
+        Map<Integer, StorageException> errors = new TreeMap<>();
+        for (int i = 0; i < fullPathsWithFileId.size(); i++) {
+            results.add(null);
+            errors.put(i, new StorageException("Deleting is not supported by " + getClass().getSimpleName()));
+        }
+        return new BatchResult<>(results, errors);
+    }
+
+    /**
+     * Returns a URL the client can download the file from directly, without going through the application.
+     * @param ttl How long the URL is valid.
+     * @throws StorageException If the path is invalid or the backend does not support presigned URLs.
+     */
+    default String presignDownload(String fullPathWithFileId, Duration ttl) throws StorageException {
+        throw new StorageException("Presigned URLs are not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Generates the path of a new file below {@code fullPath} and returns it with a URL the client can upload
+     * the file to directly, without going through the application.
+     * @param ttl How long the URL is valid.
+     * @throws StorageException If the path is invalid or the backend does not support presigned URLs.
+     */
+    default PresignedUpload presignUpload(String fullPath, String contentType, Duration ttl) throws StorageException {
+        throw new StorageException("Presigned URLs are not supported by " + getClass().getSimpleName());
+    }
 }
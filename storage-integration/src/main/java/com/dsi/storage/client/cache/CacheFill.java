@@ -0,0 +1,274 @@
+package com.dsi.storage.client.cache;
+
+import com.dsi.storage.concurrent.StorageCallable;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.exception.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A cache miss in progress: the backend stream is copied into a temporary cache file,
+ * and every reader of the miss reads its data back from that file.
+ * Whichever reader needs data that has not been written yet reads the next chunk from the backend,
+ * so readers never wait for each other to consume their streams.
+ * The file is added to the cache once the backend stream ends, and discarded if all readers close it before
+ * or the key is invalidated while the fill is in progress.
+ */
+class CacheFill {
+    private static final Logger logger = LoggerFactory.getLogger(CacheFill.class);
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final DiskCache cache;
+    private final String key;
+    private final Path tempFile;
+    // Completed with true once the backend responded and the cache file is ready to be read
+    private final CompletableFuture<Boolean> started = new CompletableFuture<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private InputStream source;
+    // The backend response, whose metadata is passed on to every reader
+    private FileData metadata;
+    private FileChannel channel;
+    private long dataOffset;
+    private byte[] buffer;
+    private long written;
+    private boolean complete;
+    private IOException failure;
+    private int readers;
+    private boolean closed;
+    // Set by the cache under its lock, once the key was invalidated after the fill was loaded
+    private boolean invalidated;
+
+    CacheFill(DiskCache cache, String key, Path tempFile) {
+        this.cache = cache;
+        this.key = key;
+        this.tempFile = tempFile;
+    }
+
+    /**
+     * Fetches the object from the backend and returns the first reader of the fill.
+     * If the cache file cannot be created, the backend data is returned uncached.
+     */
+    FileData start(StorageCallable<FileData> loader) throws StorageException {
+        FileData data;
+        try {
+            data = loader.call();
+        } catch (StorageException | RuntimeException e) {
+            cache.fills.remove(key, this);
+            started.completeExceptionally(e);
+            throw e;
+        }
+
+        try {
+            channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            dataOffset = DiskCache.writeHeader(channel, key, data);
+        } catch (IOException e) {
+            logger.warn("Failed to create cache file for {}, serving it uncached", key, e);
+            closeChannel();
+            DiskCache.deleteQuietly(tempFile);
+            cache.fills.remove(key, this);
+            started.complete(false);
+            return data;
+        }
+
+        source = data.inputStream();
+        metadata = data;
+        buffer = new byte[CHUNK_SIZE];
+        readers = 1;
+        started.complete(true);
+        return metadata.withInputStream(new Reader());
+    }
+
+    /**
+     * Waits for the backend response of the fill and returns another reader of it,
+     * or null if the fill has already finished and the cache should be looked up again.
+     */
+    FileData follow() throws StorageException {
+        try {
+            if (!started.get()) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for a concurrent download of " + key, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StorageException storageException) {
+                throw storageException;
+            }
+            throw new StorageException("Concurrent download of " + key + " failed", e.getCause());
+        }
+
+        lock.lock();
+        try {
+            if (closed) {
+                return null;
+            }
+            readers++;
+            return metadata.withInputStream(new Reader());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the fill as stale, so its file is not added to the cache. Called with the lock of the cache held.
+     */
+    void invalidate() {
+        invalidated = true;
+    }
+
+    /**
+     * Returns whether the key was invalidated after the fill was loaded. Called with the lock of the cache held.
+     */
+    boolean invalidated() {
+        return invalidated;
+    }
+
+    /**
+     * Returns the number of bytes readable at the position, reading more from the backend if needed,
+     * or -1 at the end of the object.
+     */
+    private long await(long position) throws IOException {
+        lock.lock();
+        try {
+            while (position >= written) {
+                if (complete) {
+                    return -1;
+                }
+                if (failure != null) {
+                    throw new IOException("Failed to read " + key + " from the storage backend", failure);
+                }
+                pump();
+            }
+            return written - position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Copies the next chunk of the backend stream to the cache file. Called with the lock held.
+     */
+    private void pump() {
+        try {
+            int count = source.read(buffer);
+            if (count < 0) {
+                complete = true;
+                finish();
+                return;
+            }
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, count);
+            long position = dataOffset + written;
+            while (chunk.hasRemaining()) {
+                position += channel.write(chunk, position);
+            }
+            written += count;
+        } catch (IOException e) {
+            failure = e;
+            closeSource();
+            DiskCache.deleteQuietly(tempFile);
+            cache.fills.remove(key, this);
+        }
+    }
+
+    private void finish() {
+        closeSource();
+        buffer = null;
+        try {
+            cache.commit(this, key, tempFile, dataOffset + written, dataOffset, metadata);
+        } catch (IOException e) {
+            logger.warn("Failed to add {} to the disk cache", key, e);
+            DiskCache.deleteQuietly(tempFile);
+        }
+        cache.fills.remove(key, this);
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            readers--;
+            if (readers > 0) {
+                return;
+            }
+            closed = true;
+            if (!complete && failure == null) {
+                // Nobody reads the object anymore: drop the partial cache file
+                closeSource();
+                DiskCache.deleteQuietly(tempFile);
+                cache.fills.remove(key, this);
+            }
+            closeChannel();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeSource() {
+        try {
+            source.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close backend stream of {}", key, e);
+        }
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close cache file of {}", key, e);
+            }
+        }
+    }
+
+    /**
+     * A reader of the fill, with its own position in the cache file.
+     */
+    private class Reader extends InputStream {
+        private long position;
+        private boolean readerClosed;
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return (read(single, 0, 1) < 0) ? -1 : (single[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (readerClosed) {
+                throw new IOException("Stream closed");
+            }
+            if (length == 0) {
+                return 0;
+            }
+            long available = await(position);
+            if (available < 0) {
+                return -1;
+            }
+            int count = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, available)), dataOffset + position);
+            if (count > 0) {
+                position += count;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+            if (!readerClosed) {
+                readerClosed = true;
+                release();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.dsi.storage.client.cache;
+
+import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.dto.PresignedUpload;
+import com.dsi.storage.dto.UploadRequest;
+import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.util.PathUtil;
+import com.dsi.storage.util.ValidationUtils;
+
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+
+/**
+ * CachingStorageClient serves downloads of another StorageClient through a {@link DiskCache}.
+ * Uploads receive a new file ID, so a cached file only goes stale when it is deleted or replaced with
+ * {@link #uploadTo}, which both invalidate it.
+ */
+public class CachingStorageClient implements StorageClient {
+    private final StorageClient delegate;
+    private final DiskCache cache;
+
+    public CachingStorageClient(StorageClient delegate, DiskCache cache) {
+        this.delegate = delegate;
+        this.cache = cache;
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, String contentType) throws StorageException {
+        return upload(fullPath, data, -1, contentType);
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+        return delegate.upload(fullPath, data, size, contentType);
+    }
+
+    @Override
+    public String newFilePath(String fullPath) throws StorageException {
+        return delegate.newFilePath(fullPath);
+    }
+
+    /**
+     * Stores the file through the backend, then drops the replaced file from the cache.
+     */
+    @Override
+    public void uploadTo(String fullPathWithFileId, InputStream data, long size, String contentType) throws StorageException {
+        delegate.uploadTo(fullPathWithFileId, data, size, contentType);
+        cache.invalidate(PathUtil.parsePathForDownload(fullPathWithFileId).path());
+    }
+
+    @Override
+    public BatchResult<String> uploadAll(Collection<UploadRequest> requests, Executor executor, int parallelism) {
+        return delegate.uploadAll(requests, executor, parallelism);
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId) throws StorageException {
+        // Equivalent spellings of a path share a cache entry
+        String key = PathUtil.parsePathForDownload(fullPathWithFileId).path();
+        return cache.get(key, () -> delegate.download(fullPathWithFileId));
+    }
+
+    /**
+     * Serves ranges of cached files from the cache and fetches the others from the backend without caching them.
+     */
+    @Override
+    public FileData download(String fullPathWithFileId, long offset, long length) throws StorageException {
+        if (!ValidationUtils.isValidRange(offset, length)) {
+            throw new StorageException(String.format("Invalid range: offset %d, length %d", offset, length));
+        }
+        String key = PathUtil.parsePathForDownload(fullPathWithFileId).path();
+        FileData cached = cache.getRange(key, offset, length);
+        return (cached != null) ? cached : delegate.download(fullPathWithFileId, offset, length);
+    }
+
+    @Override
+    public Stream<FileInfo> list(String prefix) throws StorageException {
+        return delegate.list(prefix);
+    }
+
+    /**
+     * Deletes the files from the backend first, then drops the deleted ones from the cache.
+     */
+    @Override
+    public BatchResult<String> deleteAll(Collection<String> fullPathsWithFileId) {
+        BatchResult<String> result = delegate.deleteAll(fullPathsWithFileId);
+        for (String deleted : result.results()) {
+            if (deleted != null) {
+                cache.invalidate(PathUtil.parsePathForDownload(deleted).path());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String presignDownload(String fullPathWithFileId, Duration ttl) throws StorageException {
+        return delegate.presignDownload(fullPathWithFileId, ttl);
+    }
+
+    @Override
+    public PresignedUpload presignUpload(String fullPath, String contentType, Duration ttl) throws StorageException {
+        return delegate.presignUpload(fullPath, contentType, ttl);
+    }
+
+    public DiskCache cache() {
+        return cache;
+    }
+}
@@ -0,0 +1,347 @@
+package com.dsi.storage.client.cache;
+
+import com.dsi.storage.client.filesystem.FileChannelInputStream;
+import com.dsi.storage.concurrent.StorageCallable;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.exception.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * DiskCache keeps downloaded files in a local directory, evicting the least recently used files
+ * once their total size exceeds the limit.
+ * Each cache file starts with a small header holding the object path, content type, ETag and modification time,
+ * followed by the file data,
+ * so the cache survives restarts and hits are served with a single open file.
+ * A miss streams the backend data to the caller and to the cache file at the same time;
+ * concurrent misses for the same object share that single backend fetch.
+ */
+public class DiskCache {
+    private static final Logger logger = LoggerFactory.getLogger(DiskCache.class);
+    private static final int MAGIC = 0x44534332; // "DSC2"
+    static final String TEMP_SUFFIX = ".tmp";
+
+    private static final ConcurrentMap<Path, DiskCache> shared = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+    final ConcurrentMap<String, CacheFill> fills = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder bytesServed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Opens the cache in the given directory, picking up the files cached by earlier runs.
+     * @param directory The directory the cache files are stored in. It is created if it does not exist.
+     * @param maxBytes The maximum total size of the cached files.
+     */
+    public DiskCache(Path directory, long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("Disk cache size must be positive: " + maxBytes);
+        }
+        this.directory = directory.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(this.directory);
+            load();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open disk cache directory: " + this.directory, e);
+        }
+    }
+
+    /**
+     * Returns the cache of the given directory, shared by all clients of the process,
+     * so they account for the same files. The size limit is taken from the first call for a directory.
+     */
+    public static DiskCache shared(Path directory, long maxBytes) {
+        return shared.computeIfAbsent(directory.toAbsolutePath().normalize(), dir -> new DiskCache(dir, maxBytes));
+    }
+
+    /**
+     * Returns the cached file for the key, or loads it with the loader and caches it while it is read.
+     */
+    public FileData get(String key, StorageCallable<FileData> loader) throws StorageException {
+        while (true) {
+            FileData cached = open(key, 0, -1);
+            if (cached != null) {
+                return cached;
+            }
+
+            CacheFill fill = fills.get(key);
+            if (fill == null) {
+                CacheFill created = new CacheFill(this, key, directory.resolve(UUID.randomUUID() + TEMP_SUFFIX));
+                fill = fills.putIfAbsent(key, created);
+                if (fill == null) {
+                    // A concurrent fill may have completed between the lookup and the registration
+                    cached = open(key, 0, -1);
+                    if (cached != null) {
+                        fills.remove(key, created);
+                        return cached;
+                    }
+                    misses.increment();
+                    return created.start(loader);
+                }
+            }
+
+            FileData follower = fill.follow();
+            if (follower != null) {
+                coalesced.increment();
+                return follower;
+            }
+            // The fill completed or was abandoned in the meantime; look again
+        }
+    }
+
+    /**
+     * Removes the cached file for the key, e.g. after the file was deleted from the backend.
+     * A fill of the key still in progress was loaded before, so it is not added to the cache when it completes.
+     * Streams already open on the cached file or the fill can still be read to the end.
+     */
+    public void invalidate(String key) {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.remove(key);
+            if (entry != null) {
+                sizeBytes -= entry.size();
+            }
+            // Marked under the lock, so the fill cannot be committed in between
+            CacheFill fill = fills.remove(key);
+            if (fill != null) {
+                fill.invalidate();
+            }
+        }
+        if (entry != null) {
+            deleteQuietly(entry.file());
+        }
+    }
+
+    public DiskCacheStats stats() {
+        synchronized (entries) {
+            return new DiskCacheStats(hits.sum(), misses.sum(), coalesced.sum(), bytesServed.sum(), evictions.sum(),
+                    entries.size(), sizeBytes, maxBytes);
+        }
+    }
+
+    /**
+     * Returns a range of the cached file for the key, or null if the file is not cached.
+     * Ranges are never loaded into the cache: a seek into a file that is not cached yet is answered by the backend.
+     * @param length The maximum number of bytes to return, or -1 to read to the end of the file.
+     * @throws StorageException If the range starts beyond the end of the file.
+     */
+    public FileData getRange(String key, long offset, long length) throws StorageException {
+        return open(key, offset, length);
+    }
+
+    private FileData open(String key, long offset, long length) throws StorageException {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry == null) {
+            return null;
+        }
+        long totalSize = entry.size() - entry.dataOffset();
+        if (offset > 0 && offset >= totalSize) {
+            throw new StorageException(String.format("Range not satisfiable: offset %d of a %d byte file", offset, totalSize));
+        }
+        try {
+            FileChannel channel = FileChannel.open(entry.file(), StandardOpenOption.READ);
+            long count = (length < 0) ? totalSize - offset : Math.min(length, totalSize - offset);
+            hits.increment();
+            bytesServed.add(count);
+            return new FileData(new FileChannelInputStream(channel, entry.dataOffset() + offset, count), entry.contentType(), count,
+                    entry.etag(), entry.lastModified(), offset, totalSize);
+        } catch (IOException e) {
+            if (!(e instanceof NoSuchFileException)) {
+                logger.warn("Failed to open cache file {}", entry.file(), e);
+            }
+            remove(key, entry);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the header of a new cache file and returns its length.
+     */
+    static long writeHeader(FileChannel channel, String key, FileData data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeUTF(key);
+        header.writeUTF(data.contentType());
+        header.writeUTF((data.etag() != null) ? data.etag() : "");
+        header.writeLong((data.lastModified() != null) ? data.lastModified().toEpochMilli() : -1);
+        header.flush();
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        return bytes.size();
+    }
+
+    /**
+     * Moves a completely written temporary file into place and evicts files until the cache fits its limit again.
+     * The file of a fill invalidated in the meantime is deleted instead.
+     */
+    void commit(CacheFill fill, String key, Path tempFile, long size, long dataOffset, FileData data) throws IOException {
+        Path file = fileFor(key);
+        Files.createDirectories(file.getParent());
+        List<Path> evicted = new ArrayList<>();
+        synchronized (entries) {
+            if (fill.invalidated()) {
+                deleteQuietly(tempFile);
+                return;
+            }
+            // Moved under the lock, so a stale fill cannot replace the file of a newer one
+            try {
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            put(key, new Entry(file, size, dataOffset, data.contentType(), data.etag(), data.lastModified()), evicted);
+        }
+        deleteEvicted(evicted);
+    }
+
+    private void add(String key, Entry entry) {
+        List<Path> evicted = new ArrayList<>();
+        synchronized (entries) {
+            put(key, entry, evicted);
+        }
+        deleteEvicted(evicted);
+    }
+
+    /**
+     * Adds the entry and collects the files evicted to make room for it. Called with the lock held.
+     */
+    private void put(String key, Entry entry, List<Path> evicted) {
+        Entry previous = entries.put(key, entry);
+        // A previous entry of the same key used the same file, which was just replaced
+        if (previous != null) {
+            sizeBytes -= previous.size();
+        }
+        sizeBytes += entry.size();
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (sizeBytes > maxBytes && eldest.hasNext()) {
+            Entry victim = eldest.next().getValue();
+            eldest.remove();
+            sizeBytes -= victim.size();
+            evicted.add(victim.file());
+        }
+    }
+
+    private void deleteEvicted(List<Path> evicted) {
+        for (Path file : evicted) {
+            evictions.increment();
+            deleteQuietly(file);
+        }
+    }
+
+    private void remove(String key, Entry entry) {
+        synchronized (entries) {
+            if (entries.remove(key, entry)) {
+                sizeBytes -= entry.size();
+            }
+        }
+    }
+
+    /**
+     * Cache files are named after the SHA-256 of their key, spread over 256 subdirectories.
+     */
+    private Path fileFor(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            String name = HexFormat.of().formatHex(digest);
+            return directory.resolve(name.substring(0, 2)).resolve(name);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Indexes the files left by earlier runs, oldest first, and removes unfinished temporary files.
+     */
+    private void load() throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).toList();
+        }
+        List<Map.Entry<Long, Map.Entry<String, Entry>>> loaded = new ArrayList<>();
+        for (Path file : files) {
+            if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                deleteQuietly(file);
+                continue;
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                DataInputStream header = new DataInputStream(Channels.newInputStream(channel));
+                if (header.readInt() != MAGIC) {
+                    throw new IOException("Not a cache file");
+                }
+                String key = header.readUTF();
+                String contentType = header.readUTF();
+                String etag = header.readUTF();
+                long lastModified = header.readLong();
+                Entry entry = new Entry(file, channel.size(), channel.position(), contentType, etag.isEmpty() ? null : etag,
+                        (lastModified >= 0) ? Instant.ofEpochMilli(lastModified) : null);
+                loaded.add(Map.entry(Files.getLastModifiedTime(file).toMillis(), Map.entry(key, entry)));
+            } catch (IOException e) {
+                logger.warn("Removing unreadable cache file {}", file, e);
+                deleteQuietly(file);
+            }
+        }
+        loaded.sort(Map.Entry.comparingByKey(Comparator.naturalOrder()));
+        for (Map.Entry<Long, Map.Entry<String, Entry>> entry : loaded) {
+            add(entry.getValue().getKey(), entry.getValue().getValue());
+        }
+        logger.info("Disk cache {} opened with {} files", directory, loaded.size());
+    }
+
+    static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete cache file {}", file, e);
+        }
+    }
+
+    /**
+     * A cached file: its total size including the header, and where the data starts.
+     */
+    private record Entry(Path file, long size, long dataOffset, String contentType, String etag, Instant lastModified) {
+    }
+}
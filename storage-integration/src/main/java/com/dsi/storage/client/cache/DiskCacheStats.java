@@ -0,0 +1,25 @@
+package com.dsi.storage.client.cache;
+
+/**
+ * A snapshot of the usage counters of a {@link DiskCache}.
+ *
+ * @param hits The number of downloads served from a cached file.
+ * @param misses The number of downloads fetched from the backend and written to the cache.
+ * @param coalesced The number of downloads that shared the backend fetch of a concurrent miss for the same object.
+ * @param bytesServed The total size of the files served from the cache.
+ * @param evictions The number of files removed to stay within the size limit.
+ * @param entries The number of files currently cached.
+ * @param sizeBytes The total size of the files currently cached.
+ * @param maxBytes The maximum total size of the cached files.
+ */
+public record DiskCacheStats(long hits, long misses, long coalesced, long bytesServed, long evictions,
+                             int entries, long sizeBytes, long maxBytes) {
+
+    /**
+     * Returns the share of downloads served from a cached file, between 0 and 1.
+     */
+    public double hitRatio() {
+        long requests = hits + misses + coalesced;
+        return requests == 0 ? 0.0 : (double) hits / requests;
+    }
+}
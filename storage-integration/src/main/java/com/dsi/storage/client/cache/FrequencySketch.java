@@ -0,0 +1,68 @@
+package com.dsi.storage.client.cache;
+
+/**
+ * A count-min sketch estimating how often keys were requested recently, as used by TinyLFU admission.
+ * Each key is counted in four rows of 4-bit counters; its estimate is the smallest of its four counters.
+ * Increments only raise the counters holding that minimum (conservative update), which limits the noise of collisions.
+ * All counters are halved once the number of increments reaches ten times the width,
+ * so the estimates follow changes in popularity. Not thread-safe; callers synchronize.
+ */
+class FrequencySketch {
+    private static final int DEPTH = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f};
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedKeys The number of keys to tell apart; the width is the next power of two.
+     */
+    FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(1024, expectedKeys - 1) << 1);
+        this.counters = new byte[DEPTH][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    int frequency(int hash) {
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < DEPTH; row++) {
+            frequency = Math.min(frequency, counters[row][indexOf(hash, row)]);
+        }
+        return frequency;
+    }
+
+    void increment(int hash) {
+        int frequency = frequency(hash);
+        if (frequency == MAX_COUNT) {
+            return;
+        }
+        for (int row = 0; row < DEPTH; row++) {
+            int index = indexOf(hash, row);
+            if (counters[row][index] == frequency) {
+                counters[row][index]++;
+            }
+        }
+        if (++additions >= sampleSize) {
+            age();
+        }
+    }
+
+    private void age() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = hash * SEEDS[row];
+        h ^= h >>> 16;
+        return h & mask;
+    }
+}
@@ -0,0 +1,289 @@
+package com.dsi.storage.client.cache;
+
+import com.dsi.storage.client.filesystem.FileChannelInputStream;
+import com.dsi.storage.concurrent.StorageCallable;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.exception.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * HeapCache keeps small, frequently downloaded files in memory, within a budget of total bytes.
+ * Admission is frequency based (TinyLFU): when the cache is full, a new file only replaces the least recently used
+ * files if it was requested more often than each of them, so a scan over many one-off files does not evict the hot set.
+ * Files larger than the object size limit bypass the cache.
+ * Every hit gets its own InputStream over the same immutable array; cached data is never copied.
+ * <p>
+ * Hits read a concurrent map without locking. They record their access in the frequency sketch and the LRU order
+ * only if the lock is free, so concurrent hits never wait for each other; a dropped access makes both
+ * slightly less precise, but does not change what is cached. Invalidating a key bumps the generation of its stripe,
+ * and a load that started before is not added to the cache, so it cannot bring back replaced or deleted data.
+ */
+public class HeapCache {
+    private static final Logger logger = LoggerFactory.getLogger(HeapCache.class);
+    private static final int DEFAULT_MAX_OBJECT_SIZE = 64 * 1024;
+    private static final int BYTES_PER_SKETCH_KEY = 1024;
+    private static final int GENERATION_STRIPES = 1024;
+
+    private static volatile HeapCache shared;
+
+    private final long maxBytes;
+    private final int maxObjectSize;
+    private final ReentrantLock lock = new ReentrantLock();
+    // The cached files in LRU order, guarded by the lock; cached mirrors it for lock-free hits
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentMap<String, Entry> cached = new ConcurrentHashMap<>();
+    private final FrequencySketch sketch;
+    // Bumped by invalidations of the keys of each stripe, guarded by the lock
+    private final long[] generations = new long[GENERATION_STRIPES];
+    private long sizeBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private long misses;
+    private long bypassed;
+    private long admitted;
+    private long rejected;
+    private long evictions;
+
+    /**
+     * @param maxBytes The maximum total size of the cached files.
+     * @param maxObjectSize The size above which files are not cached.
+     */
+    public HeapCache(long maxBytes, int maxObjectSize) {
+        if (maxBytes <= 0 || maxObjectSize <= 0) {
+            throw new IllegalArgumentException("Heap cache sizes must be positive: " + maxBytes + ", " + maxObjectSize);
+        }
+        this.maxBytes = maxBytes;
+        this.maxObjectSize = maxObjectSize;
+        this.sketch = new FrequencySketch((int) Math.min(maxBytes / BYTES_PER_SKETCH_KEY, 1 << 24));
+    }
+
+    /**
+     * Returns the process-wide HeapCache, configured through the environment:
+     * - STORAGE_HEAP_CACHE_SIZE: total size of the cached files in bytes.
+     * - STORAGE_HEAP_CACHE_MAX_OBJECT_SIZE: size in bytes above which files are not cached (default 65536).
+     */
+    public static HeapCache shared() {
+        HeapCache instance = shared;
+        if (instance == null) {
+            synchronized (HeapCache.class) {
+                instance = shared;
+                if (instance == null) {
+                    long maxBytes = Long.parseLong(System.getenv("STORAGE_HEAP_CACHE_SIZE"));
+                    int maxObjectSize = (System.getenv("STORAGE_HEAP_CACHE_MAX_OBJECT_SIZE") != null)
+                            ? Integer.parseInt(System.getenv("STORAGE_HEAP_CACHE_MAX_OBJECT_SIZE"))
+                            : DEFAULT_MAX_OBJECT_SIZE;
+                    instance = new HeapCache(maxBytes, maxObjectSize);
+                    shared = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Returns the cached file for the key, or loads it with the loader and offers it to the cache if it is small enough.
+     */
+    public FileData get(String key, StorageCallable<FileData> loader) throws StorageException {
+        Entry entry = lookup(key);
+        if (entry != null) {
+            return new FileData(new ByteArrayInputStream(entry.data()), entry.contentType(), entry.data().length,
+                    entry.etag(), entry.lastModified());
+        }
+
+        long generation = recordMiss(key);
+        FileData data = loader.call();
+        InputStream in = data.inputStream();
+        // Files of known size skip the cache without being read, and files from local disk keep their zero-copy transfer
+        if (data.size() > maxObjectSize || (in instanceof FileChannelInputStream file && file.remaining() > maxObjectSize)) {
+            recordBypass();
+            return data;
+        }
+        try {
+            byte[] prefix = in.readNBytes(maxObjectSize + 1);
+            if (prefix.length > maxObjectSize) {
+                recordBypass();
+                return data.withInputStream(new SequenceInputStream(new ByteArrayInputStream(prefix), in));
+            }
+            in.close();
+            offer(key, generation, prefix, data);
+            return new FileData(new ByteArrayInputStream(prefix), data.contentType(), prefix.length, data.etag(), data.lastModified());
+        } catch (IOException e) {
+            closeQuietly(in);
+            logger.error("Failed to read file {}", key, e);
+            throw new StorageException("Failed to read file " + key, e);
+        }
+    }
+
+    /**
+     * Returns a range of the cached file for the key, or null if the file is not cached.
+     * @param length The maximum number of bytes to return, or -1 to read to the end of the file.
+     * @throws StorageException If the range starts beyond the end of the file.
+     */
+    public FileData getRange(String key, long offset, long length) throws StorageException {
+        Entry entry = lookup(key);
+        if (entry == null) {
+            recordMiss(key);
+            return null;
+        }
+        int totalSize = entry.data().length;
+        if (offset > 0 && offset >= totalSize) {
+            throw new StorageException(String.format("Range not satisfiable: offset %d of a %d byte file", offset, totalSize));
+        }
+        int count = (int) ((length < 0) ? totalSize - offset : Math.min(length, totalSize - offset));
+        return new FileData(new ByteArrayInputStream(entry.data(), (int) offset, count), entry.contentType(), count,
+                entry.etag(), entry.lastModified(), offset, totalSize);
+    }
+
+    /**
+     * Removes the cached file for the key, e.g. after the file was deleted from the backend.
+     * Loads of the key in progress are not added to the cache when they complete.
+     */
+    public void invalidate(String key) {
+        lock.lock();
+        try {
+            generations[stripe(key)]++;
+            Entry entry = entries.remove(key);
+            if (entry != null) {
+                cached.remove(key);
+                sizeBytes -= entry.data().length;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public HeapCacheStats stats() {
+        lock.lock();
+        try {
+            return new HeapCacheStats(hits.sum(), misses, bypassed, admitted, rejected, evictions, entries.size(), sizeBytes, maxBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Entry lookup(String key) {
+        Entry entry = cached.get(key);
+        if (entry != null) {
+            hits.increment();
+            if (lock.tryLock()) {
+                try {
+                    sketch.increment(key.hashCode());
+                    // Moves the entry to the most recently used end
+                    entries.get(key);
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Counts the request of a key that is not cached and returns the generation of its stripe.
+     * Misses wait for the lock, as the sketch decides their admission and they go to the backend anyway.
+     */
+    private long recordMiss(String key) {
+        lock.lock();
+        try {
+            sketch.increment(key.hashCode());
+            return generations[stripe(key)];
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordBypass() {
+        lock.lock();
+        try {
+            bypassed++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts the miss and admits the loaded file, unless its key was invalidated since the load started.
+     */
+    private void offer(String key, long generation, byte[] data, FileData metadata) {
+        lock.lock();
+        try {
+            misses++;
+            if (generations[stripe(key)] != generation || entries.containsKey(key)) {
+                return;
+            }
+            admit(key, data, metadata);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Adds the file if there is room, or if it is requested more often than the least recently used files it replaces.
+     * Called with the lock held.
+     */
+    private void admit(String key, byte[] data, FileData metadata) {
+        if (sizeBytes + data.length > maxBytes) {
+            int frequency = sketch.frequency(key.hashCode());
+            List<String> victims = new ArrayList<>();
+            long freed = 0;
+            Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+            while (sizeBytes - freed + data.length > maxBytes) {
+                if (!eldest.hasNext()) {
+                    rejected++;
+                    return;
+                }
+                Map.Entry<String, Entry> victim = eldest.next();
+                if (sketch.frequency(victim.getKey().hashCode()) >= frequency) {
+                    rejected++;
+                    return;
+                }
+                victims.add(victim.getKey());
+                freed += victim.getValue().data().length;
+            }
+            // Removing by key does not count as an access, so the LRU order is unchanged
+            for (String victim : victims) {
+                entries.remove(victim);
+                cached.remove(victim);
+            }
+            sizeBytes -= freed;
+            evictions += victims.size();
+        }
+        Entry entry = new Entry(data, metadata.contentType(), metadata.etag(), metadata.lastModified());
+        entries.put(key, entry);
+        cached.put(key, entry);
+        sizeBytes += data.length;
+        admitted++;
+    }
+
+    private static int stripe(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close download stream", e);
+        }
+    }
+
+    private record Entry(byte[] data, String contentType, String etag, Instant lastModified) {
+    }
+}
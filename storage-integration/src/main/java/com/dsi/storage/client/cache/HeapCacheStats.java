@@ -0,0 +1,26 @@
+package com.dsi.storage.client.cache;
+
+/**
+ * A snapshot of the usage counters of a {@link HeapCache}.
+ *
+ * @param hits The number of downloads served from memory.
+ * @param misses The number of downloads of small objects that were not in memory.
+ * @param bypassed The number of downloads of objects too large to be cached.
+ * @param admitted The number of objects added to the cache.
+ * @param rejected The number of objects not added because they were requested less often than the objects they would replace.
+ * @param evictions The number of objects removed to make room for more popular ones.
+ * @param entries The number of objects currently cached.
+ * @param sizeBytes The total size of the objects currently cached.
+ * @param maxBytes The maximum total size of the cached objects.
+ */
+public record HeapCacheStats(long hits, long misses, long bypassed, long admitted, long rejected, long evictions,
+                             int entries, long sizeBytes, long maxBytes) {
+
+    /**
+     * Returns the share of downloads served from memory, between 0 and 1.
+     */
+    public double hitRatio() {
+        long requests = hits + misses + bypassed;
+        return requests == 0 ? 0.0 : (double) hits / requests;
+    }
+}
@@ -0,0 +1,345 @@
+package com.dsi.storage.client.compression;
+
+import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.dto.PresignedUpload;
+import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.util.ValidationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * CompressingStorageClient gzip-compresses uploads whose content type is on an allow-list, such as JSON, CSV and XML,
+ * and decompresses them again on download, so callers always see the original bytes and content type.
+ * The codec is recorded as a parameter of the stored content type, e.g. "application/json; storage-codec=gzip",
+ * since the content type is the metadata every backend keeps. Files stored without the parameter are returned unchanged,
+ * so compression can be enabled for existing buckets. When the upload size is known, the original length is recorded
+ * as a second parameter, e.g. "application/json; storage-codec=gzip; storage-length=52000", and reported on download.
+ * Compression and decompression stream through fixed-size buffers. Other content types, such as images and video,
+ * are passed through without being wrapped or copied.
+ * Ranges of compressed files are served by decompressing from the start of the file and skipping to the offset,
+ * so a range costs reading and decompressing everything before its end; offsets beyond a recorded length are refused
+ * without decompressing. Listings report the original length where it was recorded, and the stored size otherwise.
+ * Compressed files cannot be presigned, since the URL would serve the compressed bytes, and both parameters are reserved:
+ * uploads carrying them in their content type are rejected.
+ */
+public class CompressingStorageClient implements StorageClient {
+    private static final Logger logger = LoggerFactory.getLogger(CompressingStorageClient.class);
+    private static final String CODEC_PARAMETER = "storage-codec=";
+    private static final String LENGTH_PARAMETER = "storage-length=";
+    private static final String GZIP = "gzip";
+    private static final int DECOMPRESSION_BUFFER_SIZE = 64 * 1024;
+    /** The content types compressed by default. */
+    public static final String DEFAULT_TYPES = "text/*,application/json,application/x-ndjson,application/xml,"
+            + "application/javascript,application/csv,application/yaml,+json,+xml";
+
+    private final StorageClient delegate;
+    private final List<String> types;
+    private final int level;
+
+    private final LongAdder compressedUploads = new LongAdder();
+    private final LongAdder bypassedUploads = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+
+    /**
+     * @param delegate The client the files are stored in.
+     * @param types The comma-separated content types to compress: exact types such as "application/json",
+     *              all subtypes of a type such as "text/*", or structured syntax suffixes such as "+json".
+     * @param level The compression level, from 1 (fastest) to 9 (smallest).
+     */
+    public CompressingStorageClient(StorageClient delegate, String types, int level) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be between 1 and 9: " + level);
+        }
+        this.delegate = delegate;
+        this.level = level;
+        this.types = new ArrayList<>();
+        for (String type : types.split(",")) {
+            if (!type.isBlank()) {
+                this.types.add(type.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, String contentType) throws StorageException {
+        return upload(fullPath, data, -1, contentType);
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+        checkContentType(contentType);
+        if (!isCompressible(contentType)) {
+            bypassedUploads.increment();
+            return delegate.upload(fullPath, data, size, contentType);
+        }
+        GzipCompressingInputStream compressed = new GzipCompressingInputStream(data, level, size);
+        try {
+            String filePath = delegate.upload(fullPath, compressed, -1, compressedContentType(contentType, size));
+            record(compressed, size);
+            return filePath;
+        } finally {
+            compressed.end();
+        }
+    }
+
+    @Override
+    public String newFilePath(String fullPath) throws StorageException {
+        return delegate.newFilePath(fullPath);
+    }
+
+    @Override
+    public void uploadTo(String fullPathWithFileId, InputStream data, long size, String contentType) throws StorageException {
+        checkContentType(contentType);
+        if (!isCompressible(contentType)) {
+            bypassedUploads.increment();
+            delegate.uploadTo(fullPathWithFileId, data, size, contentType);
+            return;
+        }
+        GzipCompressingInputStream compressed = new GzipCompressingInputStream(data, level, size);
+        try {
+            delegate.uploadTo(fullPathWithFileId, compressed, -1, compressedContentType(contentType, size));
+            record(compressed, size);
+        } finally {
+            compressed.end();
+        }
+    }
+
+    /**
+     * Returns compressed files decompressed, with their original content type and length,
+     * or an unknown size if the length was not known at upload.
+     */
+    @Override
+    public FileData download(String fullPathWithFileId) throws StorageException {
+        return decode(fullPathWithFileId, delegate.download(fullPathWithFileId));
+    }
+
+    /**
+     * Requests the range from the backend, which is right for files stored as they are.
+     * For compressed files it is discarded, and the range is cut from the decompressed file:
+     * everything before the offset is downloaded and decompressed, but nothing after the end of the range is read.
+     */
+    @Override
+    public FileData download(String fullPathWithFileId, long offset, long length) throws StorageException {
+        if (!ValidationUtils.isValidRange(offset, length)) {
+            throw new StorageException(String.format("Invalid range: offset %d, length %d", offset, length));
+        }
+        FileData fileData;
+        try {
+            fileData = delegate.download(fullPathWithFileId, offset, length);
+        } catch (StorageException e) {
+            if (offset == 0) {
+                throw e;
+            }
+            // The offset may lie beyond the end of the compressed file but within the original one
+            return StorageClient.super.download(fullPathWithFileId, offset, length);
+        }
+        if (codecOf(fileData.contentType()) == null) {
+            return fileData;
+        }
+        closeQuietly(fileData);
+        return StorageClient.super.download(fullPathWithFileId, offset, length);
+    }
+
+    /**
+     * Lists the files with their original content type, and their original length where it was recorded.
+     */
+    @Override
+    public Stream<FileInfo> list(String prefix) throws StorageException {
+        return delegate.list(prefix).map(file -> {
+            if (codecOf(file.contentType()) == null) {
+                return file;
+            }
+            long length = lengthOf(file.contentType());
+            return new FileInfo(file.path(), (length >= 0) ? length : file.size(), withoutCodec(file.contentType()),
+                    file.etag(), file.lastModified());
+        });
+    }
+
+    @Override
+    public BatchResult<String> deleteAll(Collection<String> fullPathsWithFileId) {
+        return delegate.deleteAll(fullPathsWithFileId);
+    }
+
+    /**
+     * Presigns files stored as they are. Whether a file is compressed is read from the content type of its first byte,
+     * so the file must exist. Compressed files are refused, since the URL would return the gzip bytes.
+     */
+    @Override
+    public String presignDownload(String fullPathWithFileId, Duration ttl) throws StorageException {
+        FileData fileData;
+        try {
+            fileData = delegate.download(fullPathWithFileId, 0, 1);
+        } catch (StorageException e) {
+            // Some backends refuse a range of an empty file
+            fileData = delegate.download(fullPathWithFileId);
+        }
+        closeQuietly(fileData);
+        if (codecOf(fileData.contentType()) != null) {
+            logger.error("Cannot presign a download of {}, which is stored compressed", fullPathWithFileId);
+            throw new StorageException("Cannot presign a download of " + fullPathWithFileId + ", which is stored compressed");
+        }
+        return delegate.presignDownload(fullPathWithFileId, ttl);
+    }
+
+    /**
+     * Uploads through presigned URLs bypass the application and are never compressed.
+     */
+    @Override
+    public PresignedUpload presignUpload(String fullPath, String contentType, Duration ttl) throws StorageException {
+        checkContentType(contentType);
+        return delegate.presignUpload(fullPath, contentType, ttl);
+    }
+
+    /**
+     * Returns the number of compressed and bypassed uploads and the bytes before and after compression.
+     */
+    public CompressionStats stats() {
+        return new CompressionStats(compressedUploads.sum(), bypassedUploads.sum(), bytesIn.sum(), bytesOut.sum());
+    }
+
+    /**
+     * Returns true if files of the content type are compressed. Parameters such as a charset are ignored.
+     */
+    public boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        String type = mediaType(contentType);
+        for (String allowed : types) {
+            if (allowed.startsWith("+") ? type.endsWith(allowed)
+                    : allowed.endsWith("/*") ? type.startsWith(allowed.substring(0, allowed.length() - 1))
+                    : type.equals(allowed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void record(GzipCompressingInputStream compressed, long size) {
+        compressedUploads.increment();
+        bytesIn.add(compressed.bytesRead());
+        bytesOut.add(compressed.bytesWritten());
+        logger.debug("Compressed {} bytes to {} bytes", (size >= 0) ? size : compressed.bytesRead(), compressed.bytesWritten());
+    }
+
+    private FileData decode(String fullPathWithFileId, FileData fileData) throws StorageException {
+        String codec = codecOf(fileData.contentType());
+        if (codec == null) {
+            return fileData;
+        }
+        if (!GZIP.equals(codec)) {
+            closeQuietly(fileData);
+            throw new StorageException("Unsupported codec '" + codec + "' of " + fullPathWithFileId);
+        }
+        try {
+            InputStream decompressed = new GZIPInputStream(fileData.inputStream(), DECOMPRESSION_BUFFER_SIZE);
+            return new FileData(decompressed, withoutCodec(fileData.contentType()), lengthOf(fileData.contentType()),
+                    fileData.etag(), fileData.lastModified());
+        } catch (IOException e) {
+            closeQuietly(fileData);
+            logger.error("Failed to decompress {}", fullPathWithFileId, e);
+            throw new StorageException("Failed to decompress " + fullPathWithFileId, e);
+        }
+    }
+
+    /**
+     * Rejects content types carrying the codec or length parameter, which would make the file be decoded on download.
+     */
+    private static void checkContentType(String contentType) throws StorageException {
+        if (contentType == null) {
+            return;
+        }
+        String lowerCase = contentType.toLowerCase(Locale.ROOT);
+        for (String parameter : new String[]{CODEC_PARAMETER, LENGTH_PARAMETER}) {
+            if (lowerCase.contains(parameter)) {
+                logger.error("The content type parameter {} is reserved for compressed files: {}", parameter, contentType);
+                throw new StorageException("The content type parameter " + parameter + " is reserved for compressed files");
+            }
+        }
+    }
+
+    private static String compressedContentType(String contentType, long size) {
+        String compressed = contentType + "; " + CODEC_PARAMETER + GZIP;
+        return (size >= 0) ? compressed + "; " + LENGTH_PARAMETER + size : compressed;
+    }
+
+    /**
+     * Returns the codec recorded in the content type, or null if the file is stored as it is.
+     */
+    private static String codecOf(String contentType) {
+        return parameterOf(contentType, CODEC_PARAMETER);
+    }
+
+    /**
+     * Returns the original length recorded in the content type, or -1 if it was not known at upload.
+     */
+    private static long lengthOf(String contentType) {
+        String length = parameterOf(contentType, LENGTH_PARAMETER);
+        if (length == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(length);
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring the invalid length parameter of content type {}", contentType);
+            return -1;
+        }
+    }
+
+    private static String parameterOf(String contentType, String parameter) {
+        if (contentType == null) {
+            return null;
+        }
+        int index = contentType.indexOf(parameter);
+        if (index < 0) {
+            return null;
+        }
+        int end = contentType.indexOf(';', index);
+        return contentType.substring(index + parameter.length(), (end < 0) ? contentType.length() : end).trim();
+    }
+
+    /**
+     * Removes the codec and length parameters, keeping any other parameters the file was uploaded with, such as a charset.
+     */
+    private static String withoutCodec(String contentType) {
+        return withoutParameter(withoutParameter(contentType, CODEC_PARAMETER), LENGTH_PARAMETER);
+    }
+
+    private static String withoutParameter(String contentType, String parameter) {
+        int index = contentType.indexOf("; " + parameter);
+        if (index < 0) {
+            return contentType;
+        }
+        int end = contentType.indexOf(';', index + 2);
+        return contentType.substring(0, index) + ((end < 0) ? "" : contentType.substring(end));
+    }
+
+    private static String mediaType(String contentType) {
+        int semicolon = contentType.indexOf(';');
+        return ((semicolon < 0) ? contentType : contentType.substring(0, semicolon)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static void closeQuietly(FileData fileData) {
+        try {
+            fileData.inputStream().close();
+        } catch (IOException e) {
+            logger.debug("Failed to close a download stream", e);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.dsi.storage.client.compression;
+
+/**
+ * A snapshot of the counters of a {@link CompressingStorageClient}.
+ *
+ * @param compressedUploads The number of uploads that were compressed.
+ * @param bypassedUploads The number of uploads stored as they are, because their content type is not compressible.
+ * @param bytesIn The total size of the compressed uploads before compression.
+ * @param bytesOut The total size of the compressed uploads after compression.
+ */
+public record CompressionStats(long compressedUploads, long bypassedUploads, long bytesIn, long bytesOut) {
+}
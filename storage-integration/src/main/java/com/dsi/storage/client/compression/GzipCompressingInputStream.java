@@ -0,0 +1,139 @@
+package com.dsi.storage.client.compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An InputStream returning the gzip compression of another stream, compressed as it is read.
+ * Unlike a GZIPOutputStream, it can be handed to an upload that pulls its data, without a pipe or a second thread;
+ * memory use is bounded by one input and one output buffer.
+ */
+class GzipCompressingInputStream extends InputStream {
+    private static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final InputStream source;
+    private final long expectedLength;
+    private final Deflater deflater;
+    private final CRC32 crc = new CRC32();
+    private final byte[] input = new byte[BUFFER_SIZE];
+    private byte[] output = HEADER;
+    private int position;
+    private int limit = HEADER.length;
+    private long sourceBytes;
+    private boolean trailerWritten;
+
+    GzipCompressingInputStream(InputStream source, int level) {
+        this(source, level, -1);
+    }
+
+    /**
+     * @param expectedLength The length of the source in bytes, or -1 if unknown.
+     *                       A source of another length fails the read with an IOException, so the upload is not completed.
+     */
+    GzipCompressingInputStream(InputStream source, int level, long expectedLength) {
+        this.source = source;
+        this.expectedLength = expectedLength;
+        this.deflater = new Deflater(level, true);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        while (position == limit) {
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(output, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    /**
+     * Returns the number of uncompressed bytes read from the source so far.
+     */
+    long bytesRead() {
+        return deflater.getBytesRead();
+    }
+
+    /**
+     * Returns the number of compressed bytes produced so far, excluding the gzip header and trailer.
+     */
+    long bytesWritten() {
+        return deflater.getBytesWritten();
+    }
+
+    /**
+     * Frees the native memory of the compressor without closing the source, which belongs to the caller.
+     */
+    void end() {
+        deflater.end();
+    }
+
+    @Override
+    public void close() throws IOException {
+        end();
+        source.close();
+    }
+
+    /**
+     * Produces the next compressed bytes, or returns false at the end of the trailer.
+     * A call may produce no bytes while the compressor takes in more input.
+     */
+    private boolean fill() throws IOException {
+        if (output == HEADER) {
+            output = new byte[BUFFER_SIZE];
+        }
+        position = 0;
+        limit = 0;
+        if (!deflater.finished()) {
+            if (deflater.needsInput()) {
+                int read = source.read(input);
+                if (read == -1) {
+                    if (expectedLength >= 0 && sourceBytes != expectedLength) {
+                        throw new IOException(String.format("Stream ended after %d of %d bytes", sourceBytes, expectedLength));
+                    }
+                    deflater.finish();
+                } else if (read > 0) {
+                    sourceBytes += read;
+                    if (expectedLength >= 0 && sourceBytes > expectedLength) {
+                        throw new IOException("Stream is longer than " + expectedLength + " bytes");
+                    }
+                    crc.update(input, 0, read);
+                    deflater.setInput(input, 0, read);
+                }
+            }
+            limit = deflater.deflate(output);
+            return true;
+        }
+        if (!trailerWritten) {
+            trailerWritten = true;
+            writeIntLE((int) crc.getValue(), 0);
+            writeIntLE((int) deflater.getBytesRead(), 4);
+            limit = 8;
+            return true;
+        }
+        return false;
+    }
+
+    private void writeIntLE(int value, int offset) {
+        output[offset] = (byte) value;
+        output[offset + 1] = (byte) (value >>> 8);
+        output[offset + 2] = (byte) (value >>> 16);
+        output[offset + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,115 @@
+package com.dsi.storage.client.dedup;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * ContentIndex remembers the content-addressed blobs stored in the backend, keyed by their path, which contains the SHA-256
+ * of their content. Lookups go to a ConcurrentHashMap and never block; new blobs are also appended to a log file,
+ * one "<blobPath> <size> <crc32c>" line each, which is read back on the next start.
+ * The log is not forced to disk: a lost line only costs one more upload of the blob, which stores the same bytes again.
+ */
+class ContentIndex implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ContentIndex.class);
+
+    /**
+     * A stored blob, with the size and CRC32C of its content to check a match against.
+     */
+    record Blob(long size, int crc32c) {
+    }
+
+    private final ConcurrentMap<String, Blob> blobs = new ConcurrentHashMap<>();
+    private final FileChannel log;
+
+    ContentIndex(Path file) throws IOException {
+        this.log = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        load();
+    }
+
+    /**
+     * Returns the blob stored at the path, or null if it is not known to exist.
+     */
+    Blob find(String blobPath) {
+        return blobs.get(blobPath);
+    }
+
+    /**
+     * Records a blob that was stored in the backend.
+     */
+    void add(String blobPath, long size, int crc32c) throws IOException {
+        Blob blob = new Blob(size, crc32c);
+        if (blob.equals(blobs.put(blobPath, blob))) {
+            return;
+        }
+        ByteBuffer line = StandardCharsets.UTF_8.encode(blobPath + " " + size + " " + Integer.toHexString(crc32c) + "\n");
+        synchronized (log) {
+            long position = log.size();
+            while (line.hasRemaining()) {
+                position += log.write(line, position);
+            }
+        }
+    }
+
+    /**
+     * Drops a blob that turned out to be missing from the backend. It is added again when it is stored next time.
+     */
+    void remove(String blobPath) {
+        blobs.remove(blobPath);
+    }
+
+    /**
+     * Returns the number of known blobs.
+     */
+    int size() {
+        return blobs.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        log.close();
+    }
+
+    /**
+     * Reads the log, later lines replacing earlier ones, and cuts off a last line torn by a crash,
+     * so the next line is not appended to it.
+     */
+    private void load() throws IOException {
+        long complete = 0;
+        long position = 0;
+        BufferedReader reader = new BufferedReader(Channels.newReader(log.position(0), StandardCharsets.UTF_8));
+        String line;
+        int malformed = 0;
+        while ((line = reader.readLine()) != null) {
+            position += line.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (position > log.size()) {
+                // The last line has no line break
+                break;
+            }
+            complete = position;
+            String[] fields = line.split(" ");
+            try {
+                blobs.put(fields[0], new Blob(Long.parseLong(fields[1]), Integer.parseUnsignedInt(fields[2], 16)));
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                malformed++;
+            }
+        }
+        if (malformed > 0) {
+            logger.warn("Skipped {} malformed lines of the content index", malformed);
+        }
+        if (complete < log.size()) {
+            log.truncate(complete);
+        }
+    }
+}
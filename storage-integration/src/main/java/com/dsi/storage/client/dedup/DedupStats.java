@@ -0,0 +1,12 @@
+package com.dsi.storage.client.dedup;
+
+/**
+ * A snapshot of the counters of a {@link DedupStorageClient}.
+ *
+ * @param uploads The number of uploads that were hashed.
+ * @param deduplicated The number of uploads whose content was already stored, so only a reference was written.
+ * @param bytesSaved The total size of the deduplicated uploads, which were not sent to the backend.
+ * @param blobs The number of stored blobs in the content index.
+ */
+public record DedupStats(long uploads, long deduplicated, long bytesSaved, int blobs) {
+}
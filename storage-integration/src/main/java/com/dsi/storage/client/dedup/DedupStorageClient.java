@@ -0,0 +1,518 @@
+package com.dsi.storage.client.dedup;
+
+import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.client.filesystem.FileChannelInputStream;
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.dto.PresignedUpload;
+import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.exception.StorageNotFoundException;
+import com.dsi.storage.util.PathUtil;
+import com.dsi.storage.util.ValidationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * DedupStorageClient stores each distinct content only once per bucket.
+ * An upload is streamed into a local staging file while its CRC32C and SHA-256 are computed in the same pass,
+ * so the file is never held in memory. If the {@link ContentIndex} already knows a blob with that content,
+ * nothing is sent to the backend but a small reference; otherwise the content is stored once as
+ * <bucketName>/dedup/<sha256> and indexed.
+ * Every upload still receives its own new path, where a reference object naming the blob and the content type is stored,
+ * so paths stay unique and stable. Downloads resolve the reference, which is cached in memory, and return the blob.
+ * Files smaller than {@code minSize} are uploaded as they are, since their reference would not be much smaller.
+ * Deleting a path deletes its reference only; blobs are kept, as other references may point to them,
+ * and deleting a blob path through this client is refused. An indexed blob is confirmed to still exist before
+ * an upload refers to it, so a blob deleted from the backend behind the index is stored again.
+ * Listings return the references with their own size.
+ * <p>
+ * References carry an HMAC of their path, blob and content type, and may only point to a blob of their own bucket,
+ * so a file uploaded with the reference content type cannot be turned into a reference to another object.
+ * Uploads with the reference content type are rejected. All instances sharing a backend must use the same key.
+ */
+public class DedupStorageClient implements StorageClient, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(DedupStorageClient.class);
+    /** The content type of reference objects. */
+    public static final String REFERENCE_CONTENT_TYPE = "application/vnd.dsi.storage-reference";
+    private static final String BLOB_FOLDER = "dedup";
+    private static final String BLOB = "blob";
+    private static final String CONTENT_TYPE = "content-type";
+    private static final String MAC = "mac";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int KEY_SIZE = 32;
+    private static final String STAGING_SUFFIX = ".tmp";
+    private static final int MAX_REFERENCE_SIZE = 64 * 1024;
+    private static final int MAX_CACHED_REFERENCES = 100_000;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final StorageClient delegate;
+    private final Path stagingDirectory;
+    private final ContentIndex index;
+    private final long minSize;
+    private final SecretKeySpec key;
+    // The blob and content type of recently uploaded or downloaded references, by normalized path
+    private final ConcurrentMap<String, Reference> references = new ConcurrentHashMap<>();
+
+    private final LongAdder uploads = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder bytesSaved = new LongAdder();
+
+    /**
+     * Signs references with a key generated on first use and kept in the directory as reference.key.
+     * @see #DedupStorageClient(StorageClient, Path, long, byte[])
+     */
+    public DedupStorageClient(StorageClient delegate, Path directory, long minSize) {
+        this(delegate, directory, minSize, null);
+    }
+
+    /**
+     * @param delegate The client the blobs and references are stored in.
+     * @param directory The directory of the content index and the staging files. It is created if it does not exist,
+     *                  and must not be shared with another process.
+     * @param minSize The size below which files are uploaded without deduplication.
+     * @param key The secret references are signed with, or null to use the key kept in the directory.
+     *            Instances sharing a backend must use the same key to read each other's references.
+     */
+    public DedupStorageClient(StorageClient delegate, Path directory, long minSize, byte[] key) {
+        this.delegate = delegate;
+        this.minSize = minSize;
+        this.stagingDirectory = directory.toAbsolutePath().normalize().resolve("staging");
+        try {
+            Files.createDirectories(stagingDirectory);
+            this.key = new SecretKeySpec((key != null) ? key.clone() : loadKey(stagingDirectory.resolveSibling("reference.key")),
+                    MAC_ALGORITHM);
+            // Staging files of a previous process are of no use any more
+            try (Stream<Path> leftovers = Files.list(stagingDirectory)) {
+                for (Path leftover : (Iterable<Path>) leftovers::iterator) {
+                    Files.deleteIfExists(leftover);
+                }
+            }
+            this.index = new ContentIndex(stagingDirectory.resolveSibling("content-index.log"));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open the content index in " + directory, e);
+        }
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, String contentType) throws StorageException {
+        return upload(fullPath, data, -1, contentType);
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+        checkContentType(contentType);
+        if (size >= 0 && size < minSize) {
+            return delegate.upload(fullPath, data, size, contentType);
+        }
+        String filePath = delegate.newFilePath(fullPath);
+        Path staged = stagingDirectory.resolve(UUID.randomUUID() + STAGING_SUFFIX);
+        try (FileChannel channel = FileChannel.open(staged, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            Content content = stage(data, channel);
+            if (size >= 0 && content.size() != size) {
+                throw new StorageException(String.format("Expected %d bytes but the stream contained %d bytes", size, content.size()));
+            }
+            if (content.size() < minSize) {
+                delegate.uploadTo(filePath, new FileChannelInputStream(channel, 0, content.size()), content.size(), contentType);
+                return filePath;
+            }
+
+            uploads.increment();
+            String blobPath = PathUtil.parsePathForDownload(filePath).bucket() + "/" + BLOB_FOLDER + "/" + content.sha256();
+            ContentIndex.Blob blob = index.find(blobPath);
+            if (blob != null && blob.size() == content.size() && blob.crc32c() == content.crc32c() && blobExists(blobPath)) {
+                deduplicated.increment();
+                bytesSaved.add(content.size());
+                logger.debug("Content of {} is already stored as {}", filePath, blobPath);
+            } else {
+                delegate.uploadTo(blobPath, new FileChannelInputStream(channel, 0, content.size()), content.size(), contentType);
+                index.add(blobPath, content.size(), content.crc32c());
+            }
+
+            Reference reference = new Reference(blobPath, contentType);
+            writeReference(filePath, reference);
+            cache(PathUtil.parsePathForDownload(filePath).path(), reference);
+            return filePath;
+        } catch (IOException e) {
+            logger.error("Failed to stage the upload to {}", fullPath, e);
+            throw new StorageException("Failed to stage the upload to " + fullPath, e);
+        } finally {
+            deleteQuietly(staged);
+        }
+    }
+
+    @Override
+    public String newFilePath(String fullPath) throws StorageException {
+        return delegate.newFilePath(fullPath);
+    }
+
+    /**
+     * Stores the file as it is, without deduplication.
+     */
+    @Override
+    public void uploadTo(String fullPathWithFileId, InputStream data, long size, String contentType) throws StorageException {
+        checkContentType(contentType);
+        references.remove(key(fullPathWithFileId));
+        delegate.uploadTo(fullPathWithFileId, data, size, contentType);
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId) throws StorageException {
+        Reference reference = references.get(key(fullPathWithFileId));
+        if (reference == null) {
+            FileData fileData = delegate.download(fullPathWithFileId);
+            if (!isReference(fileData)) {
+                return fileData;
+            }
+            reference = readReference(fullPathWithFileId, fileData);
+        }
+        return downloadBlob(fullPathWithFileId, reference, 0, -1);
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId, long offset, long length) throws StorageException {
+        if (!ValidationUtils.isValidRange(offset, length)) {
+            throw new StorageException(String.format("Invalid range: offset %d, length %d", offset, length));
+        }
+        Reference reference = references.get(key(fullPathWithFileId));
+        if (reference == null) {
+            FileData fileData;
+            try {
+                fileData = delegate.download(fullPathWithFileId, offset, length);
+            } catch (StorageException e) {
+                // A range beyond the end of the small reference object fails before the reference is recognized
+                reference = (offset > 0) ? resolve(fullPathWithFileId) : null;
+                if (reference == null) {
+                    throw e;
+                }
+                return downloadBlob(fullPathWithFileId, reference, offset, length);
+            }
+            if (!isReference(fileData)) {
+                return fileData;
+            }
+            closeQuietly(fileData);
+            reference = resolve(fullPathWithFileId);
+        }
+        return downloadBlob(fullPathWithFileId, reference, offset, length);
+    }
+
+    @Override
+    public Stream<FileInfo> list(String prefix) throws StorageException {
+        return delegate.list(prefix);
+    }
+
+    /**
+     * Deletes the paths, refusing the blob paths among them: references of other paths may still point to a blob.
+     */
+    @Override
+    public BatchResult<String> deleteAll(Collection<String> fullPathsWithFileId) {
+        List<String> paths = new ArrayList<>(fullPathsWithFileId);
+        Map<Integer, StorageException> errors = new TreeMap<>();
+        List<String> deletes = new ArrayList<>(paths.size());
+        List<Integer> deleteIndexes = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            String fullPathWithFileId = paths.get(i);
+            if (fullPathWithFileId != null) {
+                String key = key(fullPathWithFileId);
+                if (isBlobOf(fullPathWithFileId, key)) {
+                    logger.error("Refused to delete {}, a blob references may point to", fullPathWithFileId);
+                    errors.put(i, new StorageException("Refused to delete " + fullPathWithFileId + ", a blob references may point to"));
+                    continue;
+                }
+                references.remove(key);
+            }
+            deletes.add(fullPathWithFileId);
+            deleteIndexes.add(i);
+        }
+        if (errors.isEmpty()) {
+            return delegate.deleteAll(paths);
+        }
+
+        BatchResult<String> deleted = delegate.deleteAll(deletes);
+        List<String> results = new ArrayList<>(Collections.nCopies(paths.size(), (String) null));
+        for (int i = 0; i < deletes.size(); i++) {
+            int index = deleteIndexes.get(i);
+            results.set(index, deleted.result(i));
+            if (deleted.error(i) != null) {
+                errors.put(index, deleted.error(i));
+            }
+        }
+        return new BatchResult<>(Collections.unmodifiableList(results), Collections.unmodifiableMap(errors));
+    }
+
+    /**
+     * Presigns the download of the blob a reference points to. The URL serves the content type the blob was first stored with.
+     */
+    @Override
+    public String presignDownload(String fullPathWithFileId, Duration ttl) throws StorageException {
+        Reference reference = references.get(key(fullPathWithFileId));
+        if (reference == null) {
+            // A single byte is enough to tell a reference from a file
+            FileData head = delegate.download(fullPathWithFileId, 0, 1);
+            closeQuietly(head);
+            reference = isReference(head) ? resolve(fullPathWithFileId) : null;
+        }
+        return delegate.presignDownload((reference != null) ? reference.blobPath() : fullPathWithFileId, ttl);
+    }
+
+    @Override
+    public PresignedUpload presignUpload(String fullPath, String contentType, Duration ttl) throws StorageException {
+        checkContentType(contentType);
+        return delegate.presignUpload(fullPath, contentType, ttl);
+    }
+
+    /**
+     * Returns the number of hashed and deduplicated uploads, the bytes they saved and the size of the content index.
+     */
+    public DedupStats stats() {
+        return new DedupStats(uploads.sum(), deduplicated.sum(), bytesSaved.sum(), index.size());
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+    }
+
+    /**
+     * Copies the stream into the staging file, computing its CRC32C and SHA-256 on the way.
+     */
+    private static Content stage(InputStream data, FileChannel channel) throws IOException {
+        MessageDigest sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+        CRC32C crc32c = new CRC32C();
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long size = 0;
+        int read;
+        while ((read = data.read(buffer)) != -1) {
+            sha256.update(buffer, 0, read);
+            crc32c.update(buffer, 0, read);
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+            while (chunk.hasRemaining()) {
+                channel.write(chunk);
+            }
+            size += read;
+        }
+        return new Content(size, HexFormat.of().formatHex(sha256.digest()), (int) crc32c.getValue());
+    }
+
+    private void writeReference(String filePath, Reference reference) throws StorageException {
+        Properties properties = new Properties();
+        properties.setProperty(BLOB, reference.blobPath());
+        properties.setProperty(CONTENT_TYPE, reference.contentType());
+        properties.setProperty(MAC, mac(filePath, reference));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            properties.store(bytes, null);
+        } catch (IOException e) {
+            throw new StorageException("Failed to write the reference of " + filePath, e);
+        }
+        delegate.uploadTo(filePath, new ByteArrayInputStream(bytes.toByteArray()), bytes.size(), REFERENCE_CONTENT_TYPE);
+    }
+
+    /**
+     * Downloads the reference stored at the path, or returns null if the path holds a file.
+     */
+    private Reference resolve(String fullPathWithFileId) throws StorageException {
+        FileData fileData = delegate.download(fullPathWithFileId);
+        if (!isReference(fileData)) {
+            closeQuietly(fileData);
+            return null;
+        }
+        return readReference(fullPathWithFileId, fileData);
+    }
+
+    private Reference readReference(String fullPathWithFileId, FileData fileData) throws StorageException {
+        Properties properties = new Properties();
+        try (InputStream in = fileData.inputStream()) {
+            byte[] bytes = in.readNBytes(MAX_REFERENCE_SIZE);
+            properties.load(new StringReader(new String(bytes, StandardCharsets.ISO_8859_1)));
+        } catch (IOException e) {
+            throw new StorageException("Failed to read the reference of " + fullPathWithFileId, e);
+        }
+        String blobPath = properties.getProperty(BLOB);
+        String contentType = properties.getProperty(CONTENT_TYPE);
+        String mac = properties.getProperty(MAC);
+        if (blobPath == null || contentType == null || mac == null) {
+            logger.error("Invalid reference: {}", fullPathWithFileId);
+            throw new StorageException("Invalid reference: " + fullPathWithFileId);
+        }
+        Reference reference = new Reference(blobPath, contentType);
+        // Only a reference written by this client, to a blob of its own bucket, is followed
+        if (!isBlobOf(fullPathWithFileId, blobPath)
+                || !MessageDigest.isEqual(mac(fullPathWithFileId, reference).getBytes(StandardCharsets.US_ASCII),
+                        mac.getBytes(StandardCharsets.US_ASCII))) {
+            logger.error("Rejected a reference that was not written by this client: {}", fullPathWithFileId);
+            throw new StorageException("Invalid reference: " + fullPathWithFileId);
+        }
+        cache(key(fullPathWithFileId), reference);
+        return reference;
+    }
+
+    /**
+     * Returns true if the indexed blob is still stored, reading a single byte of it.
+     * A blob missing from the backend, e.g. deleted by hand, is dropped from the index so its content is stored again.
+     */
+    private boolean blobExists(String blobPath) throws StorageException {
+        try {
+            closeQuietly(delegate.download(blobPath, 0, 1));
+            return true;
+        } catch (StorageNotFoundException e) {
+            logger.warn("Indexed blob {} is missing from the backend, storing it again", blobPath);
+            index.remove(blobPath);
+            return false;
+        }
+    }
+
+    /**
+     * Downloads the blob with the content type of the reference. A blob missing from the backend,
+     * e.g. deleted by hand, is dropped from the index so its content is stored again by the next upload;
+     * other failures leave the index as it is.
+     */
+    private FileData downloadBlob(String fullPathWithFileId, Reference reference, long offset, long length) throws StorageException {
+        FileData blob;
+        try {
+            blob = (offset == 0 && length < 0)
+                    ? delegate.download(reference.blobPath())
+                    : delegate.download(reference.blobPath(), offset, length);
+        } catch (StorageNotFoundException e) {
+            index.remove(reference.blobPath());
+            logger.error("Failed to download {}, stored as {} which is missing", fullPathWithFileId, reference.blobPath(), e);
+            throw e;
+        } catch (StorageException e) {
+            logger.error("Failed to download {}, stored as {}", fullPathWithFileId, reference.blobPath(), e);
+            throw e;
+        }
+        return new FileData(blob.inputStream(), reference.contentType(), blob.size(), blob.etag(), blob.lastModified(),
+                blob.offset(), blob.totalSize());
+    }
+
+    private String mac(String fullPathWithFileId, Reference reference) throws StorageException {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(key);
+            String signed = key(fullPathWithFileId) + "\n" + reference.blobPath() + "\n" + reference.contentType();
+            return HexFormat.of().formatHex(mac.doFinal(signed.getBytes(StandardCharsets.UTF_8)));
+        } catch (GeneralSecurityException e) {
+            throw new StorageException("Failed to sign the reference of " + fullPathWithFileId, e);
+        }
+    }
+
+    /**
+     * Returns true if the blob path is exactly <bucket of the file>/dedup/<sha256 in lower-case hex>.
+     */
+    private static boolean isBlobOf(String fullPathWithFileId, String blobPath) {
+        String prefix = PathUtil.parsePathForDownload(fullPathWithFileId).bucket() + "/" + BLOB_FOLDER + "/";
+        if (!blobPath.startsWith(prefix) || blobPath.length() != prefix.length() + 64) {
+            return false;
+        }
+        for (int i = prefix.length(); i < blobPath.length(); i++) {
+            char c = blobPath.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void checkContentType(String contentType) throws StorageException {
+        if (contentType != null && contentType.toLowerCase(Locale.ROOT).trim().startsWith(REFERENCE_CONTENT_TYPE)) {
+            logger.error("The content type {} is reserved for references", REFERENCE_CONTENT_TYPE);
+            throw new StorageException("The content type " + REFERENCE_CONTENT_TYPE + " is reserved for references");
+        }
+    }
+
+    /**
+     * Reads the key kept in the file, or generates and writes a new one.
+     */
+    private static byte[] loadKey(Path keyFile) throws IOException {
+        if (Files.exists(keyFile)) {
+            return Files.readAllBytes(keyFile);
+        }
+        byte[] key = new byte[KEY_SIZE];
+        new SecureRandom().nextBytes(key);
+        Path temp = keyFile.resolveSibling(keyFile.getFileName() + STAGING_SUFFIX);
+        Files.write(temp, key);
+        Files.move(temp, keyFile, StandardCopyOption.ATOMIC_MOVE);
+        return key;
+    }
+
+    private void cache(String key, Reference reference) {
+        // A miss only costs the download of a small reference object
+        if (references.size() >= MAX_CACHED_REFERENCES) {
+            references.clear();
+        }
+        references.put(key, reference);
+    }
+
+    private static boolean isReference(FileData fileData) {
+        return REFERENCE_CONTENT_TYPE.equals(fileData.contentType());
+    }
+
+    private static String key(String fullPathWithFileId) {
+        return PathUtil.parsePathForDownload(fullPathWithFileId).path();
+    }
+
+    private static void closeQuietly(FileData fileData) {
+        try {
+            fileData.inputStream().close();
+        } catch (IOException e) {
+            logger.debug("Failed to close a download stream", e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete {}", path, e);
+        }
+    }
+
+    private record Content(long size, String sha256, int crc32c) {
+    }
+
+    private record Reference(String blobPath, String contentType) {
+    }
+}
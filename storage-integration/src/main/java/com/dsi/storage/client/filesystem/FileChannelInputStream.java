@@ -0,0 +1,111 @@
+package com.dsi.storage.client.filesystem;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * An InputStream over a {@link FileChannel} that keeps its own position, so the remaining bytes can be handed
+ * to {@link FileChannel#transferTo}. When the target is a socket or file channel, the operating system then
+ * copies the data without passing it through user space.
+ */
+public class FileChannelInputStream extends InputStream {
+    private final FileChannel channel;
+    private long position;
+    private final long end;
+
+    /**
+     * Creates a stream over the whole file.
+     */
+    public FileChannelInputStream(FileChannel channel) throws IOException {
+        this(channel, 0, channel.size());
+    }
+
+    /**
+     * Creates a stream over {@code length} bytes of the file starting at {@code position}.
+     */
+    public FileChannelInputStream(FileChannel channel, long position, long length) {
+        this.channel = channel;
+        this.position = position;
+        this.end = position + length;
+    }
+
+    /**
+     * Returns the underlying channel, e.g. to serve the file with {@link FileChannel#transferTo}.
+     */
+    public FileChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Returns the number of bytes not read yet.
+     */
+    public long remaining() {
+        return Math.max(0, end - position);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return (read(single, 0, 1) < 0) ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        long remaining = remaining();
+        if (remaining == 0) {
+            return -1;
+        }
+        int count = channel.read(ByteBuffer.wrap(bytes, offset, (int) Math.min(length, remaining)), position);
+        if (count > 0) {
+            position += count;
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.min(Math.max(0, n), remaining());
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(remaining(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Transfers the remaining bytes to the channel with {@link FileChannel#transferTo}.
+     * @return The number of bytes transferred.
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        long transferred = 0;
+        while (remaining() > 0) {
+            long count = channel.transferTo(position, remaining(), target);
+            if (count <= 0) {
+                break;
+            }
+            position += count;
+            transferred += count;
+        }
+        return transferred;
+    }
+
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        return transferTo(Channels.newChannel(out));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,406 @@
+package com.dsi.storage.client.filesystem;
+
+import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.exception.StorageNotFoundException;
+import com.dsi.storage.exception.UncheckedStorageException;
+import com.dsi.storage.util.PathUtil;
+import com.dsi.storage.util.StoragePath;
+import com.dsi.storage.util.ValidationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * FileSystemStorageService stores files in a directory of the local file system (or a mounted network volume).
+ * It keeps the same path structure as the other storage clients: <bucketName>/<nestedFolders>/<fileId>,
+ * where the bucket and the nested folders are directories below the root directory.
+ * The content type of each file is kept in a small header in front of its data, so the data and its metadata
+ * are always replaced together: files are written to a temporary file first and atomically renamed once complete,
+ * so readers see either the previous file with its own content type or the new one, never a partial file or a mix.
+ * Files written by earlier versions keep their content type in a sidecar properties file named <fileId>.meta;
+ * they are still read, and the sidecar is removed when the file is replaced. A file without either is skipped
+ * by listings and not found by downloads.
+ */
+public class FileSystemStorageService implements StorageClient {
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemStorageService.class);
+    private static final String METADATA_SUFFIX = ".meta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String CONTENT_TYPE = "content-type";
+    // A file with a metadata header starts with the magic bytes and the header length, followed by the header and the data
+    private static final byte[] HEADER_MAGIC = {0, 'D', 'S', 'I', '-', 'F', 'S', '1'};
+    private static final int HEADER_PREFIX_SIZE = HEADER_MAGIC.length + Integer.BYTES;
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Path root;
+    private final boolean sync;
+
+    public FileSystemStorageService(Path root) {
+        this(root, true);
+    }
+
+    /**
+     * @param root The directory all buckets are stored in. It is created if it does not exist.
+     * @param sync Whether written files are forced to the storage device before the upload returns.
+     */
+    public FileSystemStorageService(Path root, boolean sync) {
+        this.root = root.toAbsolutePath().normalize();
+        this.sync = sync;
+        try {
+            Files.createDirectories(this.root);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create storage root directory: " + this.root, e);
+        }
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, String contentType) throws StorageException {
+        return upload(fullPath, data, -1, contentType);
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+        StoragePath path = PathUtil.parsePathForUpload(fullPath);
+        String fileId = UUID.randomUUID().toString();
+        store(resolve(path.segments()), fileId, fileId, data, size, contentType);
+
+        String filePath = path.path() + "/" + fileId;
+        logger.info("File uploaded successfully: {}", filePath);
+        return filePath;
+    }
+
+    /**
+     * Replaces the file and its content type atomically: readers see either the previous file or the new one,
+     * never a partial file or the new data with the previous content type.
+     */
+    @Override
+    public void uploadTo(String fullPathWithFileId, InputStream data, long size, String contentType) throws StorageException {
+        Path file = resolveFile(fullPathWithFileId);
+        // Concurrent uploads to the same path must not share temporary files
+        store(file.getParent(), file.getFileName().toString(), UUID.randomUUID().toString(), data, size, contentType);
+        logger.info("File uploaded successfully: {}", fullPathWithFileId);
+    }
+
+    private void store(Path directory, String fileId, String tempId, InputStream data, long size, String contentType)
+            throws StorageException {
+        Path file = directory.resolve(fileId);
+        Path tempFile = directory.resolve(tempId + TEMP_SUFFIX);
+
+        try {
+            Files.createDirectories(directory);
+            long written = writeFile(tempFile, contentType, data);
+            if (size >= 0 && written != size) {
+                throw new StorageException(String.format("Expected %d bytes but the stream contained %d bytes", size, written));
+            }
+            moveAtomically(tempFile, file);
+        } catch (StorageException e) {
+            deleteQuietly(tempFile);
+            logger.error("Failed to upload file to the file system", e);
+            throw e;
+        } catch (IOException e) {
+            deleteQuietly(tempFile);
+            logger.error("Failed to upload file to the file system", e);
+            throw new StorageException("Failed to upload file to the file system", e);
+        }
+        // The header of the new file takes precedence, so a sidecar left from an earlier version is only removed to save space
+        deleteQuietly(metadataFileOf(file));
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId) throws StorageException {
+        return download(fullPathWithFileId, 0, -1);
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId, long offset, long length) throws StorageException {
+        if (!ValidationUtils.isValidRange(offset, length)) {
+            throw new StorageException(String.format("Invalid range: offset %d, length %d", offset, length));
+        }
+        Path file = resolveFile(fullPathWithFileId);
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            Metadata metadata = readMetadata(file, channel);
+            long size = channel.size() - metadata.dataOffset();
+            if (offset > 0 && offset >= size) {
+                throw new StorageException(String.format("Range not satisfiable: offset %d of a %d byte file", offset, size));
+            }
+            long count = (length < 0) ? size - offset : Math.min(length, size - offset);
+            return new FileData(new FileChannelInputStream(channel, metadata.dataOffset() + offset, count), metadata.contentType(),
+                    count, null, Files.getLastModifiedTime(file).toInstant(), offset, size);
+        } catch (NoSuchFileException e) {
+            closeQuietly(channel);
+            throw new StorageNotFoundException("File not found: " + fullPathWithFileId, e);
+        } catch (StorageException e) {
+            closeQuietly(channel);
+            throw e;
+        } catch (IOException e) {
+            closeQuietly(channel);
+            logger.error("Failed to download file from the file system", e);
+            throw new StorageException("Failed to download file from the file system", e);
+        }
+    }
+
+    /**
+     * Lists the files below the prefix by walking its directory lazily; the content type of each file
+     * is read from its header as the stream reaches it. Files deleted during the walk, or still being uploaded, are skipped.
+     */
+    @Override
+    public Stream<FileInfo> list(String prefix) throws StorageException {
+        StoragePath path = PathUtil.parsePathForUpload(prefix);
+        Path directory = resolve(path.segments());
+        if (!Files.isDirectory(directory)) {
+            return Stream.empty();
+        }
+        try {
+            return Files.walk(directory)
+                    .filter(file -> isValidFileId(file.getFileName().toString()) && Files.isRegularFile(file))
+                    .map(this::fileInfo)
+                    .filter(Objects::nonNull);
+        } catch (IOException e) {
+            logger.error("Failed to list files of {}", prefix, e);
+            throw new StorageException("Failed to list files of " + prefix, e);
+        }
+    }
+
+    @Override
+    public BatchResult<String> deleteAll(Collection<String> fullPathsWithFileId) {
+        List<String> results = new ArrayList<>(fullPathsWithFileId.size());
+        Map<Integer, StorageException> errors = new TreeMap<>();
+        for (String fullPathWithFileId : fullPathsWithFileId) {
+            try {
+                Path file = resolveFile(fullPathWithFileId);
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(metadataFileOf(file));
+                results.add(fullPathWithFileId);
+            } catch (StorageException | IOException | RuntimeException e) {
+                logger.error("Failed to delete {} from the file system", fullPathWithFileId, e);
+                results.add(null);
+                errors.put(results.size() - 1, (e instanceof StorageException storageException)
+                        ? storageException
+                        : new StorageException("Failed to delete " + fullPathWithFileId, e));
+            }
+        }
+        return new BatchResult<>(Collections.unmodifiableList(results), Collections.unmodifiableMap(errors));
+    }
+
+    private FileInfo fileInfo(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Metadata metadata = readMetadata(file, channel);
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            String path = root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+            return new FileInfo(path, channel.size() - metadata.dataOffset(), metadata.contentType(), null,
+                    attributes.lastModifiedTime().toInstant());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (StorageException e) {
+            throw new UncheckedStorageException(e);
+        } catch (IOException e) {
+            throw new UncheckedStorageException(new StorageException("Failed to read the metadata of " + file, e));
+        }
+    }
+
+    /**
+     * Resolves a <bucketName>/<nestedFolders>/<fileId> path to the file it is stored in,
+     * validating the folders like uploads do.
+     */
+    private Path resolveFile(String fullPathWithFileId) throws StorageException {
+        StoragePath path = PathUtil.parsePathForDownload(fullPathWithFileId);
+        if (path.segmentCount() < 2) {
+            throw new IllegalArgumentException("The file path must contain a valid bucket name and object name.");
+        }
+
+        if (!path.hasValidParentSegments() || !isValidFileId(path.fileId())) {
+            String errorMessage = String.format("The path '%s' is invalid. All segments except the File ID must follow the bucket naming rules.", fullPathWithFileId);
+            logger.error(errorMessage);
+            throw new StorageException(errorMessage);
+        }
+        return resolve(path.segments());
+    }
+
+    private Path resolve(String[] parts) throws StorageException {
+        try {
+            Path path = root;
+            for (String part : parts) {
+                path = path.resolve(part);
+            }
+            path = path.normalize();
+            // Never let a path segment escape the root directory
+            if (!path.startsWith(root) || path.equals(root)) {
+                throw new StorageException("Invalid path: " + String.join("/", parts));
+            }
+            return path;
+        } catch (InvalidPathException e) {
+            throw new StorageException("Invalid path: " + String.join("/", parts), e);
+        }
+    }
+
+    /**
+     * Writes the metadata header followed by the data.
+     * @return The number of data bytes written, excluding the header.
+     */
+    private long writeFile(Path tempFile, String contentType, InputStream data) throws IOException {
+        try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            writeFully(channel, ByteBuffer.wrap(header(contentType)));
+            byte[] buffer = new byte[COPY_BUFFER_SIZE];
+            long written = 0;
+            int read;
+            while ((read = data.read(buffer)) != -1) {
+                writeFully(channel, ByteBuffer.wrap(buffer, 0, read));
+                written += read;
+            }
+            if (sync) {
+                channel.force(true);
+            }
+            return written;
+        }
+    }
+
+    private static byte[] header(String contentType) throws IOException {
+        Properties metadata = new Properties();
+        metadata.setProperty(CONTENT_TYPE, contentType);
+        StringWriter writer = new StringWriter();
+        metadata.store(writer, null);
+        byte[] properties = writer.toString().getBytes(StandardCharsets.UTF_8);
+        if (properties.length > MAX_HEADER_SIZE) {
+            throw new IOException("The content type is too long: " + properties.length + " bytes");
+        }
+        return ByteBuffer.allocate(HEADER_PREFIX_SIZE + properties.length)
+                .put(HEADER_MAGIC)
+                .putInt(properties.length)
+                .put(properties)
+                .array();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    /**
+     * Reads the content type from the header of the file, or from its sidecar file if it has no header.
+     * @throws NoSuchFileException If the file has neither, e.g. because it is not a stored file.
+     */
+    private Metadata readMetadata(Path file, FileChannel channel) throws IOException, StorageException {
+        ByteBuffer prefix = ByteBuffer.allocate(HEADER_PREFIX_SIZE);
+        if (!readFully(channel, prefix, 0) || !Arrays.equals(HEADER_MAGIC, 0, HEADER_MAGIC.length, prefix.array(), 0, HEADER_MAGIC.length)) {
+            return new Metadata(readSidecarContentType(file), 0);
+        }
+        int length = prefix.getInt(HEADER_MAGIC.length);
+        if (length < 0 || length > MAX_HEADER_SIZE) {
+            throw new StorageException("Invalid metadata header of " + file);
+        }
+        ByteBuffer header = ByteBuffer.allocate(length);
+        if (!readFully(channel, header, HEADER_PREFIX_SIZE)) {
+            throw new StorageException("Truncated metadata header of " + file);
+        }
+        Properties metadata = new Properties();
+        metadata.load(new StringReader(new String(header.array(), StandardCharsets.UTF_8)));
+        return new Metadata(contentTypeOf(metadata), HEADER_PREFIX_SIZE + length);
+    }
+
+    /**
+     * Fills the buffer from the given position of the channel, returning false if the file ends first.
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the content type from the sidecar file of a file written by an earlier version.
+     */
+    private static String readSidecarContentType(Path file) throws IOException, StorageException {
+        Properties metadata = new Properties();
+        try (Reader reader = Files.newBufferedReader(metadataFileOf(file), StandardCharsets.UTF_8)) {
+            metadata.load(reader);
+        }
+        return contentTypeOf(metadata);
+    }
+
+    private static String contentTypeOf(Properties metadata) throws StorageException {
+        String contentType = metadata.getProperty(CONTENT_TYPE);
+        if (contentType == null) {
+            throw new StorageException("Failed to retrieve content type.");
+        }
+        return contentType;
+    }
+
+    private static Path metadataFileOf(Path file) {
+        return file.resolveSibling(file.getFileName() + METADATA_SUFFIX);
+    }
+
+    private static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static boolean isValidFileId(String fileId) {
+        return !fileId.isEmpty() && !fileId.equals(".") && !fileId.equals("..")
+                && !fileId.endsWith(METADATA_SUFFIX) && !fileId.endsWith(TEMP_SUFFIX);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete {}", path, e);
+        }
+    }
+
+    /**
+     * The content type of a file and the position its data starts at.
+     */
+    private record Metadata(String contentType, long dataOffset) {
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close file channel", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.dsi.storage.client.memory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * An InputStream reading a range of a sequence of immutable byte chunks in place.
+ * The chunks are shared between all readers and never copied; {@link #transferTo(OutputStream)}
+ * writes them to the target straight from the stored arrays.
+ */
+class ChunkedInputStream extends InputStream {
+    private final List<byte[]> chunks;
+    private int chunkIndex;
+    private int chunkPosition;
+    private long remaining;
+
+    ChunkedInputStream(List<byte[]> chunks, long size) {
+        this(chunks, 0, size);
+    }
+
+    /**
+     * Creates a stream over {@code length} bytes of the chunks starting at {@code offset}.
+     */
+    ChunkedInputStream(List<byte[]> chunks, long offset, long length) {
+        this.chunks = chunks;
+        this.remaining = offset;
+        skip(offset);
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() {
+        if (!advance()) {
+            return -1;
+        }
+        remaining--;
+        return chunks.get(chunkIndex)[chunkPosition++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!advance()) {
+            return -1;
+        }
+        int count = available(length);
+        System.arraycopy(chunks.get(chunkIndex), chunkPosition, bytes, offset, count);
+        chunkPosition += count;
+        remaining -= count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        while (skipped < n && advance()) {
+            int count = available(n - skipped);
+            chunkPosition += count;
+            remaining -= count;
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        long transferred = 0;
+        while (advance()) {
+            int count = available(Integer.MAX_VALUE);
+            out.write(chunks.get(chunkIndex), chunkPosition, count);
+            chunkPosition += count;
+            remaining -= count;
+            transferred += count;
+        }
+        return transferred;
+    }
+
+    /**
+     * Returns how many of the requested bytes can be taken from the current chunk.
+     */
+    private int available(long requested) {
+        return (int) Math.min(Math.min(requested, remaining), chunks.get(chunkIndex).length - chunkPosition);
+    }
+
+    /**
+     * Moves to the next chunk if the current one is exhausted.
+     * @return false at the end of the range.
+     */
+    private boolean advance() {
+        if (remaining <= 0) {
+            return false;
+        }
+        while (chunkIndex < chunks.size() && chunkPosition == chunks.get(chunkIndex).length) {
+            chunkIndex++;
+            chunkPosition = 0;
+        }
+        return chunkIndex < chunks.size();
+    }
+}
@@ -0,0 +1,271 @@
+package com.dsi.storage.client.memory;
+
+import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.exception.StorageNotFoundException;
+import com.dsi.storage.util.PathUtil;
+import com.dsi.storage.util.StoragePath;
+import com.dsi.storage.util.ValidationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * InMemoryStorageService keeps files in the heap, for tests, benchmarks and ephemeral data.
+ * It follows the same path rules and error behavior as the MinIO client: every segment of an upload path
+ * must be a valid MinIO bucket name, and the returned path is <bucketName>/<nestedFolders>/<fileId>.
+ * Files are stored as immutable chunks; downloads read them in place without copying the stored data.
+ * The total size of all stored files is limited by a hard cap.
+ */
+public class InMemoryStorageService implements StorageClient {
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryStorageService.class);
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static volatile InMemoryStorageService shared;
+
+    private final ConcurrentMap<String, StoredObject> objects = new ConcurrentHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private final long maxBytes;
+
+    /**
+     * @param maxBytes The maximum total size of all stored files.
+     */
+    public InMemoryStorageService(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the process-wide in-memory store, so every StorageService of the process sees the same files.
+     * It is created on first use, limited to STORAGE_INMEMORY_MAX_BYTES (default 256 MB).
+     */
+    public static InMemoryStorageService shared() {
+        InMemoryStorageService instance = shared;
+        if (instance == null) {
+            synchronized (InMemoryStorageService.class) {
+                instance = shared;
+                if (instance == null) {
+                    long maxBytes = (System.getenv("STORAGE_INMEMORY_MAX_BYTES") != null)
+                            ? Long.parseLong(System.getenv("STORAGE_INMEMORY_MAX_BYTES"))
+                            : DEFAULT_MAX_BYTES;
+                    instance = new InMemoryStorageService(maxBytes);
+                    shared = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, String contentType) throws StorageException {
+        return upload(fullPath, data, -1, contentType);
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+        String filePath = newFilePath(fullPath);
+        StoredObject object = read(data, size, contentType);
+        objects.put(filePath, object);
+        logger.info("File uploaded successfully: {}", filePath);
+        return filePath;
+    }
+
+    @Override
+    public String newFilePath(String fullPath) throws StorageException {
+        StoragePath path = PathUtil.parsePathForUpload(fullPath);
+        // Validate each part according to MinIO bucket naming rules
+        if (!path.hasMinioSegments()) {
+            String errorMessage = String.format("Invalid path '%s': All segments must adhere to MinIO bucket naming rules.", fullPath);
+            logger.error(errorMessage);
+            throw new StorageException(errorMessage);
+        }
+        return path.path() + "/" + UUID.randomUUID();
+    }
+
+    @Override
+    public void uploadTo(String fullPathWithFileId, InputStream data, long size, String contentType) throws StorageException {
+        String filePath = validate(fullPathWithFileId).path();
+        StoredObject replaced = objects.put(filePath, read(data, size, contentType));
+        if (replaced != null) {
+            usedBytes.addAndGet(-replaced.size());
+        }
+        logger.info("File uploaded successfully: {}", filePath);
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId) throws StorageException {
+        StoredObject object = find(fullPathWithFileId);
+        return new FileData(new ChunkedInputStream(object.chunks(), object.size()), object.contentType(), object.size(),
+                null, object.lastModified());
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId, long offset, long length) throws StorageException {
+        if (!ValidationUtils.isValidRange(offset, length)) {
+            throw new StorageException(String.format("Invalid range: offset %d, length %d", offset, length));
+        }
+        StoredObject object = find(fullPathWithFileId);
+        if (offset > 0 && offset >= object.size()) {
+            throw new StorageException(String.format("Range not satisfiable: offset %d of a %d byte file", offset, object.size()));
+        }
+        long count = (length < 0) ? object.size() - offset : Math.min(length, object.size() - offset);
+        return new FileData(new ChunkedInputStream(object.chunks(), offset, count), object.contentType(), count,
+                null, object.lastModified(), offset, object.size());
+    }
+
+    /**
+     * Lists the stored files below the prefix. The stream is weakly consistent:
+     * files stored or deleted while it is consumed may or may not be returned.
+     */
+    @Override
+    public Stream<FileInfo> list(String prefix) throws StorageException {
+        StoragePath path = PathUtil.parsePathForUpload(prefix);
+        if (!path.hasMinioSegments()) {
+            String errorMessage = String.format("Invalid path '%s': All segments must adhere to MinIO bucket naming rules.", prefix);
+            logger.error(errorMessage);
+            throw new StorageException(errorMessage);
+        }
+        String keyPrefix = path.path() + "/";
+        return objects.entrySet().stream()
+                .filter(entry -> entry.getKey().startsWith(keyPrefix))
+                .map(entry -> new FileInfo(entry.getKey(), entry.getValue().size(), entry.getValue().contentType(),
+                        null, entry.getValue().lastModified()));
+    }
+
+    @Override
+    public BatchResult<String> deleteAll(Collection<String> fullPathsWithFileId) {
+        List<String> results = new ArrayList<>(fullPathsWithFileId.size());
+        Map<Integer, StorageException> errors = new TreeMap<>();
+        for (String fullPathWithFileId : fullPathsWithFileId) {
+            try {
+                StoredObject removed = objects.remove(validate(fullPathWithFileId).path());
+                if (removed != null) {
+                    usedBytes.addAndGet(-removed.size());
+                }
+                results.add(fullPathWithFileId);
+            } catch (StorageException | RuntimeException e) {
+                results.add(null);
+                errors.put(results.size() - 1, (e instanceof StorageException storageException)
+                        ? storageException
+                        : new StorageException("Failed to delete " + fullPathWithFileId, e));
+            }
+        }
+        return new BatchResult<>(Collections.unmodifiableList(results), Collections.unmodifiableMap(errors));
+    }
+
+    private StoredObject find(String fullPathWithFileId) throws StorageException {
+        StoredObject object = objects.get(validate(fullPathWithFileId).path());
+        if (object == null) {
+            throw new StorageNotFoundException("File not found: " + fullPathWithFileId);
+        }
+        return object;
+    }
+
+    private StoragePath validate(String fullPathWithFileId) throws StorageException {
+        StoragePath path = PathUtil.parsePathForDownload(fullPathWithFileId);
+        // Validate all parts except the last one
+        if (!path.hasMinioParentSegments()) {
+            String errorMessage = String.format("The path '%s' is invalid. All segments except the File ID must follow MinIO bucket naming rules.", fullPathWithFileId);
+            logger.error(errorMessage);
+            throw new StorageException(errorMessage);
+        }
+        if (path.segmentCount() < 2) {
+            throw new IllegalArgumentException("The file path must contain a valid bucket name and object name.");
+        }
+        return path;
+    }
+
+    /**
+     * Returns the total size of all stored files in bytes.
+     */
+    public long usedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * Returns the maximum total size of all stored files in bytes.
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Removes all stored files.
+     */
+    public void clear() {
+        objects.keySet().forEach(key -> {
+            StoredObject removed = objects.remove(key);
+            if (removed != null) {
+                usedBytes.addAndGet(-removed.size());
+            }
+        });
+    }
+
+    /**
+     * Reads the stream into chunks, counting each chunk against the memory cap as soon as it is read.
+     */
+    private StoredObject read(InputStream data, long size, String contentType) throws StorageException {
+        List<byte[]> chunks = new ArrayList<>();
+        long total = 0;
+        try {
+            while (true) {
+                int chunkSize = (size >= 0) ? (int) Math.min(CHUNK_SIZE, size - total) : CHUNK_SIZE;
+                if (chunkSize == 0) {
+                    break;
+                }
+                byte[] chunk = data.readNBytes(chunkSize);
+                if (chunk.length > 0) {
+                    reserve(chunk.length);
+                    chunks.add(chunk);
+                    total += chunk.length;
+                }
+                if (chunk.length < chunkSize) {
+                    if (size >= 0) {
+                        throw new StorageException(String.format("Expected %d bytes but the stream contained %d bytes", size, total));
+                    }
+                    break;
+                }
+            }
+            return new StoredObject(Collections.unmodifiableList(chunks), total, contentType, Instant.now());
+        } catch (IOException e) {
+            usedBytes.addAndGet(-total);
+            logger.error("Failed to read file into memory", e);
+            throw new StorageException("Failed to read file into memory", e);
+        } catch (StorageException e) {
+            usedBytes.addAndGet(-total);
+            logger.error("Failed to store file in memory", e);
+            throw e;
+        }
+    }
+
+    private void reserve(int bytes) throws StorageException {
+        long used = usedBytes.addAndGet(bytes);
+        if (used > maxBytes) {
+            usedBytes.addAndGet(-bytes);
+            throw new StorageException(String.format("In-memory storage is full: %d of %d bytes used", used - bytes, maxBytes));
+        }
+    }
+
+    private record StoredObject(List<byte[]> chunks, long size, String contentType, Instant lastModified) {
+    }
+}
@@ -0,0 +1,131 @@
+package com.dsi.storage.client.minio;
+
+import com.dsi.storage.exception.StorageException;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Keeps track of the buckets that are known to exist, so uploads can skip the bucketExists round trip.
+ * A bucket is remembered for the configured TTL after it was checked or created.
+ * Concurrent callers asking for the same unknown bucket share a single check/creation call instead of racing.
+ */
+class BucketRegistry {
+
+    /**
+     * Performs the actual check/creation of a bucket against the storage backend.
+     */
+    @FunctionalInterface
+    interface BucketInitializer {
+        void initialize(String bucketName) throws StorageException;
+    }
+
+    private final long ttlNanos;
+    private final ConcurrentHashMap<String, Long> knownBuckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> pendingBuckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param ttl How long a bucket is remembered. A zero or negative TTL disables caching,
+     *            but concurrent initializations of the same bucket are still shared.
+     */
+    BucketRegistry(Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * Makes sure the bucket exists, calling the initializer only if the bucket is not known yet.
+     * If another thread is already initializing the same bucket, waits for its result instead.
+     */
+    void ensureExists(String bucketName, BucketInitializer initializer) throws StorageException {
+        if (isKnown(bucketName)) {
+            return;
+        }
+
+        CompletableFuture<Void> ownInitialization = new CompletableFuture<>();
+        CompletableFuture<Void> pendingInitialization = pendingBuckets.putIfAbsent(bucketName, ownInitialization);
+        if (pendingInitialization != null) {
+            await(bucketName, pendingInitialization);
+            return;
+        }
+
+        try {
+            // Another thread may have finished the initialization between the first check and putIfAbsent
+            if (!isKnown(bucketName)) {
+                initializer.initialize(bucketName);
+                remember(bucketName);
+            }
+            ownInitialization.complete(null);
+        } catch (StorageException | RuntimeException e) {
+            ownInitialization.completeExceptionally(e);
+            throw e;
+        } finally {
+            pendingBuckets.remove(bucketName, ownInitialization);
+        }
+    }
+
+    /**
+     * Makes sure all buckets exist, calling {@link #ensureExists} once per distinct bucket.
+     * A failing bucket does not stop the others from being checked.
+     * @return The error of each bucket that could not be checked or created, keyed by bucket name.
+     */
+    Map<String, StorageException> ensureAllExist(Collection<String> bucketNames, BucketInitializer initializer) {
+        Map<String, StorageException> errors = new HashMap<>();
+        Set<String> checked = new HashSet<>();
+        for (String bucketName : bucketNames) {
+            if (checked.add(bucketName)) {
+                try {
+                    ensureExists(bucketName, initializer);
+                } catch (StorageException e) {
+                    errors.put(bucketName, e);
+                }
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Drops the bucket from the registry, e.g. after the backend reported that it no longer exists.
+     */
+    void forget(String bucketName) {
+        knownBuckets.remove(bucketName);
+    }
+
+    boolean isKnown(String bucketName) {
+        Long expiresAt = knownBuckets.get(bucketName);
+        if (expiresAt == null) {
+            return false;
+        }
+        if (System.nanoTime() - expiresAt >= 0) {
+            knownBuckets.remove(bucketName, expiresAt);
+            return false;
+        }
+        return true;
+    }
+
+    private void remember(String bucketName) {
+        if (ttlNanos > 0) {
+            knownBuckets.put(bucketName, System.nanoTime() + ttlNanos);
+        }
+    }
+
+    private static void await(String bucketName, CompletableFuture<Void> initialization) throws StorageException {
+        try {
+            initialization.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting for bucket '" + bucketName + "' to be created", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof StorageException storageException) {
+                throw storageException;
+            }
+            throw new StorageException("Failed to create bucket '" + bucketName + "'", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.dsi.storage.client.minio;
+
+/**
+ * A snapshot of the HTTP connection pool shared by the MinIO clients of an endpoint.
+ *
+ * @param connections The number of open connections.
+ * @param idleConnections The number of open connections not used by a request.
+ * @param runningCalls The number of asynchronous requests running.
+ * @param queuedCalls The number of asynchronous requests waiting for the request limits.
+ */
+public record ConnectionPoolStats(int connections, int idleConnections, int runningCalls, int queuedCalls) {
+}
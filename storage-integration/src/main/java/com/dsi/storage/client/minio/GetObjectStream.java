@@ -0,0 +1,24 @@
+package com.dsi.storage.client.minio;
+
+import com.dsi.storage.buffer.TransferBuffers;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The body of a GetObject response. {@link #transferTo} copies through a large reusable buffer
+ * instead of the small buffer of {@link InputStream#transferTo}, so streaming a large object to a response takes fewer writes.
+ */
+class GetObjectStream extends FilterInputStream {
+
+    GetObjectStream(InputStream response) {
+        super(response);
+    }
+
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        return TransferBuffers.copy(in, out);
+    }
+}
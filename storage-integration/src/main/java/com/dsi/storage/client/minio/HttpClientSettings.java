@@ -0,0 +1,46 @@
+package com.dsi.storage.client.minio;
+
+import java.time.Duration;
+
+/**
+ * The settings of the HTTP client and connection pool shared by the MinIO clients of an endpoint.
+ *
+ * @param maxIdleConnections The maximum number of idle connections kept open for reuse.
+ * @param keepAlive How long an idle connection is kept open.
+ * @param maxRequests The maximum number of asynchronous requests running at the same time.
+ * @param maxRequestsPerHost The maximum number of asynchronous requests running at the same time against one host,
+ *                           e.g. the parts of multipart uploads.
+ * @param connectTimeout The timeout for establishing a connection.
+ * @param readTimeout The timeout for reading from and writing to a connection.
+ * @param http2 Whether HTTP/2 is negotiated with TLS endpoints; HTTP/1.1 is used otherwise.
+ */
+public record HttpClientSettings(int maxIdleConnections, Duration keepAlive, int maxRequests, int maxRequestsPerHost,
+                                 Duration connectTimeout, Duration readTimeout, boolean http2) {
+
+    /**
+     * Returns the settings configured through the environment:
+     * - STORAGE_HTTP_MAX_IDLE_CONNECTIONS: idle connections kept for reuse (default 32).
+     * - STORAGE_HTTP_KEEP_ALIVE: seconds an idle connection is kept open (default 300).
+     * - STORAGE_HTTP_MAX_REQUESTS: concurrent asynchronous requests (default 256).
+     * - STORAGE_HTTP_MAX_REQUESTS_PER_HOST: concurrent asynchronous requests per host (default 64).
+     * - STORAGE_HTTP_CONNECT_TIMEOUT: connect timeout in milliseconds (default 10000).
+     * - STORAGE_HTTP_READ_TIMEOUT: read and write timeout in milliseconds (default 300000).
+     * - STORAGE_HTTP2: negotiate HTTP/2 with TLS endpoints (default false).
+     */
+    public static HttpClientSettings fromEnvironment() {
+        return new HttpClientSettings(
+                (System.getenv("STORAGE_HTTP_MAX_IDLE_CONNECTIONS") != null)
+                        ? Integer.parseInt(System.getenv("STORAGE_HTTP_MAX_IDLE_CONNECTIONS")) : 32,
+                Duration.ofSeconds((System.getenv("STORAGE_HTTP_KEEP_ALIVE") != null)
+                        ? Long.parseLong(System.getenv("STORAGE_HTTP_KEEP_ALIVE")) : 300L),
+                (System.getenv("STORAGE_HTTP_MAX_REQUESTS") != null)
+                        ? Integer.parseInt(System.getenv("STORAGE_HTTP_MAX_REQUESTS")) : 256,
+                (System.getenv("STORAGE_HTTP_MAX_REQUESTS_PER_HOST") != null)
+                        ? Integer.parseInt(System.getenv("STORAGE_HTTP_MAX_REQUESTS_PER_HOST")) : 64,
+                Duration.ofMillis((System.getenv("STORAGE_HTTP_CONNECT_TIMEOUT") != null)
+                        ? Long.parseLong(System.getenv("STORAGE_HTTP_CONNECT_TIMEOUT")) : 10000L),
+                Duration.ofMillis((System.getenv("STORAGE_HTTP_READ_TIMEOUT") != null)
+                        ? Long.parseLong(System.getenv("STORAGE_HTTP_READ_TIMEOUT")) : 300000L),
+                Boolean.parseBoolean(System.getenv("STORAGE_HTTP2")));
+    }
+}
@@ -0,0 +1,122 @@
+package com.dsi.storage.client.minio;
+
+import io.minio.MinioAsyncClient;
+import io.minio.MinioClient;
+import io.minio.http.HttpUtils;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+import java.time.Clock;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The process-wide registry of MinIO clients. All MinioStorageService instances created for the same endpoint
+ * and credentials share one pair of clients and, with it, one HTTP connection pool, so creating a StorageService
+ * per request or per view reuses warm connections instead of opening new ones and repeating TLS handshakes.
+ * Clients are created on first use with the {@link HttpClientSettings} and the STORAGE_REGION of the environment
+ * and kept for the lifetime of the process. They also share the cache of presigned download URLs.
+ */
+final class MinioClientRegistry {
+    private static final ConcurrentMap<Key, MinioClients> clients = new ConcurrentHashMap<>();
+    private static final int PRESIGNED_URL_CACHE_SIZE = 10_000;
+
+    private MinioClientRegistry() {
+    }
+
+    static MinioClients acquire(String endpoint, String accessKey, String secretKey) {
+        return clients.computeIfAbsent(new Key(endpoint, accessKey, secretKey), key -> create(key, HttpClientSettings.fromEnvironment()));
+    }
+
+    private static MinioClients create(Key key, HttpClientSettings settings) {
+        OkHttpClient httpClient = newHttpClient(settings);
+
+        // With a known region, presigned URLs are signed without asking the server for the region of the bucket
+        String region = System.getenv("STORAGE_REGION");
+        MinioClient minioClient = MinioClient.builder()
+                .endpoint(key.endpoint)
+                .credentials(key.accessKey, key.secretKey)
+                .region(region)
+                .httpClient(httpClient)
+                .build();
+        MinioUploadClient uploadClient = new MinioUploadClient(MinioAsyncClient.builder()
+                .endpoint(key.endpoint)
+                .credentials(key.accessKey, key.secretKey)
+                .region(region)
+                .httpClient(httpClient)
+                .build());
+        return new MinioClients(minioClient, uploadClient, httpClient);
+    }
+
+    /**
+     * Creates the HTTP client shared by the clients of one endpoint, with the pool, limits, timeouts and protocols of the settings.
+     */
+    static OkHttpClient newHttpClient(HttpClientSettings settings) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(settings.maxRequests());
+        dispatcher.setMaxRequestsPerHost(settings.maxRequestsPerHost());
+        // Keeps the trust settings of the SDK's default client and replaces its pool and limits
+        return HttpUtils.newDefaultHttpClient(settings.connectTimeout().toMillis(),
+                        settings.readTimeout().toMillis(), settings.readTimeout().toMillis())
+                .newBuilder()
+                .connectionPool(new ConnectionPool(settings.maxIdleConnections(), settings.keepAlive().toMillis(), TimeUnit.MILLISECONDS))
+                .dispatcher(dispatcher)
+                .protocols(settings.http2() ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1))
+                .build();
+    }
+
+    /**
+     * The clients of one endpoint and credentials, sharing one HTTP client.
+     */
+    static final class MinioClients {
+        final MinioClient minioClient;
+        final MinioUploadClient uploadClient;
+        final PresignedUrls presignedUrls;
+        final OkHttpClient httpClient;
+
+        private MinioClients(MinioClient minioClient, MinioUploadClient uploadClient, OkHttpClient httpClient) {
+            this.minioClient = minioClient;
+            this.uploadClient = uploadClient;
+            this.presignedUrls = new PresignedUrls(minioClient, PRESIGNED_URL_CACHE_SIZE, Clock.systemUTC());
+            this.httpClient = httpClient;
+        }
+
+        ConnectionPoolStats stats() {
+            ConnectionPool pool = httpClient.connectionPool();
+            Dispatcher dispatcher = httpClient.dispatcher();
+            return new ConnectionPoolStats(pool.connectionCount(), pool.idleConnectionCount(),
+                    dispatcher.runningCallsCount(), dispatcher.queuedCallsCount());
+        }
+    }
+
+    /**
+     * Deliberately not a record, so the secret key never shows up in a toString().
+     */
+    private static final class Key {
+        private final String endpoint;
+        private final String accessKey;
+        private final String secretKey;
+
+        private Key(String endpoint, String accessKey, String secretKey) {
+            this.endpoint = endpoint;
+            this.accessKey = accessKey;
+            this.secretKey = secretKey;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && endpoint.equals(key.endpoint) && accessKey.equals(key.accessKey)
+                    && secretKey.equals(key.secretKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(endpoint, accessKey, secretKey);
+        }
+    }
+}
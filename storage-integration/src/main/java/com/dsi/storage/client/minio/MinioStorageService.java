@@ -1,11 +1,25 @@
 package com.dsi.storage.client.minio;
 
+import com.dsi.storage.buffer.BufferPool;
 import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.concurrent.BatchExecutor;
+import com.dsi.storage.concurrent.StorageCallable;
+import com.dsi.storage.dto.BatchResult;
 import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.dto.PresignedUpload;
+import com.dsi.storage.dto.UploadRequest;
 import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.exception.StorageNotFoundException;
+import com.dsi.storage.exception.UncheckedStorageException;
 import com.dsi.storage.util.PathUtil;
+import com.dsi.storage.util.StoragePath;
+import com.dsi.storage.util.ValidationUtils;
 import io.minio.*;
 import io.minio.errors.*;
+import io.minio.messages.DeleteError;
+import io.minio.messages.DeleteObject;
+import io.minio.messages.Item;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,8 +27,27 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * MinioStorageService provides methods for interacting with MinIO for file storage and retrieval.
@@ -23,74 +56,177 @@ import java.util.UUID;
  */
 public class MinioStorageService implements StorageClient {
     private final long partSize;
+    private final int smallObjectLimit;
     private final MinioClient minioClient;
+    private final MinioClientRegistry.MinioClients clients;
+    private final MinioUploadClient uploadClient;
+    private final BucketRegistry bucketRegistry;
+    private final MultipartUploader multipartUploader;
     private static final Logger logger = LoggerFactory.getLogger(MinioStorageService.class);
 
-    // Regular expression for validating MinIO bucket names:
-    // 1. (?!xn--) - Ensures the bucket name does not start with the prefix 'xn--'.
-    // 2. (?!.*\\.-) - Ensures there is no '.' followed by a '-' anywhere in the name.
-    // 3. (?!.*--) - Ensures there are no consecutive hyphens '--' anywhere in the name.
-    // 4. (?!.*\\.\\.) - Ensures there are no consecutive dots '..' anywhere in the name.
-    // 5. [a-z0-9] - The bucket name must start with a lowercase letter or digit.
-    // 6. (?:[a-z0-9\\-]*[a-z0-9])? - The rest of the name can contain lowercase letters, digits, or hyphens, but must end with a lowercase letter or digit.
-    private static final String MINIO_BUCKET_NAME_REGEX = "^(?!xn--)(?!.*\\.-)(?!.*--)(?!.*\\.\\.)[a-z0-9](?:[a-z0-9\\-]*[a-z0-9])?$";
-    private static final String RESERVED_SUFFIX = "-s3alias";
+    private static final String NO_SUCH_BUCKET = "NoSuchBucket";
+    private static final String NO_SUCH_KEY = "NoSuchKey";
+    private static final String BUCKET_ALREADY_OWNED_BY_YOU = "BucketAlreadyOwnedByYou";
+    private static final Duration DEFAULT_BUCKET_CACHE_TTL = Duration.ofMinutes(5);
+    private static final int DEFAULT_UPLOAD_PARALLELISM = 4;
+    private static final int DEFAULT_PART_ATTEMPTS = 3;
 
     public MinioStorageService(String endpoint, String accessKey, String secretKey, long partSize) {
-        this.minioClient = MinioClient.builder()
-                .endpoint(endpoint)
-                .credentials(accessKey, secretKey)
-                .build();
+        this(endpoint, accessKey, secretKey, partSize, DEFAULT_BUCKET_CACHE_TTL, BufferPool.shared());
+    }
+
+    /**
+     * @param bucketCacheTtl How long a bucket is remembered as existing after it was checked or created.
+     * @param bufferPool The pool providing the part buffers of multipart uploads.
+     */
+    public MinioStorageService(String endpoint, String accessKey, String secretKey, long partSize, Duration bucketCacheTtl,
+                               BufferPool bufferPool) {
+        this(endpoint, accessKey, secretKey, partSize, bucketCacheTtl, bufferPool, DEFAULT_UPLOAD_PARALLELISM, DEFAULT_PART_ATTEMPTS);
+    }
+
+    /**
+     * @param bucketCacheTtl How long a bucket is remembered as existing after it was checked or created.
+     * @param bufferPool The pool providing the part buffers of multipart uploads.
+     * @param uploadParallelism The number of parts of one multipart upload sent at the same time.
+     * @param maxPartAttempts How many times a part failing with a transient error is sent before the upload fails.
+     */
+    public MinioStorageService(String endpoint, String accessKey, String secretKey, long partSize, Duration bucketCacheTtl,
+                               BufferPool bufferPool, int uploadParallelism, int maxPartAttempts) {
+        // Instances for the same endpoint and credentials share the clients, and with them the connection pool
+        this.clients = MinioClientRegistry.acquire(endpoint, accessKey, secretKey);
+        this.minioClient = clients.minioClient;
+        this.uploadClient = clients.uploadClient;
         this.partSize = partSize;
+        this.smallObjectLimit = (int) Math.min(partSize, ObjectWriteArgs.MIN_MULTIPART_SIZE);
+        this.bucketRegistry = new BucketRegistry(bucketCacheTtl);
+        this.multipartUploader = new MultipartUploader(uploadClient, bufferPool, partSize, uploadParallelism, maxPartAttempts);
+    }
+
+    /**
+     * Returns the usage of the HTTP connection pool, which is shared with all instances for the same endpoint and credentials.
+     */
+    public ConnectionPoolStats connectionPoolStats() {
+        return clients.stats();
     }
 
     @Override
     public String upload(String fullPath, InputStream data, String contentType) throws StorageException {
-        try {
-            String[] parts = PathUtil.splitPathForUpload(fullPath);
-            // Validate each part according to MinIO bucket naming rules
-            boolean allPartsValid = Arrays.stream(parts)
-                    .allMatch(MinioStorageService::isValidMinioBucketName);
-
-            // Check if all parts are valid and handle errors
-            if (!allPartsValid) {
-                String errorMessage = String.format("Invalid path '%s': All segments must adhere to MinIO bucket naming rules.", fullPath);
-                logger.error(errorMessage);
-                throw new StorageException(errorMessage);
-            }
+        return upload(fullPath, data, -1, contentType);
+    }
 
-            String[] extractedParts = extractPathComponents(parts);
+    @Override
+    public String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+        return upload(resolveUploadTarget(fullPath), data, size, contentType);
+    }
 
-            String baseBucket = extractedParts[0];
-            String directoryBucketPath = extractedParts[1];
+    /**
+     * Uploads all files, parsing each distinct base path and checking each distinct bucket only once for the whole batch.
+     */
+    @Override
+    public BatchResult<String> uploadAll(Collection<UploadRequest> requests, Executor executor, int parallelism) {
+        Map<String, UploadTarget> targets = new HashMap<>();
+        Map<String, StorageException> errors = new HashMap<>();
+        for (UploadRequest request : requests) {
+            String fullPath = request.fullPath();
+            if (!targets.containsKey(fullPath) && !errors.containsKey(fullPath)) {
+                try {
+                    targets.put(fullPath, resolveUploadTarget(fullPath));
+                } catch (StorageException e) {
+                    errors.put(fullPath, e);
+                }
+            }
+        }
 
-            String fileId = UUID.randomUUID().toString();
-            logger.debug("Base Bucket: {}, Directory Bucket Path: {}, Generated File ID: {}", baseBucket, directoryBucketPath, fileId);
+        // Check every bucket of the batch up front, so the uploads themselves only hit the bucket registry
+        List<String> baseBuckets = targets.values().stream().map(UploadTarget::baseBucket).toList();
+        Map<String, StorageException> bucketErrors = bucketRegistry.ensureAllExist(baseBuckets, this::createBucketIfMissing);
+        bucketErrors.forEach((baseBucket, e) -> logger.error("Failed to prepare bucket '{}' for batch upload", baseBucket, e));
 
-            // Create bucket if it does not exist
-            if (!minioClient.bucketExists(BucketExistsArgs.builder().bucket(baseBucket).build())) {
-                minioClient.makeBucket(MakeBucketArgs.builder().bucket(baseBucket).build());
-                logger.debug("Bucket '{}' created successfully.", baseBucket);
+        List<StorageCallable<String>> operations = new ArrayList<>(requests.size());
+        for (UploadRequest request : requests) {
+            UploadTarget target = targets.get(request.fullPath());
+            StorageException error = (target == null) ? errors.get(request.fullPath()) : bucketErrors.get(target.baseBucket());
+            if (error != null) {
+                operations.add(() -> {
+                    throw error;
+                });
+            } else {
+                operations.add(() -> upload(target, request.inputStream(), request.size(), request.contentType()));
             }
+        }
+        return BatchExecutor.runAll(operations, executor, parallelism);
+    }
+
+    private UploadTarget resolveUploadTarget(String fullPath) throws StorageException {
+        StoragePath path = PathUtil.parsePathForUpload(fullPath);
+        // Check that all parts follow the MinIO bucket naming rules and handle errors
+        if (!path.hasMinioSegments()) {
+            String errorMessage = String.format("Invalid path '%s': All segments must adhere to MinIO bucket naming rules.", fullPath);
+            logger.error(errorMessage);
+            throw new StorageException(errorMessage);
+        }
+
+        return new UploadTarget(path.bucket(), path.objectPath());
+    }
+
+    private String upload(UploadTarget target, InputStream data, long size, String contentType) throws StorageException {
+        String baseBucket = target.baseBucket();
+        String directoryBucketPath = target.directoryBucketPath();
+
+        String fileId = UUID.randomUUID().toString();
+        logger.debug("Base Bucket: {}, Directory Bucket Path: {}, Generated File ID: {}", baseBucket, directoryBucketPath, fileId);
 
-            // Constructing the object path, which will just be the fileId if directoryBucketPath is empty
-            String objectPath = directoryBucketPath.isEmpty() ? fileId : directoryBucketPath + "/" + fileId;
+        // Constructing the object path, which will just be the fileId if directoryBucketPath is empty
+        String objectPath = directoryBucketPath.isEmpty() ? fileId : directoryBucketPath + "/" + fileId;
+        store(baseBucket, objectPath, data, size, contentType);
+
+        // Constructing the full file path
+        String filePath = baseBucket + "/" + objectPath;
+
+        logger.info("File uploaded successfully: {}", filePath);
+        return filePath;
+    }
+
+    @Override
+    public String newFilePath(String fullPath) throws StorageException {
+        UploadTarget target = resolveUploadTarget(fullPath);
+        String fileId = UUID.randomUUID().toString();
+        return target.baseBucket() + "/" + (target.directoryBucketPath().isEmpty() ? fileId : target.directoryBucketPath() + "/" + fileId);
+    }
+
+    /**
+     * Stores the object at the given path, overwriting it if it exists. S3 replaces objects atomically,
+     * so readers see either the previous object or the new one.
+     */
+    @Override
+    public void uploadTo(String fullPathWithFileId, InputStream data, long size, String contentType) throws StorageException {
+        StoragePath path = validateDownloadPath(fullPathWithFileId);
+        store(path.bucket(), path.objectPath(), data, size, contentType);
+        logger.info("File uploaded successfully: {}", fullPathWithFileId);
+    }
+
+    private void store(String baseBucket, String objectPath, InputStream data, long size, String contentType) throws StorageException {
+        try {
+            // Create bucket if it is not known to exist yet
+            bucketRegistry.ensureExists(baseBucket, this::createBucketIfMissing);
+
+            UploadSource source = UploadSource.of(data, size, smallObjectLimit);
 
             // Upload the file
-            minioClient.putObject(
-                    PutObjectArgs.builder()
-                            .bucket(baseBucket)
-                            .object(objectPath)
-                            .stream(data, -1, partSize) // -1 for unknown size
-                            .contentType(contentType)
-                            .build()
-            );
-
-            // Constructing the full file path
-            String filePath = baseBucket + "/" + objectPath;
-
-            logger.info("File uploaded successfully: {}", filePath);
-            return filePath;
+            try {
+                putObject(baseBucket, objectPath, source, contentType);
+            } catch (ErrorResponseException e) {
+                if (!isErrorCode(e, NO_SUCH_BUCKET)) {
+                    throw e;
+                }
+                bucketRegistry.forget(baseBucket);
+                if (!source.isReplayable()) {
+                    throw e;
+                }
+                logger.warn("Bucket '{}' no longer exists, recreating it and retrying the upload.", baseBucket);
+                bucketRegistry.ensureExists(baseBucket, this::createBucketIfMissing);
+                putObject(baseBucket, objectPath, source, contentType);
+            }
         } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
             logger.error("Failed to upload file to MinIO", e);
             throw new StorageException("Failed to upload file to MinIO", e);
@@ -99,68 +235,322 @@ public class MinioStorageService implements StorageClient {
 
     @Override
     public FileData download(String fullPathWithFileId) throws StorageException {
-        try {
-            String[] parts = PathUtil.splitPathForDownload(fullPathWithFileId);
-            // Validate all parts except the last one
-            boolean allValidMinioBucketNames = Arrays.stream(parts, 0, parts.length - 1)
-                    .allMatch(MinioStorageService::isValidMinioBucketName);
-
-            if (!allValidMinioBucketNames) {
-                String errorMessage = String.format("The path '%s' is invalid. All segments except the File ID must follow MinIO bucket naming rules.", fullPathWithFileId);
-                logger.error(errorMessage);
-                throw new StorageException(errorMessage);
+        return getObject(fullPathWithFileId, null, null);
+    }
+
+    /**
+     * Downloads a range of the object with the offset and length of a single GetObject request.
+     */
+    @Override
+    public FileData download(String fullPathWithFileId, long offset, long length) throws StorageException {
+        if (!ValidationUtils.isValidRange(offset, length)) {
+            throw new StorageException(String.format("Invalid range: offset %d, length %d", offset, length));
+        }
+        return getObject(fullPathWithFileId, offset, (length < 0) ? null : length);
+    }
+
+    /**
+     * Lists the objects below the prefix with ListObjectsV2, which the SDK pages through lazily, 1000 objects per request.
+     * The content type is returned by MinIO's listing metadata extension; other S3 backends report null.
+     * A missing bucket lists as empty.
+     */
+    @Override
+    public Stream<FileInfo> list(String prefix) throws StorageException {
+        UploadTarget target = resolveUploadTarget(prefix);
+        String baseBucket = target.baseBucket();
+        Iterator<Result<Item>> results = minioClient.listObjects(ListObjectsArgs.builder()
+                .bucket(baseBucket)
+                .prefix(target.directoryBucketPath().isEmpty() ? null : target.directoryBucketPath() + "/")
+                .recursive(true)
+                .includeUserMetadata(true)
+                .build()).iterator();
+
+        Iterator<FileInfo> files = new Iterator<>() {
+            private FileInfo next;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && results.hasNext()) {
+                    try {
+                        Item item = results.next().get();
+                        if (!item.isDir()) {
+                            next = fileInfo(baseBucket, item);
+                        }
+                    } catch (ErrorResponseException e) {
+                        if (isErrorCode(e, NO_SUCH_BUCKET)) {
+                            return false;
+                        }
+                        throw listingFailure(prefix, e);
+                    } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+                        throw listingFailure(prefix, e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public FileInfo next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                FileInfo file = next;
+                next = null;
+                return file;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(files, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Deletes the objects with one multi-object delete request per bucket and 1000 objects.
+     * Deleting from a missing bucket succeeds, like deleting a missing object.
+     */
+    @Override
+    public BatchResult<String> deleteAll(Collection<String> fullPathsWithFileId) {
+        List<String> paths = new ArrayList<>(fullPathsWithFileId);
+        Map<Integer, StorageException> errors = new TreeMap<>();
+        // The indexes of each object name, per bucket
+        Map<String, Map<String, List<Integer>>> buckets = new LinkedHashMap<>();
+        for (int i = 0; i < paths.size(); i++) {
+            try {
+                StoragePath path = validateDownloadPath(paths.get(i));
+                buckets.computeIfAbsent(path.bucket(), bucket -> new LinkedHashMap<>())
+                        .computeIfAbsent(path.objectPath(), objectPath -> new ArrayList<>())
+                        .add(i);
+            } catch (StorageException e) {
+                errors.put(i, e);
+            } catch (IllegalArgumentException e) {
+                errors.put(i, new StorageException(e.getMessage(), e));
+            }
+        }
+
+        for (Map.Entry<String, Map<String, List<Integer>>> bucket : buckets.entrySet()) {
+            String baseBucket = bucket.getKey();
+            Map<String, List<Integer>> objects = bucket.getValue();
+            List<DeleteObject> deletes = objects.keySet().stream().map(DeleteObject::new).toList();
+            try {
+                // The results are lazy: iterating them sends the requests
+                for (Result<DeleteError> result : minioClient.removeObjects(
+                        RemoveObjectsArgs.builder().bucket(baseBucket).objects(deletes).build())) {
+                    DeleteError error = result.get();
+                    StorageException failure = new StorageException(String.format("Failed to delete %s/%s: %s %s",
+                            baseBucket, error.objectName(), error.code(), error.message()));
+                    logger.error(failure.getMessage());
+                    for (int index : objects.getOrDefault(error.objectName(), List.of())) {
+                        errors.put(index, failure);
+                    }
+                }
+            } catch (ErrorResponseException e) {
+                if (!isErrorCode(e, NO_SUCH_BUCKET)) {
+                    failAll(errors, objects, baseBucket, e);
+                }
+            } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+                failAll(errors, objects, baseBucket, e);
             }
+        }
 
-            String[] extractedParts = extractPathComponents(parts);
+        List<String> results = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            results.add(errors.containsKey(i) ? null : paths.get(i));
+        }
+        return new BatchResult<>(Collections.unmodifiableList(results), Collections.unmodifiableMap(errors));
+    }
 
-            String baseBucket = extractedParts[0];
-            String fileIdWithDirectoryBucketPath = extractedParts[1];
+    private static void failAll(Map<Integer, StorageException> errors, Map<String, List<Integer>> objects, String baseBucket,
+                                Exception e) {
+        logger.error("Failed to delete files from bucket '{}'", baseBucket, e);
+        StorageException failure = new StorageException("Failed to delete files from bucket '" + baseBucket + "'", e);
+        for (List<Integer> indexes : objects.values()) {
+            for (int index : indexes) {
+                errors.putIfAbsent(index, failure);
+            }
+        }
+    }
 
-            if (fileIdWithDirectoryBucketPath.isEmpty()) {
-                throw new IllegalArgumentException("The file path must contain a valid bucket name and object name.");
+    private static FileInfo fileInfo(String baseBucket, Item item) {
+        String contentType = null;
+        if (item.userMetadata() != null) {
+            for (Map.Entry<String, String> metadata : item.userMetadata().entrySet()) {
+                if ("content-type".equalsIgnoreCase(metadata.getKey())) {
+                    contentType = metadata.getValue();
+                }
             }
+        }
+        return new FileInfo(baseBucket + "/" + item.objectName(), item.size(), contentType,
+                (item.etag() != null) ? item.etag().replace("\"", "") : null,
+                (item.lastModified() != null) ? item.lastModified().toInstant() : null);
+    }
+
+    private static UncheckedStorageException listingFailure(String prefix, Exception e) {
+        logger.error("Failed to list files of {}", prefix, e);
+        return new UncheckedStorageException(new StorageException("Failed to list files of " + prefix, e));
+    }
+
+    /**
+     * Signs a GET URL locally. URLs are cached per path and lifetime and reused until shortly before they expire.
+     */
+    @Override
+    public String presignDownload(String fullPathWithFileId, Duration ttl) throws StorageException {
+        StoragePath path = validateDownloadPath(fullPathWithFileId);
+        try {
+            return clients.presignedUrls.download(path.bucket(), path.objectPath(), ttl);
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            logger.error("Failed to presign the download of {}", fullPathWithFileId, e);
+            throw new StorageException("Failed to presign the download of " + fullPathWithFileId, e);
+        }
+    }
 
-            GetObjectResponse response = getObjectResponse(minioClient, baseBucket, fileIdWithDirectoryBucketPath);
+    /**
+     * Signs a PUT URL for a new file ID locally, creating the bucket first if it is not known to exist.
+     */
+    @Override
+    public PresignedUpload presignUpload(String fullPath, String contentType, Duration ttl) throws StorageException {
+        UploadTarget target = resolveUploadTarget(fullPath);
+        String baseBucket = target.baseBucket();
+        String fileId = UUID.randomUUID().toString();
+        String objectPath = target.directoryBucketPath().isEmpty() ? fileId : target.directoryBucketPath() + "/" + fileId;
+        bucketRegistry.ensureExists(baseBucket, this::createBucketIfMissing);
+        try {
+            String url = clients.presignedUrls.upload(baseBucket, objectPath, ttl);
+            return new PresignedUpload(baseBucket + "/" + objectPath, url, contentType);
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            logger.error("Failed to presign an upload to {}", fullPath, e);
+            throw new StorageException("Failed to presign an upload to " + fullPath, e);
+        }
+    }
+
+    private StoragePath validateDownloadPath(String fullPathWithFileId) throws StorageException {
+        StoragePath path = PathUtil.parsePathForDownload(fullPathWithFileId);
+        // Validate all parts except the last one
+        if (!path.hasMinioParentSegments()) {
+            String errorMessage = String.format("The path '%s' is invalid. All segments except the File ID must follow MinIO bucket naming rules.", fullPathWithFileId);
+            logger.error(errorMessage);
+            throw new StorageException(errorMessage);
+        }
+        if (path.objectPath().isEmpty()) {
+            throw new IllegalArgumentException("The file path must contain a valid bucket name and object name.");
+        }
+        return path;
+    }
+
+    private FileData getObject(String fullPathWithFileId, Long offset, Long length) throws StorageException {
+        try {
+            StoragePath path = validateDownloadPath(fullPathWithFileId);
+            String baseBucket = path.bucket();
+            String fileIdWithDirectoryBucketPath = path.objectPath();
+
+            GetObjectResponse response = getObjectResponse(minioClient, baseBucket, fileIdWithDirectoryBucketPath, offset, length);
             String contentType = response.headers().get("Content-Type");
             if (contentType == null) {
+                response.close();
                 throw new StorageException("Failed to retrieve content type.");
             }
 
-            return new FileData(response, contentType);
+            long size = contentLength(response);
+            long[] range = contentRange(response);
+            return new FileData(new GetObjectStream(response), contentType, size, etag(response), lastModified(response),
+                    (range != null) ? range[0] : 0, (range != null) ? range[1] : size);
+        } catch (ErrorResponseException e) {
+            if (isErrorCode(e, NO_SUCH_KEY) || isErrorCode(e, NO_SUCH_BUCKET)) {
+                throw new StorageNotFoundException("File not found: " + fullPathWithFileId, e);
+            }
+            logger.error("Failed to download file from MinIO", e);
+            throw new StorageException("Failed to download file from MinIO", e);
         } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
             logger.error("Failed to download file from MinIO", e);
             throw new StorageException("Failed to download file from MinIO", e);
         }
     }
 
-    private static GetObjectResponse getObjectResponse(MinioClient minioClient, String baseBucket, String fileIdWithDirectoryBucketPath)
+    /**
+     * Returns the offset and total size of a Content-Range header such as "bytes 0-1023/146515",
+     * or null if the response holds the whole object.
+     */
+    private static long[] contentRange(GetObjectResponse response) {
+        String contentRange = response.headers().get("Content-Range");
+        if (contentRange == null || !contentRange.startsWith("bytes ")) {
+            return null;
+        }
+        int dash = contentRange.indexOf('-');
+        int slash = contentRange.indexOf('/');
+        try {
+            long offset = Long.parseLong(contentRange.substring("bytes ".length(), dash));
+            String total = contentRange.substring(slash + 1);
+            return new long[]{offset, total.equals("*") ? -1 : Long.parseLong(total)};
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static long contentLength(GetObjectResponse response) {
+        String contentLength = response.headers().get("Content-Length");
+        try {
+            return (contentLength != null) ? Long.parseLong(contentLength) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String etag(GetObjectResponse response) {
+        String etag = response.headers().get("ETag");
+        return (etag != null) ? etag.replace("\"", "") : null;
+    }
+
+    private static Instant lastModified(GetObjectResponse response) {
+        String lastModified = response.headers().get("Last-Modified");
+        try {
+            return (lastModified != null) ? ZonedDateTime.parse(lastModified, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant() : null;
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private void putObject(String baseBucket, String objectPath, UploadSource source, String contentType)
+            throws StorageException, MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        if (source.isBuffered()) {
+            // Small objects are sent with a single PUT straight from their exactly sized buffer
+            uploadClient.putObject(baseBucket, objectPath, source.buffer(), source.length(), contentType);
+        } else {
+            // Larger objects are sent from pooled buffers: with a single PUT up to the part size, otherwise in parts
+            multipartUploader.upload(baseBucket, objectPath, source, contentType);
+        }
+    }
+
+    private void createBucketIfMissing(String baseBucket) throws StorageException {
+        try {
+            if (!minioClient.bucketExists(BucketExistsArgs.builder().bucket(baseBucket).build())) {
+                minioClient.makeBucket(MakeBucketArgs.builder().bucket(baseBucket).build());
+                logger.debug("Bucket '{}' created successfully.", baseBucket);
+            }
+        } catch (ErrorResponseException e) {
+            // Another node may have created the bucket between our check and the creation
+            if (!isErrorCode(e, BUCKET_ALREADY_OWNED_BY_YOU)) {
+                throw new StorageException("Failed to create bucket '" + baseBucket + "'", e);
+            }
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            throw new StorageException("Failed to create bucket '" + baseBucket + "'", e);
+        }
+    }
+
+    private static boolean isErrorCode(ErrorResponseException e, String code) {
+        return e.errorResponse() != null && code.equals(e.errorResponse().code());
+    }
+
+    private static GetObjectResponse getObjectResponse(MinioClient minioClient, String baseBucket, String fileIdWithDirectoryBucketPath,
+                                                       Long offset, Long length)
             throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
         return minioClient.getObject(GetObjectArgs.builder()
                 .bucket(baseBucket)
                 .object(fileIdWithDirectoryBucketPath)
+                .offset(offset)
+                .length(length)
                 .build()
         );
     }
 
-    private static String[] extractPathComponents(String[] parts) throws StorageException {
-        if (parts.length == 0) {
-            throw new StorageException("Invalid path: " + String.join("/", parts));
-        }
-
-        String baseBucket = parts[0];
-        String directoryBucketPath = (parts.length > 1)
-                ? String.join("/", Arrays.copyOfRange(parts, 1, parts.length))
-                : "";
-        return new String[] { baseBucket, directoryBucketPath };
-    }
-
-
     /**
-     * Validates a bucket name according to MinIO-specific naming rules.
+     * The already validated location a file is uploaded to: the bucket and the folders inside it.
      */
-    private static boolean isValidMinioBucketName(String bucketName) {
-        return bucketName.matches(MINIO_BUCKET_NAME_REGEX) &&
-                !bucketName.endsWith(RESERVED_SUFFIX) &&
-                !bucketName.matches("^\\d{1,3}(\\.\\d{1,3}){3}$");
+    private record UploadTarget(String baseBucket, String directoryBucketPath) {
     }
 }
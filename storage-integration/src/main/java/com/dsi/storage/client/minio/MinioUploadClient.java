@@ -0,0 +1,85 @@
+package com.dsi.storage.client.minio;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import io.minio.MinioAsyncClient;
+import io.minio.ObjectWriteResponse;
+import io.minio.UploadPartResponse;
+import io.minio.errors.*;
+import io.minio.messages.Part;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Exposes the lower level S3 operations of the MinIO SDK that {@link io.minio.MinioClient} does not offer.
+ * Data passed as a byte array is sent as the request body as is, without being copied into the SDK's own buffers.
+ */
+// Never used as a resource: it shares the HTTP client of the registry, and the close() it inherits declares Exception
+@SuppressWarnings("try")
+class MinioUploadClient extends MinioAsyncClient {
+
+    MinioUploadClient(MinioAsyncClient client) {
+        super(client);
+    }
+
+    /**
+     * Uploads the first {@code length} bytes of {@code data} with a single PUT request.
+     */
+    ObjectWriteResponse putObject(String bucketName, String objectName, byte[] data, int length, String contentType)
+            throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        Multimap<String, String> headers = HashMultimap.create();
+        headers.put("Content-Type", contentType);
+        return await(putObjectAsync(bucketName, null, objectName, data, length, headers, null), bucketName, objectName);
+    }
+
+    /**
+     * Starts a multipart upload and returns its upload ID.
+     */
+    String createMultipartUpload(String bucketName, String objectName, String contentType)
+            throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        Multimap<String, String> headers = HashMultimap.create();
+        headers.put("Content-Type", contentType);
+        return await(createMultipartUploadAsync(bucketName, null, objectName, headers, null), bucketName, objectName)
+                .result().uploadId();
+    }
+
+    /**
+     * Sends the first {@code length} bytes of {@code data} as a part of a multipart upload without waiting for the response.
+     * The returned future completes with the ETag of the part; {@code data} must not be changed until then.
+     */
+    CompletableFuture<String> sendPart(String bucketName, String objectName, String uploadId, int partNumber, byte[] data, int length) {
+        try {
+            return uploadPartAsync(bucketName, null, objectName, data, length, uploadId, partNumber, null, null)
+                    .thenApply(UploadPartResponse::etag);
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    void completeMultipartUpload(String bucketName, String objectName, String uploadId, Part[] parts)
+            throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        await(completeMultipartUploadAsync(bucketName, null, objectName, uploadId, parts, null, null), bucketName, objectName);
+    }
+
+    void abortMultipartUpload(String bucketName, String objectName, String uploadId)
+            throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        await(abortMultipartUploadAsync(bucketName, null, objectName, uploadId, null, null), bucketName, objectName);
+    }
+
+    private <T> T await(CompletableFuture<T> future, String bucketName, String objectName)
+            throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while uploading " + bucketName + "/" + objectName, e);
+        } catch (ExecutionException e) {
+            throwEncapsulatedException(e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.dsi.storage.client.minio;
+
+import com.dsi.storage.buffer.BufferPool;
+import com.dsi.storage.buffer.PooledBuffer;
+import com.dsi.storage.client.resilience.RetryableErrors;
+import com.dsi.storage.exception.StorageException;
+import io.minio.ObjectWriteArgs;
+import io.minio.errors.MinioException;
+import io.minio.messages.Part;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Uploads large streams through the S3 multipart API, reading each part into a buffer borrowed from a {@link BufferPool}
+ * and sending it from there, so no part-sized array is allocated per part.
+ * Parts are pipelined: up to {@code parallelism} parts are in flight, counting the one being read from the stream,
+ * so while the others are sent the next one is already read, and the upload is limited by neither the speed of the stream
+ * nor a single connection. At most {@code parallelism} part buffers are held by one upload,
+ * and all uploads together never exceed the pool capacity.
+ * A part failing with a transient error is sent again on its own, up to {@code maxPartAttempts} times.
+ * The multipart upload is created before any data is read, so a failure to create it leaves the stream untouched;
+ * any other failure stops reading, waits for the parts in flight and aborts the multipart upload.
+ * An object of known size that fits in a single part is sent with a single PUT from one pooled buffer instead,
+ * which saves the requests creating and completing the multipart upload.
+ */
+class MultipartUploader {
+    private static final Logger logger = LoggerFactory.getLogger(MultipartUploader.class);
+    private static final long RETRY_BACKOFF_MILLIS = 100;
+
+    private final MinioUploadClient uploadClient;
+    private final BufferPool bufferPool;
+    private final long partSize;
+    private final int parallelism;
+    private final int maxPartAttempts;
+
+    /**
+     * @param parallelism The maximum number of parts of one upload sent at the same time; 1 sends them one after another.
+     * @param maxPartAttempts How many times a part is sent before the upload fails.
+     * @throws IllegalArgumentException If a part does not fit in the buffer pool.
+     */
+    MultipartUploader(MinioUploadClient uploadClient, BufferPool bufferPool, long partSize, int parallelism, int maxPartAttempts) {
+        if (parallelism <= 0 || maxPartAttempts <= 0) {
+            throw new IllegalArgumentException("Upload parallelism and part attempts must be positive: " + parallelism + ", " + maxPartAttempts);
+        }
+        if (!bufferPool.fits(partSize)) {
+            throw new IllegalArgumentException(String.format("The part size of %d bytes does not fit in the buffer pool capacity of %d bytes",
+                    partSize, bufferPool.stats().capacityBytes()));
+        }
+        this.uploadClient = uploadClient;
+        this.bufferPool = bufferPool;
+        this.partSize = partSize;
+        this.parallelism = parallelism;
+        this.maxPartAttempts = maxPartAttempts;
+    }
+
+    /**
+     * Uploads the source's stream with a single PUT if its known size fits in a part, and as a multipart object otherwise,
+     * aborting the multipart upload if any part fails.
+     */
+    void upload(String bucketName, String objectName, UploadSource source, String contentType)
+            throws StorageException, MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        long size = source.size();
+        if (size >= 0 && size <= partSize) {
+            putObject(bucketName, objectName, source, (int) size, contentType);
+            return;
+        }
+        int objectPartSize = partSizeFor(size);
+        String uploadId = uploadClient.createMultipartUpload(bucketName, objectName, contentType);
+        InputStream data = source.stream();
+        Semaphore sendPermits = new Semaphore(parallelism);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<CompletableFuture<Part>> parts = new ArrayList<>();
+        try {
+            long remaining = size;
+            while (failure.get() == null) {
+                acquire(sendPermits, bucketName, objectName);
+                PooledBuffer buffer;
+                int length;
+                try {
+                    buffer = bufferPool.acquire(objectPartSize);
+                } catch (StorageException | RuntimeException e) {
+                    sendPermits.release();
+                    throw e;
+                }
+                try {
+                    int requested = (remaining < 0) ? objectPartSize : (int) Math.min(objectPartSize, remaining);
+                    length = buffer.fill(data, requested);
+                    if (remaining >= 0 && length < requested) {
+                        throw new IOException("Unexpected end of stream: " + (remaining - length) + " bytes missing");
+                    }
+                    if (parts.size() == ObjectWriteArgs.MAX_MULTIPART_COUNT && length > 0) {
+                        throw new StorageException("Object exceeds the maximum of " + ObjectWriteArgs.MAX_MULTIPART_COUNT
+                                + " parts of " + objectPartSize + " bytes; increase STORAGE_PART_SIZE");
+                    }
+                } catch (IOException | StorageException | RuntimeException e) {
+                    buffer.close();
+                    sendPermits.release();
+                    throw e;
+                }
+                // A stream of unknown length ends with a partial part, or with an empty read after a full one
+                if (length == 0 && !parts.isEmpty()) {
+                    buffer.close();
+                    sendPermits.release();
+                    break;
+                }
+
+                int partNumber = parts.size() + 1;
+                parts.add(send(bucketName, objectName, uploadId, partNumber, buffer.array(), length, 1)
+                        .whenComplete((part, error) -> {
+                            buffer.close();
+                            sendPermits.release();
+                            if (error != null) {
+                                failure.compareAndSet(null, unwrap(error));
+                            }
+                        }));
+
+                if (remaining > 0) {
+                    remaining -= length;
+                }
+                if (remaining == 0 || length < objectPartSize) {
+                    break;
+                }
+            }
+
+            Part[] completedParts = await(parts, bucketName, objectName);
+            uploadClient.completeMultipartUpload(bucketName, objectName, uploadId, completedParts);
+            logger.debug("Uploaded {}/{} in {} parts of up to {} bytes", bucketName, objectName, completedParts.length, objectPartSize);
+        } catch (StorageException | MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException | RuntimeException e) {
+            // Parts still in flight would otherwise land after the abort, and hold on to their buffers
+            CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0])).handle((result, error) -> null).join();
+            abort(bucketName, objectName, uploadId);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the whole object into a pooled buffer and sends it with a single PUT, again after a random backoff
+     * while it fails with a transient error.
+     */
+    private void putObject(String bucketName, String objectName, UploadSource source, int size, String contentType)
+            throws StorageException, MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        try (PooledBuffer buffer = bufferPool.acquire(size)) {
+            int length = buffer.fill(source.stream(), size);
+            if (length < size) {
+                throw new IOException("Unexpected end of stream: " + (size - length) + " bytes missing");
+            }
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    uploadClient.putObject(bucketName, objectName, buffer.array(), length, contentType);
+                    return;
+                } catch (MinioException | IOException e) {
+                    if (attempt >= maxPartAttempts || !RetryableErrors.isRetryable(e)) {
+                        throw e;
+                    }
+                    logger.debug("Retrying {}/{} after attempt {} failed: {}", bucketName, objectName, attempt, e.getMessage());
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(backoffMillis(attempt));
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while uploading " + bucketName + "/" + objectName, interrupted);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a part, and sends it again after a random backoff while it fails with a transient error.
+     */
+    private CompletableFuture<Part> send(String bucketName, String objectName, String uploadId, int partNumber,
+                                         byte[] data, int length, int attempt) {
+        return uploadClient.sendPart(bucketName, objectName, uploadId, partNumber, data, length)
+                .thenApply(etag -> new Part(partNumber, etag))
+                .exceptionallyCompose(error -> {
+                    Throwable cause = unwrap(error);
+                    if (attempt >= maxPartAttempts || !RetryableErrors.isRetryable(cause)) {
+                        return CompletableFuture.failedFuture(cause);
+                    }
+                    long delay = backoffMillis(attempt);
+                    logger.debug("Retrying part {} of {}/{} after attempt {} failed: {}",
+                            partNumber, bucketName, objectName, attempt, cause.getMessage());
+                    return CompletableFuture.supplyAsync(() -> null, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+                            .thenCompose(ignored -> send(bucketName, objectName, uploadId, partNumber, data, length, attempt + 1));
+                });
+    }
+
+    private static long backoffMillis(int attempt) {
+        return ThreadLocalRandom.current().nextLong((RETRY_BACKOFF_MILLIS << Math.min(attempt - 1, 10)) + 1);
+    }
+
+    private static void acquire(Semaphore sendPermits, String bucketName, String objectName) throws IOException {
+        try {
+            sendPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while uploading " + bucketName + "/" + objectName, e);
+        }
+    }
+
+    private static Part[] await(List<CompletableFuture<Part>> parts, String bucketName, String objectName)
+            throws StorageException, MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        Part[] completedParts = new Part[parts.size()];
+        for (int i = 0; i < completedParts.length; i++) {
+            try {
+                completedParts[i] = parts.get(i).join();
+            } catch (CompletionException e) {
+                Throwable cause = unwrap(e);
+                if (cause instanceof StorageException storageException) {
+                    throw storageException;
+                } else if (cause instanceof MinioException minioException) {
+                    throw minioException;
+                } else if (cause instanceof IOException ioException) {
+                    throw ioException;
+                } else if (cause instanceof NoSuchAlgorithmException noSuchAlgorithmException) {
+                    throw noSuchAlgorithmException;
+                } else if (cause instanceof InvalidKeyException invalidKeyException) {
+                    throw invalidKeyException;
+                } else if (cause instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new StorageException("Failed to upload part " + (i + 1) + " of " + bucketName + "/" + objectName, cause);
+            }
+        }
+        return completedParts;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+    }
+
+    /**
+     * Uses the configured part size unless the object is too large to fit in the maximum number of parts.
+     */
+    private int partSizeFor(long size) {
+        long objectPartSize = Math.max(partSize, ObjectWriteArgs.MIN_MULTIPART_SIZE);
+        if (size > 0) {
+            long minPartSize = (size + ObjectWriteArgs.MAX_MULTIPART_COUNT - 1) / ObjectWriteArgs.MAX_MULTIPART_COUNT;
+            objectPartSize = Math.max(objectPartSize, minPartSize);
+        }
+        return (int) Math.min(objectPartSize, Integer.MAX_VALUE - 8);
+    }
+
+    private void abort(String bucketName, String objectName, String uploadId) {
+        try {
+            uploadClient.abortMultipartUpload(bucketName, objectName, uploadId);
+        } catch (MinioException | IOException | NoSuchAlgorithmException | InvalidKeyException e) {
+            logger.warn("Failed to abort multipart upload {} of {}/{}", uploadId, bucketName, objectName, e);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.dsi.storage.client.minio;
+
+import io.minio.GetPresignedObjectUrlArgs;
+import io.minio.MinioClient;
+import io.minio.errors.MinioException;
+import io.minio.http.Method;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Signs presigned URLs locally with the credentials of the client; no request is sent when the client has a region.
+ * Download URLs are cached per path and lifetime and handed out again until shortly before they expire,
+ * so a page linking the same files on every render does not compute an HMAC signature chain per link and render.
+ * Upload URLs point to a new file ID every time and are never cached.
+ */
+class PresignedUrls {
+    // A cached URL is replaced once less than this share of its lifetime is left
+    private static final int REFRESH_DIVISOR = 10;
+    private static final long MIN_REFRESH_MARGIN_MILLIS = 1000;
+
+    private final MinioClient minioClient;
+    private final int maxEntries;
+    private final Clock clock;
+    private final ConcurrentMap<Key, Entry> downloads = new ConcurrentHashMap<>();
+
+    PresignedUrls(MinioClient minioClient, int maxEntries, Clock clock) {
+        this.minioClient = minioClient;
+        this.maxEntries = maxEntries;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns a URL to GET the object, valid for about {@code ttl}: a cached URL may have a little less time left.
+     */
+    String download(String bucketName, String objectName, Duration ttl)
+            throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        Key key = new Key(bucketName, objectName, ttl.toSeconds());
+        long now = clock.millis();
+        Entry cached = downloads.get(key);
+        if (cached != null && now < cached.refreshAt()) {
+            return cached.url();
+        }
+
+        String url = sign(Method.GET, bucketName, objectName, ttl);
+        long ttlMillis = ttl.toSeconds() * 1000;
+        if (downloads.size() >= maxEntries) {
+            evict(now);
+        }
+        downloads.put(key, new Entry(url, now + ttlMillis - Math.max(ttlMillis / REFRESH_DIVISOR, MIN_REFRESH_MARGIN_MILLIS)));
+        return url;
+    }
+
+    /**
+     * Returns a URL to PUT the object, valid for {@code ttl}.
+     */
+    String upload(String bucketName, String objectName, Duration ttl)
+            throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return sign(Method.PUT, bucketName, objectName, ttl);
+    }
+
+    int size() {
+        return downloads.size();
+    }
+
+    private String sign(Method method, String bucketName, String objectName, Duration ttl)
+            throws MinioException, IOException, NoSuchAlgorithmException, InvalidKeyException {
+        return minioClient.getPresignedObjectUrl(GetPresignedObjectUrlArgs.builder()
+                .method(method)
+                .bucket(bucketName)
+                .object(objectName)
+                .expiry((int) ttl.toSeconds())
+                .build());
+    }
+
+    /**
+     * Drops the URLs due for refresh, or all of them if the cache is still full: a miss only costs a local signature.
+     */
+    private void evict(long now) {
+        downloads.values().removeIf(entry -> now >= entry.refreshAt());
+        if (downloads.size() >= maxEntries) {
+            downloads.clear();
+        }
+    }
+
+    private record Key(String bucketName, String objectName, long ttlSeconds) {
+    }
+
+    private record Entry(String url, long refreshAt) {
+    }
+}
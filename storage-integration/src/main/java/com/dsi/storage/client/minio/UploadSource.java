@@ -0,0 +1,102 @@
+package com.dsi.storage.client.minio;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.Arrays;
+
+/**
+ * The data of a single upload, either fully read into an exactly sized buffer (small objects)
+ * or still to be streamed (large objects).
+ * Objects of unknown length are read into a buffer that grows with the data actually read,
+ * so the heap used by a small upload matches the object size instead of the configured part size.
+ */
+class UploadSource {
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    private final byte[] buffer;
+    private final int length;
+    private final InputStream stream;
+    private final long size;
+    private boolean streamed;
+
+    private UploadSource(byte[] buffer, int length, InputStream stream, long size) {
+        this.buffer = buffer;
+        this.length = length;
+        this.stream = stream;
+        this.size = size;
+    }
+
+    /**
+     * Reads objects up to {@code bufferLimit} bytes fully into memory and leaves larger ones to be streamed.
+     * @param size The length of the data, or -1 if unknown.
+     */
+    static UploadSource of(InputStream data, long size, int bufferLimit) throws IOException {
+        if (size >= 0) {
+            if (size > bufferLimit) {
+                return new UploadSource(null, 0, data, size);
+            }
+            byte[] bytes = data.readNBytes((int) size);
+            if (bytes.length < size) {
+                throw new EOFException("Unexpected end of stream: expected " + size + " bytes but got " + bytes.length);
+            }
+            return new UploadSource(bytes, bytes.length, null, size);
+        }
+
+        byte[] bytes = new byte[Math.min(INITIAL_BUFFER_SIZE, bufferLimit)];
+        int read = 0;
+        while (true) {
+            int count = data.read(bytes, read, bytes.length - read);
+            if (count < 0) {
+                return new UploadSource(bytes, read, null, read);
+            }
+            read += count;
+            if (read == bytes.length) {
+                if (bytes.length == bufferLimit) {
+                    break;
+                }
+                bytes = Arrays.copyOf(bytes, (int) Math.min(bytes.length * 2L, bufferLimit));
+            }
+        }
+
+        // The object is larger than the limit: stream the prefix read so far followed by the rest
+        InputStream remainder = new SequenceInputStream(new ByteArrayInputStream(bytes, 0, read), data);
+        return new UploadSource(null, 0, remainder, -1);
+    }
+
+    boolean isBuffered() {
+        return buffer != null;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Returns the stream to upload. From then on the data is considered consumed.
+     */
+    InputStream stream() {
+        streamed = true;
+        return stream;
+    }
+
+    /**
+     * Returns true if the upload can be sent again: the data is buffered, or the stream was not read from yet.
+     */
+    boolean isReplayable() {
+        return buffer != null || !streamed;
+    }
+
+    /**
+     * Returns the length of the data, or -1 if unknown.
+     */
+    long size() {
+        return size;
+    }
+}
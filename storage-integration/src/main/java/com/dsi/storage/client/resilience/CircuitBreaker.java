@@ -0,0 +1,104 @@
+package com.dsi.storage.client.resilience;
+
+/**
+ * A count-based circuit breaker. It opens when at least half of the window of recent calls is recorded
+ * and the share of failures in it reaches the threshold. While open, calls are rejected;
+ * after the open duration a single probe call is let through, which closes the breaker on success
+ * and opens it again on failure.
+ */
+class CircuitBreaker {
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final boolean[] window;
+    private final double failureRateThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int position;
+    private int recorded;
+    private int failures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    CircuitBreaker(int windowSize, double failureRateThreshold, long openNanos) {
+        this.window = new boolean[windowSize];
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openNanos;
+    }
+
+    /**
+     * Returns true if a call may be made now.
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            probeInFlight = false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probeInFlight) {
+                return false;
+            }
+            probeInFlight = true;
+        }
+        return true;
+    }
+
+    synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            reset(State.CLOSED);
+            return;
+        }
+        record(false);
+    }
+
+    synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            reset(State.OPEN);
+            return;
+        }
+        record(true);
+        if (state == State.CLOSED && recorded >= window.length / 2 && failures >= failureRateThreshold * recorded) {
+            reset(State.OPEN);
+        }
+    }
+
+    /**
+     * Ends a call whose outcome says nothing about the backend, letting another probe through if it was one.
+     */
+    synchronized void onIgnored() {
+        if (state == State.HALF_OPEN) {
+            probeInFlight = false;
+        }
+    }
+
+    synchronized State state() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        if (recorded == window.length) {
+            if (window[position]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        window[position] = failure;
+        if (failure) {
+            failures++;
+        }
+        position = (position + 1) % window.length;
+    }
+
+    private void reset(State newState) {
+        state = newState;
+        openedAt = System.nanoTime();
+        probeInFlight = false;
+        position = 0;
+        recorded = 0;
+        failures = 0;
+    }
+}
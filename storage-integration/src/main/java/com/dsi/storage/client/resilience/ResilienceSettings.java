@@ -0,0 +1,47 @@
+package com.dsi.storage.client.resilience;
+
+import java.time.Duration;
+
+/**
+ * The settings of a {@link ResilientStorageClient}.
+ *
+ * @param maxAttempts The maximum number of attempts of a download, including the first one.
+ * @param initialBackoff The upper bound of the random delay before the first retry; it doubles with every further retry.
+ * @param maxBackoff The maximum upper bound of the delay before a retry.
+ * @param hedgePercentile The percentile of recent download latencies after which a hedged request is sent, e.g. 0.95;
+ *                        0 disables hedging.
+ * @param minHedgeDelay The minimum delay before a hedged request, which also applies until enough latencies are known.
+ * @param retryBudget The number of retries and hedged requests allowed per request, e.g. 0.1 for 10% extra load.
+ * @param circuitBreakerWindow The number of recent calls the failure rate is computed over.
+ * @param circuitBreakerFailureRate The failure rate at which the circuit breaker opens, between 0 and 1.
+ * @param circuitBreakerOpenDuration How long the circuit breaker rejects calls before probing the backend again.
+ */
+public record ResilienceSettings(int maxAttempts, Duration initialBackoff, Duration maxBackoff,
+                                 double hedgePercentile, Duration minHedgeDelay, double retryBudget,
+                                 int circuitBreakerWindow, double circuitBreakerFailureRate, Duration circuitBreakerOpenDuration) {
+
+    /**
+     * Returns the settings configured through the environment:
+     * - STORAGE_RETRY_MAX_ATTEMPTS: attempts per download (default 3).
+     * - STORAGE_RETRY_BACKOFF: initial backoff in milliseconds (default 50), capped at 2000.
+     * - STORAGE_HEDGE_PERCENTILE: latency percentile triggering a hedged download (default 0.95, 0 disables hedging).
+     * - STORAGE_HEDGE_MIN_DELAY: minimum hedge delay in milliseconds (default 50).
+     * - STORAGE_RETRY_BUDGET: retries and hedges allowed per request (default 0.1).
+     * - STORAGE_CIRCUIT_BREAKER_FAILURE_RATE: failure rate opening the circuit breaker (default 0.5) over the last 20 calls.
+     * - STORAGE_CIRCUIT_BREAKER_OPEN: milliseconds the circuit breaker stays open (default 30000).
+     */
+    public static ResilienceSettings fromEnvironment() {
+        return new ResilienceSettings(
+                (System.getenv("STORAGE_RETRY_MAX_ATTEMPTS") != null) ? Integer.parseInt(System.getenv("STORAGE_RETRY_MAX_ATTEMPTS")) : 3,
+                Duration.ofMillis((System.getenv("STORAGE_RETRY_BACKOFF") != null) ? Long.parseLong(System.getenv("STORAGE_RETRY_BACKOFF")) : 50L),
+                Duration.ofSeconds(2),
+                (System.getenv("STORAGE_HEDGE_PERCENTILE") != null) ? Double.parseDouble(System.getenv("STORAGE_HEDGE_PERCENTILE")) : 0.95,
+                Duration.ofMillis((System.getenv("STORAGE_HEDGE_MIN_DELAY") != null) ? Long.parseLong(System.getenv("STORAGE_HEDGE_MIN_DELAY")) : 50L),
+                (System.getenv("STORAGE_RETRY_BUDGET") != null) ? Double.parseDouble(System.getenv("STORAGE_RETRY_BUDGET")) : 0.1,
+                20,
+                (System.getenv("STORAGE_CIRCUIT_BREAKER_FAILURE_RATE") != null)
+                        ? Double.parseDouble(System.getenv("STORAGE_CIRCUIT_BREAKER_FAILURE_RATE")) : 0.5,
+                Duration.ofMillis((System.getenv("STORAGE_CIRCUIT_BREAKER_OPEN") != null)
+                        ? Long.parseLong(System.getenv("STORAGE_CIRCUIT_BREAKER_OPEN")) : 30000L));
+    }
+}
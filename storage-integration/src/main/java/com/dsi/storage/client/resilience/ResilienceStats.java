@@ -0,0 +1,16 @@
+package com.dsi.storage.client.resilience;
+
+/**
+ * A snapshot of the counters of a {@link ResilientStorageClient}.
+ *
+ * @param retries The number of retried downloads.
+ * @param hedges The number of hedged download requests sent.
+ * @param hedgeWins The number of hedged requests that answered before the original request.
+ * @param budgetExhausted The number of retries and hedges skipped because the retry budget was used up.
+ * @param rejected The number of calls rejected because the circuit breaker was open.
+ * @param circuitState The current state of the circuit breaker: CLOSED, OPEN or HALF_OPEN.
+ * @param hedgeDelayNanos The current delay after which a download is hedged.
+ */
+public record ResilienceStats(long retries, long hedges, long hedgeWins, long budgetExhausted, long rejected,
+                              String circuitState, long hedgeDelayNanos) {
+}
@@ -0,0 +1,353 @@
+package com.dsi.storage.client.resilience;
+
+import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.concurrent.StorageCallable;
+import com.dsi.storage.concurrent.StorageExecutor;
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.dto.PresignedUpload;
+import com.dsi.storage.dto.UploadRequest;
+import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.exception.StorageRejectedException;
+import com.dsi.storage.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * ResilientStorageClient protects the calls to another StorageClient against transient backend failures.
+ * - Downloads failing with a transient error (see {@link RetryableErrors}) are retried after a random delay
+ *   drawn from an exponentially growing range ("full jitter"), so retrying clients do not synchronize.
+ * - A download that takes longer than the configured percentile of recent downloads is hedged:
+ *   a second request is sent and whichever answers first is used, cutting the tail latency.
+ * - Retries and hedges are only made while the {@link RetryBudget} allows it, so they cannot multiply the load of a struggling backend.
+ * - A {@link CircuitBreaker} rejects calls right away while most recent calls failed, and probes the backend again later.
+ * Uploads go through the circuit breaker but are never retried or hedged, since their input stream cannot be replayed.
+ * An upload failing because the caller's own stream could not be read does not count against the circuit breaker.
+ */
+public class ResilientStorageClient implements StorageClient {
+    private static final Logger logger = LoggerFactory.getLogger(ResilientStorageClient.class);
+    // The number of download latencies the hedge delay is computed over before it is refreshed
+    private static final int LATENCY_WINDOW = 1000;
+    // The platform threads of the executor created for hedged downloads on Java 17; Java 21+ uses virtual threads
+    private static final int HEDGE_THREADS = 256;
+
+    private final StorageClient delegate;
+    private final Executor executor;
+    private final ResilienceSettings settings;
+    private final RetryBudget budget;
+    private final CircuitBreaker circuitBreaker;
+
+    private volatile LatencyWindow latencies = new LatencyWindow();
+    private volatile long hedgeDelayNanos;
+
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder budgetExhausted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Creates a client running hedged downloads on an executor of its own.
+     * @param delegate The client whose calls are protected.
+     * @param settings The retry, hedging and circuit breaker settings.
+     */
+    public ResilientStorageClient(StorageClient delegate, ResilienceSettings settings) {
+        this(delegate, StorageExecutor.defaultExecutor(HEDGE_THREADS), settings);
+    }
+
+    /**
+     * @param delegate The client whose calls are protected.
+     * @param executor The executor running hedged downloads. A download waits for the tasks it submits,
+     *                 so its threads must not call this client: a full pool would wait on itself forever.
+     * @param settings The retry, hedging and circuit breaker settings.
+     */
+    public ResilientStorageClient(StorageClient delegate, Executor executor, ResilienceSettings settings) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.settings = settings;
+        this.budget = new RetryBudget(settings.retryBudget());
+        this.circuitBreaker = new CircuitBreaker(settings.circuitBreakerWindow(), settings.circuitBreakerFailureRate(),
+                settings.circuitBreakerOpenDuration().toNanos());
+        this.hedgeDelayNanos = settings.minHedgeDelay().toNanos();
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, String contentType) throws StorageException {
+        return upload(fullPath, data, -1, contentType);
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+        acquire(fullPath);
+        UploadSourceInputStream source = new UploadSourceInputStream(data);
+        try {
+            String filePath = delegate.upload(fullPath, source, size, contentType);
+            circuitBreaker.onSuccess();
+            return filePath;
+        } catch (StorageException | RuntimeException e) {
+            recordUpload(e, source);
+            throw e;
+        }
+    }
+
+    @Override
+    public String newFilePath(String fullPath) throws StorageException {
+        return delegate.newFilePath(fullPath);
+    }
+
+    @Override
+    public void uploadTo(String fullPathWithFileId, InputStream data, long size, String contentType) throws StorageException {
+        acquire(fullPathWithFileId);
+        UploadSourceInputStream source = new UploadSourceInputStream(data);
+        try {
+            delegate.uploadTo(fullPathWithFileId, source, size, contentType);
+            circuitBreaker.onSuccess();
+        } catch (StorageException | RuntimeException e) {
+            recordUpload(e, source);
+            throw e;
+        }
+    }
+
+    @Override
+    public BatchResult<String> uploadAll(Collection<UploadRequest> requests, Executor executor, int parallelism) {
+        return delegate.uploadAll(requests, executor, parallelism);
+    }
+
+    /**
+     * Listings are not retried, since the pages are fetched lazily while the stream is consumed.
+     */
+    @Override
+    public Stream<FileInfo> list(String prefix) throws StorageException {
+        return delegate.list(prefix);
+    }
+
+    @Override
+    public BatchResult<String> deleteAll(Collection<String> fullPathsWithFileId) {
+        return delegate.deleteAll(fullPathsWithFileId);
+    }
+
+    @Override
+    public String presignDownload(String fullPathWithFileId, Duration ttl) throws StorageException {
+        return delegate.presignDownload(fullPathWithFileId, ttl);
+    }
+
+    @Override
+    public PresignedUpload presignUpload(String fullPath, String contentType, Duration ttl) throws StorageException {
+        return delegate.presignUpload(fullPath, contentType, ttl);
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId) throws StorageException {
+        return download(fullPathWithFileId, () -> delegate.download(fullPathWithFileId));
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId, long offset, long length) throws StorageException {
+        return download(fullPathWithFileId, () -> delegate.download(fullPathWithFileId, offset, length));
+    }
+
+    private FileData download(String fullPathWithFileId, StorageCallable<FileData> request) throws StorageException {
+        budget.recordRequest();
+        for (int attempt = 1; ; attempt++) {
+            acquire(fullPathWithFileId);
+            try {
+                FileData fileData = (settings.hedgePercentile() > 0) ? hedgedDownload(fullPathWithFileId, request) : timed(request);
+                circuitBreaker.onSuccess();
+                return fileData;
+            } catch (StorageException | RuntimeException e) {
+                record(e);
+                if (attempt >= settings.maxAttempts() || !RetryableErrors.isRetryable(e)) {
+                    throw e;
+                }
+                if (!budget.tryWithdraw()) {
+                    budgetExhausted.increment();
+                    throw e;
+                }
+                retries.increment();
+                logger.debug("Retrying download of {} after attempt {} failed: {}", fullPathWithFileId, attempt, e.getMessage());
+                backOff(attempt);
+            }
+        }
+    }
+
+    /**
+     * Returns the counters of retries, hedges and rejected calls, and the state of the circuit breaker.
+     */
+    public ResilienceStats stats() {
+        return new ResilienceStats(retries.sum(), hedges.sum(), hedgeWins.sum(), budgetExhausted.sum(), rejected.sum(),
+                circuitBreaker.state().name(), hedgeDelayNanos);
+    }
+
+    private void acquire(String path) throws StorageException {
+        if (!circuitBreaker.tryAcquire()) {
+            rejected.increment();
+            logger.error("Circuit breaker is open, rejecting the call for {}", path);
+            throw new StorageRejectedException("Circuit breaker is open, the storage backend is unavailable: " + path);
+        }
+    }
+
+    /**
+     * Only transient errors count against the circuit breaker: a missing file or an invalid path shows a healthy backend.
+     */
+    private void record(Exception e) {
+        if (RetryableErrors.isRetryable(e)) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    /**
+     * An upload whose source stream failed may still be wrapped in an IOException, but it did not come from the backend.
+     */
+    private void recordUpload(Exception e, UploadSourceInputStream source) {
+        if (source.failed()) {
+            circuitBreaker.onIgnored();
+        } else {
+            record(e);
+        }
+    }
+
+    private void backOff(int attempt) throws StorageException {
+        long ceiling = Math.min(settings.maxBackoff().toNanos(), settings.initialBackoff().toNanos() << Math.min(attempt - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting to retry the download", e);
+        }
+    }
+
+    private FileData timed(StorageCallable<FileData> request) throws StorageException {
+        long start = System.nanoTime();
+        FileData fileData = request.call();
+        recordLatency(System.nanoTime() - start);
+        return fileData;
+    }
+
+    /**
+     * Runs the download on the executor and sends a second request if it has not answered within the hedge delay.
+     * The first successful response is returned and the stream of the other one is closed once it arrives.
+     */
+    private FileData hedgedDownload(String fullPathWithFileId, StorageCallable<FileData> request) throws StorageException {
+        CompletableFuture<FileData> primary = StorageExecutor.supplyAsync(() -> timed(request), executor);
+        try {
+            return primary.get(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Hedged below
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            closeWhenDone(primary);
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while downloading " + fullPathWithFileId, e);
+        }
+
+        if (!budget.tryWithdraw()) {
+            budgetExhausted.increment();
+            return await(primary, fullPathWithFileId);
+        }
+        hedges.increment();
+        CompletableFuture<FileData> hedge = StorageExecutor.supplyAsync(() -> timed(request), executor);
+
+        CompletableFuture<FileData> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        AtomicBoolean hedgeWon = new AtomicBoolean();
+        primary.whenComplete((fileData, error) -> complete(winner, fileData, error, failures, null));
+        hedge.whenComplete((fileData, error) -> complete(winner, fileData, error, failures, hedgeWon));
+        FileData fileData = await(winner, fullPathWithFileId);
+        if (hedgeWon.get()) {
+            hedgeWins.increment();
+        }
+        return fileData;
+    }
+
+    private static void complete(CompletableFuture<FileData> winner, FileData fileData, Throwable error,
+                                 AtomicInteger failures, AtomicBoolean won) {
+        if (error != null) {
+            // The request fails only if both attempts failed
+            if (failures.incrementAndGet() == 2) {
+                winner.completeExceptionally(error);
+            }
+        } else if (winner.complete(fileData)) {
+            if (won != null) {
+                won.set(true);
+            }
+        } else {
+            closeQuietly(fileData);
+        }
+    }
+
+    private static FileData await(CompletableFuture<FileData> future, String fullPathWithFileId) throws StorageException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (InterruptedException e) {
+            closeWhenDone(future);
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while downloading " + fullPathWithFileId, e);
+        }
+    }
+
+    private static StorageException unwrap(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error instanceof StorageException storageException) {
+            return storageException;
+        }
+        if (error instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        return new StorageException("Download failed", error);
+    }
+
+    private static void closeWhenDone(CompletableFuture<FileData> future) {
+        future.thenAccept(ResilientStorageClient::closeQuietly);
+    }
+
+    private static void closeQuietly(FileData fileData) {
+        try {
+            fileData.inputStream().close();
+        } catch (IOException e) {
+            logger.debug("Failed to close the stream of an abandoned download", e);
+        }
+    }
+
+    /**
+     * Records the latency of a download. Every {@value #LATENCY_WINDOW} downloads, the hedge delay is recomputed
+     * from the latest window, so it follows changes in backend latency.
+     */
+    private void recordLatency(long nanos) {
+        LatencyWindow window = latencies;
+        window.histogram.record(nanos);
+        if (window.samples.incrementAndGet() == LATENCY_WINDOW) {
+            latencies = new LatencyWindow();
+            hedgeDelayNanos = Math.max(settings.minHedgeDelay().toNanos(), window.histogram.percentile(settings.hedgePercentile()));
+        }
+    }
+
+    private static class LatencyWindow {
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final AtomicInteger samples = new AtomicInteger();
+    }
+}
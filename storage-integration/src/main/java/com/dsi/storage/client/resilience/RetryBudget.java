@@ -0,0 +1,40 @@
+package com.dsi.storage.client.resilience;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits retries and hedged requests to a share of the original requests.
+ * Every request deposits {@code ratio} tokens and every retry or hedge withdraws one,
+ * so during an outage the extra load stays bounded instead of multiplying the traffic.
+ * A few tokens are available from the start, so occasional retries work at low request rates.
+ */
+class RetryBudget {
+    private static final long SCALE = 1000;
+    private static final long INITIAL_TOKENS = 10 * SCALE;
+    private static final long MAX_TOKENS = 100 * SCALE;
+
+    private final long deposit;
+    private final AtomicLong tokens = new AtomicLong(INITIAL_TOKENS);
+
+    RetryBudget(double ratio) {
+        this.deposit = Math.round(ratio * SCALE);
+    }
+
+    void recordRequest() {
+        if (tokens.get() < MAX_TOKENS) {
+            tokens.accumulateAndGet(deposit, (current, added) -> Math.min(MAX_TOKENS, current + added));
+        }
+    }
+
+    boolean tryWithdraw() {
+        while (true) {
+            long current = tokens.get();
+            if (current < SCALE) {
+                return false;
+            }
+            if (tokens.compareAndSet(current, current - SCALE)) {
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.dsi.storage.client.resilience;
+
+import io.minio.errors.ErrorResponseException;
+import io.minio.errors.ServerException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.util.Set;
+
+/**
+ * Tells failures that may succeed when retried (network errors, server errors, throttling)
+ * from failures that will not (missing files, invalid paths, denied access).
+ */
+public class RetryableErrors {
+    private static final Set<String> RETRYABLE_CODES = Set.of(
+            "InternalError", "ServiceUnavailable", "SlowDown", "RequestTimeout", "OperationAborted", "XMinioServerNotInitialized");
+
+    public static boolean isRetryable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = (cause.getCause() != cause) ? cause.getCause() : null) {
+            if (cause instanceof ErrorResponseException response) {
+                return RETRYABLE_CODES.contains(response.errorResponse().code())
+                        || (response.response() != null && response.response().code() >= 500);
+            }
+            if (cause instanceof NoSuchFileException || cause instanceof FileNotFoundException || cause instanceof AccessDeniedException) {
+                return false;
+            }
+            if (cause instanceof ServerException || cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,50 @@
+package com.dsi.storage.client.resilience;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Remembers whether reading the caller's upload stream failed, so that failure is not blamed on the backend.
+ */
+class UploadSourceInputStream extends FilterInputStream {
+    private volatile boolean failed;
+
+    UploadSourceInputStream(InputStream in) {
+        super(in);
+    }
+
+    boolean failed() {
+        return failed;
+    }
+
+    @Override
+    public int read() throws IOException {
+        try {
+            return in.read();
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        try {
+            return in.read(bytes, offset, length);
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        try {
+            return in.skip(n);
+        } catch (IOException e) {
+            failed = true;
+            throw e;
+        }
+    }
+}
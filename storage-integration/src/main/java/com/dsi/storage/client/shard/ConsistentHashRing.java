@@ -0,0 +1,102 @@
+package com.dsi.storage.client.shard;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable consistent hash ring mapping keys to shard names.
+ * Each shard is placed on the ring at {@code virtualNodes} points, and a key belongs to the shard of the first point
+ * at or after the hash of the key. Adding a shard only takes over the keys falling just before its own points,
+ * about 1/N of all keys, and moves none of them between the existing shards.
+ * The points are kept in two sorted arrays searched with a binary search, so a lookup allocates nothing.
+ */
+final class ConsistentHashRing {
+    private final List<String> shards;
+    private final int virtualNodes;
+    private final long[] points;
+    private final String[] owners;
+
+    ConsistentHashRing(Collection<String> shards, int virtualNodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one shard");
+        }
+        if (virtualNodes <= 0) {
+            throw new IllegalArgumentException("virtualNodes must be positive: " + virtualNodes);
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        this.virtualNodes = virtualNodes;
+
+        int count = shards.size() * virtualNodes;
+        long[] hashes = new long[count];
+        Integer[] order = new Integer[count];
+        String[] names = new String[count];
+        int i = 0;
+        for (String shard : shards) {
+            for (int node = 0; node < virtualNodes; node++) {
+                hashes[i] = hash(shard + "#" + node);
+                names[i] = shard;
+                order[i] = i;
+                i++;
+            }
+        }
+        // Ties between points are broken by shard name, so the ring does not depend on the order the shards were given in
+        Arrays.sort(order, (a, b) -> (hashes[a] != hashes[b]) ? Long.compare(hashes[a], hashes[b]) : names[a].compareTo(names[b]));
+        this.points = new long[count];
+        this.owners = new String[count];
+        for (int j = 0; j < count; j++) {
+            points[j] = hashes[order[j]];
+            owners[j] = names[order[j]];
+        }
+    }
+
+    /**
+     * Returns the name of the shard owning the key.
+     */
+    String owner(String key) {
+        int index = Arrays.binarySearch(points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+            if (index == points.length) {
+                index = 0;
+            }
+        }
+        return owners[index];
+    }
+
+    /**
+     * Returns a new ring with the shard added.
+     */
+    ConsistentHashRing with(String shard) {
+        if (shards.contains(shard)) {
+            throw new IllegalArgumentException("Shard already exists: " + shard);
+        }
+        List<String> names = new ArrayList<>(shards);
+        names.add(shard);
+        return new ConsistentHashRing(names, virtualNodes);
+    }
+
+    List<String> shards() {
+        return shards;
+    }
+
+    /**
+     * A 64-bit FNV-1a hash of the characters, finished with the MurmurHash3 mixer so that
+     * keys differing only in their last characters still spread over the whole ring.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb93fe53ef53bL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,14 @@
+package com.dsi.storage.client.shard;
+
+/**
+ * A snapshot of the counters of a {@link ShardedStorageClient}.
+ *
+ * @param shards The number of shards.
+ * @param rebalancing True while files are still being moved to their new shard, and reads fall back to their old one.
+ * @param movedFiles The number of files moved to another shard.
+ * @param movedBytes The total size of the moved files.
+ * @param moveFailures The number of files that could not be moved.
+ * @param fallbackReads The number of reads served by the old shard of a file.
+ */
+public record ShardStats(int shards, boolean rebalancing, long movedFiles, long movedBytes, long moveFailures, long fallbackReads) {
+}
@@ -0,0 +1,506 @@
+package com.dsi.storage.client.shard;
+
+import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.concurrent.BatchExecutor;
+import com.dsi.storage.concurrent.StorageCallable;
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.dto.PresignedUpload;
+import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.exception.UncheckedStorageException;
+import com.dsi.storage.util.PathUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * ShardedStorageClient spreads the files over several backends, e.g. one MinIO endpoint per shard.
+ * A file is placed on a consistent hash ring by its full path, including the generated file ID, so the shard
+ * of a file is derived from its path alone and downloads are routed without a lookup.
+ * <p>
+ * Adding a shard with {@link #addShard} moves only the files the new shard takes over, about 1/N of them.
+ * A background rebalance copies them from their old shard, which is listed below the given prefixes, and then deletes
+ * the old copies. Until it has completed, reads that miss on the new owner of a file fall back to the old one,
+ * and deletes are sent to both. Files overwritten or deleted during the rebalance are never copied over the newer state.
+ * If some files could not be moved, reads keep falling back until {@link #rebalance} has been run again successfully.
+ * <p>
+ * Shards are named, and the names decide the placement, so they must stay the same across restarts.
+ * The shards before the last one was added are only kept in memory: a client restarted before the rebalance has completed
+ * must be given them as {@code previousShards}, or the files not moved yet cannot be found. It then starts in the state
+ * of an incomplete rebalance, falling back to the old shards until {@link #rebalance} has completed.
+ */
+public class ShardedStorageClient implements StorageClient {
+    private static final Logger logger = LoggerFactory.getLogger(ShardedStorageClient.class);
+    private static final int REBALANCE_BATCH_SIZE = 256;
+    // Each signing attempt ends on the right shard with a probability of 1/N
+    private static final int PRESIGN_ATTEMPTS_PER_SHARD = 32;
+
+    private final Executor executor;
+    private final int parallelism;
+    private volatile Topology topology;
+    private final AtomicBoolean rebalancing = new AtomicBoolean();
+    // The files being moved, each locked while it is copied
+    private final Map<String, Object> moving = new ConcurrentHashMap<>();
+    // The moving files that were overwritten or deleted during the rebalance
+    private final Set<String> touched = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder movedFiles = new LongAdder();
+    private final LongAdder movedBytes = new LongAdder();
+    private final LongAdder moveFailures = new LongAdder();
+    private final LongAdder fallbackReads = new LongAdder();
+
+    /**
+     * @param shards The backends by shard name. All shards must follow the same path rules.
+     * @param virtualNodes The number of points of each shard on the hash ring; more points spread the files more evenly.
+     * @param executor The executor files are copied and deleted on.
+     * @param parallelism The number of files copied at the same time during a rebalance, and of shards deleted from at the same time.
+     */
+    public ShardedStorageClient(Map<String, StorageClient> shards, int virtualNodes, Executor executor, int parallelism) {
+        this(shards, null, virtualNodes, executor, parallelism);
+    }
+
+    /**
+     * @param shards The backends by shard name. All shards must follow the same path rules.
+     * @param previousShards The names of the shards before the last one was added, if the rebalance has not completed
+     *                       yet, e.g. before a restart; null or the names of all shards otherwise.
+     * @param virtualNodes The number of points of each shard on the hash ring; more points spread the files more evenly.
+     * @param executor The executor files are copied and deleted on.
+     * @param parallelism The number of files copied at the same time during a rebalance, and of shards deleted from at the same time.
+     */
+    public ShardedStorageClient(Map<String, StorageClient> shards, Collection<String> previousShards, int virtualNodes,
+                                Executor executor, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        ConsistentHashRing previous = null;
+        if (previousShards != null && !Set.copyOf(previousShards).equals(shards.keySet())) {
+            if (previousShards.isEmpty() || !shards.keySet().containsAll(previousShards)) {
+                throw new IllegalArgumentException("The previous shards " + previousShards + " must be some of the shards " + shards.keySet());
+            }
+            previous = new ConsistentHashRing(previousShards, virtualNodes);
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.topology = new Topology(Collections.unmodifiableMap(new LinkedHashMap<>(shards)),
+                new ConsistentHashRing(shards.keySet(), virtualNodes), previous);
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, String contentType) throws StorageException {
+        return upload(fullPath, data, -1, contentType);
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+        String filePath = newFilePath(fullPath);
+        // A new path cannot be on an old shard, so it is not marked as overwritten
+        topology.owner(filePath).uploadTo(filePath, data, size, contentType);
+        return filePath;
+    }
+
+    @Override
+    public String newFilePath(String fullPath) throws StorageException {
+        return topology.anyShard().newFilePath(fullPath);
+    }
+
+    @Override
+    public void uploadTo(String fullPathWithFileId, InputStream data, long size, String contentType) throws StorageException {
+        Topology topology = this.topology;
+        touch(topology, fullPathWithFileId);
+        topology.owner(fullPathWithFileId).uploadTo(fullPathWithFileId, data, size, contentType);
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId) throws StorageException {
+        return read(fullPathWithFileId, shard -> shard.download(fullPathWithFileId));
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId, long offset, long length) throws StorageException {
+        return read(fullPathWithFileId, shard -> shard.download(fullPathWithFileId, offset, length));
+    }
+
+    /**
+     * Lists the files of all shards. During a rebalance, a file found on both its old and its new shard is listed once.
+     */
+    @Override
+    public Stream<FileInfo> list(String prefix) throws StorageException {
+        Topology topology = this.topology;
+        List<Stream<FileInfo>> listings = new ArrayList<>(topology.shards().size());
+        try {
+            for (StorageClient shard : topology.shards().values()) {
+                listings.add(shard.list(prefix));
+            }
+        } catch (StorageException | RuntimeException e) {
+            listings.forEach(Stream::close);
+            throw e;
+        }
+        Stream<FileInfo> files = listings.stream().flatMap(listing -> listing);
+        if (topology.previous() != null) {
+            Set<String> seen = new HashSet<>();
+            files = files.filter(file -> topology.previousOwner(file.path()) == null || seen.add(file.path()));
+        }
+        return files.onClose(() -> listings.forEach(Stream::close));
+    }
+
+    /**
+     * Deletes the files from their shards, running at most {@code parallelism} shards at a time.
+     * During a rebalance, files that are moving are deleted from both their old and their new shard.
+     */
+    @Override
+    public BatchResult<String> deleteAll(Collection<String> fullPathsWithFileId) {
+        Topology topology = this.topology;
+        List<String> paths = new ArrayList<>(fullPathsWithFileId);
+        Map<StorageClient, List<Integer>> groups = new IdentityHashMap<>();
+        for (int i = 0; i < paths.size(); i++) {
+            String path = paths.get(i);
+            groups.computeIfAbsent(topology.owner(path), shard -> new ArrayList<>()).add(i);
+            StorageClient previous = topology.previousOwner(path);
+            if (previous != null) {
+                touch(topology, path);
+                groups.computeIfAbsent(previous, shard -> new ArrayList<>()).add(i);
+            }
+        }
+
+        List<List<Integer>> indexes = new ArrayList<>(groups.values());
+        List<StorageCallable<BatchResult<String>>> operations = new ArrayList<>(groups.size());
+        for (Map.Entry<StorageClient, List<Integer>> group : groups.entrySet()) {
+            List<String> shardPaths = group.getValue().stream().map(paths::get).toList();
+            operations.add(() -> group.getKey().deleteAll(shardPaths));
+        }
+        BatchResult<BatchResult<String>> shardResults = BatchExecutor.runAll(operations, executor, parallelism);
+
+        List<String> results = new ArrayList<>(paths);
+        Map<Integer, StorageException> errors = new TreeMap<>();
+        for (int g = 0; g < indexes.size(); g++) {
+            List<Integer> group = indexes.get(g);
+            for (int j = 0; j < group.size(); j++) {
+                StorageException error = (shardResults.error(g) != null) ? shardResults.error(g) : shardResults.result(g).error(j);
+                if (error != null) {
+                    errors.putIfAbsent(group.get(j), error);
+                    results.set(group.get(j), null);
+                }
+            }
+        }
+        return new BatchResult<>(Collections.unmodifiableList(results), Collections.unmodifiableMap(errors));
+    }
+
+    /**
+     * Signs the URL with the shard of the file. During a rebalance, a moving file that is not on its new shard yet
+     * is signed with its old shard, which keeps it until the move has completed.
+     */
+    @Override
+    public String presignDownload(String fullPathWithFileId, Duration ttl) throws StorageException {
+        Topology topology = this.topology;
+        StorageClient previous = topology.previousOwner(fullPathWithFileId);
+        StorageClient owner = topology.owner(fullPathWithFileId);
+        if (previous != null) {
+            try {
+                closeQuietly(owner.download(fullPathWithFileId, 0, 1));
+            } catch (StorageException e) {
+                return previous.presignDownload(fullPathWithFileId, ttl);
+            }
+        }
+        return owner.presignDownload(fullPathWithFileId, ttl);
+    }
+
+    /**
+     * Asks the shards to sign uploads until the generated path belongs to the shard that signed it.
+     * Signing is local, and each attempt lands on the right shard with a probability of 1/N.
+     */
+    @Override
+    public PresignedUpload presignUpload(String fullPath, String contentType, Duration ttl) throws StorageException {
+        Topology topology = this.topology;
+        StorageClient shard = topology.anyShard();
+        for (int attempt = topology.shards().size() * PRESIGN_ATTEMPTS_PER_SHARD; attempt > 0; attempt--) {
+            PresignedUpload upload = shard.presignUpload(fullPath, contentType, ttl);
+            StorageClient owner = topology.owner(upload.path());
+            if (owner == shard) {
+                return upload;
+            }
+            shard = owner;
+        }
+        logger.error("Failed to sign an upload below {} with the shard of its path", fullPath);
+        throw new StorageException("Failed to sign an upload below " + fullPath + " with the shard of its path");
+    }
+
+    /**
+     * Adds a shard and starts moving the files it takes over in the background.
+     * @param name The name of the shard, which decides the files it takes over.
+     * @param shard The backend of the shard.
+     * @param prefixes The <bucketName>[/<nestedFolders>] prefixes below which the existing shards are listed
+     *                 for files to move, e.g. every bucket of the application.
+     * @return A future completing once all files have been moved, or exceptionally if some could not be moved.
+     * @throws IllegalStateException If a previous rebalance has not completed yet.
+     */
+    public CompletableFuture<Void> addShard(String name, StorageClient shard, Collection<String> prefixes) {
+        synchronized (this) {
+            Topology topology = this.topology;
+            if (topology.previous() != null) {
+                throw new IllegalStateException("Cannot add shard " + name + " before the previous rebalance has completed");
+            }
+            Map<String, StorageClient> shards = new LinkedHashMap<>(topology.shards());
+            if (shards.putIfAbsent(name, shard) != null) {
+                throw new IllegalArgumentException("Shard already exists: " + name);
+            }
+            this.topology = new Topology(Collections.unmodifiableMap(shards), topology.ring().with(name), topology.ring());
+        }
+        logger.info("Added shard {}, moving the files it takes over", name);
+        return rebalance(prefixes);
+    }
+
+    /**
+     * Moves the files that are not on their shard yet, e.g. to complete a rebalance in which some files could not be moved.
+     * @param prefixes The prefixes below which the old shards are listed, as for {@link #addShard}.
+     * @return A future completing once all files have been moved, or exceptionally if some could not be moved.
+     * @throws IllegalStateException If a rebalance is already running.
+     */
+    public CompletableFuture<Void> rebalance(Collection<String> prefixes) {
+        Topology topology = this.topology;
+        if (topology.previous() == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (!rebalancing.compareAndSet(false, true)) {
+            throw new IllegalStateException("A rebalance is already running");
+        }
+        List<String> bases = List.copyOf(prefixes);
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Thread rebalancer = new Thread(() -> {
+            try {
+                long failures = moveAll(topology, bases);
+                if (failures > 0) {
+                    logger.warn("Rebalance incomplete: {} files could not be moved, reads keep falling back to their old shard", failures);
+                    result.completeExceptionally(new StorageException("Rebalance incomplete: " + failures + " files could not be moved"));
+                    return;
+                }
+                synchronized (this) {
+                    this.topology = new Topology(topology.shards(), topology.ring(), null);
+                }
+                touched.clear();
+                logger.info("Rebalance completed over {} shards", topology.shards().size());
+                result.complete(null);
+            } catch (RuntimeException e) {
+                logger.error("Rebalance failed", e);
+                result.completeExceptionally(e);
+            } finally {
+                rebalancing.set(false);
+            }
+        }, "storage-shard-rebalancer");
+        rebalancer.setDaemon(true);
+        rebalancer.start();
+        return result;
+    }
+
+    /**
+     * Returns the number of shards and the counters of the files moved between them.
+     */
+    public ShardStats stats() {
+        Topology topology = this.topology;
+        return new ShardStats(topology.shards().size(), topology.previous() != null, movedFiles.sum(), movedBytes.sum(),
+                moveFailures.sum(), fallbackReads.sum());
+    }
+
+    /**
+     * Lists every old shard below the prefixes and moves the files whose owner has changed, in batches.
+     * @return The number of files that could not be moved.
+     */
+    private long moveAll(Topology topology, List<String> prefixes) {
+        long failures = 0;
+        for (String name : topology.previous().shards()) {
+            StorageClient source = topology.shards().get(name);
+            for (String prefix : prefixes) {
+                List<FileInfo> batch = new ArrayList<>(REBALANCE_BATCH_SIZE);
+                try (Stream<FileInfo> files = source.list(prefix)) {
+                    Iterator<FileInfo> iterator = files.iterator();
+                    while (iterator.hasNext()) {
+                        FileInfo file = iterator.next();
+                        if (topology.owner(file.path()) != source) {
+                            batch.add(file);
+                        }
+                        if (batch.size() == REBALANCE_BATCH_SIZE) {
+                            failures += moveBatch(topology, source, batch);
+                            batch.clear();
+                        }
+                    }
+                    failures += moveBatch(topology, source, batch);
+                } catch (StorageException | UncheckedStorageException e) {
+                    logger.warn("Failed to list {} on shard {}", prefix, name, e);
+                    moveFailures.increment();
+                    failures++;
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Copies the files to their new shard, then deletes them from the old one.
+     * @return The number of files that could not be moved.
+     */
+    private long moveBatch(Topology topology, StorageClient source, List<FileInfo> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        List<StorageCallable<Boolean>> operations = new ArrayList<>(batch.size());
+        for (FileInfo file : batch) {
+            operations.add(() -> move(topology, source, file));
+        }
+        BatchResult<Boolean> copied = BatchExecutor.runAll(operations, executor, parallelism);
+
+        long failures = 0;
+        List<String> copiedPaths = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            if (copied.error(i) != null) {
+                logger.warn("Failed to move {}", batch.get(i).path(), copied.error(i));
+                failures++;
+            } else {
+                copiedPaths.add(batch.get(i).path());
+            }
+        }
+        BatchResult<String> deleted = source.deleteAll(copiedPaths);
+        for (Map.Entry<Integer, StorageException> error : deleted.errors().entrySet()) {
+            logger.warn("Failed to delete the old copy of {}", copiedPaths.get(error.getKey()), error.getValue());
+            failures++;
+        }
+        moveFailures.add(failures);
+        return failures;
+    }
+
+    /**
+     * Copies a file to its new shard, unless it was overwritten or deleted since the rebalance started.
+     * @return True if the file was copied, false if it was skipped; either way its old copy can be deleted.
+     */
+    private boolean move(Topology topology, StorageClient source, FileInfo file) throws StorageException {
+        String path = file.path();
+        Object lock = new Object();
+        moving.put(path, lock);
+        try {
+            synchronized (lock) {
+                // Checked after registering the move, so a concurrent write either shows up here or waits for the copy
+                if (touched.contains(path)) {
+                    return false;
+                }
+                FileData data = source.download(path);
+                try {
+                    topology.owner(path).uploadTo(path, data.inputStream(), data.size(), data.contentType());
+                } finally {
+                    closeQuietly(data);
+                }
+                movedFiles.increment();
+                movedBytes.add(file.size());
+                return true;
+            }
+        } finally {
+            moving.remove(path, lock);
+        }
+    }
+
+    /**
+     * Marks a moving file as overwritten or deleted, waiting for a copy of it that is under way.
+     */
+    private void touch(Topology topology, String path) {
+        if (topology.previousOwner(path) == null) {
+            return;
+        }
+        touched.add(path);
+        Object lock = moving.get(path);
+        if (lock != null) {
+            synchronized (lock) {
+                // Only waits for the copy holding the lock
+            }
+        }
+    }
+
+    /**
+     * Reads from the shard of the file. During a rebalance, a miss on the new shard of a moving file falls back to
+     * the old one, and then once more to the new one, in case the file was moved in between.
+     */
+    private <T> T read(String fullPathWithFileId, ShardRead<T> read) throws StorageException {
+        Topology topology = this.topology;
+        StorageClient owner = topology.owner(fullPathWithFileId);
+        try {
+            return read.apply(owner);
+        } catch (StorageException e) {
+            StorageClient previous = topology.previousOwner(fullPathWithFileId);
+            if (previous == null) {
+                throw e;
+            }
+            fallbackReads.increment();
+            logger.debug("Falling back to the old shard of {}", fullPathWithFileId);
+            try {
+                return read.apply(previous);
+            } catch (StorageException fallbackError) {
+                try {
+                    return read.apply(owner);
+                } catch (StorageException retryError) {
+                    retryError.addSuppressed(fallbackError);
+                    throw retryError;
+                }
+            }
+        }
+    }
+
+    private static void closeQuietly(FileData fileData) {
+        try {
+            fileData.inputStream().close();
+        } catch (IOException e) {
+            logger.debug("Failed to close a download stream", e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface ShardRead<T> {
+        T apply(StorageClient shard) throws StorageException;
+    }
+
+    /**
+     * The shards with the ring placing the files on them, and during a rebalance the ring before the last shard was added.
+     */
+    private record Topology(Map<String, StorageClient> shards, ConsistentHashRing ring, ConsistentHashRing previous) {
+
+        StorageClient owner(String path) {
+            return shards.get(ring.owner(key(path)));
+        }
+
+        /**
+         * Returns the old shard of a file that is moving, or null if it stays on its shard or no rebalance is running.
+         */
+        StorageClient previousOwner(String path) {
+            if (previous == null) {
+                return null;
+            }
+            String key = key(path);
+            String owner = previous.owner(key);
+            return owner.equals(ring.owner(key)) ? null : shards.get(owner);
+        }
+
+        StorageClient anyShard() {
+            return shards.values().iterator().next();
+        }
+
+        private static String key(String path) {
+            return PathUtil.parsePathForDownload(path).path();
+        }
+    }
+}
@@ -0,0 +1,527 @@
+package com.dsi.storage.client.spool;
+
+import com.dsi.storage.client.filesystem.FileChannelInputStream;
+import com.dsi.storage.exception.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * SpoolJournal appends uploaded files to the segment files of an append-only journal, and finds them again after a restart.
+ * A segment is written by one upload at a time; concurrent uploads append to different segments,
+ * so a slow client never holds up the others. Each record is laid out as:
+ * int header length, header (path, content type, creation time), long data length, data, int CRC32C of the data.
+ * The data length is written last, so a record torn by a crash has no length and is discarded on recovery,
+ * as is a record whose checksum does not match.
+ * Releasing a file sets the top bit of the first byte of its header length, which is always zero otherwise.
+ * The single byte is written in place, so it cannot be torn, and released files are skipped on recovery:
+ * a file that was flushed and then deleted or replaced is not replayed after a restart.
+ * A segment is deleted once it is full, or idle, and all of its files have been released.
+ */
+class SpoolJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(SpoolJournal.class);
+    private static final int MAGIC = 0x53504F4C; // "SPOL"
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    private static final byte RELEASED = (byte) 0x80;
+    // Two strings written with writeUTF and the creation time
+    private static final int MAX_RECORD_HEADER_SIZE = 2 * (2 + 65535) + 8;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final Path directory;
+    private final long segmentSize;
+    private final boolean sync;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final ConcurrentLinkedDeque<Segment> writable = new ConcurrentLinkedDeque<>();
+    private final Set<Segment> segments = ConcurrentHashMap.newKeySet();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicInteger pendingFiles = new AtomicInteger();
+
+    /**
+     * @param directory The directory of the segment files. It is created if it does not exist.
+     * @param segmentSize The size after which a segment is no longer appended to.
+     * @param sync Whether each record is forced to the storage device before {@link #append} returns.
+     */
+    SpoolJournal(Path directory, long segmentSize, boolean sync) throws IOException {
+        this.directory = directory.toAbsolutePath().normalize();
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * Reads the records of the segments left by a previous process, in the order they were written,
+     * and truncates each segment after its last complete record. Recovered segments are never appended to again.
+     * Must be called once, before the first {@link #append}.
+     */
+    List<Entry> recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            // The zero-padded sequence numbers sort in the order the segments were created
+            files = listing.filter(SpoolJournal::isSegmentFile).sorted().toList();
+        }
+
+        List<Entry> entries = new ArrayList<>();
+        for (Path file : files) {
+            long sequence = sequenceOf(file);
+            nextSequence.accumulateAndGet(sequence + 1, Math::max);
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            if (!hasSegmentHeader(channel)) {
+                logger.warn("Skipping {}: not an upload spool segment", file);
+                channel.close();
+                continue;
+            }
+
+            Segment segment = new Segment(file, channel);
+            long position = SEGMENT_HEADER_SIZE;
+            Entry entry;
+            while ((entry = readRecord(segment, position)) != null) {
+                if (!entry.isReleased()) {
+                    entries.add(entry);
+                    segment.live.incrementAndGet();
+                    pendingBytes.addAndGet(entry.size);
+                    pendingFiles.incrementAndGet();
+                }
+                position = entry.dataOffset + entry.size + 4;
+            }
+            if (position < channel.size()) {
+                logger.warn("Discarding {} bytes of an incomplete record at the end of {}", channel.size() - position, file);
+                channel.truncate(position);
+            }
+            segment.size = position;
+            segments.add(segment);
+            seal(segment);
+        }
+        return entries;
+    }
+
+    /**
+     * Appends the stream as a record of a segment no other upload is writing to.
+     * @throws StorageException If the stream does not contain {@code size} bytes or the record cannot be written.
+     */
+    Entry append(String path, String contentType, InputStream data, long size) throws StorageException {
+        Instant created = Instant.now();
+        byte[] header = header(path, contentType, created);
+        Segment segment = acquireSegment();
+        long start = segment.size;
+        boolean failed = true;
+        try {
+            ByteBuffer prefix = ByteBuffer.allocate(4 + header.length + 8);
+            prefix.putInt(header.length).put(header).putLong(-1).flip();
+            write(segment.channel, prefix, start);
+            long dataOffset = start + prefix.capacity();
+
+            CRC32C checksum = new CRC32C();
+            long written = copy(data, segment.channel, dataOffset, checksum);
+            if (size >= 0 && written != size) {
+                throw new StorageException(String.format("Expected %d bytes but the stream contained %d bytes", size, written));
+            }
+            write(segment.channel, ByteBuffer.allocate(4).putInt((int) checksum.getValue()).flip(), dataOffset + written);
+            // Completes the record
+            write(segment.channel, ByteBuffer.allocate(8).putLong(written).flip(), dataOffset - 8);
+            if (sync) {
+                segment.channel.force(false);
+            }
+
+            Entry entry = new Entry(segment, start, path, contentType, created, dataOffset, written);
+            segment.live.incrementAndGet();
+            segment.size = dataOffset + written + 4;
+            pendingBytes.addAndGet(written);
+            pendingFiles.incrementAndGet();
+            failed = false;
+            return entry;
+        } catch (IOException e) {
+            logger.error("Failed to write {} to the upload spool", path, e);
+            throw new StorageException("Failed to write " + path + " to the upload spool", e);
+        } finally {
+            if (failed) {
+                discardTail(segment, start);
+            }
+            releaseSegment(segment);
+        }
+    }
+
+    /**
+     * Opens a stream over {@code length} bytes of the entry's data starting at {@code offset}.
+     * The stream has its own channel, so it stays readable after the segment is deleted on file systems that allow it.
+     * @throws java.nio.file.NoSuchFileException If the segment was deleted because the entry was released.
+     */
+    InputStream open(Entry entry, long offset, long length) throws IOException {
+        FileChannel channel = FileChannel.open(entry.segment.file, StandardOpenOption.READ);
+        return new FileChannelInputStream(channel, entry.dataOffset + offset, length);
+    }
+
+    /**
+     * Marks the entry as no longer needed, in memory and in its record, deleting its segment once nothing else in it is.
+     * Releasing an entry more than once has no effect.
+     */
+    void release(Entry entry) {
+        if (!entry.released.compareAndSet(false, true)) {
+            return;
+        }
+        markReleased(entry);
+        Segment segment = entry.segment;
+        if (segment.live.decrementAndGet() == 0) {
+            if (segment.sealed) {
+                delete(segment);
+            } else if (writable.remove(segment)) {
+                // An idle segment holding only released files is deleted rather than kept for later appends
+                if (segment.live.get() == 0) {
+                    seal(segment);
+                } else {
+                    writable.push(segment);
+                }
+            }
+        }
+        // Counted last, so whoever waits for the journal to drain also sees its segments deleted
+        pendingBytes.addAndGet(-entry.size);
+        pendingFiles.decrementAndGet();
+    }
+
+    /**
+     * Returns the total size of the data of the entries not released yet.
+     */
+    long pendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * Returns the number of entries not released yet.
+     */
+    int pendingFiles() {
+        return pendingFiles.get();
+    }
+
+    /**
+     * Returns the number of segment files.
+     */
+    int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the total size of the segment files.
+     */
+    long diskBytes() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += segment.size;
+        }
+        return total;
+    }
+
+    /**
+     * Closes the segment files without deleting them, so the entries not released yet are recovered on the next start.
+     */
+    @Override
+    public void close() {
+        for (Segment segment : segments) {
+            closeQuietly(segment.channel);
+        }
+    }
+
+    private Segment acquireSegment() throws StorageException {
+        Segment segment = writable.pollFirst();
+        if (segment != null) {
+            return segment;
+        }
+        Path file = directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, nextSequence.getAndIncrement(), SEGMENT_SUFFIX));
+        try {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            write(channel, ByteBuffer.allocate(SEGMENT_HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip(), 0);
+            segment = new Segment(file, channel);
+            segment.size = SEGMENT_HEADER_SIZE;
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            logger.error("Failed to create upload spool segment {}", file, e);
+            throw new StorageException("Failed to create upload spool segment " + file, e);
+        }
+    }
+
+    /**
+     * Makes the segment available to the next upload, or seals it once it is full.
+     * The most recently used segment is handed out first, so a light load keeps writing to a single segment.
+     */
+    private void releaseSegment(Segment segment) {
+        if (segment.sealed) {
+            return;
+        }
+        if (segment.size >= segmentSize) {
+            seal(segment);
+        } else {
+            writable.push(segment);
+        }
+    }
+
+    /**
+     * Flags the record as released, so it is skipped on recovery. The segment is not deleted before this returns,
+     * since the entry still counts as live. If the flag cannot be written, the file is replayed after a restart.
+     */
+    private void markReleased(Entry entry) {
+        try {
+            write(entry.segment.channel, ByteBuffer.wrap(new byte[]{RELEASED}), entry.position);
+            if (sync) {
+                entry.segment.channel.force(false);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to mark {} as released in the upload spool", entry.path, e);
+        }
+    }
+
+    private void seal(Segment segment) {
+        segment.sealed = true;
+        if (segment.live.get() == 0) {
+            delete(segment);
+        }
+    }
+
+    private void delete(Segment segment) {
+        synchronized (segment) {
+            if (segment.deleted) {
+                return;
+            }
+            segment.deleted = true;
+        }
+        segments.remove(segment);
+        closeQuietly(segment.channel);
+        try {
+            Files.deleteIfExists(segment.file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete upload spool segment {}", segment.file, e);
+        }
+    }
+
+    /**
+     * Cuts off a record that failed while it was written. If that fails too, the segment is sealed,
+     * so nothing is appended after the partial record.
+     */
+    private void discardTail(Segment segment, long position) {
+        try {
+            segment.channel.truncate(position);
+        } catch (IOException e) {
+            logger.warn("Failed to truncate upload spool segment {}", segment.file, e);
+            seal(segment);
+        }
+    }
+
+    /**
+     * Reads the record at the position, or returns null if it is incomplete or corrupt.
+     * The data of a released record is not checked, and the entry is returned already released.
+     */
+    private Entry readRecord(Segment segment, long position) throws IOException {
+        FileChannel channel = segment.channel;
+        long fileSize = channel.size();
+        ByteBuffer headerLength = ByteBuffer.allocate(4);
+        if (!read(channel, headerLength, position)) {
+            return null;
+        }
+        boolean released = (headerLength.get(0) & RELEASED) != 0;
+        headerLength.put(0, (byte) (headerLength.get(0) & ~RELEASED));
+        int length = headerLength.flip().getInt();
+        if (length <= 0 || length > MAX_RECORD_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(length + 8);
+        if (!read(channel, header, position + 4)) {
+            return null;
+        }
+        header.flip();
+        long dataOffset = position + 4 + length + 8;
+        long size = header.getLong(length);
+        if (size < 0 || dataOffset + size + 4 > fileSize) {
+            return null;
+        }
+        if (released) {
+            Entry entry = new Entry(segment, position, null, null, null, dataOffset, size);
+            entry.released.set(true);
+            return entry;
+        }
+
+        CRC32C checksum = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(COPY_BUFFER_SIZE, Math.max(size, 4)));
+        long remaining = size;
+        while (remaining > 0) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+            if (!read(channel, buffer, dataOffset + size - remaining)) {
+                return null;
+            }
+            checksum.update(buffer.flip());
+            remaining -= buffer.limit();
+        }
+        ByteBuffer expected = ByteBuffer.allocate(4);
+        if (!read(channel, expected, dataOffset + size) || expected.flip().getInt() != (int) checksum.getValue()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(header.array(), 0, length))) {
+            String path = in.readUTF();
+            String contentType = in.readUTF();
+            Instant created = Instant.ofEpochMilli(in.readLong());
+            return new Entry(segment, position, path, contentType, created, dataOffset, size);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] header(String path, String contentType, Instant created) throws StorageException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(path);
+            out.writeUTF(contentType);
+            out.writeLong(created.toEpochMilli());
+        } catch (IOException e) {
+            // Only thrown for strings longer than 65535 bytes in modified UTF-8
+            throw new StorageException("Path or content type too long for the upload spool: " + path, e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static long copy(InputStream data, FileChannel channel, long position, CRC32C checksum) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long written = 0;
+        int read;
+        while ((read = data.read(buffer)) != -1) {
+            checksum.update(buffer, 0, read);
+            write(channel, ByteBuffer.wrap(buffer, 0, read), position + written);
+            written += read;
+        }
+        return written;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Fills the buffer from the position, returning false if the end of the file comes first.
+     */
+    private static boolean read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    private static boolean hasSegmentHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        return read(channel, header, 0) && header.flip().getInt() == MAGIC && header.getInt() == VERSION;
+    }
+
+    private static boolean isSegmentFile(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+            return false;
+        }
+        try {
+            sequenceOf(file);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static long sequenceOf(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close upload spool segment", e);
+        }
+    }
+
+    /**
+     * A file stored in the journal. Its data stays in place until it is released.
+     */
+    static final class Entry {
+        private final Segment segment;
+        // The offset of the record in the segment
+        private final long position;
+        private final String path;
+        private final String contentType;
+        private final Instant created;
+        private final long dataOffset;
+        private final long size;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Entry(Segment segment, long position, String path, String contentType, Instant created, long dataOffset, long size) {
+            this.segment = segment;
+            this.position = position;
+            this.path = path;
+            this.contentType = contentType;
+            this.created = created;
+            this.dataOffset = dataOffset;
+            this.size = size;
+        }
+
+        String path() {
+            return path;
+        }
+
+        String contentType() {
+            return contentType;
+        }
+
+        Instant created() {
+            return created;
+        }
+
+        long size() {
+            return size;
+        }
+
+        boolean isReleased() {
+            return released.get();
+        }
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final FileChannel channel;
+        // Only changed by the upload holding the segment, or during recovery
+        private volatile long size;
+        private final AtomicInteger live = new AtomicInteger();
+        private volatile boolean sealed;
+        private boolean deleted;
+
+        private Segment(Path file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+}
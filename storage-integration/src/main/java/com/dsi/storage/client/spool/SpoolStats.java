@@ -0,0 +1,19 @@
+package com.dsi.storage.client.spool;
+
+/**
+ * A snapshot of the usage counters of a {@link WriteBehindStorageClient}.
+ *
+ * @param pendingFiles The number of spooled files not flushed to the backend yet.
+ * @param pendingBytes The total size of the spooled files not flushed yet.
+ * @param diskBytes The total size of the spool's segment files, including flushed files of segments still in use.
+ * @param segments The number of segment files.
+ * @param flushing The number of files being flushed right now.
+ * @param flushed The number of files flushed to the backend.
+ * @param flushFailures The number of failed flush attempts; files failing with a transient error are flushed again later.
+ * @param deadLettered The number of files that failed to flush with a permanent error and were moved to the dead-letter directory.
+ * @param directUploads The number of uploads sent straight to the backend because the spool was full.
+ * @param lagMillis The age of the oldest file not flushed yet, or 0 if all files are flushed.
+ */
+public record SpoolStats(int pendingFiles, long pendingBytes, long diskBytes, int segments, int flushing, long flushed,
+                         long flushFailures, long deadLettered, long directUploads, long lagMillis) {
+}
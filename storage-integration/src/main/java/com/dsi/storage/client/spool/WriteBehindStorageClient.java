@@ -0,0 +1,461 @@
+package com.dsi.storage.client.spool;
+
+import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.concurrent.BatchExecutor;
+import com.dsi.storage.concurrent.StorageCallable;
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.dto.PresignedUpload;
+import com.dsi.storage.client.resilience.RetryableErrors;
+import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.exception.StorageRejectedException;
+import com.dsi.storage.util.PathUtil;
+import com.dsi.storage.util.ValidationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * WriteBehindStorageClient acknowledges uploads as soon as they are appended to a local {@link SpoolJournal},
+ * and flushes them to another StorageClient in the background.
+ * - The path of a new file is generated up front with the backend's naming rules ({@link StorageClient#newFilePath}),
+ *   so the caller receives the final path right away.
+ * - A background thread collects the spooled files into batches and stores them with {@link StorageClient#uploadTo},
+ *   running up to {@code flushConcurrency} uploads at a time. Files failing with a transient error
+ *   ({@link RetryableErrors}, or a {@link StorageRejectedException}) are retried, waiting twice as long after each failure,
+ *   up to a minute. Files failing with any other error, e.g. denied access, would fail forever: they are moved to the
+ *   dead-letter subdirectory of the spool as a data file and a properties file naming the path, content type and error,
+ *   and count as dead-lettered in the stats.
+ * - The path of {@link #uploadTo} is checked against the backend's naming rules before the file is accepted.
+ * - Until a file is flushed, downloads are served from the spool; presigning the download of a spooled file flushes it first.
+ * - Files still in the spool when the process stops are replayed from the journal on the next start.
+ *   Flushed, deleted and replaced files are marked as released in the journal and are not replayed.
+ *   Only a crash between the end of a flush and its mark makes a file flush twice, storing the same data at the same path;
+ *   since the file cannot have been deleted or replaced in between, this is harmless.
+ * - Once the spool holds {@code maxBytes}, uploads bypass it and go to the backend directly,
+ *   so a long backend outage cannot fill the disk.
+ * Listings include spooled files only once they are flushed.
+ */
+public class WriteBehindStorageClient implements StorageClient, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindStorageClient.class);
+    private static final long SEGMENT_SIZE = 64L * 1024 * 1024;
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final long MAX_RETRY_DELAY_MILLIS = 60_000;
+    private static final String DEAD_LETTER_DIRECTORY = "dead-letter";
+    private static final String DEAD_LETTER_DATA_SUFFIX = ".data";
+    private static final String DEAD_LETTER_PROPERTIES_SUFFIX = ".properties";
+
+    private final StorageClient delegate;
+    private final SpoolJournal journal;
+    private final Executor executor;
+    private final long maxBytes;
+    private final int flushConcurrency;
+    // The spooled file of each path not flushed yet, by normalized path
+    private final ConcurrentMap<String, SpoolJournal.Entry> pending = new ConcurrentHashMap<>();
+    // The spooled files to flush, each due once its retry delay has elapsed
+    private final DelayQueue<Flush> queue = new DelayQueue<>();
+    private final AtomicLong flushSequence = new AtomicLong();
+    private final Path deadLetterDirectory;
+    private final Thread flusher;
+    private volatile boolean closed;
+
+    private final AtomicInteger flushing = new AtomicInteger();
+    private final LongAdder flushed = new LongAdder();
+    private final LongAdder flushFailures = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private final LongAdder directUploads = new LongAdder();
+
+    /**
+     * Opens the spool in the directory, replays the files a previous process left in it and starts flushing.
+     * @param delegate The client the files are flushed to.
+     * @param directory The directory of the spool. It is created if it does not exist, and must not be shared with another process.
+     * @param executor The executor running the flush uploads.
+     * @param maxBytes The size of the spooled files above which uploads go to the backend directly.
+     * @param flushConcurrency The maximum number of files flushed at the same time.
+     * @param sync Whether spooled files are forced to the storage device before the upload returns.
+     */
+    public WriteBehindStorageClient(StorageClient delegate, Path directory, Executor executor, long maxBytes,
+                                    int flushConcurrency, boolean sync) {
+        if (maxBytes <= 0 || flushConcurrency <= 0) {
+            throw new IllegalArgumentException("Spool size and flush concurrency must be positive: " + maxBytes + ", " + flushConcurrency);
+        }
+        this.delegate = delegate;
+        this.executor = executor;
+        this.maxBytes = maxBytes;
+        this.flushConcurrency = flushConcurrency;
+        this.deadLetterDirectory = directory.resolve(DEAD_LETTER_DIRECTORY);
+        try {
+            this.journal = new SpoolJournal(directory, SEGMENT_SIZE, sync);
+            List<SpoolJournal.Entry> recovered = journal.recover();
+            for (SpoolJournal.Entry entry : recovered) {
+                register(entry);
+            }
+            if (!recovered.isEmpty()) {
+                logger.info("Replaying {} files ({} bytes) left in the upload spool {}", journal.pendingFiles(), journal.pendingBytes(), directory);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open the upload spool: " + directory, e);
+        }
+        this.flusher = new Thread(this::flushLoop, "storage-spool-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, String contentType) throws StorageException {
+        return upload(fullPath, data, -1, contentType);
+    }
+
+    @Override
+    public String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+        if (journal.pendingBytes() >= maxBytes) {
+            directUploads.increment();
+            logger.debug("Upload spool is full, uploading to {} directly", fullPath);
+            return delegate.upload(fullPath, data, size, contentType);
+        }
+        String filePath = delegate.newFilePath(fullPath);
+        register(journal.append(filePath, contentType, data, size));
+        return filePath;
+    }
+
+    @Override
+    public String newFilePath(String fullPath) throws StorageException {
+        return delegate.newFilePath(fullPath);
+    }
+
+    /**
+     * Spools the file like {@link #upload}, replacing a spooled file of the same path that was not flushed yet.
+     */
+    @Override
+    public void uploadTo(String fullPathWithFileId, InputStream data, long size, String contentType) throws StorageException {
+        String path = validate(fullPathWithFileId);
+        if (journal.pendingBytes() >= maxBytes) {
+            directUploads.increment();
+            // A spooled file of the same path must not be flushed over the new one
+            discard(pending.remove(path));
+            delegate.uploadTo(fullPathWithFileId, data, size, contentType);
+            return;
+        }
+        register(journal.append(path, contentType, data, size));
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId) throws StorageException {
+        return download(fullPathWithFileId, 0, -1);
+    }
+
+    @Override
+    public FileData download(String fullPathWithFileId, long offset, long length) throws StorageException {
+        if (!ValidationUtils.isValidRange(offset, length)) {
+            throw new StorageException(String.format("Invalid range: offset %d, length %d", offset, length));
+        }
+        SpoolJournal.Entry entry = pending.get(key(fullPathWithFileId));
+        if (entry != null) {
+            FileData spooled = read(entry, offset, length);
+            if (spooled != null) {
+                return spooled;
+            }
+        }
+        return (offset == 0 && length < 0)
+                ? delegate.download(fullPathWithFileId)
+                : delegate.download(fullPathWithFileId, offset, length);
+    }
+
+    @Override
+    public Stream<FileInfo> list(String prefix) throws StorageException {
+        return delegate.list(prefix);
+    }
+
+    /**
+     * Drops the spooled files that were not flushed yet, waiting for those being flushed, then deletes the files from the backend.
+     */
+    @Override
+    public BatchResult<String> deleteAll(Collection<String> fullPathsWithFileId) {
+        for (String fullPathWithFileId : fullPathsWithFileId) {
+            if (fullPathWithFileId != null) {
+                discard(pending.remove(key(fullPathWithFileId)));
+            }
+        }
+        return delegate.deleteAll(fullPathsWithFileId);
+    }
+
+    /**
+     * Flushes a spooled file before presigning its download, since the URL is served by the backend.
+     */
+    @Override
+    public String presignDownload(String fullPathWithFileId, Duration ttl) throws StorageException {
+        SpoolJournal.Entry entry = pending.get(key(fullPathWithFileId));
+        if (entry != null) {
+            flush(entry);
+        }
+        return delegate.presignDownload(fullPathWithFileId, ttl);
+    }
+
+    @Override
+    public PresignedUpload presignUpload(String fullPath, String contentType, Duration ttl) throws StorageException {
+        return delegate.presignUpload(fullPath, contentType, ttl);
+    }
+
+    /**
+     * Returns the size of the spool, the flush counters and the age of the oldest file not flushed yet.
+     */
+    public SpoolStats stats() {
+        long oldest = Long.MAX_VALUE;
+        for (SpoolJournal.Entry entry : pending.values()) {
+            oldest = Math.min(oldest, entry.created().toEpochMilli());
+        }
+        long lagMillis = (oldest == Long.MAX_VALUE) ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+        return new SpoolStats(journal.pendingFiles(), journal.pendingBytes(), journal.diskBytes(), journal.segmentCount(),
+                flushing.get(), flushed.sum(), flushFailures.sum(), deadLettered.sum(), directUploads.sum(), lagMillis);
+    }
+
+    /**
+     * Waits until all spooled files are flushed, e.g. before a planned shutdown.
+     * @return Whether the spool was empty before the timeout elapsed.
+     */
+    public boolean awaitFlushed(Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (journal.pendingFiles() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        return true;
+    }
+
+    /**
+     * Stops flushing and closes the spool. Files not flushed yet stay in the spool and are replayed on the next start.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flusher.interrupt();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    private void register(SpoolJournal.Entry entry) {
+        SpoolJournal.Entry replaced = pending.put(entry.path(), entry);
+        // Waits for a flush of the replaced file in progress, so it cannot land after the new one
+        discard(replaced);
+        queue.add(new Flush(entry, 0, System.nanoTime(), flushSequence.getAndIncrement()));
+    }
+
+    /**
+     * Returns the normalized path, if it has a file ID in folders the backend accepts uploads to.
+     * The folders are checked with {@link StorageClient#newFilePath}, which applies the backend's naming rules.
+     */
+    private String validate(String fullPathWithFileId) throws StorageException {
+        String path = key(fullPathWithFileId);
+        int lastSlash = path.lastIndexOf('/');
+        if (lastSlash <= 0) {
+            logger.error("Invalid file path, a file ID is missing: {}", fullPathWithFileId);
+            throw new StorageException("Invalid file path, a file ID is missing: " + fullPathWithFileId);
+        }
+        delegate.newFilePath(path.substring(0, lastSlash));
+        return path;
+    }
+
+    private void discard(SpoolJournal.Entry entry) {
+        if (entry != null) {
+            synchronized (entry) {
+                journal.release(entry);
+            }
+        }
+    }
+
+    /**
+     * Serves a range of a spooled file, or returns null if the file was flushed and removed from the spool in the meantime.
+     */
+    private FileData read(SpoolJournal.Entry entry, long offset, long length) throws StorageException {
+        if (offset > 0 && offset >= entry.size()) {
+            throw new StorageException(String.format("Range not satisfiable: offset %d of a %d byte file", offset, entry.size()));
+        }
+        long count = (length < 0) ? entry.size() - offset : Math.min(length, entry.size() - offset);
+        try {
+            return new FileData(journal.open(entry, offset, count), entry.contentType(), count, null, entry.created(),
+                    offset, entry.size());
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.error("Failed to read {} from the upload spool", entry.path(), e);
+            throw new StorageException("Failed to read " + entry.path() + " from the upload spool", e);
+        }
+    }
+
+    private void flushLoop() {
+        List<Flush> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        while (!closed) {
+            try {
+                Flush first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Only takes the files that are due
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                flushBatch(batch);
+            } catch (InterruptedException e) {
+                // Interrupted by close()
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Flushes the batch with bounded parallelism. Files that failed with a transient error are queued again
+     * after their retry delay; the others are moved to the dead-letter directory.
+     */
+    private void flushBatch(List<Flush> batch) {
+        List<StorageCallable<Void>> operations = new ArrayList<>(batch.size());
+        for (Flush flush : batch) {
+            operations.add(() -> {
+                flush(flush.entry());
+                return null;
+            });
+        }
+        BatchResult<Void> result = BatchExecutor.runAll(operations, executor, flushConcurrency);
+        // Flushes interrupted by close() fail too; their files stay in the spool and are replayed
+        if (result.isSuccessful() || closed) {
+            return;
+        }
+        int retried = 0;
+        for (Map.Entry<Integer, StorageException> failure : result.errors().entrySet()) {
+            Flush flush = batch.get(failure.getKey());
+            flushFailures.increment();
+            if (isRetryable(failure.getValue())) {
+                int failures = flush.failures() + 1;
+                long delayMillis = Math.min(MAX_RETRY_DELAY_MILLIS, RETRY_DELAY_MILLIS << Math.min(failures - 1, 20));
+                queue.add(new Flush(flush.entry(), failures, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis),
+                        flushSequence.getAndIncrement()));
+                retried++;
+            } else {
+                deadLetter(flush.entry(), failure.getValue());
+            }
+        }
+        if (retried > 0) {
+            logger.warn("Failed to flush {} of {} spooled files, retrying later", retried, batch.size(),
+                    result.errors().values().iterator().next());
+        }
+    }
+
+    private static boolean isRetryable(StorageException e) {
+        return e instanceof StorageRejectedException || RetryableErrors.isRetryable(e);
+    }
+
+    /**
+     * Moves a spooled file that cannot be flushed to the dead-letter directory and releases it from the spool,
+     * so it neither holds spool space nor is replayed. If it cannot be written there, it stays in the spool and is retried.
+     */
+    private void deadLetter(SpoolJournal.Entry entry, StorageException error) {
+        synchronized (entry) {
+            if (entry.isReleased()) {
+                return;
+            }
+            String name = UUID.randomUUID().toString();
+            Path data = deadLetterDirectory.resolve(name + DEAD_LETTER_DATA_SUFFIX);
+            try (InputStream in = journal.open(entry, 0, entry.size())) {
+                Files.createDirectories(deadLetterDirectory);
+                Files.copy(in, data);
+                Properties properties = new Properties();
+                properties.setProperty("path", entry.path());
+                properties.setProperty("content-type", entry.contentType());
+                properties.setProperty("created", entry.created().toString());
+                properties.setProperty("error", String.valueOf(error.getMessage()));
+                // The properties file is written last, so it always describes a complete data file
+                Path temp = deadLetterDirectory.resolve(name + DEAD_LETTER_PROPERTIES_SUFFIX + ".tmp");
+                try (OutputStream out = Files.newOutputStream(temp)) {
+                    properties.store(out, null);
+                }
+                Files.move(temp, deadLetterDirectory.resolve(name + DEAD_LETTER_PROPERTIES_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                logger.error("Failed to move {} to the dead-letter directory, keeping it in the spool", entry.path(), e);
+                queue.add(new Flush(entry, 0, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_RETRY_DELAY_MILLIS),
+                        flushSequence.getAndIncrement()));
+                return;
+            }
+            logger.error("Failed to flush {}, moved it to {}", entry.path(), data, error);
+            pending.remove(entry.path(), entry);
+            deadLettered.increment();
+            journal.release(entry);
+        }
+    }
+
+    /**
+     * Stores the spooled file in the backend and releases it. Files replaced or deleted in the meantime are skipped.
+     */
+    private void flush(SpoolJournal.Entry entry) throws StorageException {
+        synchronized (entry) {
+            if (entry.isReleased()) {
+                return;
+            }
+            flushing.incrementAndGet();
+            try (InputStream in = journal.open(entry, 0, entry.size())) {
+                delegate.uploadTo(entry.path(), in, entry.size(), entry.contentType());
+            } catch (IOException e) {
+                throw new StorageException("Failed to read " + entry.path() + " from the upload spool", e);
+            } finally {
+                flushing.decrementAndGet();
+            }
+            pending.remove(entry.path(), entry);
+            flushed.increment();
+            journal.release(entry);
+        }
+    }
+
+    private static String key(String fullPathWithFileId) {
+        // Equivalent spellings of a path share a spooled file
+        return PathUtil.parsePathForDownload(fullPathWithFileId).path();
+    }
+
+    /**
+     * A spooled file waiting to be flushed, due at {@code dueNanos}; files due at the same time are flushed in order.
+     */
+    private record Flush(SpoolJournal.Entry entry, int failures, long dueNanos, long sequence) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Flush flush = (Flush) other;
+            int order = Long.compare(dueNanos - flush.dueNanos, 0);
+            return (order != 0) ? order : Long.compare(sequence, flush.sequence);
+        }
+    }
+}
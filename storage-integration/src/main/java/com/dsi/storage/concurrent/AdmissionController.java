@@ -0,0 +1,195 @@
+package com.dsi.storage.concurrent;
+
+import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.exception.StorageRejectedException;
+import com.dsi.storage.metrics.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits the uploads in flight, so a traffic spike queues uploads instead of exhausting memory and connections.
+ * - A global byte budget bounds the total size of the uploads in flight. An upload is charged its size,
+ *   or {@code maxUploadBytes} if its size is unknown or larger, which is the most it buffers at a time.
+ * - Each bucket may only run {@code bucketConcurrency} uploads at a time, so one busy bucket cannot take
+ *   the whole budget. An upload first waits for a slot of its bucket, and only then for bytes of the budget.
+ * Both are fair semaphores: waiting uploads are admitted in arrival order, and a large upload is not overtaken
+ * by small ones forever. An upload waits at most {@code maxWait}, and is rejected right away if {@code maxQueued}
+ * uploads are already waiting; either way a {@link StorageRejectedException} is thrown.
+ * The budget is counted in KB, so it may exceed 2 GB.
+ */
+public class AdmissionController {
+    private static final Logger logger = LoggerFactory.getLogger(AdmissionController.class);
+    private static final int BYTES_PER_PERMIT = 1024;
+
+    private final long budgetBytes;
+    private final long maxUploadBytes;
+    private final int bucketConcurrency;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+    private final int budgetPermits;
+    private final Semaphore bytes;
+    // Bucket names are chosen by the application, so there are few of them and their semaphores are kept
+    private final ConcurrentMap<String, Semaphore> buckets = new ConcurrentHashMap<>();
+
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlightUploads = new AtomicInteger();
+    private final AtomicLong inFlightBytes = new AtomicLong();
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final LongAdder rejectedQueueFull = new LongAdder();
+    private final LongAdder rejectedTimeout = new LongAdder();
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+
+    /**
+     * @param budgetBytes The maximum total size of the uploads in flight.
+     * @param maxUploadBytes The size charged to uploads of unknown or larger size.
+     * @param bucketConcurrency The maximum number of uploads in flight per bucket.
+     * @param maxQueued The maximum number of uploads waiting to be admitted.
+     * @param maxWait How long an upload waits to be admitted before it is rejected; zero rejects right away.
+     */
+    public AdmissionController(long budgetBytes, long maxUploadBytes, int bucketConcurrency, int maxQueued, Duration maxWait) {
+        if (budgetBytes < BYTES_PER_PERMIT) {
+            throw new IllegalArgumentException("The admission budget must be at least " + BYTES_PER_PERMIT + " bytes: " + budgetBytes);
+        }
+        if (maxUploadBytes <= 0 || bucketConcurrency <= 0 || maxQueued < 0) {
+            throw new IllegalArgumentException(String.format("Invalid admission limits: maxUploadBytes %d, bucketConcurrency %d, maxQueued %d",
+                    maxUploadBytes, bucketConcurrency, maxQueued));
+        }
+        this.budgetBytes = budgetBytes;
+        this.maxUploadBytes = maxUploadBytes;
+        this.bucketConcurrency = bucketConcurrency;
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.budgetPermits = (int) Math.min(Integer.MAX_VALUE, budgetBytes / BYTES_PER_PERMIT);
+        this.bytes = new Semaphore(budgetPermits, true);
+    }
+
+    /**
+     * Waits until the upload may start. The returned permit must be closed once the upload has completed or failed.
+     * @param bucket The bucket the file is uploaded to.
+     * @param size The length of the file in bytes, or -1 if unknown.
+     * @throws StorageRejectedException If too many uploads are waiting already, or the upload was not admitted in time.
+     * @throws StorageException If the thread was interrupted while waiting.
+     */
+    public Permit admit(String bucket, long size) throws StorageException {
+        long start = System.nanoTime();
+        long deadline = start + maxWaitNanos;
+        long charged = (size < 0 || size > maxUploadBytes) ? maxUploadBytes : size;
+        int permits = (int) Math.max(1, Math.min(budgetPermits, (charged + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT));
+        Semaphore bucketSlots = buckets.computeIfAbsent(bucket, key -> new Semaphore(bucketConcurrency, true));
+
+        boolean waiting = false;
+        try {
+            // A timed tryAcquire, unlike the untimed one, does not overtake the uploads already waiting
+            if (!bucketSlots.tryAcquire(0, TimeUnit.NANOSECONDS)) {
+                waiting = enqueue(bucket, start);
+                if (!bucketSlots.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    throw timedOut(bucket, start, "a slot of its bucket");
+                }
+            }
+            try {
+                if (!bytes.tryAcquire(permits, 0, TimeUnit.NANOSECONDS)) {
+                    if (!waiting) {
+                        waiting = enqueue(bucket, start);
+                    }
+                    if (!bytes.tryAcquire(permits, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                        throw timedOut(bucket, start, charged + " bytes of the upload budget");
+                    }
+                }
+            } catch (StorageException | InterruptedException e) {
+                bucketSlots.release();
+                throw e;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StorageException("Interrupted while waiting to upload to " + bucket, e);
+        } finally {
+            if (waiting) {
+                queued.decrementAndGet();
+            }
+        }
+
+        long waitNanos = System.nanoTime() - start;
+        admitted.increment();
+        if (waiting) {
+            waited.increment();
+        }
+        waitTime.record(waitNanos);
+        inFlightUploads.incrementAndGet();
+        inFlightBytes.addAndGet(charged);
+        return new Permit(bucketSlots, permits, charged, waitNanos);
+    }
+
+    /**
+     * Returns the budget, the uploads in flight and waiting, and the admission and rejection counters.
+     */
+    public AdmissionStats stats() {
+        return new AdmissionStats(budgetBytes, inFlightBytes.get(), inFlightUploads.get(), queued.get(), admitted.sum(), waited.sum(),
+                rejectedQueueFull.sum(), rejectedTimeout.sum(), waitTime.snapshot());
+    }
+
+    private boolean enqueue(String bucket, long start) throws StorageRejectedException {
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            rejectedQueueFull.increment();
+            waitTime.record(System.nanoTime() - start);
+            logger.warn("Rejected an upload to {}: {} uploads are already waiting", bucket, maxQueued);
+            throw new StorageRejectedException("Upload to " + bucket + " rejected: " + maxQueued + " uploads are already waiting");
+        }
+        return true;
+    }
+
+    private StorageRejectedException timedOut(String bucket, long start, String resource) {
+        long waitNanos = System.nanoTime() - start;
+        rejectedTimeout.increment();
+        waitTime.record(waitNanos);
+        logger.warn("Rejected an upload to {} after waiting {} ms for {}", bucket, TimeUnit.NANOSECONDS.toMillis(waitNanos), resource);
+        return new StorageRejectedException(String.format("Upload to %s rejected after waiting %d ms for %s",
+                bucket, TimeUnit.NANOSECONDS.toMillis(waitNanos), resource));
+    }
+
+    /**
+     * The admission of a single upload, returning its bucket slot and bytes to the budget when closed.
+     */
+    public final class Permit implements AutoCloseable {
+        private final Semaphore bucketSlots;
+        private final int permits;
+        private final long charged;
+        private final long waitNanos;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(Semaphore bucketSlots, int permits, long charged, long waitNanos) {
+            this.bucketSlots = bucketSlots;
+            this.permits = permits;
+            this.charged = charged;
+            this.waitNanos = waitNanos;
+        }
+
+        /**
+         * Returns how long the upload waited to be admitted.
+         */
+        public long waitNanos() {
+            return waitNanos;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                inFlightBytes.addAndGet(-charged);
+                inFlightUploads.decrementAndGet();
+                bytes.release(permits);
+                bucketSlots.release();
+            }
+        }
+    }
+}
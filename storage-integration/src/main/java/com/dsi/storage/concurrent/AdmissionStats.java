@@ -0,0 +1,27 @@
+package com.dsi.storage.concurrent;
+
+import com.dsi.storage.metrics.LatencySnapshot;
+
+/**
+ * A snapshot of the usage counters of an {@link AdmissionController}.
+ *
+ * @param budgetBytes The maximum total size of the uploads in flight.
+ * @param inFlightBytes The total size charged to the uploads currently in flight.
+ * @param inFlightUploads The number of uploads currently in flight.
+ * @param queued The number of uploads currently waiting to be admitted.
+ * @param admitted The number of admitted uploads.
+ * @param waited The number of admitted uploads that had to wait.
+ * @param rejectedQueueFull The number of uploads rejected right away because too many uploads were waiting.
+ * @param rejectedTimeout The number of uploads rejected because they were not admitted in time.
+ * @param waitTime The time admitted and rejected uploads waited, in nanoseconds.
+ */
+public record AdmissionStats(long budgetBytes, long inFlightBytes, int inFlightUploads, int queued, long admitted, long waited,
+                             long rejectedQueueFull, long rejectedTimeout, LatencySnapshot waitTime) {
+
+    /**
+     * Returns the total number of rejected uploads.
+     */
+    public long rejected() {
+        return rejectedQueueFull + rejectedTimeout;
+    }
+}
@@ -0,0 +1,77 @@
+package com.dsi.storage.concurrent;
+
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.exception.StorageException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs the items of a batch with bounded parallelism.
+ * A new item is started as soon as a running one completes, so slow items do not hold back the rest of the batch.
+ */
+public class BatchExecutor {
+
+    /**
+     * Runs all operations on the executor, at most {@code parallelism} at a time, and waits for them to complete.
+     * @return The results in the order of the operations, with the error of each failed operation keyed by its index.
+     */
+    public static <T> BatchResult<T> runAll(List<StorageCallable<T>> operations, Executor executor, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+
+        Semaphore permits = new Semaphore(parallelism);
+        List<CompletableFuture<T>> futures = new ArrayList<>(operations.size());
+        for (StorageCallable<T> operation : operations) {
+            futures.add(start(operation, executor, permits));
+        }
+
+        @SuppressWarnings("unchecked")
+        T[] results = (T[]) new Object[futures.size()];
+        Map<Integer, StorageException> errors = new TreeMap<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results[i] = futures.get(i).join();
+            } catch (CompletionException e) {
+                errors.put(i, toStorageException(e.getCause()));
+            }
+        }
+        return new BatchResult<>(Collections.unmodifiableList(Arrays.asList(results)), Collections.unmodifiableMap(errors));
+    }
+
+    private static <T> CompletableFuture<T> start(StorageCallable<T> operation, Executor executor, Semaphore permits) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(new StorageException("Interrupted while waiting to start a batch item", e));
+        }
+
+        CompletableFuture<T> future;
+        try {
+            future = StorageExecutor.supplyAsync(operation, executor);
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            return CompletableFuture.failedFuture(new StorageException("Batch item was rejected by the executor", e));
+        }
+        future.whenComplete((result, error) -> permits.release());
+        return future;
+    }
+
+    private static StorageException toStorageException(Throwable error) {
+        if (error instanceof StorageException storageException) {
+            return storageException;
+        }
+        return new StorageException("Batch item failed", error);
+    }
+}
@@ -0,0 +1,232 @@
+package com.dsi.storage.concurrent;
+
+import com.dsi.storage.buffer.BufferPool;
+import com.dsi.storage.buffer.TransferBuffers;
+import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.exception.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelDownloader downloads a single large file over several connections at once,
+ * as ranged downloads of fixed-size chunks, so the transfer is not limited to the throughput of one connection.
+ * The first chunk also reports the size of the file, so no separate metadata request is needed.
+ * Chunks are either written into a {@link FileChannel} at their offsets, or reassembled in order into an InputStream
+ * that reads ahead a bounded number of chunks; memory use depends on the chunk size and the number of connections only.
+ * A file replaced while it is downloaded is detected through its ETag and fails the download.
+ */
+public class ParallelDownloader {
+    private static final Logger logger = LoggerFactory.getLogger(ParallelDownloader.class);
+    private static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    private static final int DEFAULT_CONNECTIONS = 4;
+
+    private final StorageClient client;
+    private final Executor executor;
+    private final BufferPool bufferPool;
+    private final int chunkSize;
+    private final int connections;
+
+    /**
+     * @param client The client the chunks are downloaded with.
+     * @param executor The executor running the chunk downloads.
+     * @param bufferPool The pool providing the read-ahead buffers of {@link #download(String)}.
+     * @param chunkSize The size of the ranges the file is split into.
+     * @param connections The maximum number of chunks downloaded at the same time.
+     * @throws IllegalArgumentException If a chunk does not fit in the buffer pool.
+     */
+    public ParallelDownloader(StorageClient client, Executor executor, BufferPool bufferPool, int chunkSize, int connections) {
+        if (chunkSize <= 0 || connections <= 0) {
+            throw new IllegalArgumentException("Chunk size and connections must be positive: " + chunkSize + ", " + connections);
+        }
+        if (!bufferPool.fits(chunkSize)) {
+            throw new IllegalArgumentException(String.format("The chunk size of %d bytes does not fit in the buffer pool capacity of %d bytes",
+                    chunkSize, bufferPool.stats().capacityBytes()));
+        }
+        this.client = client;
+        this.executor = executor;
+        this.bufferPool = bufferPool;
+        this.chunkSize = chunkSize;
+        this.connections = connections;
+    }
+
+    /**
+     * Creates a ParallelDownloader configured through the environment:
+     * - STORAGE_PARALLEL_DOWNLOAD_CHUNK_SIZE: size of the chunks in bytes (default 8 MB).
+     * - STORAGE_PARALLEL_DOWNLOAD_CONNECTIONS: chunks downloaded at the same time (default 4).
+     */
+    public static ParallelDownloader fromEnvironment(StorageClient client, Executor executor) {
+        int chunkSize = (System.getenv("STORAGE_PARALLEL_DOWNLOAD_CHUNK_SIZE") != null)
+                ? Integer.parseInt(System.getenv("STORAGE_PARALLEL_DOWNLOAD_CHUNK_SIZE"))
+                : DEFAULT_CHUNK_SIZE;
+        int connections = (System.getenv("STORAGE_PARALLEL_DOWNLOAD_CONNECTIONS") != null)
+                ? Integer.parseInt(System.getenv("STORAGE_PARALLEL_DOWNLOAD_CONNECTIONS"))
+                : DEFAULT_CONNECTIONS;
+        return new ParallelDownloader(client, executor, BufferPool.shared(), chunkSize, connections);
+    }
+
+    /**
+     * Downloads the file into the channel, each chunk written at its offset from the start of the channel.
+     * The position of the channel is not changed.
+     * @return The size of the file.
+     */
+    public long downloadTo(String fullPathWithFileId, FileChannel target) throws StorageException {
+        FileData first = client.download(fullPathWithFileId, 0, chunkSize);
+        long totalSize = first.totalSize();
+        if (totalSize < 0) {
+            // The backend does not report the size, so the file cannot be split
+            closeQuietly(first.inputStream());
+            return write(fullPathWithFileId, client.download(fullPathWithFileId), 0, -1, null, target);
+        }
+
+        int chunkCount = chunkCount(totalSize);
+        AtomicInteger nextChunk = new AtomicInteger(1);
+        AtomicBoolean failed = new AtomicBoolean();
+        String etag = first.etag();
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(connections, chunkCount); i++) {
+            FileData initial = (i == 0) ? first : null;
+            workers.add(StorageExecutor.supplyAsync(() -> {
+                try {
+                    if (initial != null) {
+                        write(fullPathWithFileId, initial, 0, chunkLength(0, totalSize), etag, target);
+                    }
+                    int index;
+                    while (!failed.get() && (index = nextChunk.getAndIncrement()) < chunkCount) {
+                        long offset = (long) index * chunkSize;
+                        long length = chunkLength(index, totalSize);
+                        write(fullPathWithFileId, client.download(fullPathWithFileId, offset, length), offset, length, etag, target);
+                    }
+                    return null;
+                } catch (StorageException | RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+            }, executor));
+        }
+
+        StorageException failure = null;
+        for (CompletableFuture<Void> worker : workers) {
+            try {
+                worker.join();
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = (e.getCause() instanceof StorageException storageException)
+                            ? storageException
+                            : new StorageException("Parallel download of " + fullPathWithFileId + " failed", e.getCause());
+                }
+            }
+        }
+        if (failure != null) {
+            logger.error("Parallel download of {} failed", fullPathWithFileId, failure);
+            throw failure;
+        }
+        logger.debug("Downloaded {} bytes of {} in {} chunks", totalSize, fullPathWithFileId, chunkCount);
+        return totalSize;
+    }
+
+    /**
+     * Downloads the file as a stream that reads the next chunks ahead in parallel while the current one is consumed.
+     * At most one buffer of the chunk size per connection, plus the one being read, is taken from the buffer pool.
+     * The stream must be closed to give the buffers back.
+     */
+    public FileData download(String fullPathWithFileId) throws StorageException {
+        FileData first = client.download(fullPathWithFileId, 0, chunkSize);
+        long totalSize = first.totalSize();
+        if (totalSize < 0) {
+            closeQuietly(first.inputStream());
+            return client.download(fullPathWithFileId);
+        }
+        FileData whole = new FileData(first.inputStream(), first.contentType(), totalSize, first.etag(), first.lastModified());
+        if (totalSize <= chunkSize) {
+            return whole;
+        }
+        return whole.withInputStream(new ParallelInputStream(this, fullPathWithFileId, first, chunkCount(totalSize)));
+    }
+
+    /**
+     * Reads a chunk into a pooled buffer. Called by {@link ParallelInputStream} on the executor.
+     */
+    ParallelInputStream.Chunk fetch(String fullPathWithFileId, int index, FileData data, String etag, long totalSize)
+            throws StorageException {
+        long offset = (long) index * chunkSize;
+        int length = (int) chunkLength(index, totalSize);
+        if (data == null) {
+            data = client.download(fullPathWithFileId, offset, length);
+        }
+        checkUnchanged(fullPathWithFileId, data, etag);
+        try (InputStream in = data.inputStream()) {
+            var buffer = bufferPool.acquire(length);
+            try {
+                int read = buffer.fill(in, length);
+                if (read != length) {
+                    throw new StorageException(String.format("Expected %d bytes at offset %d of %s but received %d",
+                            length, offset, fullPathWithFileId, read));
+                }
+                return new ParallelInputStream.Chunk(buffer, length);
+            } catch (IOException | StorageException | RuntimeException e) {
+                buffer.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            throw new StorageException("Failed to read offset " + offset + " of " + fullPathWithFileId, e);
+        }
+    }
+
+    Executor executor() {
+        return executor;
+    }
+
+    int connections() {
+        return connections;
+    }
+
+    private long write(String fullPathWithFileId, FileData chunk, long offset, long length, String etag, FileChannel target)
+            throws StorageException {
+        checkUnchanged(fullPathWithFileId, chunk, etag);
+        try (InputStream in = chunk.inputStream()) {
+            long written = TransferBuffers.copy(in, target, offset);
+            if (length >= 0 && written != length) {
+                throw new StorageException(String.format("Expected %d bytes at offset %d of %s but received %d",
+                        length, offset, fullPathWithFileId, written));
+            }
+            return written;
+        } catch (IOException e) {
+            throw new StorageException("Failed to write offset " + offset + " of " + fullPathWithFileId, e);
+        }
+    }
+
+    private static void checkUnchanged(String fullPathWithFileId, FileData chunk, String etag) throws StorageException {
+        if (etag != null && chunk.etag() != null && !etag.equals(chunk.etag())) {
+            closeQuietly(chunk.inputStream());
+            throw new StorageException("File changed during the parallel download: " + fullPathWithFileId);
+        }
+    }
+
+    private int chunkCount(long totalSize) {
+        return (int) Math.max(1, (totalSize + chunkSize - 1) / chunkSize);
+    }
+
+    private long chunkLength(int index, long totalSize) {
+        return Math.min(chunkSize, totalSize - (long) index * chunkSize);
+    }
+
+    static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            logger.debug("Failed to close a chunk stream", e);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.dsi.storage.concurrent;
+
+import com.dsi.storage.buffer.PooledBuffer;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.exception.StorageException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * An InputStream returning the chunks of a {@link ParallelDownloader} in order.
+ * The next chunks are downloaded in parallel into pooled buffers while the current one is read;
+ * at most one chunk per connection is read ahead, so memory use stays bounded however fast the chunks arrive.
+ */
+class ParallelInputStream extends InputStream {
+
+    /**
+     * A downloaded chunk, held in a pooled buffer until it has been read.
+     */
+    record Chunk(PooledBuffer buffer, int length) {
+    }
+
+    private final ParallelDownloader downloader;
+    private final String fullPathWithFileId;
+    private final String etag;
+    private final long totalSize;
+    private final int chunkCount;
+    private final ArrayDeque<CompletableFuture<Chunk>> readAhead = new ArrayDeque<>();
+    private int nextChunk;
+    private Chunk current;
+    private int position;
+    private boolean closed;
+
+    ParallelInputStream(ParallelDownloader downloader, String fullPathWithFileId, FileData first, int chunkCount) {
+        this.downloader = downloader;
+        this.fullPathWithFileId = fullPathWithFileId;
+        this.etag = first.etag();
+        this.totalSize = first.totalSize();
+        this.chunkCount = chunkCount;
+        // The first chunk was already requested to learn the size of the file
+        readAhead.add(StorageExecutor.supplyAsync(
+                () -> downloader.fetch(fullPathWithFileId, 0, first, etag, totalSize), downloader.executor()));
+        nextChunk = 1;
+        fillReadAhead();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return (read(single, 0, 1) == -1) ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (current != null && position == current.length()) {
+            current.buffer().close();
+            current = null;
+        }
+        if (current == null) {
+            if (readAhead.isEmpty()) {
+                return -1;
+            }
+            current = await(readAhead.poll());
+            position = 0;
+            fillReadAhead();
+        }
+        int n = Math.min(len, current.length() - position);
+        System.arraycopy(current.buffer().array(), position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return (current == null) ? 0 : current.length() - position;
+    }
+
+    /**
+     * Gives back the buffer being read and the buffers of chunks still downloading once they arrive.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (current != null) {
+            current.buffer().close();
+            current = null;
+        }
+        for (CompletableFuture<Chunk> chunk : readAhead) {
+            chunk.thenAccept(c -> c.buffer().close());
+        }
+        readAhead.clear();
+    }
+
+    private void fillReadAhead() {
+        while (readAhead.size() < downloader.connections() && nextChunk < chunkCount) {
+            int index = nextChunk++;
+            readAhead.add(StorageExecutor.supplyAsync(
+                    () -> downloader.fetch(fullPathWithFileId, index, null, etag, totalSize), downloader.executor()));
+        }
+    }
+
+    private Chunk await(CompletableFuture<Chunk> chunk) throws IOException {
+        try {
+            return chunk.join();
+        } catch (CompletionException e) {
+            close();
+            Throwable cause = (e.getCause() != null) ? e.getCause() : e;
+            if (cause instanceof StorageException) {
+                throw new IOException(cause.getMessage(), cause);
+            }
+            throw new IOException("Parallel download of " + fullPathWithFileId + " failed", cause);
+        }
+    }
+}
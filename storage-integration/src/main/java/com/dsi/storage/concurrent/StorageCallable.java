@@ -0,0 +1,13 @@
+package com.dsi.storage.concurrent;
+
+import com.dsi.storage.exception.StorageException;
+
+/**
+ * A storage operation that returns a result and may throw a {@link StorageException}.
+ *
+ * @param <T> The type of the result.
+ */
+@FunctionalInterface
+public interface StorageCallable<T> {
+    T call() throws StorageException;
+}
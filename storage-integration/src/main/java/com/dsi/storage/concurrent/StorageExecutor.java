@@ -0,0 +1,173 @@
+package com.dsi.storage.concurrent;
+
+import com.dsi.storage.exception.StorageException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * StorageExecutor runs storage operations asynchronously while limiting the number of operations in flight.
+ * When the limit is reached, submitting a new operation blocks the caller until a running one completes,
+ * so callers get backpressure instead of an ever-growing queue.
+ * By default, operations run on virtual threads when the JVM supports them (Java 21+),
+ * otherwise on a bounded pool of daemon platform threads.
+ */
+public class StorageExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(StorageExecutor.class);
+    private static final int DEFAULT_THREADS = 64;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+
+    private static volatile StorageExecutor shared;
+
+    private final Executor executor;
+    private final Semaphore inFlightPermits;
+    private final int maxInFlight;
+
+    /**
+     * Creates a StorageExecutor running operations on the given executor.
+     * @param executor The executor that runs the operations.
+     * @param maxInFlight The maximum number of operations submitted but not yet completed.
+     */
+    public StorageExecutor(Executor executor, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.inFlightPermits = new Semaphore(maxInFlight, true);
+    }
+
+    /**
+     * Returns the process-wide StorageExecutor, configured through the environment:
+     * - STORAGE_ASYNC_THREADS: pool size used when virtual threads are not available (default 64).
+     * - STORAGE_ASYNC_MAX_IN_FLIGHT: maximum number of operations in flight (default 1024).
+     */
+    public static StorageExecutor shared() {
+        StorageExecutor instance = shared;
+        if (instance == null) {
+            synchronized (StorageExecutor.class) {
+                instance = shared;
+                if (instance == null) {
+                    int threads = (System.getenv("STORAGE_ASYNC_THREADS") != null)
+                            ? Integer.parseInt(System.getenv("STORAGE_ASYNC_THREADS"))
+                            : DEFAULT_THREADS;
+                    int maxInFlight = (System.getenv("STORAGE_ASYNC_MAX_IN_FLIGHT") != null)
+                            ? Integer.parseInt(System.getenv("STORAGE_ASYNC_MAX_IN_FLIGHT"))
+                            : DEFAULT_MAX_IN_FLIGHT;
+                    instance = new StorageExecutor(defaultExecutor(threads), maxInFlight);
+                    shared = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Creates an executor backed by virtual threads if the running JVM supports them,
+     * otherwise a pool of at most {@code threads} daemon platform threads.
+     */
+    public static ExecutorService defaultExecutor(int threads) {
+        ExecutorService virtualThreadExecutor = newVirtualThreadExecutor();
+        if (virtualThreadExecutor != null) {
+            logger.debug("Using virtual threads for asynchronous storage operations.");
+            return virtualThreadExecutor;
+        }
+
+        logger.debug("Virtual threads are not available, using a pool of {} threads for asynchronous storage operations.", threads);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new DaemonThreadFactory());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Runs the operation asynchronously.
+     * Blocks the caller while the maximum number of operations is already in flight.
+     * @return A future completed with the result of the operation, or exceptionally with its {@link StorageException}.
+     */
+    public <T> CompletableFuture<T> submit(StorageCallable<T> operation) {
+        try {
+            inFlightPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(
+                    new StorageException("Interrupted while waiting for a free slot to run the storage operation", e));
+        }
+
+        CompletableFuture<T> future;
+        try {
+            future = supplyAsync(operation, executor);
+        } catch (RejectedExecutionException e) {
+            inFlightPermits.release();
+            return CompletableFuture.failedFuture(new StorageException("Storage operation was rejected by the executor", e));
+        }
+        future.whenComplete((result, error) -> inFlightPermits.release());
+        return future;
+    }
+
+    /**
+     * Runs the operation on the given executor, completing the returned future exceptionally
+     * with the {@link StorageException} thrown by the operation.
+     */
+    public static <T> CompletableFuture<T> supplyAsync(StorageCallable<T> operation, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return operation.call();
+            } catch (StorageException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Returns the number of operations currently in flight.
+     */
+    public int inFlight() {
+        return maxInFlight - inFlightPermits.availablePermits();
+    }
+
+    /**
+     * Returns the maximum number of operations in flight.
+     */
+    public int maxInFlight() {
+        return maxInFlight;
+    }
+
+    public Executor executor() {
+        return executor;
+    }
+
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            // Looked up reflectively because the library is compiled for Java 17
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "storage-async-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.dsi.storage.core;
+
+import com.dsi.storage.client.filesystem.FileChannelInputStream;
+import com.dsi.storage.metrics.StorageListener;
+import com.dsi.storage.metrics.StorageOperation;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Reports the time to first byte and the bytes read of a download stream to a {@link StorageListener}.
+ * {@link #transferTo} is passed on to the wrapped stream, so zero-copy transfers keep working.
+ */
+class InstrumentedInputStream extends FilterInputStream {
+    private final StorageListener listener;
+    private final String bucket;
+    private final long startNanos;
+    private long count;
+    private boolean firstByteSeen;
+    private boolean reported;
+
+    InstrumentedInputStream(InputStream in, StorageListener listener, String bucket, long startNanos) {
+        super(in);
+        this.listener = listener;
+        this.bucket = bucket;
+        this.startNanos = startNanos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b >= 0) {
+            received(1);
+        } else {
+            report();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        int read = in.read(bytes, offset, length);
+        if (read > 0) {
+            received(read);
+        } else if (read < 0) {
+            report();
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(n);
+        count += skipped;
+        return skipped;
+    }
+
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        long transferred = in.transferTo(new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                firstByte();
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                firstByte();
+                out.write(bytes, offset, length);
+            }
+        });
+        count += transferred;
+        report();
+        return transferred;
+    }
+
+    /**
+     * Transfers the remaining bytes to the channel, keeping the zero-copy transfer of files served from local disk.
+     */
+    long transferTo(WritableByteChannel target) throws IOException {
+        if (!(in instanceof FileChannelInputStream fileStream)) {
+            return transferTo(Channels.newOutputStream(target));
+        }
+        firstByte();
+        long transferred = fileStream.transferTo(target);
+        count += transferred;
+        report();
+        return transferred;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            in.close();
+        } finally {
+            report();
+        }
+    }
+
+    private void received(int bytes) {
+        firstByte();
+        count += bytes;
+    }
+
+    private void firstByte() {
+        if (!firstByteSeen) {
+            firstByteSeen = true;
+            listener.onFirstByte(bucket, System.nanoTime() - startNanos);
+        }
+    }
+
+    private void report() {
+        if (!reported) {
+            reported = true;
+            listener.onTransferred(StorageOperation.DOWNLOAD, bucket, count);
+        }
+    }
+}
@@ -1,10 +1,64 @@
 package com.dsi.storage.core;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import com.dsi.storage.buffer.BufferPool;
+import com.dsi.storage.buffer.BufferPoolStats;
 import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.client.cache.CachingStorageClient;
+import com.dsi.storage.client.cache.DiskCache;
+import com.dsi.storage.client.cache.DiskCacheStats;
+import com.dsi.storage.client.cache.HeapCache;
+import com.dsi.storage.client.cache.HeapCacheStats;
+import com.dsi.storage.client.cache.HeapCachingStorageClient;
+import com.dsi.storage.client.compression.CompressingStorageClient;
+import com.dsi.storage.client.compression.CompressionStats;
+import com.dsi.storage.client.dedup.DedupStats;
+import com.dsi.storage.client.dedup.DedupStorageClient;
+import com.dsi.storage.client.filesystem.FileSystemStorageService;
+import com.dsi.storage.client.memory.InMemoryStorageService;
+import com.dsi.storage.concurrent.AdmissionController;
+import com.dsi.storage.concurrent.AdmissionStats;
+import com.dsi.storage.concurrent.BatchExecutor;
+import com.dsi.storage.concurrent.ParallelDownloader;
+import com.dsi.storage.concurrent.StorageCallable;
+import com.dsi.storage.concurrent.StorageExecutor;
+import com.dsi.storage.dto.BatchResult;
 import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.dto.PresignedUpload;
+import com.dsi.storage.dto.UploadRequest;
 import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.exception.StorageRejectedException;
+import com.dsi.storage.client.minio.ConnectionPoolStats;
 import com.dsi.storage.client.minio.MinioStorageService;
+import com.dsi.storage.client.resilience.ResilienceSettings;
+import com.dsi.storage.client.resilience.ResilienceStats;
+import com.dsi.storage.client.resilience.ResilientStorageClient;
+import com.dsi.storage.client.shard.ShardStats;
+import com.dsi.storage.client.shard.ShardedStorageClient;
+import com.dsi.storage.client.spool.SpoolStats;
+import com.dsi.storage.client.spool.WriteBehindStorageClient;
+import com.dsi.storage.metrics.StorageListener;
+import com.dsi.storage.metrics.StorageOperation;
+import com.dsi.storage.util.StoragePath;
 import com.dsi.storage.util.ValidationUtils;
 import io.minio.MinioClient;
 import org.slf4j.Logger;
@@ -13,18 +67,46 @@ import org.slf4j.LoggerFactory;
 /**
  * StorageService provides a unified interface for file storage operations.
  * It delegates operations to the appropriate implementation of StorageClient.
- * Currently, it supports MinIO as the storage service.
+ * Currently, it supports MinIO, the local file system and an in-memory store as storage services.
  */
 public class StorageService {
     private final StorageClient storageClient;
-    private static final Logger logger = LoggerFactory.getLogger(MinioStorageService.class);
+    private final StorageExecutor asyncExecutor;
+    private final int batchParallelism;
+    private final DiskCache diskCache;
+    private final HeapCache heapCache;
+    private final ResilientStorageClient resilientClient;
+    private final WriteBehindStorageClient writeBehindClient;
+    private final DedupStorageClient dedupClient;
+    private final CompressingStorageClient compressingClient;
+    private final ShardedStorageClient shardedClient;
+    private final MinioStorageService minioStorageService;
+    private final ParallelDownloader parallelDownloader;
+    private final AdmissionController admissionController;
+    private volatile StorageListener listener;
+    private static final Logger logger = LoggerFactory.getLogger(StorageService.class);
+    // The longest lifetime S3 accepts for a presigned URL
+    private static final Duration MAX_PRESIGN_TTL = Duration.ofDays(7);
 
     /**
      * Constructs a StorageService instance based on the environment configuration.
-     * Determines the storage client implementation to use (e.g., minio).
+     * Determines the storage client implementation to use (e.g., minio, filesystem or inmemory).
      * @throws IllegalStateException If the specified storage service type is unsupported.
+     * @throws IllegalArgumentException If STORAGE_PART_SIZE or STORAGE_PARALLEL_DOWNLOAD_CHUNK_SIZE exceeds STORAGE_BUFFER_POOL_SIZE.
      */
     public StorageService() {
+        this(StorageExecutor.shared());
+    }
+
+    /**
+     * Constructs a StorageService instance based on the environment configuration,
+     * running asynchronous operations on the given executor.
+     * @param asyncExecutor The executor used by {@link #uploadAsync} and {@link #downloadAsync}.
+     * @throws IllegalStateException If the specified storage service type is unsupported.
+     * @throws IllegalArgumentException If STORAGE_PART_SIZE or STORAGE_PARALLEL_DOWNLOAD_CHUNK_SIZE exceeds STORAGE_BUFFER_POOL_SIZE.
+     */
+    public StorageService(StorageExecutor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
         String serviceType = System.getenv("STORAGE_SERVICE_TYPE");
         String endpoint = System.getenv("STORAGE_ENDPOINT");
         String accessKey = System.getenv("STORAGE_ACCESS_KEY");
@@ -32,15 +114,186 @@ public class StorageService {
         long partSize = (System.getenv("STORAGE_PART_SIZE") != null)
                 ? Long.parseLong(System.getenv("STORAGE_PART_SIZE"))
                 : 10485760L; // 10 MB default size
+        Duration bucketCacheTtl = Duration.ofSeconds((System.getenv("STORAGE_BUCKET_CACHE_TTL") != null)
+                ? Long.parseLong(System.getenv("STORAGE_BUCKET_CACHE_TTL"))
+                : 300L); // 5 minutes default TTL
+        int uploadParallelism = (System.getenv("STORAGE_UPLOAD_PARALLELISM") != null)
+                ? Integer.parseInt(System.getenv("STORAGE_UPLOAD_PARALLELISM"))
+                : 4;
+        int maxPartAttempts = (System.getenv("STORAGE_UPLOAD_PART_ATTEMPTS") != null)
+                ? Integer.parseInt(System.getenv("STORAGE_UPLOAD_PART_ATTEMPTS"))
+                : 3;
+        this.batchParallelism = (System.getenv("STORAGE_BATCH_PARALLELISM") != null)
+                ? Integer.parseInt(System.getenv("STORAGE_BATCH_PARALLELISM"))
+                : 16;
+        String admissionBytes = System.getenv("STORAGE_ADMISSION_BYTES");
+        if (!ValidationUtils.isNullOrEmpty(admissionBytes)) {
+            int bucketConcurrency = (System.getenv("STORAGE_ADMISSION_BUCKET_CONCURRENCY") != null)
+                    ? Integer.parseInt(System.getenv("STORAGE_ADMISSION_BUCKET_CONCURRENCY"))
+                    : 16;
+            int maxQueued = (System.getenv("STORAGE_ADMISSION_MAX_QUEUED") != null)
+                    ? Integer.parseInt(System.getenv("STORAGE_ADMISSION_MAX_QUEUED"))
+                    : 1000;
+            long maxWaitMillis = (System.getenv("STORAGE_ADMISSION_WAIT") != null)
+                    ? Long.parseLong(System.getenv("STORAGE_ADMISSION_WAIT"))
+                    : 30000L; // 30 seconds default wait
+            // A multipart upload buffers up to uploadParallelism parts at a time
+            this.admissionController = new AdmissionController(Long.parseLong(admissionBytes), partSize * uploadParallelism,
+                    bucketConcurrency, maxQueued, Duration.ofMillis(maxWaitMillis));
+        } else {
+            this.admissionController = null;
+        }
 
+        StorageClient client;
+        MinioStorageService minioStorageService = null;
+        ShardedStorageClient shardedClient = null;
         switch (serviceType.toLowerCase()) {
             case "minio":
+                String shardEndpoints = System.getenv("STORAGE_SHARD_ENDPOINTS");
+                if (!ValidationUtils.isNullOrEmpty(shardEndpoints)) {
+                    ValidationUtils.emptyCheckOnRequiredFields(accessKey, secretKey);
+                    int virtualNodes = (System.getenv("STORAGE_SHARD_VIRTUAL_NODES") != null)
+                            ? Integer.parseInt(System.getenv("STORAGE_SHARD_VIRTUAL_NODES"))
+                            : 128;
+                    // Each endpoint is a shard named after it, so the placement survives restarts as long as the list does
+                    Map<String, StorageClient> shards = new LinkedHashMap<>();
+                    for (String shardEndpoint : shardEndpoints.split(",")) {
+                        shards.put(shardEndpoint.trim(), new MinioStorageService(shardEndpoint.trim(), accessKey, secretKey, partSize,
+                                bucketCacheTtl, BufferPool.shared(), uploadParallelism, maxPartAttempts));
+                    }
+                    // The endpoints before the last shard was added, set while a rebalance interrupted by a restart is completed
+                    String previousEndpoints = System.getenv("STORAGE_SHARD_PREVIOUS_ENDPOINTS");
+                    List<String> previousShards = ValidationUtils.isNullOrEmpty(previousEndpoints) ? null
+                            : Arrays.stream(previousEndpoints.split(",")).map(String::trim).toList();
+                    shardedClient = new ShardedStorageClient(shards, previousShards, virtualNodes, asyncExecutor.executor(), batchParallelism);
+                    client = shardedClient;
+                    break;
+                }
                 ValidationUtils.emptyCheckOnRequiredFields(endpoint, accessKey, secretKey);
-                this.storageClient = new MinioStorageService(endpoint, accessKey, secretKey, partSize);
+                minioStorageService = new MinioStorageService(endpoint, accessKey, secretKey, partSize, bucketCacheTtl, BufferPool.shared(),
+                        uploadParallelism, maxPartAttempts);
+                client = minioStorageService;
+                break;
+            case "filesystem":
+                String rootPath = System.getenv("STORAGE_FILESYSTEM_ROOT");
+                ValidationUtils.emptyCheckOnRequiredFields(rootPath);
+                boolean sync = System.getenv("STORAGE_FILESYSTEM_SYNC") == null
+                        || Boolean.parseBoolean(System.getenv("STORAGE_FILESYSTEM_SYNC"));
+                client = new FileSystemStorageService(Path.of(rootPath), sync);
+                break;
+            case "inmemory":
+                client = InMemoryStorageService.shared();
                 break;
             default:
                 throw new IllegalStateException("Unsupported storage environment: " + serviceType);
         }
+
+        this.minioStorageService = minioStorageService;
+        this.shardedClient = shardedClient;
+
+        // Below the caches, so cache hits never wait on retries and the circuit breaker only sees backend calls.
+        // Hedged downloads run on an executor of their own, since downloadAsync blocks threads of asyncExecutor on them
+        if (Boolean.parseBoolean(System.getenv("STORAGE_RESILIENCE"))) {
+            this.resilientClient = new ResilientStorageClient(client, ResilienceSettings.fromEnvironment());
+            client = resilientClient;
+        } else {
+            this.resilientClient = null;
+        }
+        // Above the resilience layer, so flushes are protected by the circuit breaker, and below the caches
+        String spoolDir = System.getenv("STORAGE_SPOOL_DIR");
+        if (!ValidationUtils.isNullOrEmpty(spoolDir)) {
+            long spoolMaxBytes = (System.getenv("STORAGE_SPOOL_MAX_BYTES") != null)
+                    ? Long.parseLong(System.getenv("STORAGE_SPOOL_MAX_BYTES"))
+                    : 1073741824L; // 1 GB default size
+            int flushConcurrency = (System.getenv("STORAGE_SPOOL_FLUSH_CONCURRENCY") != null)
+                    ? Integer.parseInt(System.getenv("STORAGE_SPOOL_FLUSH_CONCURRENCY"))
+                    : 8;
+            boolean spoolSync = System.getenv("STORAGE_SPOOL_SYNC") == null
+                    || Boolean.parseBoolean(System.getenv("STORAGE_SPOOL_SYNC"));
+            this.writeBehindClient = new WriteBehindStorageClient(client, Path.of(spoolDir), asyncExecutor.executor(),
+                    spoolMaxBytes, flushConcurrency, spoolSync);
+            client = writeBehindClient;
+        } else {
+            this.writeBehindClient = null;
+        }
+        String dedupDir = System.getenv("STORAGE_DEDUP_DIR");
+        if (!ValidationUtils.isNullOrEmpty(dedupDir)) {
+            long dedupMinSize = (System.getenv("STORAGE_DEDUP_MIN_SIZE") != null)
+                    ? Long.parseLong(System.getenv("STORAGE_DEDUP_MIN_SIZE"))
+                    : 65536L; // 64 KB default size
+            // Instances sharing a backend must share the key their references are signed with
+            String dedupKey = System.getenv("STORAGE_DEDUP_KEY");
+            this.dedupClient = new DedupStorageClient(client, Path.of(dedupDir), dedupMinSize,
+                    ValidationUtils.isNullOrEmpty(dedupKey) ? null : dedupKey.getBytes(StandardCharsets.UTF_8));
+            client = dedupClient;
+        } else {
+            this.dedupClient = null;
+        }
+        // Above deduplication, so repeated content compresses to the same bytes; below the caches, which keep files uncompressed
+        if (Boolean.parseBoolean(System.getenv("STORAGE_COMPRESSION"))) {
+            String compressionTypes = (System.getenv("STORAGE_COMPRESSION_TYPES") != null)
+                    ? System.getenv("STORAGE_COMPRESSION_TYPES")
+                    : CompressingStorageClient.DEFAULT_TYPES;
+            int compressionLevel = (System.getenv("STORAGE_COMPRESSION_LEVEL") != null)
+                    ? Integer.parseInt(System.getenv("STORAGE_COMPRESSION_LEVEL"))
+                    : 1;
+            this.compressingClient = new CompressingStorageClient(client, compressionTypes, compressionLevel);
+            client = compressingClient;
+        } else {
+            this.compressingClient = null;
+        }
+        String diskCacheDir = System.getenv("STORAGE_DISK_CACHE_DIR");
+        if (!ValidationUtils.isNullOrEmpty(diskCacheDir)) {
+            long diskCacheSize = (System.getenv("STORAGE_DISK_CACHE_SIZE") != null)
+                    ? Long.parseLong(System.getenv("STORAGE_DISK_CACHE_SIZE"))
+                    : 1073741824L; // 1 GB default size
+            this.diskCache = DiskCache.shared(Path.of(diskCacheDir), diskCacheSize);
+            client = new CachingStorageClient(client, diskCache);
+        } else {
+            this.diskCache = null;
+        }
+        if (System.getenv("STORAGE_HEAP_CACHE_SIZE") != null) {
+            this.heapCache = HeapCache.shared();
+            client = new HeapCachingStorageClient(client, heapCache);
+        } else {
+            this.heapCache = null;
+        }
+        this.storageClient = client;
+        this.parallelDownloader = ParallelDownloader.fromEnvironment(client, asyncExecutor.executor());
+    }
+
+    /**
+     * Constructs a StorageService on top of the given client, without reading the environment.
+     * This allows embedding a custom or decorated StorageClient, e.g. an InMemoryStorageService in tests and benchmarks.
+     * @param storageClient The client all operations are delegated to.
+     * @param asyncExecutor The executor used by {@link #uploadAsync} and {@link #downloadAsync}.
+     * @param batchParallelism The number of transfers run at the same time by {@link #uploadAll(Collection)}
+     *                         and {@link #downloadAll(Collection)}.
+     */
+    public StorageService(StorageClient storageClient, StorageExecutor asyncExecutor, int batchParallelism) {
+        this(storageClient, asyncExecutor, batchParallelism, null);
+    }
+
+    /**
+     * Constructs a StorageService on top of the given client, admitting uploads through the given admission controller.
+     * @param admissionController The controller limiting the uploads in flight, or null to admit all uploads.
+     * @see #StorageService(StorageClient, StorageExecutor, int)
+     */
+    public StorageService(StorageClient storageClient, StorageExecutor asyncExecutor, int batchParallelism,
+                          AdmissionController admissionController) {
+        this.storageClient = storageClient;
+        this.admissionController = admissionController;
+        this.asyncExecutor = asyncExecutor;
+        this.batchParallelism = batchParallelism;
+        this.diskCache = null;
+        this.heapCache = null;
+        this.resilientClient = null;
+        this.writeBehindClient = (storageClient instanceof WriteBehindStorageClient writeBehind) ? writeBehind : null;
+        this.dedupClient = (storageClient instanceof DedupStorageClient dedup) ? dedup : null;
+        this.compressingClient = (storageClient instanceof CompressingStorageClient compressing) ? compressing : null;
+        this.shardedClient = (storageClient instanceof ShardedStorageClient sharded) ? sharded : null;
+        this.minioStorageService = (storageClient instanceof MinioStorageService minio) ? minio : null;
+        this.parallelDownloader = ParallelDownloader.fromEnvironment(storageClient, asyncExecutor.executor());
     }
 
     /**
@@ -58,11 +311,62 @@ public class StorageService {
      * @throws StorageException If an error occurs during file upload.
      */
     public String upload(String fullPath, InputStream inputStream, String contentType) throws StorageException {
+        return upload(fullPath, inputStream, -1, contentType);
+    }
+
+    /**
+     * Uploads a file of known length to the storage service.
+     * Knowing the length up front lets small files be sent with a single request
+     * without buffering more than the file itself.
+     * Both Spring's MultipartFile and PrimeFaces' UploadedFile provide it through getSize().
+     * @param fullPath The base path where the file will be stored, excluding the file ID.
+     *                 Example: "my-bucket/folder1/folder2".
+     * @param inputStream The input stream containing the file data.
+     * @param size The length of the file data in bytes, or -1 if unknown.
+     * @param contentType The MIME type of the file.
+     * @return The full path of the uploaded file, including the generated file ID.
+     *         Example: "my-bucket/folder1/folder2/6cbd360f-df93-48eb-901b-87e97a5ddb8e".
+     * @throws StorageException If an error occurs during file upload.
+     */
+    public String upload(String fullPath, InputStream inputStream, long size, String contentType) throws StorageException {
         if (ValidationUtils.isNullOrEmpty(fullPath) || inputStream == null || ValidationUtils.isNullOrEmpty(contentType)) {
             logger.error("Upload Path, data stream, or content type cannot be null or empty");
             throw new StorageException("Upload Path, data stream, or content type cannot be null or empty");
         }
-        return storageClient.upload(fullPath, inputStream, contentType);
+        if (size < -1) {
+            logger.error("Upload size must be -1 (unknown) or a non-negative length: {}", size);
+            throw new StorageException("Upload size must be -1 (unknown) or a non-negative length: " + size);
+        }
+        StorageListener listener = this.listener;
+        if (listener == null) {
+            if (admissionController == null) {
+                return storageClient.upload(fullPath, inputStream, size, contentType);
+            }
+            AdmissionController.Permit permit = admit(bucketOf(StoragePath.ofUpload(fullPath)), size, null);
+            try {
+                return storageClient.upload(fullPath, inputStream, size, contentType);
+            } finally {
+                release(permit);
+            }
+        }
+
+        String bucket = bucketOf(StoragePath.ofUpload(fullPath));
+        CountingInputStream countingStream = new CountingInputStream(inputStream);
+        listener.onStart(StorageOperation.UPLOAD, bucket);
+        long start = System.nanoTime();
+        AdmissionController.Permit permit = null;
+        try {
+            permit = admit(bucket, size, listener);
+            String filePath = storageClient.upload(fullPath, countingStream, size, contentType);
+            listener.onSuccess(StorageOperation.UPLOAD, bucket, System.nanoTime() - start);
+            listener.onTransferred(StorageOperation.UPLOAD, bucket, countingStream.count());
+            return filePath;
+        } catch (StorageException | RuntimeException e) {
+            listener.onFailure(StorageOperation.UPLOAD, bucket, System.nanoTime() - start, e);
+            throw e;
+        } finally {
+            release(permit);
+        }
     }
 
     /**
@@ -81,6 +385,572 @@ public class StorageService {
             throw new StorageException("Download path cannot be null or empty");
         }
 
-        return storageClient.download(fullPathWithFileId);
+        return download(fullPathWithFileId, () -> storageClient.download(fullPathWithFileId));
+    }
+
+    /**
+     * Downloads a range of a file, e.g. to answer an HTTP Range request of a video or PDF viewer with a 206 response.
+     * Only the requested bytes are transferred from the storage backend.
+     * Example:
+     * - `download(path, 1048576, 65536)` returns the 64 KB following the first MB of the file.
+     * @param fullPathWithFileId The full path of the file to be downloaded, including the file ID.
+     * @param offset The position of the first byte to return.
+     * @param length The maximum number of bytes to return, or -1 to read to the end of the file.
+     * @return FileData with the range actually returned: {@link FileData#offset()}, {@link FileData#size()}
+     *         and the {@link FileData#totalSize()} of the file.
+     * @throws StorageException If the range is invalid, starts beyond the end of the file or an error occurs during download.
+     */
+    public FileData download(String fullPathWithFileId, long offset, long length) throws StorageException {
+        if (ValidationUtils.isNullOrEmpty(fullPathWithFileId)) {
+            logger.error("Download path cannot be null or empty");
+            throw new StorageException("Download path cannot be null or empty");
+        }
+        if (!ValidationUtils.isValidRange(offset, length)) {
+            logger.error("Invalid download range: offset {}, length {}", offset, length);
+            throw new StorageException(String.format("Invalid range: offset %d, length %d", offset, length));
+        }
+        return download(fullPathWithFileId, () -> storageClient.download(fullPathWithFileId, offset, length));
+    }
+
+    private FileData download(String fullPathWithFileId, StorageCallable<FileData> request) throws StorageException {
+        StorageListener listener = this.listener;
+        if (listener == null) {
+            return request.call();
+        }
+
+        String bucket = bucketOf(StoragePath.ofDownload(fullPathWithFileId));
+        listener.onStart(StorageOperation.DOWNLOAD, bucket);
+        long start = System.nanoTime();
+        try {
+            FileData fileData = request.call();
+            listener.onSuccess(StorageOperation.DOWNLOAD, bucket, System.nanoTime() - start);
+            return fileData.withInputStream(new InstrumentedInputStream(fileData.inputStream(), listener, bucket, start));
+        } catch (StorageException | RuntimeException e) {
+            listener.onFailure(StorageOperation.DOWNLOAD, bucket, System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Streams a file to the output stream with constant memory, e.g. to the response of a web request.
+     * The output stream is not closed. Use {@link #download} and {@link FileData#transferTo(OutputStream)} instead
+     * to set the content type and length of the response before streaming.
+     * @param fullPathWithFileId The full path of the file to be downloaded, including the file ID.
+     * @param out The stream the file is written to.
+     * @return The number of bytes written.
+     * @throws StorageException If an error occurs during file download.
+     */
+    public long downloadTo(String fullPathWithFileId, OutputStream out) throws StorageException {
+        FileData fileData = download(fullPathWithFileId);
+        try {
+            return fileData.transferTo(out);
+        } catch (IOException e) {
+            logger.error("Failed to transfer file: {}", fullPathWithFileId, e);
+            throw new StorageException("Failed to transfer file: " + fullPathWithFileId, e);
+        }
+    }
+
+    /**
+     * Streams a file to the channel with constant memory. The channel is not closed.
+     * Files served from the local file system or the disk cache are copied by the operating system
+     * when the channel is a file or socket channel.
+     * @param fullPathWithFileId The full path of the file to be downloaded, including the file ID.
+     * @param target The channel the file is written to.
+     * @return The number of bytes written.
+     * @throws StorageException If an error occurs during file download.
+     */
+    public long downloadTo(String fullPathWithFileId, WritableByteChannel target) throws StorageException {
+        FileData fileData = download(fullPathWithFileId);
+        try {
+            if (fileData.inputStream() instanceof InstrumentedInputStream instrumented) {
+                try (instrumented) {
+                    return instrumented.transferTo(target);
+                }
+            }
+            return fileData.transferTo(target);
+        } catch (IOException e) {
+            logger.error("Failed to transfer file: {}", fullPathWithFileId, e);
+            throw new StorageException("Failed to transfer file: " + fullPathWithFileId, e);
+        }
+    }
+
+    /**
+     * Downloads a large file into the channel over several connections at once,
+     * each chunk written at its offset from the start of the channel. The position of the channel is not changed.
+     * The chunk size and number of connections are set by STORAGE_PARALLEL_DOWNLOAD_CHUNK_SIZE
+     * and STORAGE_PARALLEL_DOWNLOAD_CONNECTIONS.
+     * @param fullPathWithFileId The full path of the file to be downloaded, including the file ID.
+     * @param target The file the download is written to.
+     * @return The size of the file.
+     * @throws StorageException If a chunk fails, the file changes during the download or an error occurs while writing.
+     */
+    public long downloadParallel(String fullPathWithFileId, FileChannel target) throws StorageException {
+        if (ValidationUtils.isNullOrEmpty(fullPathWithFileId) || target == null) {
+            logger.error("Download path or target channel cannot be null or empty");
+            throw new StorageException("Download path or target channel cannot be null or empty");
+        }
+        StorageListener listener = this.listener;
+        if (listener == null) {
+            return parallelDownloader.downloadTo(fullPathWithFileId, target);
+        }
+
+        String bucket = bucketOf(StoragePath.ofDownload(fullPathWithFileId));
+        listener.onStart(StorageOperation.DOWNLOAD, bucket);
+        long start = System.nanoTime();
+        try {
+            long size = parallelDownloader.downloadTo(fullPathWithFileId, target);
+            listener.onSuccess(StorageOperation.DOWNLOAD, bucket, System.nanoTime() - start);
+            listener.onTransferred(StorageOperation.DOWNLOAD, bucket, size);
+            return size;
+        } catch (StorageException | RuntimeException e) {
+            listener.onFailure(StorageOperation.DOWNLOAD, bucket, System.nanoTime() - start, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Downloads a large file over several connections at once, as a stream reading the next chunks ahead
+     * while the current one is consumed. The read-ahead buffers come from the shared {@link BufferPool}
+     * and are given back when the stream is closed.
+     * @param fullPathWithFileId The full path of the file to be downloaded, including the file ID.
+     * @return FileData containing the file's InputStream, content type and size.
+     * @throws StorageException If an error occurs during file download.
+     */
+    public FileData downloadParallel(String fullPathWithFileId) throws StorageException {
+        if (ValidationUtils.isNullOrEmpty(fullPathWithFileId)) {
+            logger.error("Download path cannot be null or empty");
+            throw new StorageException("Download path cannot be null or empty");
+        }
+        return download(fullPathWithFileId, () -> parallelDownloader.download(fullPathWithFileId));
+    }
+
+    /**
+     * Uploads a file to the storage service asynchronously.
+     * The upload runs on the configured {@link StorageExecutor}; if too many operations are already in flight,
+     * this method blocks until one of them completes.
+     * The input stream must stay open until the returned future completes.
+     * @param fullPath The base path where the file will be stored, excluding the file ID.
+     * @param inputStream The input stream containing the file data.
+     * @param contentType The MIME type of the file.
+     * @return A future completed with the full path of the uploaded file, or exceptionally with a StorageException.
+     */
+    public CompletableFuture<String> uploadAsync(String fullPath, InputStream inputStream, String contentType) {
+        return uploadAsync(fullPath, inputStream, -1, contentType);
+    }
+
+    /**
+     * Uploads a file of known length to the storage service asynchronously.
+     * @param size The length of the file data in bytes, or -1 if unknown.
+     * @see #uploadAsync(String, InputStream, String)
+     */
+    public CompletableFuture<String> uploadAsync(String fullPath, InputStream inputStream, long size, String contentType) {
+        return asyncExecutor.submit(() -> upload(fullPath, inputStream, size, contentType));
+    }
+
+    /**
+     * Downloads a file from the storage service asynchronously.
+     * The download runs on the configured {@link StorageExecutor}; if too many operations are already in flight,
+     * this method blocks until one of them completes.
+     * @param fullPathWithFileId The full path of the file to be downloaded, including the file ID.
+     * @return A future completed with the FileData, or exceptionally with a StorageException.
+     */
+    public CompletableFuture<FileData> downloadAsync(String fullPathWithFileId) {
+        return asyncExecutor.submit(() -> download(fullPathWithFileId));
+    }
+
+    /**
+     * Uploads a batch of files, running up to STORAGE_BATCH_PARALLELISM uploads at a time (default 16).
+     * @see #uploadAll(Collection, int)
+     */
+    public BatchResult<String> uploadAll(Collection<UploadRequest> requests) {
+        return uploadAll(requests, batchParallelism);
+    }
+
+    /**
+     * Uploads a batch of files with bounded parallelism and waits for all of them to complete.
+     * A failing file does not stop the rest of the batch.
+     * @param requests The files to upload.
+     * @param parallelism The maximum number of uploads running at the same time.
+     * @return The full paths of the uploaded files in request order,
+     *         with a StorageException for each failed upload keyed by its index.
+     */
+    public BatchResult<String> uploadAll(Collection<UploadRequest> requests, int parallelism) {
+        List<UploadRequest> requestList = new ArrayList<>(requests);
+        Map<Integer, StorageException> errors = new TreeMap<>();
+        List<UploadRequest> validRequests = new ArrayList<>(requestList.size());
+        List<Integer> validIndexes = new ArrayList<>(requestList.size());
+        for (int i = 0; i < requestList.size(); i++) {
+            UploadRequest request = requestList.get(i);
+            if (request == null || ValidationUtils.isNullOrEmpty(request.fullPath()) || request.inputStream() == null
+                    || ValidationUtils.isNullOrEmpty(request.contentType())) {
+                errors.put(i, new StorageException("Upload Path, data stream, or content type cannot be null or empty"));
+            } else if (request.size() < -1) {
+                errors.put(i, new StorageException("Upload size must be -1 (unknown) or a non-negative length: " + request.size()));
+            } else {
+                validRequests.add(request);
+                validIndexes.add(i);
+            }
+        }
+
+        BatchResult<String> result = runBatch(StorageOperation.UPLOAD_ALL, () -> (admissionController == null)
+                ? storageClient.uploadAll(validRequests, asyncExecutor.executor(), parallelism)
+                : uploadAllAdmitted(validRequests, parallelism));
+        return merge(requestList.size(), validIndexes, result, errors);
+    }
+
+    /**
+     * Downloads a batch of files, running up to STORAGE_BATCH_PARALLELISM downloads at a time (default 16).
+     * @see #downloadAll(Collection, int)
+     */
+    public BatchResult<FileData> downloadAll(Collection<String> fullPathsWithFileId) {
+        return downloadAll(fullPathsWithFileId, batchParallelism);
+    }
+
+    /**
+     * Downloads a batch of files with bounded parallelism and waits for all of them to complete.
+     * A failing file does not stop the rest of the batch.
+     * @param fullPathsWithFileId The full paths of the files to be downloaded, including the file IDs.
+     * @param parallelism The maximum number of downloads running at the same time.
+     * @return The FileData of the files in request order,
+     *         with a StorageException for each failed download keyed by its index.
+     */
+    public BatchResult<FileData> downloadAll(Collection<String> fullPathsWithFileId, int parallelism) {
+        List<String> pathList = new ArrayList<>(fullPathsWithFileId);
+        Map<Integer, StorageException> errors = new TreeMap<>();
+        List<String> validPaths = new ArrayList<>(pathList.size());
+        List<Integer> validIndexes = new ArrayList<>(pathList.size());
+        for (int i = 0; i < pathList.size(); i++) {
+            if (ValidationUtils.isNullOrEmpty(pathList.get(i))) {
+                errors.put(i, new StorageException("Download path cannot be null or empty"));
+            } else {
+                validPaths.add(pathList.get(i));
+                validIndexes.add(i);
+            }
+        }
+
+        BatchResult<FileData> result = runBatch(StorageOperation.DOWNLOAD_ALL,
+                () -> storageClient.downloadAll(validPaths, asyncExecutor.executor(), parallelism));
+        return merge(pathList.size(), validIndexes, result, errors);
+    }
+
+    /**
+     * Returns a URL the client downloads the file from directly, so the data does not pass through the application,
+     * e.g. as the target of a link or a redirect.
+     * The URL is signed locally; the same URL is returned for the same path and lifetime until shortly before it expires,
+     * so it may be valid for a little less than {@code ttl}. Only the minio storage service type supports presigned URLs.
+     * @param fullPathWithFileId The full path of the file, including the file ID.
+     * @param ttl How long the URL is valid, at most 7 days.
+     * @return The presigned URL.
+     * @throws StorageException If the path or lifetime is invalid or the backend does not support presigned URLs.
+     */
+    public String presignDownload(String fullPathWithFileId, Duration ttl) throws StorageException {
+        if (ValidationUtils.isNullOrEmpty(fullPathWithFileId)) {
+            logger.error("Download path cannot be null or empty");
+            throw new StorageException("Download path cannot be null or empty");
+        }
+        checkPresignTtl(ttl);
+        return storageClient.presignDownload(fullPathWithFileId, ttl);
+    }
+
+    /**
+     * Generates the path of a new file and a URL the client uploads the file to directly with an HTTP PUT,
+     * so the data does not pass through the application. Only the minio storage service type supports presigned URLs.
+     * @param fullPath The base path where the file will be stored, excluding the file ID.
+     *                 Example: "my-bucket/folder1/folder2".
+     * @param contentType The MIME type of the file, which the client must send as the Content-Type header.
+     * @param ttl How long the URL is valid, at most 7 days.
+     * @return The generated path, like the one returned by {@link #upload}, and the presigned URL.
+     * @throws StorageException If the path or lifetime is invalid or the backend does not support presigned URLs.
+     */
+    public PresignedUpload presignUpload(String fullPath, String contentType, Duration ttl) throws StorageException {
+        if (ValidationUtils.isNullOrEmpty(fullPath) || ValidationUtils.isNullOrEmpty(contentType)) {
+            logger.error("Upload path or content type cannot be null or empty");
+            throw new StorageException("Upload path or content type cannot be null or empty");
+        }
+        checkPresignTtl(ttl);
+        return storageClient.presignUpload(fullPath, contentType, ttl);
+    }
+
+    private static void checkPresignTtl(Duration ttl) throws StorageException {
+        if (ttl == null || ttl.toSeconds() < 1 || ttl.compareTo(MAX_PRESIGN_TTL) > 0) {
+            logger.error("Presigned URL lifetime must be between 1 second and 7 days: {}", ttl);
+            throw new StorageException("Presigned URL lifetime must be between 1 second and 7 days: " + ttl);
+        }
+    }
+
+    /**
+     * Lists the files below a prefix, including the files of nested folders.
+     * Pages of the listing are fetched from the backend only as the stream is consumed, so any number of files
+     * can be processed in constant memory. Close the stream when done, e.g. with try-with-resources.
+     * Example:
+     * - `list("my-bucket/folder1")` returns "my-bucket/folder1/6cbd360f-..." and "my-bucket/folder1/folder2/0d4e7a61-...".
+     * @param prefix The bucket and folders to list, following the rules of an upload path.
+     *               Example: "my-bucket/folder1".
+     * @return A lazy stream of the path, size, content type, ETag and modification time of each file.
+     *         An error while fetching a later page is thrown as an {@link com.dsi.storage.exception.UncheckedStorageException}.
+     * @throws StorageException If the prefix is invalid or the listing cannot be started.
+     */
+    public Stream<FileInfo> list(String prefix) throws StorageException {
+        if (ValidationUtils.isNullOrEmpty(prefix)) {
+            logger.error("List prefix cannot be null or empty");
+            throw new StorageException("List prefix cannot be null or empty");
+        }
+        return storageClient.list(prefix);
+    }
+
+    /**
+     * Deletes files, grouped into the backend's multi-object delete requests instead of one request per file.
+     * Deleting a file that does not exist succeeds.
+     * @param fullPathsWithFileId The full paths of the files to delete, including the file IDs.
+     * @return The deleted paths in request order, with the error of each failed deletion keyed by its index.
+     */
+    public BatchResult<String> deleteAll(Collection<String> fullPathsWithFileId) {
+        List<String> pathList = new ArrayList<>(fullPathsWithFileId);
+        Map<Integer, StorageException> errors = new TreeMap<>();
+        List<String> validPaths = new ArrayList<>(pathList.size());
+        List<Integer> validIndexes = new ArrayList<>(pathList.size());
+        for (int i = 0; i < pathList.size(); i++) {
+            if (ValidationUtils.isNullOrEmpty(pathList.get(i))) {
+                errors.put(i, new StorageException("Delete path cannot be null or empty"));
+            } else {
+                validPaths.add(pathList.get(i));
+                validIndexes.add(i);
+            }
+        }
+
+        BatchResult<String> result = runBatch(StorageOperation.DELETE_ALL, () -> storageClient.deleteAll(validPaths));
+        return merge(pathList.size(), validIndexes, result, errors);
+    }
+
+    /**
+     * Registers the listener receiving the events of all operations, replacing the previous one.
+     * Use {@link StorageListener#composite} to register several listeners, and null to remove the listener.
+     * Without a listener, operations are not instrumented at all.
+     * @see com.dsi.storage.metrics.StorageMetrics
+     */
+    public void setListener(StorageListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the usage counters of the download cache configured with STORAGE_DISK_CACHE_DIR,
+     * or null if downloads are not cached.
+     */
+    public DiskCacheStats diskCacheStats() {
+        return (diskCache != null) ? diskCache.stats() : null;
+    }
+
+    /**
+     * Returns the usage counters of the in-memory cache configured with STORAGE_HEAP_CACHE_SIZE,
+     * or null if small files are not cached in memory.
+     */
+    public HeapCacheStats heapCacheStats() {
+        return (heapCache != null) ? heapCache.stats() : null;
+    }
+
+    /**
+     * Returns the retry, hedging and circuit breaker counters of the resilience layer enabled with STORAGE_RESILIENCE,
+     * or null if it is disabled.
+     */
+    public ResilienceStats resilienceStats() {
+        return (resilientClient != null) ? resilientClient.stats() : null;
+    }
+
+    /**
+     * Returns the size, flush counters and lag of the write-behind spool configured with STORAGE_SPOOL_DIR,
+     * or null if uploads are not spooled.
+     */
+    public SpoolStats spoolStats() {
+        return (writeBehindClient != null) ? writeBehindClient.stats() : null;
+    }
+
+    /**
+     * Returns the counters of the deduplicating uploads configured with STORAGE_DEDUP_DIR, or null if uploads are not deduplicated.
+     */
+    public DedupStats dedupStats() {
+        return (dedupClient != null) ? dedupClient.stats() : null;
+    }
+
+    /**
+     * Returns the counters of the upload compression enabled with STORAGE_COMPRESSION, or null if it is disabled.
+     */
+    public CompressionStats compressionStats() {
+        return (compressingClient != null) ? compressingClient.stats() : null;
+    }
+
+    /**
+     * Returns the number of shards configured with STORAGE_SHARD_ENDPOINTS and the counters of the files moved between them,
+     * or null if the storage is not sharded.
+     */
+    public ShardStats shardStats() {
+        return (shardedClient != null) ? shardedClient.stats() : null;
+    }
+
+    /**
+     * Adds a shard to a sharded storage and moves the files it takes over in the background.
+     * Until the move has completed, reads of a moving file fall back to its old shard.
+     * @param name The name of the shard, e.g. its endpoint, which must stay the same across restarts.
+     * @param shard The backend of the shard.
+     * @param prefixes The <bucketName>[/<nestedFolders>] prefixes below which the existing shards are listed for files to move.
+     * @return A future completing once all files have been moved, or exceptionally if some could not be moved.
+     * @throws StorageException If the storage is not sharded or a previous rebalance has not completed yet.
+     */
+    public CompletableFuture<Void> addShard(String name, StorageClient shard, Collection<String> prefixes) throws StorageException {
+        if (shardedClient == null) {
+            logger.error("Cannot add shard {}: the storage is not sharded", name);
+            throw new StorageException("Cannot add shard " + name + ": the storage is not sharded");
+        }
+        try {
+            return shardedClient.addShard(name, shard, prefixes);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            logger.error("Cannot add shard {}", name, e);
+            throw new StorageException("Cannot add shard " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Moves the files that are not on their shard yet, e.g. after a restart with STORAGE_SHARD_PREVIOUS_ENDPOINTS,
+     * or after a rebalance in which some files could not be moved. Reads of those files fall back to their old shard
+     * until the move has completed.
+     * @param prefixes The <bucketName>[/<nestedFolders>] prefixes below which the old shards are listed for files to move.
+     * @return A future completing once all files have been moved, or exceptionally if some could not be moved.
+     * @throws StorageException If the storage is not sharded or a rebalance is already running.
+     */
+    public CompletableFuture<Void> rebalanceShards(Collection<String> prefixes) throws StorageException {
+        if (shardedClient == null) {
+            logger.error("Cannot rebalance: the storage is not sharded");
+            throw new StorageException("Cannot rebalance: the storage is not sharded");
+        }
+        try {
+            return shardedClient.rebalance(prefixes);
+        } catch (IllegalStateException e) {
+            logger.error("Cannot rebalance", e);
+            throw new StorageException("Cannot rebalance: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the budget, the uploads in flight and waiting, and the rejection counters of the admission control
+     * configured with STORAGE_ADMISSION_BYTES, or null if all uploads are admitted.
+     */
+    public AdmissionStats admissionStats() {
+        return (admissionController != null) ? admissionController.stats() : null;
+    }
+
+    /**
+     * Returns the usage of the HTTP connection pool shared by all StorageService instances for the same MinIO endpoint
+     * and credentials, or null if the storage service type is not minio.
+     */
+    public ConnectionPoolStats connectionPoolStats() {
+        return (minioStorageService != null) ? minioStorageService.connectionPoolStats() : null;
+    }
+
+    /**
+     * Returns the usage counters of the buffer pool configured with STORAGE_BUFFER_POOL_SIZE, which is shared by all
+     * StorageService instances and provides the part buffers of MinIO uploads and the read-ahead buffers of parallel downloads.
+     */
+    public BufferPoolStats bufferPoolStats() {
+        return BufferPool.shared().stats();
+    }
+
+    /**
+     * Waits until the upload is admitted, or returns null if all uploads are admitted.
+     * The outcome is reported to the listener, if any.
+     */
+    private AdmissionController.Permit admit(String bucket, long size, StorageListener listener) throws StorageException {
+        if (admissionController == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            AdmissionController.Permit permit = admissionController.admit(bucket, size);
+            if (listener != null) {
+                listener.onAdmission(bucket, permit.waitNanos(), true);
+            }
+            return permit;
+        } catch (StorageRejectedException e) {
+            if (listener != null) {
+                listener.onAdmission(bucket, System.nanoTime() - start, false);
+            }
+            throw e;
+        }
+    }
+
+    private static void release(AdmissionController.Permit permit) {
+        if (permit != null) {
+            permit.close();
+        }
+    }
+
+    /**
+     * Uploads the files one by one, each admitted on its own, so a batch cannot bypass the limits of single uploads.
+     */
+    private BatchResult<String> uploadAllAdmitted(List<UploadRequest> requests, int parallelism) {
+        List<StorageCallable<String>> operations = new ArrayList<>(requests.size());
+        for (UploadRequest request : requests) {
+            operations.add(() -> {
+                String bucket = bucketOf(StoragePath.ofUpload(request.fullPath()));
+                AdmissionController.Permit permit = admit(bucket, request.size(), listener);
+                try {
+                    return storageClient.upload(request.fullPath(), request.inputStream(), request.size(), request.contentType());
+                } finally {
+                    release(permit);
+                }
+            });
+        }
+        return BatchExecutor.runAll(operations, asyncExecutor.executor(), parallelism);
+    }
+
+    /**
+     * Runs a batch, reporting it to the listener as a single operation that fails if any of its files failed.
+     */
+    private <T> BatchResult<T> runBatch(StorageOperation operation, Supplier<BatchResult<T>> batch) {
+        StorageListener listener = this.listener;
+        if (listener == null) {
+            return batch.get();
+        }
+
+        listener.onStart(operation, null);
+        long start = System.nanoTime();
+        BatchResult<T> result;
+        try {
+            result = batch.get();
+        } catch (RuntimeException e) {
+            listener.onFailure(operation, null, System.nanoTime() - start, e);
+            throw e;
+        }
+        if (result.isSuccessful()) {
+            listener.onSuccess(operation, null, System.nanoTime() - start);
+        } else {
+            listener.onFailure(operation, null, System.nanoTime() - start, result.errors().values().iterator().next());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the bucket metrics are recorded for. Paths with an invalid bucket are grouped,
+     * so malformed requests cannot create an unbounded number of buckets.
+     */
+    private static String bucketOf(StoragePath path) {
+        String bucket = path.bucket();
+        return ValidationUtils.isValidBucketName(bucket) ? bucket : "invalid";
+    }
+
+    /**
+     * Maps the result of the valid subset of a batch back to the indexes of the original batch.
+     */
+    private static <T> BatchResult<T> merge(int size, List<Integer> validIndexes, BatchResult<T> result,
+                                            Map<Integer, StorageException> errors) {
+        @SuppressWarnings("unchecked")
+        T[] results = (T[]) new Object[size];
+        for (int i = 0; i < validIndexes.size(); i++) {
+            int index = validIndexes.get(i);
+            results[index] = result.result(i);
+            StorageException error = result.error(i);
+            if (error != null) {
+                errors.put(index, error);
+            }
+        }
+        return new BatchResult<>(Collections.unmodifiableList(Arrays.asList(results)), Collections.unmodifiableMap(errors));
     }
 }
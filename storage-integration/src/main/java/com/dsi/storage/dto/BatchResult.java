@@ -0,0 +1,39 @@
+package com.dsi.storage.dto;
+
+import com.dsi.storage.exception.StorageException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Represents the outcome of a batch operation.
+ * Results are in the same order as the requests; the result of a failed item is null
+ * and its error is available under the item's index.
+ *
+ * @param results The result of each item, in request order.
+ * @param errors The error of each failed item, keyed by the item's index.
+ * @param <T> The type of the result of a single item.
+ */
+public record BatchResult<T>(List<T> results, Map<Integer, StorageException> errors) {
+
+    /**
+     * Returns true if every item of the batch succeeded.
+     */
+    public boolean isSuccessful() {
+        return errors.isEmpty();
+    }
+
+    /**
+     * Returns the result of the item at the given index, or null if it failed.
+     */
+    public T result(int index) {
+        return results.get(index);
+    }
+
+    /**
+     * Returns the error of the item at the given index, or null if it succeeded.
+     */
+    public StorageException error(int index) {
+        return errors.get(index);
+    }
+}
@@ -1,13 +1,90 @@
 package com.dsi.storage.dto;
 
+import com.dsi.storage.client.filesystem.FileChannelInputStream;
+
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.time.Instant;
 
 /**
  * Represents the data associated with a file.
- * This record encapsulates the input stream of the file's content and its MIME type.
+ * This record encapsulates the input stream of the file's content, its MIME type and the metadata known by the backend.
  *
  * @param inputStream The InputStream containing the file's data.
  * @param contentType The MIME type of the file.
+ * @param size The number of bytes of the input stream, or -1 if unknown. Use it to set the Content-Length of a response.
+ * @param etag The entity tag of the file without quotes, or null if unknown.
+ * @param lastModified When the file was stored, or null if unknown.
+ * @param offset The position in the file of the first byte of the input stream; 0 unless a range was requested.
+ * @param totalSize The length of the whole file in bytes, or -1 if unknown.
  */
-public record FileData(InputStream inputStream, String contentType) {
+public record FileData(InputStream inputStream, String contentType, long size, String etag, Instant lastModified,
+                       long offset, long totalSize) {
+
+    /**
+     * Creates FileData of unknown size, entity tag and modification time.
+     */
+    public FileData(InputStream inputStream, String contentType) {
+        this(inputStream, contentType, -1, null, null);
+    }
+
+    /**
+     * Creates FileData holding a whole file.
+     */
+    public FileData(InputStream inputStream, String contentType, long size, String etag, Instant lastModified) {
+        this(inputStream, contentType, size, etag, lastModified, 0, size);
+    }
+
+    /**
+     * Returns a copy with the same metadata reading from the given stream, e.g. a stream wrapping the original one.
+     */
+    public FileData withInputStream(InputStream inputStream) {
+        return new FileData(inputStream, contentType, size, etag, lastModified, offset, totalSize);
+    }
+
+    /**
+     * Returns true if the input stream holds only a part of the file, to be answered with a 206 Partial Content response.
+     */
+    public boolean isPartial() {
+        return offset > 0 || (size >= 0 && totalSize >= 0 && size < totalSize);
+    }
+
+    /**
+     * Returns the value of the Content-Range header of a 206 response, e.g. "bytes 0-1023/146515",
+     * or null if the size of the range is unknown.
+     */
+    public String contentRange() {
+        if (size < 0) {
+            return null;
+        }
+        return "bytes " + offset + "-" + (offset + size - 1) + "/" + ((totalSize >= 0) ? Long.toString(totalSize) : "*");
+    }
+
+    /**
+     * Writes the whole content to the output stream and closes the input stream, using constant memory.
+     * @return The number of bytes written.
+     */
+    public long transferTo(OutputStream out) throws IOException {
+        try (InputStream in = inputStream) {
+            return in.transferTo(out);
+        }
+    }
+
+    /**
+     * Writes the whole content to the channel and closes the input stream, using constant memory.
+     * Files served from the local file system or disk cache are handed to the operating system without being copied
+     * through the heap when the channel is a file or socket channel.
+     * @return The number of bytes written.
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        try (InputStream in = inputStream) {
+            if (in instanceof FileChannelInputStream fileStream) {
+                return fileStream.transferTo(target);
+            }
+            return in.transferTo(Channels.newOutputStream(target));
+        }
+    }
 }
@@ -0,0 +1,15 @@
+package com.dsi.storage.dto;
+
+import java.time.Instant;
+
+/**
+ * Represents the metadata of a stored file, as returned by a listing.
+ *
+ * @param path The full path of the file, including the file ID. It can be passed to download as is.
+ * @param size The length of the file in bytes.
+ * @param contentType The MIME type of the file, or null if the backend does not return it with listings.
+ * @param etag The entity tag of the file without quotes, or null if unknown.
+ * @param lastModified When the file was stored, or null if unknown.
+ */
+public record FileInfo(String path, long size, String contentType, String etag, Instant lastModified) {
+}
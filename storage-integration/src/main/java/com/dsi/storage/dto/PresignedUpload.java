@@ -0,0 +1,13 @@
+package com.dsi.storage.dto;
+
+/**
+ * Represents an upload the client sends directly to the storage backend, as an HTTP PUT of the file to the URL.
+ *
+ * @param path The full path the file will be stored at, including the generated file ID.
+ *             Example: "my-bucket/folder1/folder2/6cbd360f-df93-48eb-901b-87e97a5ddb8e".
+ * @param url The presigned URL the file must be sent to.
+ * @param contentType The MIME type the client must send as the Content-Type header of the PUT,
+ *                    which the backend stores as the content type of the file.
+ */
+public record PresignedUpload(String path, String url, String contentType) {
+}
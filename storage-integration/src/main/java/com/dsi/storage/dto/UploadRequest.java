@@ -0,0 +1,21 @@
+package com.dsi.storage.dto;
+
+import java.io.InputStream;
+
+/**
+ * Represents a single file to upload as part of a batch.
+ *
+ * @param fullPath The base path where the file will be stored, excluding the file ID.
+ * @param inputStream The InputStream containing the file's data.
+ * @param size The length of the file's data in bytes, or -1 if unknown.
+ * @param contentType The MIME type of the file.
+ */
+public record UploadRequest(String fullPath, InputStream inputStream, long size, String contentType) {
+
+    /**
+     * Creates an upload request for a file of unknown length.
+     */
+    public UploadRequest(String fullPath, InputStream inputStream, String contentType) {
+        this(fullPath, inputStream, -1, contentType);
+    }
+}
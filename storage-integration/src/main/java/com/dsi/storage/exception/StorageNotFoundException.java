@@ -0,0 +1,19 @@
+package com.dsi.storage.exception;
+
+/**
+ * Thrown when the file to read does not exist, as opposed to a failure to reach the storage.
+ * Retrying the operation does not help.
+ */
+public class StorageNotFoundException extends StorageException {
+    /**
+     * Constructs a new StorageNotFoundException with the specified detail message.
+     * @param message The detail message.
+     */
+    public StorageNotFoundException(String message) {
+        super(message);
+    }
+
+    public StorageNotFoundException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
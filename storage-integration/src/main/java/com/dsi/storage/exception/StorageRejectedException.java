@@ -0,0 +1,19 @@
+package com.dsi.storage.exception;
+
+/**
+ * Thrown when an operation is rejected without being attempted because the storage is at capacity,
+ * e.g. when an upload was not admitted in time. The operation can be retried later.
+ */
+public class StorageRejectedException extends StorageException {
+    /**
+     * Constructs a new StorageRejectedException with the specified detail message.
+     * @param message The detail message.
+     */
+    public StorageRejectedException(String message) {
+        super(message);
+    }
+
+    public StorageRejectedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
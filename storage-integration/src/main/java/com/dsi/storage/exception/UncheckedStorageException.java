@@ -0,0 +1,20 @@
+package com.dsi.storage.exception;
+
+/**
+ * Wraps a {@link StorageException} where a checked exception cannot be thrown,
+ * e.g. while a lazily fetched listing is consumed as a Stream.
+ */
+public class UncheckedStorageException extends RuntimeException {
+    /**
+     * Constructs a new UncheckedStorageException wrapping the given StorageException.
+     * @param cause The StorageException that occurred.
+     */
+    public UncheckedStorageException(StorageException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized StorageException getCause() {
+        return (StorageException) super.getCause();
+    }
+}
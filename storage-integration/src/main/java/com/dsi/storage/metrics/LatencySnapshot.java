@@ -0,0 +1,15 @@
+package com.dsi.storage.metrics;
+
+/**
+ * A snapshot of a {@link LatencyHistogram}. All durations are in nanoseconds.
+ *
+ * @param count The number of recorded durations.
+ * @param mean The mean duration.
+ * @param p50 The median duration.
+ * @param p90 The 90th percentile.
+ * @param p99 The 99th percentile.
+ * @param p999 The 99.9th percentile.
+ * @param max The longest recorded duration.
+ */
+public record LatencySnapshot(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+}
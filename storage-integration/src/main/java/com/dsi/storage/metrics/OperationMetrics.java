@@ -0,0 +1,92 @@
+package com.dsi.storage.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The metrics of one operation, overall or for a single bucket, recorded by {@link StorageMetrics}.
+ */
+public class OperationMetrics {
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+    private final LongAdder started = new LongAdder();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final ConcurrentMap<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    void recordStart() {
+        started.increment();
+    }
+
+    void recordSuccess(long durationNanos) {
+        latency.record(durationNanos);
+        succeeded.increment();
+    }
+
+    void recordFailure(long durationNanos, String cause) {
+        latency.record(durationNanos);
+        failed.increment();
+        LongAdder counter = errors.get(cause);
+        if (counter == null) {
+            counter = errors.computeIfAbsent(cause, key -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    void recordFirstByte(long nanos) {
+        timeToFirstByte.record(nanos);
+    }
+
+    void recordBytes(long count) {
+        bytes.add(count);
+    }
+
+    /**
+     * Returns the durations of completed and failed operations.
+     */
+    public LatencySnapshot latency() {
+        return latency.snapshot();
+    }
+
+    /**
+     * Returns the times from the start of a download until its first byte was read.
+     */
+    public LatencySnapshot timeToFirstByte() {
+        return timeToFirstByte.snapshot();
+    }
+
+    public long succeeded() {
+        return succeeded.sum();
+    }
+
+    public long failed() {
+        return failed.sum();
+    }
+
+    /**
+     * Returns the number of operations started but not completed yet.
+     */
+    public long inFlight() {
+        return Math.max(0, started.sum() - succeeded.sum() - failed.sum());
+    }
+
+    /**
+     * Returns the total bytes uploaded or downloaded.
+     */
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Returns the number of failures by cause, see {@link StorageListener#causeOf}.
+     */
+    public Map<String, Long> errors() {
+        Map<String, Long> snapshot = new TreeMap<>();
+        errors.forEach((cause, counter) -> snapshot.put(cause, counter.sum()));
+        return snapshot;
+    }
+}
@@ -0,0 +1,100 @@
+package com.dsi.storage.metrics;
+
+import java.util.List;
+
+/**
+ * Receives the events of StorageService operations, e.g. to record metrics.
+ * All methods have empty defaults, so a listener only implements the events it needs.
+ * Listeners are called on the thread running the operation and must be fast and never throw.
+ * The bucket is the first segment of the operation's path, or null for batch operations.
+ */
+public interface StorageListener {
+
+    /**
+     * Called when an operation starts.
+     */
+    default void onStart(StorageOperation operation, String bucket) {
+    }
+
+    /**
+     * Called when an operation completed. For downloads, this is when the response arrived, before the data is read.
+     */
+    default void onSuccess(StorageOperation operation, String bucket, long durationNanos) {
+    }
+
+    /**
+     * Called when an operation failed.
+     * @param error The exception thrown by the operation, usually a StorageException wrapping the underlying cause.
+     */
+    default void onFailure(StorageOperation operation, String bucket, long durationNanos, Throwable error) {
+    }
+
+    /**
+     * Called when the first byte of a download is read, with the time since the download started.
+     */
+    default void onFirstByte(String bucket, long nanosSinceStart) {
+    }
+
+    /**
+     * Called with the number of bytes of an upload once it completed, or of a download once its stream is exhausted or closed.
+     */
+    default void onTransferred(StorageOperation operation, String bucket, long bytes) {
+    }
+
+    /**
+     * Called when an upload was admitted or rejected by the admission control, with the time it waited.
+     * A rejected upload is also reported to {@link #onFailure} with a StorageRejectedException.
+     */
+    default void onAdmission(String bucket, long waitNanos, boolean admitted) {
+    }
+
+    /**
+     * Returns a listener forwarding all events to the given listeners, in order.
+     */
+    static StorageListener composite(StorageListener... listeners) {
+        List<StorageListener> all = List.of(listeners);
+        return new StorageListener() {
+            @Override
+            public void onStart(StorageOperation operation, String bucket) {
+                all.forEach(listener -> listener.onStart(operation, bucket));
+            }
+
+            @Override
+            public void onSuccess(StorageOperation operation, String bucket, long durationNanos) {
+                all.forEach(listener -> listener.onSuccess(operation, bucket, durationNanos));
+            }
+
+            @Override
+            public void onFailure(StorageOperation operation, String bucket, long durationNanos, Throwable error) {
+                all.forEach(listener -> listener.onFailure(operation, bucket, durationNanos, error));
+            }
+
+            @Override
+            public void onFirstByte(String bucket, long nanosSinceStart) {
+                all.forEach(listener -> listener.onFirstByte(bucket, nanosSinceStart));
+            }
+
+            @Override
+            public void onTransferred(StorageOperation operation, String bucket, long bytes) {
+                all.forEach(listener -> listener.onTransferred(operation, bucket, bytes));
+            }
+
+            @Override
+            public void onAdmission(String bucket, long waitNanos, boolean admitted) {
+                all.forEach(listener -> listener.onAdmission(bucket, waitNanos, admitted));
+            }
+        };
+    }
+
+    /**
+     * Returns a short name for the cause of a failure, for breaking down errors:
+     * the class of the exception wrapped by a StorageException, or of the exception itself.
+     */
+    static String causeOf(Throwable error) {
+        Throwable cause = error;
+        while (cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause.getClass().getSimpleName();
+    }
+}
@@ -0,0 +1,117 @@
+package com.dsi.storage.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The built-in StorageListener, recording latency histograms, bytes transferred, time to first byte,
+ * in-flight counts and errors by cause for each operation, overall and per bucket,
+ * as well as the time uploads waited for admission and the rejected uploads per bucket.
+ * Recording is lock-free and does not allocate once a bucket has been seen.
+ * Register it with {@code storageService.setListener(metrics)} and read it with {@link #operation}.
+ */
+public class StorageMetrics implements StorageListener {
+    private static final String BATCH = "*";
+
+    private final Map<StorageOperation, OperationMetrics> operations = new EnumMap<>(StorageOperation.class);
+    private final Map<StorageOperation, ConcurrentMap<String, OperationMetrics>> buckets = new EnumMap<>(StorageOperation.class);
+    private final LatencyHistogram admissionWait = new LatencyHistogram();
+    private final ConcurrentMap<String, LongAdder> admissionRejections = new ConcurrentHashMap<>();
+
+    public StorageMetrics() {
+        for (StorageOperation operation : StorageOperation.values()) {
+            operations.put(operation, new OperationMetrics());
+            buckets.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Returns the metrics of the operation over all buckets.
+     */
+    public OperationMetrics operation(StorageOperation operation) {
+        return operations.get(operation);
+    }
+
+    /**
+     * Returns the metrics of the operation for a single bucket, or null if the bucket was not used.
+     */
+    public OperationMetrics operation(StorageOperation operation, String bucket) {
+        return buckets.get(operation).get(bucket);
+    }
+
+    /**
+     * Returns the metrics of the operation for each bucket used, sorted by bucket name.
+     */
+    public Map<String, OperationMetrics> buckets(StorageOperation operation) {
+        return new TreeMap<>(buckets.get(operation));
+    }
+
+    /**
+     * Returns the time admitted and rejected uploads waited for admission.
+     */
+    public LatencySnapshot admissionWait() {
+        return admissionWait.snapshot();
+    }
+
+    /**
+     * Returns the number of uploads rejected by the admission control for each bucket, sorted by bucket name.
+     */
+    public Map<String, Long> admissionRejections() {
+        Map<String, Long> rejections = new TreeMap<>();
+        admissionRejections.forEach((bucket, count) -> rejections.put(bucket, count.sum()));
+        return rejections;
+    }
+
+    @Override
+    public void onStart(StorageOperation operation, String bucket) {
+        operations.get(operation).recordStart();
+        bucket(operation, bucket).recordStart();
+    }
+
+    @Override
+    public void onSuccess(StorageOperation operation, String bucket, long durationNanos) {
+        operations.get(operation).recordSuccess(durationNanos);
+        bucket(operation, bucket).recordSuccess(durationNanos);
+    }
+
+    @Override
+    public void onFailure(StorageOperation operation, String bucket, long durationNanos, Throwable error) {
+        String cause = StorageListener.causeOf(error);
+        operations.get(operation).recordFailure(durationNanos, cause);
+        bucket(operation, bucket).recordFailure(durationNanos, cause);
+    }
+
+    @Override
+    public void onFirstByte(String bucket, long nanosSinceStart) {
+        operations.get(StorageOperation.DOWNLOAD).recordFirstByte(nanosSinceStart);
+        bucket(StorageOperation.DOWNLOAD, bucket).recordFirstByte(nanosSinceStart);
+    }
+
+    @Override
+    public void onTransferred(StorageOperation operation, String bucket, long bytes) {
+        operations.get(operation).recordBytes(bytes);
+        bucket(operation, bucket).recordBytes(bytes);
+    }
+
+    @Override
+    public void onAdmission(String bucket, long waitNanos, boolean admitted) {
+        admissionWait.record(waitNanos);
+        if (!admitted) {
+            admissionRejections.computeIfAbsent((bucket != null) ? bucket : BATCH, key -> new LongAdder()).increment();
+        }
+    }
+
+    private OperationMetrics bucket(StorageOperation operation, String bucket) {
+        ConcurrentMap<String, OperationMetrics> metrics = buckets.get(operation);
+        String key = (bucket != null) ? bucket : BATCH;
+        OperationMetrics bucketMetrics = metrics.get(key);
+        if (bucketMetrics == null) {
+            bucketMetrics = metrics.computeIfAbsent(key, k -> new OperationMetrics());
+        }
+        return bucketMetrics;
+    }
+}
@@ -0,0 +1,12 @@
+package com.dsi.storage.metrics;
+
+/**
+ * The operations of StorageService reported to a {@link StorageListener}.
+ */
+public enum StorageOperation {
+    UPLOAD,
+    DOWNLOAD,
+    UPLOAD_ALL,
+    DOWNLOAD_ALL,
+    DELETE_ALL
+}
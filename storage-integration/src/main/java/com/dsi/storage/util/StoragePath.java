@@ -0,0 +1,229 @@
+package com.dsi.storage.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A parsed <bucketName>/<nestedFolders>[/<fileId>] path.
+ * Parsing is a single scan over the characters: it trims the path, collapses repeated slashes,
+ * drops leading and trailing slashes, splits the segments and checks them against the naming rules, all without regex.
+ * When the path is already normalized, the normalized form is the input string itself and only the segment offsets are allocated.
+ * Parsed upload paths are cached, so frequently used base paths are parsed once.
+ */
+public final class StoragePath {
+    private static final int MAX_CACHED_PATHS = 1024;
+    private static final ConcurrentMap<String, StoragePath> uploadPaths = new ConcurrentHashMap<>();
+
+    private final String path;
+    // The end offset of each segment in the normalized path
+    private final int[] ends;
+    private final int segmentCount;
+    // The number of leading segments following the bucket naming rules
+    private final int validSegments;
+    // The number of leading segments following the MinIO bucket naming rules
+    private final int minioValidSegments;
+
+    private StoragePath(String path, int[] ends, int segmentCount, int validSegments, int minioValidSegments) {
+        this.path = path;
+        this.ends = ends;
+        this.segmentCount = segmentCount;
+        this.validSegments = validSegments;
+        this.minioValidSegments = minioValidSegments;
+    }
+
+    /**
+     * Parses the base path of an upload. Spaces around each segment are removed.
+     * The result is cached for later uploads to the same path.
+     */
+    public static StoragePath ofUpload(String fullPath) {
+        StoragePath cached = uploadPaths.get(fullPath);
+        if (cached != null) {
+            return cached;
+        }
+        StoragePath parsed = parse(fullPath, true);
+        if (uploadPaths.size() < MAX_CACHED_PATHS) {
+            uploadPaths.putIfAbsent(fullPath, parsed);
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses the path of a file to download. Segments are kept as they are.
+     */
+    public static StoragePath ofDownload(String fullPathWithFileId) {
+        return parse(fullPathWithFileId, false);
+    }
+
+    private static StoragePath parse(String input, boolean trimSegments) {
+        int start = 0;
+        int end = input.length();
+        while (start < end && input.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && input.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        while (start < end && input.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && input.charAt(end - 1) == '/') {
+            end--;
+        }
+
+        int[] ends = new int[8];
+        int count = 0;
+        int validSegments = 0;
+        int minioValidSegments = 0;
+        // Only created once the normalized path stops being a plain substring of the input
+        StringBuilder copy = null;
+        int length = 0;
+        int position = start;
+        while (true) {
+            int segmentEnd = position;
+            while (segmentEnd < end && input.charAt(segmentEnd) != '/') {
+                segmentEnd++;
+            }
+            int from = position;
+            int to = segmentEnd;
+            if (trimSegments) {
+                while (from < to && input.charAt(from) <= ' ') {
+                    from++;
+                }
+                while (to > from && input.charAt(to - 1) <= ' ') {
+                    to--;
+                }
+            }
+
+            if (count > 0) {
+                length++;
+                if (copy != null) {
+                    copy.append('/');
+                }
+            }
+            if (copy == null && from != start + length) {
+                copy = new StringBuilder(end - start).append(input, start, start + length - (count > 0 ? 1 : 0));
+                if (count > 0) {
+                    copy.append('/');
+                }
+            }
+            if (copy != null) {
+                copy.append(input, from, to);
+            }
+            length += to - from;
+
+            if (count == ends.length) {
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            ends[count] = length;
+            if (validSegments == count && ValidationUtils.isValidBucketName(input, from, to)) {
+                validSegments++;
+            }
+            if (minioValidSegments == count && ValidationUtils.isValidMinioBucketName(input, from, to)) {
+                minioValidSegments++;
+            }
+            count++;
+
+            if (segmentEnd >= end) {
+                break;
+            }
+            position = segmentEnd;
+            while (position < end && input.charAt(position) == '/') {
+                position++;
+            }
+        }
+
+        String path = (copy != null) ? copy.toString() : input.substring(start, start + length);
+        return new StoragePath(path, ends, count, validSegments, minioValidSegments);
+    }
+
+    /**
+     * Returns the normalized path, e.g. "my-bucket/folder1/folder2".
+     */
+    public String path() {
+        return path;
+    }
+
+    public int segmentCount() {
+        return segmentCount;
+    }
+
+    public String segment(int index) {
+        if (index < 0 || index >= segmentCount) {
+            throw new IndexOutOfBoundsException("Segment " + index + " of " + segmentCount);
+        }
+        return path.substring(index == 0 ? 0 : ends[index - 1] + 1, ends[index]);
+    }
+
+    public String[] segments() {
+        String[] segments = new String[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = segment(i);
+        }
+        return segments;
+    }
+
+    /**
+     * Returns the first segment.
+     */
+    public String bucket() {
+        return segment(0);
+    }
+
+    /**
+     * Returns everything after the first segment, or an empty string if there is only one segment.
+     */
+    public String objectPath() {
+        return (segmentCount > 1) ? path.substring(ends[0] + 1) : "";
+    }
+
+    /**
+     * Returns the last segment.
+     */
+    public String fileId() {
+        return segment(segmentCount - 1);
+    }
+
+    /**
+     * Returns true if all segments follow the bucket naming rules of {@link ValidationUtils#isValidBucketName}.
+     */
+    public boolean hasValidSegments() {
+        return validSegments == segmentCount;
+    }
+
+    /**
+     * Returns true if all segments except the last one follow the bucket naming rules of {@link ValidationUtils#isValidBucketName}.
+     */
+    public boolean hasValidParentSegments() {
+        return validSegments >= segmentCount - 1;
+    }
+
+    /**
+     * Returns true if all segments follow the MinIO bucket naming rules.
+     */
+    public boolean hasMinioSegments() {
+        return minioValidSegments == segmentCount;
+    }
+
+    /**
+     * Returns true if all segments except the last one follow the MinIO bucket naming rules.
+     */
+    public boolean hasMinioParentSegments() {
+        return minioValidSegments >= segmentCount - 1;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof StoragePath storagePath && path.equals(storagePath.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+}
@@ -1,7 +1,5 @@
 package com.dsi.storage.util;
 
-import java.util.Arrays;
-
 /**
  * Provides utility methods for validating input parameters.
  */
@@ -9,6 +7,7 @@ public class ValidationUtils {
 
     private static final int MIN_BUCKET_NAME_LENGTH = 3;
     private static final int MAX_BUCKET_NAME_LENGTH = 63;
+    private static final String RESERVED_SUFFIX = "-s3alias";
 
     /**
      * Validates that none of the provided "required" parameters are null or empty.
@@ -39,18 +38,76 @@ public class ValidationUtils {
         return (path == null || path.trim().isEmpty());
     }
 
+    /**
+     * Validates a byte range: the offset must not be negative, and the length must be positive or -1 for "to the end of the file".
+     */
+    public static boolean isValidRange(long offset, long length) {
+        return offset >= 0 && (length > 0 || length == -1);
+    }
+
     /**
      * Validates a bucket or directory name according to the current storage service type.
      */
     public static boolean isValidBucketName(String name) {
-        return name.length() >= MIN_BUCKET_NAME_LENGTH && name.length() <= MAX_BUCKET_NAME_LENGTH;
+        return isValidBucketName(name, 0, name.length());
+    }
+
+    /**
+     * Validates the bucket or directory name between {@code from} (inclusive) and {@code to} (exclusive).
+     */
+    public static boolean isValidBucketName(String name, int from, int to) {
+        return to - from >= MIN_BUCKET_NAME_LENGTH && to - from <= MAX_BUCKET_NAME_LENGTH;
     }
 
     /**
      * Validates the directory path by checking each segment.
      */
     public static boolean isValidPath(String[] parts) {
-        return Arrays.stream(parts)
-                .allMatch(dir -> !dir.isEmpty() && isValidBucketName(dir));
+        for (String dir : parts) {
+            if (!isValidBucketName(dir)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Validates a bucket name according to MinIO-specific naming rules.
+     */
+    public static boolean isValidMinioBucketName(String bucketName) {
+        return isValidMinioBucketName(bucketName, 0, bucketName.length());
+    }
+
+    /**
+     * Validates the bucket name between {@code from} (inclusive) and {@code to} (exclusive) according to MinIO-specific naming rules,
+     * in a single scan:
+     * 1. The name contains only lowercase letters, digits and hyphens.
+     * 2. It starts and ends with a lowercase letter or digit.
+     * 3. It contains no consecutive hyphens '--', which also rules out the 'xn--' prefix.
+     * 4. It does not end with the reserved suffix '-s3alias'.
+     * Since dots are not allowed, a name can never look like an IP address.
+     */
+    public static boolean isValidMinioBucketName(String name, int from, int to) {
+        if (from >= to || !isLowercaseLetterOrDigit(name.charAt(from)) || !isLowercaseLetterOrDigit(name.charAt(to - 1))) {
+            return false;
+        }
+        char previous = 0;
+        for (int i = from; i < to; i++) {
+            char c = name.charAt(i);
+            if (c == '-') {
+                if (previous == '-') {
+                    return false;
+                }
+            } else if (!isLowercaseLetterOrDigit(c)) {
+                return false;
+            }
+            previous = c;
+        }
+        return to - from < RESERVED_SUFFIX.length()
+                || !name.regionMatches(to - RESERVED_SUFFIX.length(), RESERVED_SUFFIX, 0, RESERVED_SUFFIX.length());
+    }
+
+    private static boolean isLowercaseLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9');
     }
 }
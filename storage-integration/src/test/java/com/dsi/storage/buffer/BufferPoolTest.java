@@ -0,0 +1,104 @@
+package com.dsi.storage.buffer;
+
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BufferPoolTest {
+    private static final int MB = 1024 * 1024;
+
+    @Test
+    void reusesReleasedBuffersOfTheSameSizeClass() throws Exception {
+        BufferPool pool = new BufferPool(8L * MB, Duration.ZERO);
+        PooledBuffer first = pool.acquire(MB + 1);
+        assertEquals(2 * MB, first.capacity());
+        byte[] array = first.array();
+        first.close();
+        first.close();
+
+        PooledBuffer second = pool.acquire(2 * MB);
+        assertSame(array, second.array());
+        second.close();
+
+        BufferPoolStats stats = pool.stats();
+        assertEquals(1, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(2L * MB, stats.allocatedBytes());
+        assertEquals(0, stats.inUseBytes());
+        assertEquals(1, stats.idleBuffers());
+        assertEquals(0.5, stats.hitRatio());
+    }
+
+    @Test
+    void dropsIdleBuffersToMakeRoomForOtherSizes() throws Exception {
+        BufferPool pool = new BufferPool(4L * MB, Duration.ZERO);
+        PooledBuffer first = pool.acquire(2 * MB);
+        PooledBuffer second = pool.acquire(2 * MB);
+        first.close();
+        second.close();
+        // Both idle 2 MB buffers are dropped, since one alone does not free enough
+        pool.acquire(3 * MB).close();
+
+        BufferPoolStats stats = pool.stats();
+        assertEquals(3L * MB, stats.allocatedBytes());
+        assertEquals(1, stats.idleBuffers());
+        assertThrows(StorageException.class, () -> pool.acquire(5 * MB));
+    }
+
+    @Test
+    void waitsForAReleasedBufferAndTimesOut() throws Exception {
+        BufferPool pool = new BufferPool(2L * MB, Duration.ofSeconds(10));
+        PooledBuffer held = pool.acquire(2 * MB);
+        CompletableFuture<PooledBuffer> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquire(MB);
+            } catch (StorageException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (pool.stats().waits() == 0) {
+            Thread.sleep(1);
+        }
+        assertFalse(waiting.isDone());
+        held.close();
+        waiting.get(5, TimeUnit.SECONDS).close();
+
+        BufferPool failFast = new BufferPool(MB, Duration.ZERO);
+        PooledBuffer taken = failFast.acquire(MB);
+        assertThrows(StorageException.class, () -> failFast.acquire(MB));
+        assertEquals(1, failFast.stats().timeouts());
+        taken.close();
+    }
+
+    @Test
+    void fillsBuffersFromStreams() throws Exception {
+        BufferPool pool = new BufferPool(MB, Duration.ZERO);
+        try (PooledBuffer buffer = pool.acquire(100)) {
+            assertEquals(3, buffer.fill(new ByteArrayInputStream(new byte[]{1, 2, 3}), 10));
+            assertEquals(10, buffer.fill(new ByteArrayInputStream(new byte[50]), 10));
+        }
+        assertThrows(IllegalArgumentException.class, () -> pool.acquire(0));
+        assertThrows(IllegalArgumentException.class, () -> new BufferPool(0, Duration.ZERO));
+    }
+
+    @Test
+    void tellsWhetherBuffersFitInTheCapacity() {
+        BufferPool pool = new BufferPool(4L * MB, Duration.ZERO);
+        assertTrue(pool.fits(1));
+        assertTrue(pool.fits(4L * MB));
+        // Sizes are rounded up to whole MiB
+        assertFalse(pool.fits(4L * MB + 1));
+        assertFalse(pool.fits(0));
+        assertFalse(pool.fits(8L * 1024 * MB));
+    }
+}
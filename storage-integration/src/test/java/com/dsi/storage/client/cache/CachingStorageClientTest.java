@@ -0,0 +1,216 @@
+package com.dsi.storage.client.cache;
+
+import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.client.memory.InMemoryStorageService;
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CachingStorageClientTest {
+
+    @TempDir
+    Path cacheDir;
+
+    private final InMemoryStorageService backend = new InMemoryStorageService(16 * 1024 * 1024);
+    private final AtomicInteger backendDownloads = new AtomicInteger();
+    private final StorageClient countingBackend = new StorageClient() {
+        @Override
+        public String upload(String fullPath, InputStream data, String contentType) throws StorageException {
+            return upload(fullPath, data, -1, contentType);
+        }
+
+        @Override
+        public String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+            return backend.upload(fullPath, data, size, contentType);
+        }
+
+        @Override
+        public void uploadTo(String fullPathWithFileId, InputStream data, long size, String contentType) throws StorageException {
+            backend.uploadTo(fullPathWithFileId, data, size, contentType);
+        }
+
+        @Override
+        public FileData download(String fullPathWithFileId) throws StorageException {
+            backendDownloads.incrementAndGet();
+            return backend.download(fullPathWithFileId);
+        }
+
+        @Override
+        public BatchResult<String> deleteAll(Collection<String> fullPathsWithFileId) {
+            return backend.deleteAll(fullPathsWithFileId);
+        }
+    };
+
+    @Test
+    void servesRepeatedDownloadsFromDisk() throws Exception {
+        CachingStorageClient client = new CachingStorageClient(countingBackend, new DiskCache(cacheDir, 1024 * 1024));
+        byte[] content = randomBytes(300_000);
+        String path = client.upload("images/icons", new ByteArrayInputStream(content), content.length, "image/png");
+
+        for (int i = 0; i < 3; i++) {
+            FileData data = client.download("/" + path);
+            assertEquals("image/png", data.contentType());
+            try (InputStream in = data.inputStream()) {
+                assertArrayEquals(content, in.readAllBytes());
+            }
+        }
+
+        assertEquals(1, backendDownloads.get());
+        DiskCacheStats stats = client.cache().stats();
+        assertEquals(2, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(2L * content.length, stats.bytesServed());
+    }
+
+    @Test
+    void servesRangesOfCachedFiles() throws Exception {
+        CachingStorageClient client = new CachingStorageClient(countingBackend, new DiskCache(cacheDir, 1024 * 1024));
+        byte[] content = randomBytes(300_000);
+        String path = client.upload("videos/clips", new ByteArrayInputStream(content), content.length, "video/mp4");
+
+        // Not cached yet: the range comes from the backend and is not cached
+        assertRange(content, client.download(path, 1000, 500), 1000, 500);
+        assertEquals(1, backendDownloads.get());
+        assertEquals(0, client.cache().stats().entries());
+
+        client.download(path).inputStream().transferTo(OutputStream.nullOutputStream());
+        assertRange(content, client.download(path, 299_000, 5000), 299_000, 1000);
+        assertRange(content, client.download(path, 0, -1), 0, content.length);
+        assertEquals(2, backendDownloads.get());
+    }
+
+    private static void assertRange(byte[] content, FileData data, int offset, int length) throws IOException {
+        assertEquals(offset, data.offset());
+        assertEquals(length, data.size());
+        assertEquals(content.length, data.totalSize());
+        try (InputStream in = data.inputStream()) {
+            assertArrayEquals(Arrays.copyOfRange(content, offset, offset + length), in.readAllBytes());
+        }
+    }
+
+    @Test
+    void concurrentMissesShareOneBackendFetch() throws Exception {
+        CachingStorageClient client = new CachingStorageClient(countingBackend, new DiskCache(cacheDir, 1024 * 1024));
+        byte[] content = randomBytes(200_000);
+        String path = client.upload("images", new ByteArrayInputStream(content), content.length, "image/png");
+
+        // Both streams are opened before either is read, like downloadAll does
+        InputStream first = client.download(path).inputStream();
+        InputStream second = client.download(path).inputStream();
+        assertArrayEquals(content, second.readAllBytes());
+        assertArrayEquals(content, first.readAllBytes());
+        first.close();
+        second.close();
+
+        assertEquals(1, backendDownloads.get());
+        assertEquals(1, client.cache().stats().coalesced());
+        assertEquals(1, client.cache().stats().entries());
+    }
+
+    @Test
+    void abandonedMissIsNotCached() throws Exception {
+        CachingStorageClient client = new CachingStorageClient(countingBackend, new DiskCache(cacheDir, 1024 * 1024));
+        byte[] content = randomBytes(200_000);
+        String path = client.upload("images", new ByteArrayInputStream(content), content.length, "image/png");
+
+        try (InputStream in = client.download(path).inputStream()) {
+            in.readNBytes(1000);
+        }
+        try (InputStream in = client.download(path).inputStream()) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+
+        assertEquals(2, backendDownloads.get());
+        assertEquals(1, client.cache().stats().entries());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedFilesAndSurvivesRestart() throws Exception {
+        CachingStorageClient client = new CachingStorageClient(countingBackend, new DiskCache(cacheDir, 250_000));
+        String first = client.upload("images", new ByteArrayInputStream(randomBytes(100_000)), 100_000, "image/png");
+        String second = client.upload("images", new ByteArrayInputStream(randomBytes(100_000)), 100_000, "image/png");
+        String third = client.upload("images", new ByteArrayInputStream(randomBytes(100_000)), 100_000, "image/png");
+        for (String path : new String[]{first, second, third}) {
+            try (InputStream in = client.download(path).inputStream()) {
+                in.readAllBytes();
+            }
+        }
+
+        DiskCacheStats stats = client.cache().stats();
+        assertEquals(1, stats.evictions());
+        assertEquals(2, stats.entries());
+
+        DiskCache reopened = new DiskCache(cacheDir, 250_000);
+        assertEquals(2, reopened.stats().entries());
+        try (InputStream in = new CachingStorageClient(countingBackend, reopened).download(third).inputStream()) {
+            assertArrayEquals(backend.download(third).inputStream().readAllBytes(), in.readAllBytes());
+        }
+        assertEquals(1, reopened.stats().hits());
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+
+    @Test
+    void invalidatesDeletedFiles() throws Exception {
+        CachingStorageClient client = new CachingStorageClient(countingBackend, new DiskCache(cacheDir, 1024 * 1024));
+        String path = client.upload("images/icons", new ByteArrayInputStream(randomBytes(1000)), 1000, "image/png");
+        try (InputStream in = client.download(path).inputStream()) {
+            in.readAllBytes();
+        }
+        assertEquals(1, client.cache().stats().entries());
+
+        assertEquals(List.of(path), client.deleteAll(List.of(path)).results());
+        assertEquals(0, client.cache().stats().entries());
+        assertThrows(StorageException.class, () -> client.download(path));
+    }
+
+    @Test
+    void doesNotCacheAFillInvalidatedWhileInProgress() throws Exception {
+        CachingStorageClient client = new CachingStorageClient(countingBackend, new DiskCache(cacheDir, 1024 * 1024));
+        byte[] original = randomBytes(300_000);
+        byte[] replaced = randomBytes(200_000);
+        String path = client.upload("images", new ByteArrayInputStream(original), original.length, "image/png");
+
+        try (InputStream in = client.download(path).inputStream()) {
+            byte[] head = in.readNBytes(1000);
+            client.uploadTo(path, new ByteArrayInputStream(replaced), replaced.length, "image/png");
+            // The stream opened before the replacement is still read to the end
+            byte[] rest = in.readAllBytes();
+            assertArrayEquals(original, concat(head, rest));
+        }
+        assertEquals(0, client.cache().stats().entries());
+
+        try (InputStream in = client.download(path).inputStream()) {
+            assertArrayEquals(replaced, in.readAllBytes());
+        }
+        assertEquals(2, backendDownloads.get());
+        assertEquals(1, client.cache().stats().entries());
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+}
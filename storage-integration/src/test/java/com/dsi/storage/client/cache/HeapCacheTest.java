@@ -0,0 +1,95 @@
+package com.dsi.storage.client.cache;
+
+import com.dsi.storage.dto.FileData;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HeapCacheTest {
+
+    @Test
+    void servesIndependentStreamsOverCachedBytes() throws Exception {
+        HeapCache cache = new HeapCache(1024 * 1024, 64 * 1024);
+        byte[] content = new byte[1000];
+        content[0] = 42;
+
+        FileData first = cache.get("icons/a", () -> new FileData(new ByteArrayInputStream(content), "image/png"));
+        FileData second = cache.get("icons/a", () -> {
+            throw new AssertionError("Backend must not be called on a hit");
+        });
+        FileData third = cache.get("icons/a", () -> {
+            throw new AssertionError("Backend must not be called on a hit");
+        });
+
+        assertEquals(42, second.inputStream().read());
+        assertArrayEquals(content, third.inputStream().readAllBytes());
+        assertArrayEquals(content, first.inputStream().readAllBytes());
+        assertEquals("image/png", second.contentType());
+        assertEquals(2, cache.stats().hits());
+    }
+
+    @Test
+    void largeFilesBypassTheCache() throws Exception {
+        HeapCache cache = new HeapCache(1024 * 1024, 1000);
+        byte[] content = new byte[5000];
+        content[4999] = 7;
+
+        try (InputStream in = cache.get("images/large", () -> new FileData(new ByteArrayInputStream(content), "image/png")).inputStream()) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+
+        assertEquals(1, cache.stats().bypassed());
+        assertEquals(0, cache.stats().entries());
+    }
+
+    @Test
+    void scanDoesNotEvictHotFiles() throws Exception {
+        HeapCache cache = new HeapCache(10_000, 1000);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 10; i++) {
+                load(cache, "hot/" + i);
+            }
+        }
+        for (int i = 0; i < 1000; i++) {
+            load(cache, "scan/" + i);
+        }
+
+        for (int i = 0; i < 10; i++) {
+            final String key = "hot/" + i;
+            cache.get(key, () -> {
+                throw new AssertionError(key + " was evicted by the scan");
+            });
+        }
+        assertEquals(10, cache.stats().entries());
+    }
+
+    @Test
+    void doesNotCacheALoadInvalidatedWhileInProgress() throws Exception {
+        HeapCache cache = new HeapCache(1024 * 1024, 64 * 1024);
+        byte[] stale = new byte[1000];
+        byte[] fresh = new byte[1000];
+        fresh[0] = 1;
+
+        // The file is replaced while its old content is still being downloaded
+        FileData first = cache.get("icons/a", () -> {
+            cache.invalidate("icons/a");
+            return new FileData(new ByteArrayInputStream(stale), "image/png");
+        });
+        assertArrayEquals(stale, first.inputStream().readAllBytes());
+        assertEquals(0, cache.stats().entries());
+
+        FileData second = cache.get("icons/a", () -> new FileData(new ByteArrayInputStream(fresh), "image/png"));
+        assertArrayEquals(fresh, second.inputStream().readAllBytes());
+        assertArrayEquals(fresh, cache.get("icons/a", () -> {
+            throw new AssertionError("Backend must not be called on a hit");
+        }).inputStream().readAllBytes());
+    }
+
+    private static void load(HeapCache cache, String key) throws Exception {
+        cache.get(key, () -> new FileData(new ByteArrayInputStream(new byte[1000]), "image/png")).inputStream().close();
+    }
+}
@@ -0,0 +1,152 @@
+package com.dsi.storage.client.compression;
+
+import com.dsi.storage.client.memory.InMemoryStorageService;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompressingStorageClientTest {
+
+    private final InMemoryStorageService backend = new InMemoryStorageService(16 * 1024 * 1024) {
+        @Override
+        public String presignDownload(String fullPathWithFileId, Duration ttl) {
+            return "https://storage.example.com/" + fullPathWithFileId;
+        }
+    };
+    private final CompressingStorageClient client = new CompressingStorageClient(backend, CompressingStorageClient.DEFAULT_TYPES, 1);
+
+    @Test
+    void compressesAllowedTypesTransparently() throws Exception {
+        byte[] json = jsonLines(20_000);
+        String path = client.upload("exports/daily", new ByteArrayInputStream(json), json.length, "application/json; charset=utf-8");
+
+        FileData stored = backend.download(path);
+        assertEquals("application/json; charset=utf-8; storage-codec=gzip; storage-length=" + json.length, stored.contentType());
+        assertTrue(stored.size() < json.length / 5, "stored " + stored.size() + " of " + json.length + " bytes");
+        stored.inputStream().close();
+
+        FileData data = client.download(path);
+        assertEquals("application/json; charset=utf-8", data.contentType());
+        assertEquals(json.length, data.size());
+        assertContent(json, data.inputStream());
+
+        FileData range = client.download(path, 500_000, 1000);
+        assertEquals(500_000, range.offset());
+        assertEquals(1000, range.size());
+        assertEquals(json.length, range.totalSize());
+        assertContent(Arrays.copyOfRange(json, 500_000, 501_000), range.inputStream());
+        assertThrows(StorageException.class, () -> client.download(path, json.length, 10));
+        assertEquals(json.length, client.list("exports/daily").findFirst().orElseThrow().size());
+
+        CompressionStats stats = client.stats();
+        assertEquals(1, stats.compressedUploads());
+        assertEquals(json.length, stats.bytesIn());
+        assertTrue(stats.bytesOut() < stats.bytesIn());
+    }
+
+    @Test
+    void reportsAnUnknownSizeForUploadsOfUnknownLength() throws Exception {
+        byte[] json = jsonLines(1000);
+        String path = client.upload("exports/daily", new ByteArrayInputStream(json), "application/json");
+
+        FileData stored = backend.download(path);
+        assertEquals("application/json; storage-codec=gzip", stored.contentType());
+        stored.inputStream().close();
+
+        FileData data = client.download(path);
+        assertEquals("application/json", data.contentType());
+        assertEquals(-1, data.size());
+        assertContent(json, data.inputStream());
+    }
+
+    @Test
+    void rejectsStreamsOfAnotherLengthThanDeclared() {
+        byte[] json = jsonLines(1000);
+        assertThrows(StorageException.class, () -> client.upload("exports/daily", new ByteArrayInputStream(json),
+                json.length + 1, "application/json"));
+        assertThrows(StorageException.class, () -> client.upload("exports/daily", new ByteArrayInputStream(json),
+                json.length - 1, "application/json"));
+        assertThrows(StorageException.class, () -> client.upload("exports/daily", new ByteArrayInputStream(json),
+                json.length, "application/json; storage-length=10"));
+        assertEquals(0, client.stats().compressedUploads());
+    }
+
+    @Test
+    void storesOtherTypesAsTheyAre() throws Exception {
+        byte[] image = new byte[50_000];
+        new Random(1).nextBytes(image);
+        String path = client.upload("images/icons", new ByteArrayInputStream(image), image.length, "image/png");
+
+        FileData stored = backend.download(path);
+        assertEquals("image/png", stored.contentType());
+        assertEquals(image.length, stored.size());
+        assertContent(image, stored.inputStream());
+        assertContent(Arrays.copyOfRange(image, 100, 200), client.download(path, 100, 100).inputStream());
+        assertEquals(1, client.stats().bypassedUploads());
+        assertFalse(client.isCompressible("video/mp4"));
+        assertTrue(client.isCompressible("text/csv"));
+        assertTrue(client.isCompressible("application/vnd.api+json"));
+    }
+
+    @Test
+    void refusesToServeOrAcceptRawCompressedBytes() throws Exception {
+        byte[] json = jsonLines(100);
+        String compressed = client.upload("exports/daily", new ByteArrayInputStream(json), json.length, "application/json");
+        String image = client.upload("images/icons", new ByteArrayInputStream(new byte[0]), 0, "image/png");
+
+        assertThrows(StorageException.class, () -> client.presignDownload(compressed, Duration.ofMinutes(5)));
+        assertEquals("https://storage.example.com/" + image, client.presignDownload(image, Duration.ofMinutes(5)));
+
+        // Raw bytes labelled as compressed would fail to decompress on download
+        assertThrows(StorageException.class, () -> client.upload("images/icons", new ByteArrayInputStream(new byte[10]), 10,
+                "image/png; storage-codec=gzip"));
+        assertThrows(StorageException.class, () -> client.uploadTo(image, new ByteArrayInputStream(json), json.length,
+                "application/json; Storage-Codec=gzip"));
+        assertEquals(1, client.stats().compressedUploads());
+    }
+
+    @Test
+    void compressedStreamIsValidGzip() throws Exception {
+        for (byte[] content : new byte[][]{new byte[0], jsonLines(10), randomBytes(300_000)}) {
+            GzipCompressingInputStream compressed = new GzipCompressingInputStream(new ByteArrayInputStream(content), 6);
+            byte[] gzip = compressed.readAllBytes();
+            compressed.close();
+            assertContent(content, new GZIPInputStream(new ByteArrayInputStream(gzip)));
+        }
+    }
+
+    private static byte[] jsonLines(int count) {
+        StringBuilder json = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            json.append("{\"id\":").append(i).append(",\"status\":\"ACTIVE\",\"region\":\"eu-west\"}\n");
+        }
+        return json.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void assertContent(byte[] expected, InputStream in) throws IOException {
+        try (in) {
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+    }
+}
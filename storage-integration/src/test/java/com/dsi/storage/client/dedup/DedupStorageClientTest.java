@@ -0,0 +1,163 @@
+package com.dsi.storage.client.dedup;
+
+import com.dsi.storage.client.memory.InMemoryStorageService;
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DedupStorageClientTest {
+
+    @TempDir
+    Path indexDir;
+
+    private final InMemoryStorageService backend = new InMemoryStorageService(16 * 1024 * 1024);
+
+    @Test
+    void storesRepeatedContentOnce() throws Exception {
+        byte[] content = randomBytes(500_000);
+        String first;
+        String second;
+        try (DedupStorageClient client = new DedupStorageClient(backend, indexDir, 1024)) {
+            first = client.upload("mail/attachments", new ByteArrayInputStream(content), content.length, "application/pdf");
+            second = client.upload("mail/attachments", new ByteArrayInputStream(content), -1, "application/octet-stream");
+
+            assertNotEquals(first, second);
+            assertContent(content, "application/pdf", client.download(first));
+            assertContent(content, "application/octet-stream", client.download(second));
+
+            DedupStats stats = client.stats();
+            assertEquals(2, stats.uploads());
+            assertEquals(1, stats.deduplicated());
+            assertEquals(content.length, stats.bytesSaved());
+            assertEquals(1, stats.blobs());
+        }
+        // The blob and two small references
+        assertEquals(content.length, backend.usedBytes(), 1024);
+
+        // After a restart, the index is read back and references are resolved from the backend
+        try (DedupStorageClient client = new DedupStorageClient(backend, indexDir, 1024)) {
+            FileData range = client.download(second, 400_000, 1000);
+            assertEquals(content.length, range.totalSize());
+            try (InputStream in = range.inputStream()) {
+                assertArrayEquals(Arrays.copyOfRange(content, 400_000, 401_000), in.readAllBytes());
+            }
+
+            client.upload("mail/attachments", new ByteArrayInputStream(content), content.length, "application/pdf");
+            assertEquals(1, client.stats().deduplicated());
+
+            client.deleteAll(List.of(first));
+            assertThrows(StorageException.class, () -> client.download(first));
+            assertContent(content, "application/octet-stream", client.download(second));
+        }
+    }
+
+    @Test
+    void uploadsSmallFilesAsTheyAre() throws Exception {
+        try (DedupStorageClient client = new DedupStorageClient(backend, indexDir, 1024)) {
+            byte[] content = randomBytes(100);
+            String path = client.upload("mail/attachments", new ByteArrayInputStream(content), -1, "text/plain");
+
+            assertContent(content, "text/plain", backend.download(path));
+            assertEquals(0, client.stats().uploads());
+        }
+    }
+
+    @Test
+    void rejectsForgedReferences() throws Exception {
+        byte[] secret = randomBytes(5000);
+        String secretPath = backend.upload("payroll/2024", new ByteArrayInputStream(secret), secret.length, "application/pdf");
+        try (DedupStorageClient client = new DedupStorageClient(backend, indexDir, 1024)) {
+            byte[] forged = ("blob=" + secretPath + "\ncontent-type=application/pdf\n").getBytes(StandardCharsets.ISO_8859_1);
+            assertThrows(StorageException.class, () -> client.upload("public/files", new ByteArrayInputStream(forged),
+                    forged.length, DedupStorageClient.REFERENCE_CONTENT_TYPE));
+
+            // Stored around the client, e.g. through a presigned URL, a forged reference is not followed
+            String forgedPath = backend.upload("public/files", new ByteArrayInputStream(forged), forged.length,
+                    DedupStorageClient.REFERENCE_CONTENT_TYPE);
+            assertThrows(StorageException.class, () -> client.download(forgedPath));
+            assertThrows(StorageException.class, () -> client.download(forgedPath, 10, 10));
+        }
+    }
+
+    @Test
+    void storesBlobsDeletedBehindTheIndexAgain() throws Exception {
+        byte[] content = randomBytes(50_000);
+        String blobPath = "mail/dedup/" + HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        try (DedupStorageClient client = new DedupStorageClient(backend, indexDir, 1024)) {
+            String first = client.upload("mail/attachments", new ByteArrayInputStream(content), content.length, "application/pdf");
+
+            // A cleanup through the client keeps the blob, but deletes the other paths of the batch
+            String other = client.upload("mail/attachments", new ByteArrayInputStream(new byte[10]), 10, "text/plain");
+            BatchResult<String> result = client.deleteAll(List.of(blobPath, other));
+            assertNull(result.result(0));
+            assertNotNull(result.error(0));
+            assertEquals(other, result.result(1));
+            assertContent(content, "application/pdf", client.download(first));
+
+            // Deleted around the client, the blob is noticed missing and stored again by the next upload
+            backend.deleteAll(List.of(blobPath));
+            String second = client.upload("mail/attachments", new ByteArrayInputStream(content), content.length, "application/pdf");
+            assertEquals(0, client.stats().deduplicated());
+            assertContent(content, "application/pdf", client.download(second));
+        }
+    }
+
+    @Test
+    void keepsIndexedBlobsOnTransientFailures() throws Exception {
+        byte[] content = randomBytes(50_000);
+        AtomicBoolean failing = new AtomicBoolean();
+        InMemoryStorageService flakyBackend = new InMemoryStorageService(16 * 1024 * 1024) {
+            @Override
+            public FileData download(String fullPathWithFileId) throws StorageException {
+                if (failing.get() && fullPathWithFileId.contains("/dedup/")) {
+                    throw new StorageException("Connection reset");
+                }
+                return super.download(fullPathWithFileId);
+            }
+        };
+        try (DedupStorageClient client = new DedupStorageClient(flakyBackend, indexDir, 1024)) {
+            String path = client.upload("mail/attachments", new ByteArrayInputStream(content), content.length, "application/pdf");
+            failing.set(true);
+            assertThrows(StorageException.class, () -> client.download(path));
+            failing.set(false);
+
+            client.upload("mail/attachments", new ByteArrayInputStream(content), content.length, "application/pdf");
+            assertEquals(1, client.stats().deduplicated());
+            assertEquals(1, client.stats().blobs());
+        }
+    }
+
+    private static void assertContent(byte[] expected, String contentType, FileData data) throws IOException {
+        assertEquals(contentType, data.contentType());
+        try (InputStream in = data.inputStream()) {
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,163 @@
+package com.dsi.storage.client.filesystem;
+
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileSystemStorageServiceTest {
+
+    @TempDir
+    Path root;
+
+    @Test
+    void uploadAndDownloadRoundTrip() throws Exception {
+        FileSystemStorageService storage = new FileSystemStorageService(root, false);
+        byte[] content = randomBytes(200_000);
+
+        String path = storage.upload("my-bucket/folder1", new ByteArrayInputStream(content), -1, "application/pdf");
+        assertTrue(path.startsWith("my-bucket/folder1/"));
+        assertFalse(Files.exists(root.resolve(path + ".meta")));
+
+        FileData data = storage.download(path);
+        assertEquals("application/pdf", data.contentType());
+        assertEquals(content.length, data.size());
+        assertContent(content, data);
+
+        byte[] replacement = randomBytes(1000);
+        storage.uploadTo(path, new ByteArrayInputStream(replacement), replacement.length, "text/plain");
+        FileData replaced = storage.download(path);
+        assertEquals("text/plain", replaced.contentType());
+        assertContent(replacement, replaced);
+        try (Stream<Path> files = Files.list(root.resolve("my-bucket/folder1"))) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void downloadsRanges() throws Exception {
+        FileSystemStorageService storage = new FileSystemStorageService(root, false);
+        byte[] content = randomBytes(100_000);
+        String path = storage.upload("my-bucket/videos", new ByteArrayInputStream(content), content.length, "video/mp4");
+
+        FileData range = storage.download(path, 70_000, 2000);
+        assertEquals("bytes 70000-71999/100000", range.contentRange());
+        assertContent(Arrays.copyOfRange(content, 70_000, 72_000), range);
+
+        FileData tail = storage.download(path, 99_990, -1);
+        assertEquals(10, tail.size());
+        assertContent(Arrays.copyOfRange(content, 99_990, 100_000), tail);
+
+        assertThrows(StorageException.class, () -> storage.download(path, 100_000, 10));
+        assertThrows(StorageException.class, () -> storage.download(path, -1, 10));
+    }
+
+    @Test
+    void listsAndDeletesFiles() throws Exception {
+        FileSystemStorageService storage = new FileSystemStorageService(root, false);
+        String first = storage.upload("my-bucket/exports", new ByteArrayInputStream(new byte[10]), 10, "text/csv");
+        String nested = storage.upload("my-bucket/exports/daily", new ByteArrayInputStream(new byte[20]), 20, "text/csv");
+        // A file without metadata was not stored through the storage service
+        Files.write(root.resolve("my-bucket/exports/incomplete"), new byte[5]);
+
+        try (Stream<FileInfo> files = storage.list("my-bucket/exports")) {
+            assertEquals(Set.of(first, nested), files.map(FileInfo::path).collect(Collectors.toSet()));
+        }
+        try (Stream<FileInfo> files = storage.list("my-bucket/exports/daily")) {
+            FileInfo file = files.findFirst().orElseThrow();
+            assertEquals(20, file.size());
+            assertEquals("text/csv", file.contentType());
+        }
+        assertThrows(StorageException.class, () -> storage.download("my-bucket/exports/incomplete"));
+
+        BatchResult<String> result = storage.deleteAll(List.of(first, "my-bucket/..", nested));
+        assertEquals(Arrays.asList(first, null, nested), result.results());
+        assertEquals(Set.of(1), result.errors().keySet());
+        assertThrows(StorageException.class, () -> storage.download(first));
+    }
+
+    @Test
+    void failedUploadsLeaveNoFiles() throws Exception {
+        FileSystemStorageService storage = new FileSystemStorageService(root, false);
+        assertThrows(StorageException.class,
+                () -> storage.upload("my-bucket/short", new ByteArrayInputStream(new byte[10]), 20, "text/plain"));
+
+        String path = storage.upload("my-bucket/short", new ByteArrayInputStream(new byte[10]), 10, "text/plain");
+        assertThrows(StorageException.class, () -> storage.uploadTo(path, new ByteArrayInputStream(new byte[3]), 5, "text/csv"));
+        FileData kept = storage.download(path);
+        assertEquals("text/plain", kept.contentType());
+        assertContent(new byte[10], kept);
+        try (Stream<Path> files = Files.list(root.resolve("my-bucket/short"))) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    void readsAndReplacesFilesWithSidecarMetadata() throws Exception {
+        FileSystemStorageService storage = new FileSystemStorageService(root, false);
+        // The layout of earlier versions: the bare data, and the content type in <fileId>.meta
+        Path directory = Files.createDirectories(root.resolve("my-bucket/legacy"));
+        byte[] content = randomBytes(5000);
+        Files.write(directory.resolve("report"), content);
+        Files.writeString(directory.resolve("report.meta"), "content-type=application/pdf\n");
+
+        FileData data = storage.download("my-bucket/legacy/report");
+        assertEquals("application/pdf", data.contentType());
+        assertContent(content, data);
+        assertContent(Arrays.copyOfRange(content, 100, 300), storage.download("my-bucket/legacy/report", 100, 200));
+
+        byte[] replacement = randomBytes(300);
+        storage.uploadTo("my-bucket/legacy/report", new ByteArrayInputStream(replacement), replacement.length, "text/plain");
+        FileData replaced = storage.download("my-bucket/legacy/report");
+        assertEquals("text/plain", replaced.contentType());
+        assertEquals(replacement.length, replaced.size());
+        assertContent(replacement, replaced);
+        assertFalse(Files.exists(directory.resolve("report.meta")));
+    }
+
+    @Test
+    void rejectsPathsEscapingTheRoot() throws Exception {
+        Path outside = Files.writeString(root.resolve("secret"), "secret");
+        FileSystemStorageService storage = new FileSystemStorageService(root.resolve("storage"), false);
+
+        assertThrows(StorageException.class, () -> storage.download("my-bucket/../../secret"));
+        assertThrows(StorageException.class, () -> storage.download("my-bucket/.."));
+        assertThrows(StorageException.class,
+                () -> storage.upload("my-bucket/../..", new ByteArrayInputStream(new byte[1]), 1, "text/plain"));
+        assertThrows(StorageException.class,
+                () -> storage.uploadTo("my-bucket/../../secret", new ByteArrayInputStream(new byte[1]), 1, "text/plain"));
+        assertEquals("secret", Files.readString(outside));
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void assertContent(byte[] expected, FileData data) throws IOException {
+        try (InputStream in = data.inputStream()) {
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+    }
+}
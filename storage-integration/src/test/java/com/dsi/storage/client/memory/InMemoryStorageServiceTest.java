@@ -0,0 +1,123 @@
+package com.dsi.storage.client.memory;
+
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InMemoryStorageServiceTest {
+
+    @Test
+    void uploadAndDownloadRoundTrip() throws StorageException, IOException {
+        InMemoryStorageService storage = new InMemoryStorageService(1024 * 1024);
+        byte[] content = new byte[200_000];
+        new Random(42).nextBytes(content);
+
+        String path = storage.upload("/my-bucket//folder1/", new ByteArrayInputStream(content), -1, "application/pdf");
+        assertTrue(path.startsWith("my-bucket/folder1/"));
+        assertEquals(content.length, storage.usedBytes());
+
+        FileData data = storage.download(path);
+        assertEquals("application/pdf", data.contentType());
+        assertEquals(content.length, data.size());
+        assertNotNull(data.lastModified());
+        assertArrayEquals(content, data.inputStream().readAllBytes());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(content.length, storage.downloadTo(path, out));
+        assertArrayEquals(content, out.toByteArray());
+    }
+
+    @Test
+    void downloadsRanges() throws StorageException, IOException {
+        InMemoryStorageService storage = new InMemoryStorageService(1024 * 1024);
+        byte[] content = new byte[200_000];
+        new Random(7).nextBytes(content);
+        String path = storage.upload("my-bucket/videos", new ByteArrayInputStream(content), content.length, "video/mp4");
+
+        // Spans the boundary between the first two chunks
+        FileData range = storage.download(path, 65_000, 2000);
+        assertTrue(range.isPartial());
+        assertEquals("bytes 65000-66999/200000", range.contentRange());
+        assertArrayEquals(Arrays.copyOfRange(content, 65_000, 67_000), range.inputStream().readAllBytes());
+
+        FileData tail = storage.download(path, 199_990, -1);
+        assertEquals(10, tail.size());
+        assertArrayEquals(Arrays.copyOfRange(content, 199_990, 200_000), tail.inputStream().readAllBytes());
+
+        assertThrows(StorageException.class, () -> storage.download(path, 200_000, 10));
+        assertThrows(StorageException.class, () -> storage.download(path, 0, 0));
+    }
+
+    @Test
+    void listsAndDeletesByPrefix() throws StorageException {
+        InMemoryStorageService storage = new InMemoryStorageService(1024 * 1024);
+        String first = storage.upload("my-bucket/exports", new ByteArrayInputStream(new byte[10]), 10, "text/csv");
+        String nested = storage.upload("my-bucket/exports/daily", new ByteArrayInputStream(new byte[20]), 20, "text/csv");
+        String other = storage.upload("my-bucket/exports-old", new ByteArrayInputStream(new byte[30]), 30, "text/csv");
+
+        try (Stream<FileInfo> files = storage.list("/my-bucket//exports/")) {
+            Set<String> paths = files.peek(file -> assertEquals("text/csv", file.contentType()))
+                    .map(FileInfo::path).collect(Collectors.toSet());
+            assertEquals(Set.of(first, nested), paths);
+        }
+        assertThrows(StorageException.class, () -> storage.list("My_Bucket"));
+
+        BatchResult<String> result = storage.deleteAll(List.of(first, "Bad_Bucket/file", nested, first));
+        assertEquals(Arrays.asList(first, null, nested, first), result.results());
+        assertEquals(Set.of(1), result.errors().keySet());
+        assertNull(storage.list("my-bucket/exports").findAny().orElse(null));
+        assertEquals(1, storage.list("my-bucket").count());
+        assertEquals(30, storage.usedBytes());
+        assertEquals(other, storage.list("my-bucket").findFirst().orElseThrow().path());
+    }
+
+    @Test
+    void rejectsPathsLikeMinio() {
+        InMemoryStorageService storage = new InMemoryStorageService(1024);
+        assertThrows(StorageException.class,
+                () -> storage.upload("My_Bucket/folder", new ByteArrayInputStream(new byte[1]), 1, "text/plain"));
+        assertThrows(StorageException.class, () -> storage.download("Bad_Bucket/file"));
+        assertThrows(IllegalArgumentException.class, () -> storage.download("my-bucket"));
+        assertThrows(StorageException.class, () -> storage.download("my-bucket/missing"));
+    }
+
+    @Test
+    void enforcesMemoryCap() throws StorageException {
+        InMemoryStorageService storage = new InMemoryStorageService(100);
+        storage.upload("my-bucket", new ByteArrayInputStream(new byte[60]), 60, "text/plain");
+
+        assertThrows(StorageException.class,
+                () -> storage.upload("my-bucket", new ByteArrayInputStream(new byte[60]), 60, "text/plain"));
+        assertEquals(60, storage.usedBytes());
+
+        storage.clear();
+        assertEquals(0, storage.usedBytes());
+    }
+
+    @Test
+    void rejectsShortStreams() {
+        InMemoryStorageService storage = new InMemoryStorageService(1024);
+        assertThrows(StorageException.class,
+                () -> storage.upload("my-bucket", new ByteArrayInputStream(new byte[10]), 20, "text/plain"));
+        assertEquals(0, storage.usedBytes());
+    }
+}
@@ -0,0 +1,124 @@
+package com.dsi.storage.client.minio;
+
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BucketRegistryTest {
+
+    @Test
+    void remembersBucketsUntilForgotten() throws Exception {
+        BucketRegistry registry = new BucketRegistry(Duration.ofMinutes(5));
+        AtomicInteger calls = new AtomicInteger();
+
+        registry.ensureExists("my-bucket", bucket -> calls.incrementAndGet());
+        registry.ensureExists("my-bucket", bucket -> calls.incrementAndGet());
+        assertEquals(1, calls.get());
+        assertTrue(registry.isKnown("my-bucket"));
+
+        registry.forget("my-bucket");
+        assertFalse(registry.isKnown("my-bucket"));
+        registry.ensureExists("my-bucket", bucket -> calls.incrementAndGet());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void checksEveryTimeWithoutTtl() throws Exception {
+        BucketRegistry registry = new BucketRegistry(Duration.ZERO);
+        AtomicInteger calls = new AtomicInteger();
+
+        registry.ensureExists("my-bucket", bucket -> calls.incrementAndGet());
+        registry.ensureExists("my-bucket", bucket -> calls.incrementAndGet());
+        assertEquals(2, calls.get());
+        assertFalse(registry.isKnown("my-bucket"));
+    }
+
+    @Test
+    void doesNotRememberFailedInitializations() throws Exception {
+        BucketRegistry registry = new BucketRegistry(Duration.ofMinutes(5));
+        StorageException failure = new StorageException("Access denied");
+
+        assertSame(failure, assertThrows(StorageException.class, () -> registry.ensureExists("my-bucket", bucket -> {
+            throw failure;
+        })));
+        assertFalse(registry.isKnown("my-bucket"));
+        AtomicInteger calls = new AtomicInteger();
+        registry.ensureExists("my-bucket", bucket -> calls.incrementAndGet());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void sharesAnInitializationBetweenConcurrentCallers() throws Exception {
+        BucketRegistry registry = new BucketRegistry(Duration.ofMinutes(5));
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BucketRegistry.BucketInitializer slowInitializer = bucket -> {
+            calls.incrementAndGet();
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> callers = new ArrayList<>();
+            callers.add(executor.submit(() -> {
+                registry.ensureExists("my-bucket", slowInitializer);
+                return null;
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 7; i++) {
+                callers.add(executor.submit(() -> {
+                    registry.ensureExists("my-bucket", slowInitializer);
+                    return null;
+                }));
+            }
+            release.countDown();
+            for (Future<?> caller : callers) {
+                caller.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void checksEachBucketOfABatchOnce() {
+        // Without a TTL nothing is remembered, so the batch itself has to skip the repeated buckets
+        BucketRegistry registry = new BucketRegistry(Duration.ZERO);
+        List<String> checked = new ArrayList<>();
+        StorageException failure = new StorageException("Access denied");
+
+        Map<String, StorageException> errors = registry.ensureAllExist(
+                List.of("images", "videos", "images", "private", "videos", "private"), bucket -> {
+                    checked.add(bucket);
+                    if (bucket.equals("private")) {
+                        throw failure;
+                    }
+                });
+
+        assertEquals(List.of("images", "videos", "private"), checked);
+        assertEquals(Map.of("private", failure), errors);
+    }
+}
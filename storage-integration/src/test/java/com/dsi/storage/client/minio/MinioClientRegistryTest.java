@@ -0,0 +1,71 @@
+package com.dsi.storage.client.minio;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class MinioClientRegistryTest {
+
+    @Test
+    void sharesClientsPerEndpointAndCredentials() {
+        MinioClientRegistry.MinioClients first = MinioClientRegistry.acquire("http://localhost:9000", "registry-test", "secret");
+        MinioClientRegistry.MinioClients second = MinioClientRegistry.acquire("http://localhost:9000", "registry-test", "secret");
+        MinioClientRegistry.MinioClients other = MinioClientRegistry.acquire("http://localhost:9000", "registry-test", "other-secret");
+
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertNotSame(first.httpClient, other.httpClient);
+        ConnectionPoolStats stats = first.stats();
+        assertEquals(0, stats.connections());
+        assertEquals(0, stats.runningCalls());
+
+        // Without STORAGE_HTTP_* variables, the registry applies the defaults of the environment settings
+        assertSettings(HttpClientSettings.fromEnvironment(), first.httpClient);
+    }
+
+    @Test
+    void appliesTheSettingsToTheHttpClient() {
+        HttpClientSettings settings = new HttpClientSettings(7, Duration.ofSeconds(42), 99, 13,
+                Duration.ofMillis(1500), Duration.ofMillis(25_000), false);
+        assertSettings(settings, MinioClientRegistry.newHttpClient(settings));
+
+        HttpClientSettings http2 = new HttpClientSettings(1, Duration.ofSeconds(1), 1, 1,
+                Duration.ofMillis(100), Duration.ofMillis(200), true);
+        assertEquals(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1), MinioClientRegistry.newHttpClient(http2).protocols());
+    }
+
+    private static void assertSettings(HttpClientSettings settings, OkHttpClient httpClient) {
+        Object pool = field(ConnectionPool.class, httpClient.connectionPool(), "delegate");
+        assertEquals(settings.maxIdleConnections(), field(pool.getClass(), pool, "maxIdleConnections"));
+        assertEquals(settings.keepAlive().toNanos(), field(pool.getClass(), pool, "keepAliveDurationNs"));
+        assertEquals(settings.maxRequests(), httpClient.dispatcher().getMaxRequests());
+        assertEquals(settings.maxRequestsPerHost(), httpClient.dispatcher().getMaxRequestsPerHost());
+        assertEquals(settings.connectTimeout().toMillis(), httpClient.connectTimeoutMillis());
+        assertEquals(settings.readTimeout().toMillis(), httpClient.readTimeoutMillis());
+        assertEquals(settings.readTimeout().toMillis(), httpClient.writeTimeoutMillis());
+        assertEquals(settings.http2() ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1),
+                httpClient.protocols());
+    }
+
+    /**
+     * OkHttp does not expose the limits of a connection pool, so they are read from its implementation.
+     */
+    private static Object field(Class<?> type, Object instance, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field.get(instance);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError("OkHttp no longer has the field " + type.getSimpleName() + "." + name, e);
+        }
+    }
+}
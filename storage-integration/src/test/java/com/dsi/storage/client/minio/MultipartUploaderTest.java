@@ -0,0 +1,154 @@
+package com.dsi.storage.client.minio;
+
+import com.dsi.storage.buffer.BufferPool;
+import io.minio.MinioAsyncClient;
+import io.minio.ObjectWriteArgs;
+import io.minio.ObjectWriteResponse;
+import io.minio.messages.Part;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultipartUploaderTest {
+    private static final int PART_SIZE = ObjectWriteArgs.MIN_MULTIPART_SIZE;
+
+    private final BufferPool bufferPool = new BufferPool(64L * 1024 * 1024, Duration.ofSeconds(5));
+
+    @Test
+    void sendsPartsInParallelAndRetriesFailedParts() throws Exception {
+        byte[] content = new byte[3 * PART_SIZE + 1000];
+        new Random(18).nextBytes(content);
+        FakeUploadClient client = new FakeUploadClient(new IOException("Connection reset"));
+        MultipartUploader uploader = new MultipartUploader(client, bufferPool, PART_SIZE, 3, 3);
+
+        uploader.upload("my-bucket", "archive", UploadSource.of(new ByteArrayInputStream(content), -1, PART_SIZE), "application/zip");
+
+        assertArrayEquals(content, client.completedContent());
+        assertEquals(5, client.sends.get());
+        assertFalse(client.aborted.get());
+        assertEquals(0, bufferPool.stats().inUseBytes());
+    }
+
+    @Test
+    void abortsWhenAPartFails() throws Exception {
+        byte[] content = new byte[3 * PART_SIZE];
+        FakeUploadClient client = new FakeUploadClient(new AccessDeniedException("my-bucket/archive"));
+        MultipartUploader uploader = new MultipartUploader(client, bufferPool, PART_SIZE, 2, 3);
+
+        assertThrows(AccessDeniedException.class, () -> uploader.upload("my-bucket", "archive",
+                UploadSource.of(new ByteArrayInputStream(content), content.length, PART_SIZE), "application/zip"));
+        assertTrue(client.aborted.get());
+        assertEquals(0, bufferPool.stats().inUseBytes());
+    }
+
+    @Test
+    void sendsObjectsOfKnownSizeUpToThePartSizeWithASinglePut() throws Exception {
+        byte[] content = new byte[PART_SIZE + PART_SIZE / 2];
+        new Random(4).nextBytes(content);
+        FakeUploadClient client = new FakeUploadClient(new IOException("Connection reset"));
+        MultipartUploader uploader = new MultipartUploader(client, bufferPool, 2L * PART_SIZE, 3, 3);
+
+        uploader.upload("my-bucket", "video", UploadSource.of(new ByteArrayInputStream(content), content.length, PART_SIZE), "video/mp4");
+
+        // The first attempt fails and is sent again
+        assertArrayEquals(content, client.putContent);
+        assertEquals(2, client.puts.get());
+        assertEquals(0, client.sends.get());
+        assertFalse(client.created.get());
+        assertEquals(0, bufferPool.stats().inUseBytes());
+    }
+
+    @Test
+    void rejectsPartsLargerThanTheBufferPool() {
+        BufferPool smallPool = new BufferPool(PART_SIZE, Duration.ZERO);
+        assertThrows(IllegalArgumentException.class,
+                () -> new MultipartUploader(new FakeUploadClient(null), smallPool, 2L * PART_SIZE, 3, 3));
+    }
+
+    /**
+     * Keeps the parts in memory and fails the first attempt of part 2, or of a single PUT.
+     */
+    private static class FakeUploadClient extends MinioUploadClient {
+        private final Map<Integer, byte[]> parts = new ConcurrentHashMap<>();
+        private final AtomicInteger sends = new AtomicInteger();
+        private final AtomicBoolean aborted = new AtomicBoolean();
+        private final AtomicBoolean created = new AtomicBoolean();
+        private final AtomicInteger puts = new AtomicInteger();
+        private volatile byte[] putContent;
+        private final AtomicBoolean failed = new AtomicBoolean();
+        private final Exception failure;
+        private Part[] completed;
+
+        FakeUploadClient(Exception failure) {
+            super(MinioAsyncClient.builder().endpoint("http://localhost:9000").credentials("test", "secret").build());
+            this.failure = failure;
+        }
+
+        @Override
+        ObjectWriteResponse putObject(String bucketName, String objectName, byte[] data, int length, String contentType)
+                throws IOException {
+            puts.incrementAndGet();
+            if (failed.compareAndSet(false, true)) {
+                throw (IOException) failure;
+            }
+            putContent = Arrays.copyOf(data, length);
+            return null;
+        }
+
+        @Override
+        String createMultipartUpload(String bucketName, String objectName, String contentType) {
+            created.set(true);
+            return "upload-id";
+        }
+
+        @Override
+        CompletableFuture<String> sendPart(String bucketName, String objectName, String uploadId, int partNumber, byte[] data, int length) {
+            sends.incrementAndGet();
+            byte[] copy = Arrays.copyOf(data, length);
+            if (partNumber == 2 && failed.compareAndSet(false, true)) {
+                return CompletableFuture.failedFuture(failure);
+            }
+            return CompletableFuture.supplyAsync(() -> {
+                parts.put(partNumber, copy);
+                return "etag-" + partNumber;
+            });
+        }
+
+        @Override
+        void completeMultipartUpload(String bucketName, String objectName, String uploadId, Part[] parts) {
+            completed = parts;
+        }
+
+        @Override
+        void abortMultipartUpload(String bucketName, String objectName, String uploadId) {
+            aborted.set(true);
+        }
+
+        byte[] completedContent() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            for (int i = 0; i < completed.length; i++) {
+                assertEquals(i + 1, completed[i].partNumber());
+                assertEquals("etag-" + (i + 1), completed[i].etag());
+                out.write(parts.get(completed[i].partNumber()));
+            }
+            return out.toByteArray();
+        }
+    }
+}
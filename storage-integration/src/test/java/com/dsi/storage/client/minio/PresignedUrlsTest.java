@@ -0,0 +1,85 @@
+package com.dsi.storage.client.minio;
+
+import io.minio.MinioClient;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PresignedUrlsTest {
+    // With a region, signing needs no request to the endpoint, which does not exist
+    private final MinioClient minioClient = MinioClient.builder()
+            .endpoint("http://localhost:9000")
+            .region("us-east-1")
+            .credentials("presign-test", "secret")
+            .build();
+    private final ManualClock clock = new ManualClock();
+
+    @Test
+    void cachesDownloadUrlsUntilShortlyBeforeTheyExpire() throws Exception {
+        PresignedUrls urls = new PresignedUrls(minioClient, 100, clock);
+        String url = urls.download("my-bucket", "folder/6cbd360f", Duration.ofMinutes(15));
+        assertTrue(url.startsWith("http://localhost:9000/my-bucket/folder/6cbd360f?"), url);
+        assertTrue(url.contains("X-Amz-Expires=900") && url.contains("X-Amz-Signature="), url);
+
+        clock.advance(Duration.ofMinutes(13));
+        assertSame(url, urls.download("my-bucket", "folder/6cbd360f", Duration.ofMinutes(15)));
+        // Another lifetime is signed separately
+        assertTrue(urls.download("my-bucket", "folder/6cbd360f", Duration.ofHours(1)).contains("X-Amz-Expires=3600"));
+
+        // Less than a tenth of the lifetime left
+        clock.advance(Duration.ofMinutes(1));
+        assertNotSame(url, urls.download("my-bucket", "folder/6cbd360f", Duration.ofMinutes(15)));
+        assertEquals(2, urls.size());
+    }
+
+    @Test
+    void neverCachesUploadUrls() throws Exception {
+        PresignedUrls urls = new PresignedUrls(minioClient, 100, clock);
+        String first = urls.upload("my-bucket", "folder/6cbd360f", Duration.ofMinutes(5));
+        String second = urls.upload("my-bucket", "folder/0d4e7a61", Duration.ofMinutes(5));
+        assertNotEquals(first, second);
+        assertEquals(0, urls.size());
+    }
+
+    @Test
+    void boundsTheCache() throws Exception {
+        PresignedUrls urls = new PresignedUrls(minioClient, 10, clock);
+        for (int i = 0; i < 25; i++) {
+            urls.download("my-bucket", "file-" + i, Duration.ofMinutes(5));
+        }
+        assertTrue(urls.size() <= 10, "size " + urls.size());
+    }
+
+    private static class ManualClock extends Clock {
+        private Instant now = Instant.parse("2024-06-01T12:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.dsi.storage.client.minio;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class UploadSourceTest {
+
+    @Test
+    void buffersSmallObjectsOfKnownSizeExactly() throws Exception {
+        byte[] content = randomBytes(1000);
+        UploadSource source = UploadSource.of(new ByteArrayInputStream(content), content.length, 4096);
+
+        assertTrue(source.isBuffered());
+        assertArrayEquals(content, source.buffer());
+        assertEquals(content.length, source.length());
+        assertEquals(content.length, source.size());
+    }
+
+    @Test
+    void streamsLargeObjectsOfKnownSizeWithoutReadingThem() throws Exception {
+        InputStream data = new ByteArrayInputStream(randomBytes(5000));
+        UploadSource source = UploadSource.of(data, 5000, 4096);
+
+        assertFalse(source.isBuffered());
+        assertEquals(5000, source.size());
+        assertEquals(5000, data.available());
+        assertTrue(source.isReplayable());
+        assertSame(data, source.stream());
+        assertFalse(source.isReplayable());
+    }
+
+    @Test
+    void rejectsStreamsShorterThanTheirSize() {
+        assertThrows(EOFException.class, () -> UploadSource.of(new ByteArrayInputStream(new byte[10]), 20, 4096));
+    }
+
+    @Test
+    void buffersSmallObjectsOfUnknownSizeInAGrowingBuffer() throws Exception {
+        byte[] content = randomBytes(40_000);
+        UploadSource source = UploadSource.of(new ByteArrayInputStream(content), -1, 1024 * 1024);
+
+        assertTrue(source.isBuffered());
+        assertEquals(content.length, source.length());
+        assertEquals(content.length, source.size());
+        // The buffer doubled from 16 KB until the data fit, instead of being allocated at the limit
+        assertEquals(64 * 1024, source.buffer().length);
+        assertArrayEquals(content, Arrays.copyOf(source.buffer(), source.length()));
+        assertTrue(source.isReplayable());
+    }
+
+    @Test
+    void streamsLargeObjectsOfUnknownSizeIncludingTheBufferedPrefix() throws Exception {
+        byte[] content = randomBytes(10_000);
+        UploadSource source = UploadSource.of(new ByteArrayInputStream(content), -1, 4096);
+
+        assertFalse(source.isBuffered());
+        assertEquals(-1, source.size());
+        try (InputStream in = source.stream()) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,146 @@
+package com.dsi.storage.client.resilience;
+
+import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.client.memory.InMemoryStorageService;
+import com.dsi.storage.concurrent.StorageExecutor;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResilientStorageClientTest {
+    private static final byte[] CONTENT = {1, 2, 3};
+
+    private final InMemoryStorageService backend = new InMemoryStorageService(1024 * 1024);
+
+    @Test
+    void retriesTransientErrors() throws Exception {
+        String path = backend.upload("my-bucket/folder", new ByteArrayInputStream(CONTENT), "image/png");
+        FlakyClient flaky = new FlakyClient(backend, 2);
+        ResilientStorageClient client = new ResilientStorageClient(flaky, StorageExecutor.shared().executor(), settings(3, 0));
+
+        assertContent(client.download(path));
+        assertEquals(3, flaky.downloads.get());
+        assertEquals(2, client.stats().retries());
+
+        // A missing file is not a transient error
+        assertThrows(StorageException.class, () -> client.download("my-bucket/folder/missing"));
+        assertEquals(4, flaky.downloads.get());
+    }
+
+    @Test
+    void opensCircuitBreakerAfterFailures() throws Exception {
+        String path = backend.upload("my-bucket/folder", new ByteArrayInputStream(CONTENT), "image/png");
+        FlakyClient flaky = new FlakyClient(backend, Integer.MAX_VALUE);
+        ResilientStorageClient client = new ResilientStorageClient(flaky, StorageExecutor.shared().executor(), settings(1, 0));
+
+        for (int i = 0; i < 10; i++) {
+            assertThrows(StorageException.class, () -> client.download(path));
+        }
+        assertEquals("OPEN", client.stats().circuitState());
+        assertThrows(StorageException.class, () -> client.download(path));
+        assertEquals(10, flaky.downloads.get());
+        assertEquals(1, client.stats().rejected());
+    }
+
+    @Test
+    void failedUploadStreamsDoNotOpenCircuitBreaker() {
+        ResilientStorageClient client = new ResilientStorageClient(backend, StorageExecutor.shared().executor(), settings(1, 0));
+        InputStream broken = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Client disconnected");
+            }
+        };
+
+        for (int i = 0; i < 20; i++) {
+            assertThrows(StorageException.class, () -> client.upload("my-bucket/folder", broken, -1, "image/png"));
+        }
+        assertEquals("CLOSED", client.stats().circuitState());
+    }
+
+    @Test
+    void hedgesSlowDownloads() throws Exception {
+        String path = backend.upload("my-bucket/folder", new ByteArrayInputStream(CONTENT), "image/png");
+        // Every attempt runs on a thread of its own, named after the order it was submitted in
+        AtomicInteger attempts = new AtomicInteger();
+        Executor executor = runnable -> new Thread(runnable, "attempt-" + attempts.incrementAndGet()).start();
+        // The first attempt hangs until the download has returned, so only the hedge can answer it
+        CountDownLatch release = new CountDownLatch(1);
+        FlakyClient slow = new FlakyClient(backend, 0) {
+            @Override
+            public FileData download(String fullPathWithFileId) throws StorageException {
+                if (Thread.currentThread().getName().equals("attempt-1")) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return super.download(fullPathWithFileId);
+            }
+        };
+        ResilientStorageClient client = new ResilientStorageClient(slow, executor, settings(1, 0.95));
+
+        assertContent(client.download(path));
+        release.countDown();
+        assertEquals(2, attempts.get());
+        assertEquals(1, client.stats().hedges());
+        assertEquals(1, client.stats().hedgeWins());
+    }
+
+    private static ResilienceSettings settings(int maxAttempts, double hedgePercentile) {
+        return new ResilienceSettings(maxAttempts, Duration.ofMillis(1), Duration.ofMillis(5), hedgePercentile,
+                Duration.ofMillis(20), 0.1, 20, 0.5, Duration.ofMinutes(1));
+    }
+
+    private static void assertContent(FileData fileData) throws IOException {
+        try (InputStream in = fileData.inputStream()) {
+            assertArrayEquals(CONTENT, in.readAllBytes());
+        }
+    }
+
+    /**
+     * Fails the first downloads with a transient error.
+     */
+    private static class FlakyClient implements StorageClient {
+        private final StorageClient delegate;
+        private final int failures;
+        private final AtomicInteger downloads = new AtomicInteger();
+
+        FlakyClient(StorageClient delegate, int failures) {
+            this.delegate = delegate;
+            this.failures = failures;
+        }
+
+        @Override
+        public String upload(String fullPath, InputStream data, String contentType) throws StorageException {
+            return upload(fullPath, data, -1, contentType);
+        }
+
+        @Override
+        public String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+            return delegate.upload(fullPath, data, size, contentType);
+        }
+
+        @Override
+        public FileData download(String fullPathWithFileId) throws StorageException {
+            int download = downloads.incrementAndGet();
+            if (download <= failures) {
+                throw new StorageException("Download failed", new IOException("Connection reset"));
+            }
+            return delegate.download(fullPathWithFileId);
+        }
+    }
+}
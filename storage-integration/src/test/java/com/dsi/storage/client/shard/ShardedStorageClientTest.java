@@ -0,0 +1,211 @@
+package com.dsi.storage.client.shard;
+
+import com.dsi.storage.client.StorageClient;
+import com.dsi.storage.client.memory.InMemoryStorageService;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.dto.FileInfo;
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardedStorageClientTest {
+
+    private static final int FILES = 600;
+
+    @Test
+    void placesFilesByPath() throws Exception {
+        Map<String, InMemoryStorageService> shards = shards(3);
+        ShardedStorageClient client = client(shards);
+        List<String> paths = uploadAll(client);
+
+        for (InMemoryStorageService shard : shards.values()) {
+            assertTrue(count(shard) > FILES / 6, "shard holds " + count(shard) + " of " + FILES + " files");
+        }
+        for (String path : paths) {
+            assertContent(path, client.download(path));
+            assertEquals(1, shards.values().stream().filter(shard -> exists(shard, path)).count());
+        }
+        try (Stream<FileInfo> files = client.list("reports/2024")) {
+            assertEquals(FILES, files.count());
+        }
+
+        client.deleteAll(paths.subList(0, 100));
+        assertThrows(StorageException.class, () -> client.download(paths.get(0)));
+        assertEquals(FILES - 100, shards.values().stream().mapToLong(ShardedStorageClientTest::count).sum());
+    }
+
+    @Test
+    void addingAShardMovesOnlyTheFilesItTakesOver() throws Exception {
+        Map<String, InMemoryStorageService> shards = shards(3);
+        ShardedStorageClient client = client(shards);
+        List<String> paths = uploadAll(client);
+        Map<String, Long> before = new LinkedHashMap<>();
+        shards.forEach((name, shard) -> before.put(name, count(shard)));
+
+        InMemoryStorageService added = new InMemoryStorageService(16 * 1024 * 1024);
+        client.addShard("shard-3", added, List.of("reports")).join();
+
+        ShardStats stats = client.stats();
+        assertEquals(4, stats.shards());
+        assertFalse(stats.rebalancing());
+        assertEquals(count(added), stats.movedFiles());
+        assertTrue(stats.movedFiles() > FILES / 8 && stats.movedFiles() < FILES / 2, "moved " + stats.movedFiles() + " files");
+        // Files only leave the old shards, for the new one
+        for (Map.Entry<String, InMemoryStorageService> shard : shards.entrySet()) {
+            assertTrue(count(shard.getValue()) <= before.get(shard.getKey()));
+        }
+        for (String path : paths) {
+            assertContent(path, client.download(path));
+        }
+        try (Stream<FileInfo> files = client.list("reports")) {
+            assertEquals(FILES, files.count());
+        }
+    }
+
+    @Test
+    void readsFallBackToTheOldShardUntilTheRebalanceCompletes() throws Exception {
+        Map<String, InMemoryStorageService> shards = new LinkedHashMap<>();
+        boolean[] listingFails = {false};
+        shards.put("shard-0", new InMemoryStorageService(16 * 1024 * 1024) {
+            @Override
+            public Stream<FileInfo> list(String prefix) throws StorageException {
+                if (listingFails[0]) {
+                    throw new StorageException("Listing unavailable");
+                }
+                return super.list(prefix);
+            }
+        });
+        shards.put("shard-1", new InMemoryStorageService(16 * 1024 * 1024));
+        ShardedStorageClient client = client(shards);
+        List<String> paths = uploadAll(client);
+
+        listingFails[0] = true;
+        InMemoryStorageService added = new InMemoryStorageService(16 * 1024 * 1024);
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> client.addShard("shard-2", added, List.of("reports")).join());
+        assertInstanceOf(StorageException.class, error.getCause());
+        assertTrue(client.stats().rebalancing());
+        assertThrows(IllegalStateException.class, () -> client.addShard("shard-3", added, List.of("reports")));
+
+        // Files of shard-0 that belong to shard-2 have not been moved, and are read from shard-0
+        for (String path : paths) {
+            assertContent(path, client.download(path));
+        }
+        assertTrue(client.stats().fallbackReads() > 0);
+
+        listingFails[0] = false;
+        client.rebalance(List.of("reports")).join();
+        assertFalse(client.stats().rebalancing());
+        long fallbackReads = client.stats().fallbackReads();
+        for (String path : paths) {
+            assertContent(path, client.download(path));
+        }
+        assertEquals(fallbackReads, client.stats().fallbackReads());
+    }
+
+    @Test
+    void resumesARebalanceAfterRestart() throws Exception {
+        Map<String, InMemoryStorageService> shards = shards(3);
+        List<String> paths = uploadAll(client(shards));
+
+        // Restarted with a fourth shard whose files have not been moved yet
+        List<String> previousShards = List.copyOf(shards.keySet());
+        InMemoryStorageService added = new InMemoryStorageService(16 * 1024 * 1024);
+        shards.put("shard-3", added);
+        ShardedStorageClient client = new ShardedStorageClient(new LinkedHashMap<String, StorageClient>(shards), previousShards, 128,
+                Executors.newCachedThreadPool(), 4);
+        assertTrue(client.stats().rebalancing());
+        for (String path : paths) {
+            assertContent(path, client.download(path));
+        }
+        assertTrue(client.stats().fallbackReads() > 0);
+
+        client.rebalance(List.of("reports")).join();
+        assertFalse(client.stats().rebalancing());
+        assertEquals(count(added), client.stats().movedFiles());
+        assertTrue(count(added) > 0);
+        assertThrows(IllegalArgumentException.class, () -> new ShardedStorageClient(new LinkedHashMap<String, StorageClient>(shards),
+                List.of("shard-9"), 128, Executors.newCachedThreadPool(), 4));
+    }
+
+    @Test
+    void ringMovesAboutOneNthOfTheKeys() {
+        ConsistentHashRing ring = new ConsistentHashRing(List.of("a", "b", "c", "d"), 128);
+        ConsistentHashRing grown = ring.with("e");
+        int moved = 0;
+        for (int i = 0; i < 100_000; i++) {
+            String key = "bucket/folder/" + i;
+            String owner = grown.owner(key);
+            if (!owner.equals(ring.owner(key))) {
+                assertEquals("e", owner);
+                moved++;
+            }
+        }
+        assertTrue(moved > 15_000 && moved < 25_000, "moved " + moved + " keys");
+        assertEquals(ring.owner("bucket/folder/x"), new ConsistentHashRing(List.of("d", "c", "b", "a"), 128).owner("bucket/folder/x"));
+    }
+
+    private static Map<String, InMemoryStorageService> shards(int count) {
+        Map<String, InMemoryStorageService> shards = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            shards.put("shard-" + i, new InMemoryStorageService(16 * 1024 * 1024));
+        }
+        return shards;
+    }
+
+    private static ShardedStorageClient client(Map<String, InMemoryStorageService> shards) {
+        return new ShardedStorageClient(new LinkedHashMap<String, StorageClient>(shards), 128, Executors.newCachedThreadPool(), 4);
+    }
+
+    private static List<String> uploadAll(ShardedStorageClient client) throws StorageException {
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < FILES; i++) {
+            byte[] content = ("report " + i).getBytes(StandardCharsets.UTF_8);
+            String path = client.upload("reports/2024", new ByteArrayInputStream(content), content.length, "text/plain");
+            client.uploadTo(path, new ByteArrayInputStream(path.getBytes(StandardCharsets.UTF_8)), -1, "text/plain");
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    private static long count(InMemoryStorageService shard) {
+        try (Stream<FileInfo> files = shard.list("reports")) {
+            return files.count();
+        } catch (StorageException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static boolean exists(InMemoryStorageService shard, String path) {
+        try {
+            shard.download(path).inputStream().close();
+            return true;
+        } catch (StorageException | IOException e) {
+            return false;
+        }
+    }
+
+    private static void assertContent(String path, FileData data) throws IOException {
+        try (InputStream in = data.inputStream()) {
+            assertArrayEquals(path.getBytes(StandardCharsets.UTF_8), in.readAllBytes());
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.dsi.storage.client.spool;
+
+import com.dsi.storage.client.memory.InMemoryStorageService;
+import com.dsi.storage.concurrent.StorageExecutor;
+import com.dsi.storage.dto.FileData;
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteBehindStorageClientTest {
+    private static final String FORBIDDEN_CONTENT_TYPE = "application/x-forbidden";
+
+    @TempDir
+    Path spoolDir;
+
+    private volatile boolean backendAvailable;
+    // Files of this content type are not accepted by the backend while set
+    private volatile String heldContentType;
+    private final InMemoryStorageService backend = new InMemoryStorageService(16 * 1024 * 1024) {
+        @Override
+        public void uploadTo(String fullPathWithFileId, InputStream data, long size, String contentType) throws StorageException {
+            if (!backendAvailable || contentType.equals(heldContentType)) {
+                throw new StorageException("Backend unavailable", new ConnectException("Connection refused"));
+            }
+            if (contentType.equals(FORBIDDEN_CONTENT_TYPE)) {
+                throw new StorageException("Access denied", new AccessDeniedException(fullPathWithFileId));
+            }
+            super.uploadTo(fullPathWithFileId, data, size, contentType);
+        }
+    };
+
+    @Test
+    void servesSpooledFilesUntilTheyAreFlushed() throws Exception {
+        try (WriteBehindStorageClient client = newClient()) {
+            byte[] content = randomBytes(200_000);
+            String path = client.upload("images/icons", new ByteArrayInputStream(content), content.length, "image/png");
+
+            assertTrue(path.startsWith("images/icons/"));
+            assertThrows(StorageException.class, () -> backend.download(path));
+            assertContent(content, client.download(path));
+            FileData range = client.download(path, 1000, 500);
+            assertEquals(200_000, range.totalSize());
+            try (InputStream in = range.inputStream()) {
+                assertArrayEquals(Arrays.copyOfRange(content, 1000, 1500), in.readAllBytes());
+            }
+            assertEquals(1, client.stats().pendingFiles());
+
+            backendAvailable = true;
+            assertTrue(client.awaitFlushed(Duration.ofSeconds(10)));
+            assertContent(content, backend.download(path));
+            assertContent(content, client.download(path));
+
+            SpoolStats stats = client.stats();
+            assertEquals(0, stats.pendingBytes());
+            assertEquals(1, stats.flushed());
+            assertEquals(0, stats.lagMillis());
+            assertEquals(0, stats.segments());
+        }
+    }
+
+    @Test
+    void replaysUnflushedFilesAfterRestart() throws Exception {
+        List<String> paths = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        try (WriteBehindStorageClient client = newClient()) {
+            for (int i = 0; i < 3; i++) {
+                byte[] content = randomBytes(50_000 + i);
+                contents.add(content);
+                paths.add(client.upload("exports/daily", new ByteArrayInputStream(content), -1, "text/csv"));
+            }
+        }
+        // A record torn by a crash at the end of the segment is discarded
+        try (Stream<Path> files = Files.list(spoolDir);
+             FileChannel segment = FileChannel.open(files.findFirst().orElseThrow(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            segment.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 40, 1, 2, 3}));
+        }
+
+        backendAvailable = true;
+        try (WriteBehindStorageClient client = newClient()) {
+            assertTrue(client.awaitFlushed(Duration.ofSeconds(10)));
+            for (int i = 0; i < paths.size(); i++) {
+                assertContent(contents.get(i), backend.download(paths.get(i)));
+            }
+            assertEquals(3, client.stats().flushed());
+        }
+    }
+
+    @Test
+    void doesNotReplayFlushedFilesAfterRestart() throws Exception {
+        heldContentType = "text/csv";
+        String deleted;
+        String replaced;
+        String held;
+        try (WriteBehindStorageClient client = newClient()) {
+            deleted = client.upload("exports/daily", new ByteArrayInputStream(new byte[100]), 100, "image/png");
+            replaced = client.upload("exports/daily", new ByteArrayInputStream(new byte[]{1}), 1, "image/png");
+            held = client.upload("exports/daily", new ByteArrayInputStream(new byte[]{3}), 1, "text/csv");
+            backendAvailable = true;
+            while (client.stats().flushed() < 2) {
+                Thread.sleep(1);
+            }
+            assertTrue(client.deleteAll(List.of(deleted)).isSuccessful());
+            client.uploadTo(replaced, new ByteArrayInputStream(new byte[]{2}), 1, "image/png");
+            while (client.stats().flushed() < 3) {
+                Thread.sleep(1);
+            }
+            // The held file keeps the segment of the flushed ones
+            assertEquals(1, client.stats().segments());
+        }
+
+        heldContentType = null;
+        try (WriteBehindStorageClient client = newClient()) {
+            assertTrue(client.awaitFlushed(Duration.ofSeconds(10)));
+            assertEquals(1, client.stats().flushed());
+            assertThrows(StorageException.class, () -> backend.download(deleted));
+            assertContent(new byte[]{2}, backend.download(replaced));
+            assertContent(new byte[]{3}, backend.download(held));
+        }
+    }
+
+    @Test
+    void deletedFilesAreNotFlushed() throws Exception {
+        try (WriteBehindStorageClient client = newClient()) {
+            String path = client.upload("images/icons", new ByteArrayInputStream(new byte[100]), 100, "image/png");
+            assertTrue(client.deleteAll(List.of(path)).isSuccessful());
+
+            backendAvailable = true;
+            assertTrue(client.awaitFlushed(Duration.ofSeconds(10)));
+            assertThrows(StorageException.class, () -> client.download(path));
+            assertEquals(0, client.stats().flushed());
+        }
+    }
+
+    @Test
+    void movesFilesFailingPermanentlyToTheDeadLetterDirectory() throws Exception {
+        byte[] content = randomBytes(1000);
+        String forbidden;
+        try (WriteBehindStorageClient client = newClient()) {
+            forbidden = client.upload("exports/daily", new ByteArrayInputStream(content), content.length, FORBIDDEN_CONTENT_TYPE);
+            String allowed = client.upload("exports/daily", new ByteArrayInputStream(content), content.length, "text/csv");
+
+            backendAvailable = true;
+            assertTrue(client.awaitFlushed(Duration.ofSeconds(10)));
+            assertContent(content, backend.download(allowed));
+            SpoolStats stats = client.stats();
+            assertEquals(1, stats.flushed());
+            assertEquals(1, stats.deadLettered());
+            assertEquals(0, stats.pendingBytes());
+        }
+
+        Path deadLetters = spoolDir.resolve("dead-letter");
+        Path properties;
+        try (Stream<Path> files = Files.list(deadLetters)) {
+            properties = files.filter(file -> file.toString().endsWith(".properties")).findFirst().orElseThrow();
+        }
+        Properties deadLetter = new Properties();
+        try (InputStream in = Files.newInputStream(properties)) {
+            deadLetter.load(in);
+        }
+        assertEquals(forbidden, deadLetter.getProperty("path"));
+        assertEquals(FORBIDDEN_CONTENT_TYPE, deadLetter.getProperty("content-type"));
+        String dataFile = properties.getFileName().toString().replace(".properties", ".data");
+        assertArrayEquals(content, Files.readAllBytes(deadLetters.resolve(dataFile)));
+
+        // A dead-lettered file is not replayed
+        try (WriteBehindStorageClient client = newClient()) {
+            assertEquals(0, client.stats().pendingFiles());
+        }
+    }
+
+    @Test
+    void rejectsInvalidPathsBeforeSpooling() throws Exception {
+        backendAvailable = true;
+        try (WriteBehindStorageClient client = newClient()) {
+            assertThrows(StorageException.class,
+                    () -> client.uploadTo("images", new ByteArrayInputStream(new byte[10]), 10, "image/png"));
+            assertThrows(StorageException.class,
+                    () -> client.uploadTo("Images/icons/file-1", new ByteArrayInputStream(new byte[10]), 10, "image/png"));
+            assertEquals(0, client.stats().pendingFiles());
+
+            client.uploadTo("images/icons/file-1", new ByteArrayInputStream(new byte[10]), 10, "image/png");
+            assertTrue(client.awaitFlushed(Duration.ofSeconds(10)));
+            assertContent(new byte[10], backend.download("images/icons/file-1"));
+        }
+    }
+
+    private WriteBehindStorageClient newClient() {
+        return new WriteBehindStorageClient(backend, spoolDir, StorageExecutor.shared().executor(), 1024 * 1024, 4, false);
+    }
+
+    private static void assertContent(byte[] expected, FileData data) throws IOException {
+        try (InputStream in = data.inputStream()) {
+            assertArrayEquals(expected, in.readAllBytes());
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
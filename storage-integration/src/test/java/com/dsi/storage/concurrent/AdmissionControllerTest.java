@@ -0,0 +1,112 @@
+package com.dsi.storage.concurrent;
+
+import com.dsi.storage.client.memory.InMemoryStorageService;
+import com.dsi.storage.core.StorageService;
+import com.dsi.storage.exception.StorageException;
+import com.dsi.storage.exception.StorageRejectedException;
+import com.dsi.storage.metrics.StorageMetrics;
+import com.dsi.storage.metrics.StorageOperation;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdmissionControllerTest {
+
+    @Test
+    void limitsEachBucketSeparately() throws Exception {
+        AdmissionController controller = new AdmissionController(1024 * 1024, 64 * 1024, 2, 10, Duration.ofMillis(50));
+        AdmissionController.Permit first = controller.admit("tenant-a", 1000);
+        AdmissionController.Permit second = controller.admit("tenant-a", 1000);
+
+        // The busy bucket waits for a slot, while other buckets are still admitted
+        assertThrows(StorageRejectedException.class, () -> controller.admit("tenant-a", 1000));
+        controller.admit("tenant-b", 1000).close();
+
+        first.close();
+        first.close();
+        controller.admit("tenant-a", 1000).close();
+        second.close();
+
+        AdmissionStats stats = controller.stats();
+        assertEquals(4, stats.admitted());
+        assertEquals(1, stats.rejectedTimeout());
+        assertEquals(0, stats.inFlightUploads());
+        assertEquals(0, stats.inFlightBytes());
+        assertEquals(5, stats.waitTime().count());
+    }
+
+    @Test
+    void queuesUploadsUntilTheBudgetIsFree() throws Exception {
+        AdmissionController controller = new AdmissionController(100 * 1024, 64 * 1024, 10, 1, Duration.ofSeconds(10));
+        // Unknown sizes are charged the maximum upload size
+        AdmissionController.Permit large = controller.admit("tenant-a", -1);
+        assertEquals(64 * 1024, controller.stats().inFlightBytes());
+
+        CompletableFuture<AdmissionController.Permit> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return controller.admit("tenant-b", 50 * 1024);
+            } catch (StorageException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        while (controller.stats().queued() == 0) {
+            Thread.sleep(1);
+        }
+        // The queue is full, so another upload is rejected right away
+        assertThrows(StorageRejectedException.class, () -> controller.admit("tenant-c", 50 * 1024));
+        assertFalse(waiting.isDone());
+
+        large.close();
+        waiting.get(5, TimeUnit.SECONDS).close();
+        AdmissionStats stats = controller.stats();
+        assertEquals(1, stats.waited());
+        assertEquals(1, stats.rejectedQueueFull());
+        assertEquals(0, stats.queued());
+    }
+
+    @Test
+    void reportsRejectedUploadsOfStorageService() throws Exception {
+        CountDownLatch uploading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InMemoryStorageService backend = new InMemoryStorageService(1024 * 1024) {
+            @Override
+            public String upload(String fullPath, InputStream data, long size, String contentType) throws StorageException {
+                uploading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.upload(fullPath, data, size, contentType);
+            }
+        };
+        AdmissionController controller = new AdmissionController(1024 * 1024, 64 * 1024, 1, 10, Duration.ofMillis(20));
+        StorageService storageService = new StorageService(backend, StorageExecutor.shared(), 4, controller);
+        StorageMetrics metrics = new StorageMetrics();
+        storageService.setListener(metrics);
+
+        CompletableFuture<String> slow = storageService.uploadAsync("tenant-a/files",
+                new ByteArrayInputStream(new byte[100]), 100, "text/plain");
+        assertTrue(uploading.await(5, TimeUnit.SECONDS));
+        assertThrows(StorageRejectedException.class,
+                () -> storageService.upload("tenant-a/files", new ByteArrayInputStream(new byte[100]), 100, "text/plain"));
+        release.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, storageService.admissionStats().rejected());
+        assertEquals(Map.of("tenant-a", 1L), metrics.admissionRejections());
+        assertEquals(2, metrics.admissionWait().count());
+        assertEquals(Map.of("StorageRejectedException", 1L), metrics.operation(StorageOperation.UPLOAD).errors());
+    }
+}
@@ -0,0 +1,118 @@
+package com.dsi.storage.concurrent;
+
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchExecutorTest {
+
+    @Test
+    void returnsResultsInTheOrderOfTheOperations() {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<StorageCallable<Integer>> operations = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                int index = i;
+                // Later operations complete first
+                operations.add(() -> {
+                    sleep(5L * (8 - index));
+                    return index;
+                });
+            }
+
+            BatchResult<Integer> result = BatchExecutor.runAll(operations, executor, 8);
+
+            assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7), result.results());
+            assertTrue(result.errors().isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void reportsTheErrorOfEachFailedOperationByIndex() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            StorageException failure = new StorageException("Access denied");
+            IllegalStateException unexpected = new IllegalStateException("Broken stream");
+            List<StorageCallable<String>> operations = List.of(
+                    () -> "first",
+                    () -> {
+                        throw failure;
+                    },
+                    () -> "third",
+                    () -> {
+                        throw unexpected;
+                    });
+
+            BatchResult<String> result = BatchExecutor.runAll(operations, executor, 2);
+
+            assertEquals(Arrays.asList("first", null, "third", null), result.results());
+            assertEquals(Set.of(1, 3), result.errors().keySet());
+            assertSame(failure, result.error(1));
+            // Errors other than StorageException are wrapped
+            assertInstanceOf(StorageException.class, result.error(3));
+            assertSame(unexpected, result.error(3).getCause());
+            assertNull(result.error(0));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void runsAtMostTheGivenNumberOfOperationsAtATime() {
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            List<StorageCallable<Integer>> operations = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                int index = i;
+                operations.add(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleep(10);
+                    running.decrementAndGet();
+                    return index;
+                });
+            }
+
+            BatchResult<Integer> result = BatchExecutor.runAll(operations, executor, 3);
+
+            assertEquals(20, result.results().size());
+            assertTrue(result.errors().isEmpty());
+            assertTrue(maxRunning.get() <= 3, "at most 3 operations should run at a time, but " + maxRunning.get() + " did");
+            assertEquals(0, running.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void rejectsNonPositiveParallelism() {
+        assertThrows(IllegalArgumentException.class,
+                () -> BatchExecutor.runAll(List.<StorageCallable<String>>of(() -> "file"), Runnable::run, 0));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.dsi.storage.concurrent;
+
+import com.dsi.storage.buffer.BufferPool;
+import com.dsi.storage.client.memory.InMemoryStorageService;
+import com.dsi.storage.dto.FileData;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ParallelDownloaderTest {
+    private final InMemoryStorageService backend = new InMemoryStorageService(4 * 1024 * 1024);
+    private final BufferPool bufferPool = new BufferPool(8 * 1024 * 1024, Duration.ofSeconds(5));
+    private final ParallelDownloader downloader =
+            new ParallelDownloader(backend, StorageExecutor.shared().executor(), bufferPool, 50_000, 3);
+
+    @Test
+    void writesChunksIntoFileChannel() throws Exception {
+        byte[] content = content(1_234_567);
+        String path = backend.upload("my-bucket/videos", new ByteArrayInputStream(content), content.length, "video/mp4");
+
+        Path file = Files.createTempFile("parallel", ".bin");
+        try {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                assertEquals(content.length, downloader.downloadTo(path, channel));
+            }
+            assertArrayEquals(content, Files.readAllBytes(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    void rejectsChunksLargerThanTheBufferPool() {
+        assertThrows(IllegalArgumentException.class, () -> new ParallelDownloader(backend, StorageExecutor.shared().executor(),
+                bufferPool, 16 * 1024 * 1024, 3));
+    }
+
+    @Test
+    void streamsChunksInOrder() throws Exception {
+        byte[] content = content(1_000_001);
+        String path = backend.upload("my-bucket/videos", new ByteArrayInputStream(content), content.length, "video/mp4");
+
+        FileData fileData = downloader.download(path);
+        assertEquals(content.length, fileData.size());
+        assertEquals("video/mp4", fileData.contentType());
+        try (InputStream in = fileData.inputStream()) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+        assertEquals(0, bufferPool.stats().inUseBytes());
+
+        // Closing before the end gives back the buffers of the chunks read ahead
+        try (InputStream in = downloader.download(path).inputStream()) {
+            in.readNBytes(10);
+        }
+        Thread.sleep(200);
+        assertEquals(0, bufferPool.stats().inUseBytes());
+    }
+
+    private static byte[] content(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+}
@@ -0,0 +1,92 @@
+package com.dsi.storage.concurrent;
+
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageExecutorTest {
+
+    @Test
+    void blocksSubmittersAtTheInFlightLimit() throws Exception {
+        ExecutorService threads = Executors.newCachedThreadPool();
+        try {
+            StorageExecutor executor = new StorageExecutor(threads, 2);
+            CountDownLatch release = new CountDownLatch(1);
+            StorageCallable<String> blocked = () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return "done";
+            };
+            CompletableFuture<String> first = executor.submit(blocked);
+            CompletableFuture<String> second = executor.submit(blocked);
+            assertEquals(2, executor.inFlight());
+
+            CountDownLatch submitted = new CountDownLatch(1);
+            CompletableFuture<CompletableFuture<String>> third = CompletableFuture.supplyAsync(() -> {
+                CompletableFuture<String> future = executor.submit(() -> "third");
+                submitted.countDown();
+                return future;
+            }, threads);
+            assertFalse(submitted.await(100, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            assertEquals("done", first.get(5, TimeUnit.SECONDS));
+            assertEquals("done", second.get(5, TimeUnit.SECONDS));
+            assertEquals("third", third.get(5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS));
+            while (executor.inFlight() > 0) {
+                Thread.sleep(1);
+            }
+            assertEquals(2, executor.maxInFlight());
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void completesWithTheStorageExceptionOfTheOperation() {
+        StorageExecutor executor = new StorageExecutor(Runnable::run, 1);
+        StorageException failure = new StorageException("Bucket not found");
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> executor.submit(() -> {
+            throw failure;
+        }).get());
+        assertSame(failure, error.getCause());
+        assertEquals(0, executor.inFlight());
+
+        CompletionException joined = assertThrows(CompletionException.class, () -> StorageExecutor.supplyAsync(() -> {
+            throw failure;
+        }, Runnable::run).join());
+        assertSame(failure, joined.getCause());
+    }
+
+    @Test
+    void releasesTheSlotOfRejectedOperations() throws Exception {
+        StorageExecutor executor = new StorageExecutor(runnable -> {
+            throw new RejectedExecutionException("Shut down");
+        }, 1);
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> executor.submit(() -> "never").get());
+        assertInstanceOf(StorageException.class, error.getCause());
+        assertEquals(0, executor.inFlight());
+        assertTrue(executor.submit(() -> "never").isCompletedExceptionally());
+        assertThrows(IllegalArgumentException.class, () -> new StorageExecutor(Runnable::run, 0));
+    }
+}
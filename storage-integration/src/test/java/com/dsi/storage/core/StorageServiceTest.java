@@ -0,0 +1,59 @@
+package com.dsi.storage.core;
+
+import com.dsi.storage.buffer.BufferPool;
+import com.dsi.storage.client.memory.InMemoryStorageService;
+import com.dsi.storage.concurrent.StorageExecutor;
+import com.dsi.storage.dto.BatchResult;
+import com.dsi.storage.dto.UploadRequest;
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageServiceTest {
+
+    @Test
+    void uploadsBatchesInRequestOrderWithAnErrorPerFailedFile() throws Exception {
+        StorageService storageService = new StorageService(new InMemoryStorageService(1024 * 1024), StorageExecutor.shared(), 2);
+        List<UploadRequest> requests = List.of(
+                new UploadRequest("my-bucket/images", new ByteArrayInputStream(new byte[]{1}), 1, "image/png"),
+                new UploadRequest("my-bucket/images", new ByteArrayInputStream(new byte[]{2}), null),
+                new UploadRequest("my-bucket/videos", new ByteArrayInputStream(new byte[]{3, 3}), 2, "video/mp4"),
+                new UploadRequest("Invalid_Bucket/images", new ByteArrayInputStream(new byte[]{4}), 1, "image/png"),
+                new UploadRequest("my-bucket/docs", new ByteArrayInputStream(new byte[]{5}), "text/plain"));
+
+        BatchResult<String> result = storageService.uploadAll(requests);
+
+        // Requests failing validation and requests failing in the client are reported at their own index
+        assertEquals(5, result.results().size());
+        assertEquals(Set.of(1, 3), result.errors().keySet());
+        assertNull(result.result(1));
+        assertNull(result.result(3));
+        assertContent(storageService, result.result(0), "my-bucket/images/", new byte[]{1});
+        assertContent(storageService, result.result(2), "my-bucket/videos/", new byte[]{3, 3});
+        assertContent(storageService, result.result(4), "my-bucket/docs/", new byte[]{5});
+    }
+
+    @Test
+    void reportsTheUsageOfTheSharedBufferPool() {
+        StorageService storageService = new StorageService(new InMemoryStorageService(1024 * 1024), StorageExecutor.shared(), 2);
+        assertEquals(BufferPool.shared().stats().capacityBytes(), storageService.bufferPoolStats().capacityBytes());
+    }
+
+    private static void assertContent(StorageService storageService, String path, String prefix, byte[] content)
+            throws StorageException, IOException {
+        assertTrue(path.startsWith(prefix), path);
+        try (InputStream in = storageService.download(path).inputStream()) {
+            assertArrayEquals(content, in.readAllBytes());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.dsi.storage.metrics;
+
+import com.dsi.storage.client.memory.InMemoryStorageService;
+import com.dsi.storage.concurrent.StorageExecutor;
+import com.dsi.storage.core.StorageService;
+import com.dsi.storage.exception.StorageException;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StorageMetricsTest {
+
+    @Test
+    void histogramPercentilesStayWithinBucketError() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        LatencySnapshot snapshot = histogram.snapshot();
+        assertEquals(100_000, snapshot.count());
+        assertEquals(100_000_000, snapshot.max());
+        assertWithin(50_000_000, snapshot.p50());
+        assertWithin(99_000_000, snapshot.p99());
+        assertWithin(99_900_000, snapshot.p999());
+    }
+
+    @Test
+    void recordsOperationsOfStorageService() throws Exception {
+        StorageService storageService = new StorageService(new InMemoryStorageService(1024 * 1024), StorageExecutor.shared(), 4);
+        StorageMetrics metrics = new StorageMetrics();
+        storageService.setListener(metrics);
+
+        String path = storageService.upload("my-bucket/images", new ByteArrayInputStream(new byte[5000]), "image/png");
+        try (InputStream in = storageService.download(path).inputStream()) {
+            in.readAllBytes();
+        }
+        assertThrows(StorageException.class, () -> storageService.download("my-bucket/images/missing"));
+
+        OperationMetrics uploads = metrics.operation(StorageOperation.UPLOAD, "my-bucket");
+        assertEquals(1, uploads.succeeded());
+        assertEquals(5000, uploads.bytes());
+
+        OperationMetrics downloads = metrics.operation(StorageOperation.DOWNLOAD);
+        assertEquals(1, downloads.succeeded());
+        assertEquals(1, downloads.failed());
+        assertEquals(0, downloads.inFlight());
+        assertEquals(5000, downloads.bytes());
+        assertEquals(1, downloads.timeToFirstByte().count());
+        assertEquals(Map.of("StorageNotFoundException", 1L), downloads.errors());
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected * 0.0625, "expected about " + expected + " but was " + actual);
+    }
+}
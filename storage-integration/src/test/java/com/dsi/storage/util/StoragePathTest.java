@@ -0,0 +1,90 @@
+package com.dsi.storage.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StoragePathTest {
+
+    // The regex based rules StoragePath replaces
+    private static final String MINIO_BUCKET_NAME_REGEX = "^(?!xn--)(?!.*\\.-)(?!.*--)(?!.*\\.\\.)[a-z0-9](?:[a-z0-9\\-]*[a-z0-9])?$";
+
+    private static boolean regexMinioBucketName(String name) {
+        return name.matches(MINIO_BUCKET_NAME_REGEX) && !name.endsWith("-s3alias")
+                && !name.matches("^\\d{1,3}(\\.\\d{1,3}){3}$");
+    }
+
+    private static String[] regexSplit(String path, boolean trimSegments) {
+        String[] parts = path.trim().replaceAll("/+", "/").replaceAll("^/|/$", "").split("/");
+        if (trimSegments) {
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = parts[i].trim();
+            }
+        }
+        return parts;
+    }
+
+    @Test
+    void normalizesPaths() {
+        StoragePath path = StoragePath.ofUpload(" //my-bucket///folder1/ folder2 //");
+        assertEquals("my-bucket/folder1/folder2", path.path());
+        assertEquals("my-bucket", path.bucket());
+        assertEquals("folder1/folder2", path.objectPath());
+        assertArrayEquals(new String[]{"my-bucket", "folder1", "folder2"}, path.segments());
+        assertTrue(path.hasMinioSegments());
+
+        StoragePath single = StoragePath.ofDownload("my-bucket");
+        assertEquals("", single.objectPath());
+        assertEquals("my-bucket", single.fileId());
+    }
+
+    @Test
+    void reusesNormalizedInput() {
+        String input = "random/for/test";
+        assertSame(input, StoragePath.ofDownload(input).path());
+        assertSame(StoragePath.ofUpload(input), StoragePath.ofUpload(input));
+    }
+
+    @Test
+    void validatesSegments() {
+        assertFalse(StoragePath.ofUpload("my-bucket/xn--abc").hasMinioSegments());
+        assertFalse(StoragePath.ofUpload("my-bucket/a--b").hasMinioSegments());
+        assertFalse(StoragePath.ofUpload("my-bucket/bucket-s3alias").hasMinioSegments());
+        assertFalse(StoragePath.ofUpload("My-Bucket/folder").hasMinioSegments());
+        assertFalse(StoragePath.ofUpload("ab/folder").hasValidSegments());
+        assertTrue(StoragePath.ofDownload("my-bucket/folder/File_ID.txt").hasMinioParentSegments());
+        assertFalse(StoragePath.ofDownload("my-bucket/folder/File_ID.txt").hasMinioSegments());
+    }
+
+    @Test
+    void matchesRegexRules() {
+        Random random = new Random(7);
+        String alphabet = "ab0-./ _Xx";
+        for (int n = 0; n < 20_000; n++) {
+            StringBuilder builder = new StringBuilder();
+            int length = random.nextInt(24);
+            for (int i = 0; i < length; i++) {
+                builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            String input = builder.toString();
+
+            for (boolean upload : new boolean[]{true, false}) {
+                String[] expected = regexSplit(input, upload);
+                StoragePath path = upload ? StoragePath.ofUpload(input) : StoragePath.ofDownload(input);
+                assertArrayEquals(expected, path.segments(), input);
+                assertEquals(String.join("/", expected), path.path(), input);
+                assertEquals(Arrays.stream(expected).allMatch(StoragePathTest::regexMinioBucketName), path.hasMinioSegments(), input);
+                assertEquals(Arrays.stream(expected).allMatch(s -> s.length() >= 3 && s.length() <= 63), path.hasValidSegments(), input);
+                assertEquals(Arrays.stream(expected, 0, expected.length - 1).allMatch(StoragePathTest::regexMinioBucketName),
+                        path.hasMinioParentSegments(), input);
+            }
+        }
+    }
+}
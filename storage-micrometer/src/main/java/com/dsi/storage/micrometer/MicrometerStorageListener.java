@@ -0,0 +1,143 @@
+package com.dsi.storage.micrometer;
+
+import com.dsi.storage.core.StorageService;
+import com.dsi.storage.metrics.StorageListener;
+import com.dsi.storage.metrics.StorageOperation;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.BaseUnits;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A StorageListener recording the events of StorageService as Micrometer meters:
+ * - storage.operations: a timer per operation, bucket and outcome, with percentile histograms.
+ * - storage.download.first.byte: a timer of the time to first byte of downloads per bucket.
+ * - storage.transferred: a distribution summary of the bytes per operation and bucket.
+ * - storage.errors: a counter per operation and cause.
+ * - storage.in.flight: a gauge of the operations running per operation.
+ * - storage.admission.wait: a timer of the time uploads waited for admission per bucket and outcome.
+ * - storage.admission.queued and storage.admission.in.flight.bytes: gauges registered by {@link #bindAdmission}.
+ * Meters are looked up once per tag combination and then reused.
+ */
+public class MicrometerStorageListener implements StorageListener {
+    private static final String BATCH = "*";
+
+    private final MeterRegistry registry;
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<StorageOperation, AtomicLong> inFlight = new EnumMap<>(StorageOperation.class);
+
+    public MicrometerStorageListener(MeterRegistry registry) {
+        this.registry = registry;
+        for (StorageOperation operation : StorageOperation.values()) {
+            AtomicLong gauge = new AtomicLong();
+            inFlight.put(operation, gauge);
+            Gauge.builder("storage.in.flight", gauge, AtomicLong::get)
+                    .tag("operation", tagOf(operation))
+                    .description("Storage operations currently running")
+                    .register(registry);
+        }
+    }
+
+    @Override
+    public void onStart(StorageOperation operation, String bucket) {
+        inFlight.get(operation).incrementAndGet();
+    }
+
+    @Override
+    public void onSuccess(StorageOperation operation, String bucket, long durationNanos) {
+        inFlight.get(operation).decrementAndGet();
+        operationTimer(operation, bucket, "success").record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onFailure(StorageOperation operation, String bucket, long durationNanos, Throwable error) {
+        inFlight.get(operation).decrementAndGet();
+        operationTimer(operation, bucket, "failure").record(durationNanos, TimeUnit.NANOSECONDS);
+        String cause = StorageListener.causeOf(error);
+        counters.computeIfAbsent(tagOf(operation) + '|' + cause, key -> Counter.builder("storage.errors")
+                .tag("operation", tagOf(operation))
+                .tag("cause", cause)
+                .description("Failed storage operations by cause")
+                .register(registry)).increment();
+    }
+
+    @Override
+    public void onFirstByte(String bucket, long nanosSinceStart) {
+        String bucketTag = (bucket != null) ? bucket : BATCH;
+        timers.computeIfAbsent("first-byte|" + bucketTag, key -> Timer.builder("storage.download.first.byte")
+                .tag("bucket", bucketTag)
+                .publishPercentileHistogram()
+                .description("Time from the start of a download until its first byte was read")
+                .register(registry)).record(nanosSinceStart, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void onTransferred(StorageOperation operation, String bucket, long bytes) {
+        String bucketTag = (bucket != null) ? bucket : BATCH;
+        summaries.computeIfAbsent(tagOf(operation) + '|' + bucketTag, key -> DistributionSummary.builder("storage.transferred")
+                .tag("operation", tagOf(operation))
+                .tag("bucket", bucketTag)
+                .baseUnit(BaseUnits.BYTES)
+                .description("Bytes uploaded or downloaded")
+                .register(registry)).record(bytes);
+    }
+
+    @Override
+    public void onAdmission(String bucket, long waitNanos, boolean admitted) {
+        String bucketTag = (bucket != null) ? bucket : BATCH;
+        String outcome = admitted ? "admitted" : "rejected";
+        timers.computeIfAbsent("admission|" + bucketTag + '|' + outcome, key -> Timer.builder("storage.admission.wait")
+                .tag("bucket", bucketTag)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .description("Time uploads waited to be admitted")
+                .register(registry)).record(waitNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registers gauges of the uploads waiting for admission and of the bytes charged to the uploads in flight,
+     * if the service has admission control enabled with STORAGE_ADMISSION_BYTES.
+     */
+    public void bindAdmission(StorageService storageService) {
+        if (storageService.admissionStats() == null) {
+            return;
+        }
+        Gauge.builder("storage.admission.queued", storageService, service -> service.admissionStats().queued())
+                .description("Uploads waiting to be admitted")
+                .register(registry);
+        Gauge.builder("storage.admission.in.flight.bytes", storageService, service -> service.admissionStats().inFlightBytes())
+                .baseUnit(BaseUnits.BYTES)
+                .description("Bytes charged to the uploads in flight against the admission budget")
+                .register(registry);
+        Gauge.builder("storage.admission.budget.bytes", storageService, service -> service.admissionStats().budgetBytes())
+                .baseUnit(BaseUnits.BYTES)
+                .description("Maximum bytes of the uploads in flight")
+                .register(registry);
+    }
+
+    private Timer operationTimer(StorageOperation operation, String bucket, String outcome) {
+        String bucketTag = (bucket != null) ? bucket : BATCH;
+        return timers.computeIfAbsent(tagOf(operation) + '|' + bucketTag + '|' + outcome, key -> Timer.builder("storage.operations")
+                .tag("operation", tagOf(operation))
+                .tag("bucket", bucketTag)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .description("Duration of storage operations")
+                .register(registry));
+    }
+
+    private static String tagOf(StorageOperation operation) {
+        return operation.name().toLowerCase();
+    }
+}